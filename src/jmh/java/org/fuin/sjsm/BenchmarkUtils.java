@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+/**
+ * Helper methods for the benchmarks.
+ */
+final class BenchmarkUtils {
+
+    private BenchmarkUtils() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Creates a configuration for an unauthenticated SMTP server.
+     *
+     * @param host
+     *            Host.
+     * @param port
+     *            Port.
+     *
+     * @return New configuration.
+     */
+    static Config createConfig(final String host, final int port) {
+        final Config config = new Config();
+        config.setHost(host);
+        config.setPort(port);
+        config.setUser("myaccount");
+        config.setPw("mypw");
+        config.setFrom("from.not.exist@no-where-no-no.com");
+        config.setSubject("Benchmark");
+        config.setCharset("utf-8");
+        config.setSmtp(true);
+        config.setTimeout(5000);
+        config.setNoauth(true);
+        return config;
+    }
+
+    /**
+     * Creates a message body.
+     *
+     * @param size
+     *            Approximate number of characters.
+     * @param html
+     *            {@literal true} for an HTML body, else plain text.
+     *
+     * @return Message body.
+     */
+    static String createBody(final int size, final boolean html) {
+        final String line = html ? "<p>The quick brown fox jumps over the lazy dog äöü</p>\n"
+                : "The quick brown fox jumps over the lazy dog äöü\n";
+        final StringBuilder sb = new StringBuilder(size + line.length());
+        if (html) {
+            sb.append("<html><body>\n");
+        }
+        while (sb.length() < size) {
+            sb.append(line);
+        }
+        if (html) {
+            sb.append("</body></html>\n");
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Benchmark for building, saving and encoding a message with text or HTML
+ * bodies of different sizes compared to writing a pre-encoded message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    @Param({ "false", "true" })
+    public boolean html;
+
+    @Param({ "100", "10000", "1000000" })
+    public int bodySize;
+
+    private Config config;
+
+    private Session session;
+
+    private EncodedMessage encoded;
+
+    @Setup
+    public void setup() {
+        config = BenchmarkUtils.createConfig("localhost", 25);
+        config.setHtml(html);
+        config.setReceiver("jane.doe@no-where-no-no.com;john.doe@no-where-no-no.com");
+        config.setMessage(BenchmarkUtils.createBody(bodySize, html));
+        session = config.createSession();
+        try {
+            final MimeMessage msg = config.createMimeMessage(session);
+            msg.saveChanges();
+            encoded = EncodedMessage.encode(msg);
+        } catch (final MessagingException ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    @Benchmark
+    public MimeMessage createMimeMessage() {
+        return config.createMimeMessage(session);
+    }
+
+    @Benchmark
+    public MimeMessage createAndSave() throws MessagingException {
+        final MimeMessage msg = config.createMimeMessage(session);
+        msg.saveChanges();
+        return msg;
+    }
+
+    @Benchmark
+    public MimeMessage createSaveAndWrite() throws MessagingException, IOException {
+        final MimeMessage msg = config.createMimeMessage(session);
+        msg.saveChanges();
+        msg.writeTo(OutputStream.nullOutputStream());
+        return msg;
+    }
+
+    @Benchmark
+    public MimeMessage encodedNewMessageAndWrite() throws MessagingException, IOException {
+        final MimeMessage msg = encoded.newMessage(session, Map.of("To", "jane.doe@no-where-no-no.com"));
+        msg.writeTo(OutputStream.nullOutputStream());
+        return msg;
+    }
+
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import jakarta.mail.Address;
+
+/**
+ * Benchmark for parsing the receiver list with the split-and-convert helpers
+ * compared to the single pass {@link RecipientParser}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RecipientBenchmark {
+
+    @Param({ "1", "10", "100", "1000", "10000" })
+    public int recipients;
+
+    private String receiver;
+
+    private List<String> extracted;
+
+    @Setup
+    public void setup() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < recipients; i++) {
+            if (i > 0) {
+                sb.append(';');
+            }
+            sb.append("receiver.number").append(i).append("@no-where-no-no.com");
+        }
+        receiver = sb.toString();
+        extracted = Config.extractRecipients(receiver);
+    }
+
+    @Benchmark
+    public List<String> extractRecipients() {
+        return Config.extractRecipients(receiver);
+    }
+
+    @Benchmark
+    public Address[] convertToInternetAddress() {
+        return Config.convertToInternetAddress(extracted);
+    }
+
+    @Benchmark
+    public Address[] extractAndConvert() {
+        return Config.convertToInternetAddress(Config.extractRecipients(receiver));
+    }
+
+    @Benchmark
+    public Recipients recipientParser() {
+        return new RecipientParser().parse(receiver).toRecipients();
+    }
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.icegreen.greenmail.store.FolderException;
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+/**
+ * End-to-end benchmark sending a message to an in-process SMTP server: Once
+ * with a new connection per message and once over a reused connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SendBenchmark {
+
+    private GreenMail greenMail;
+
+    private PrintStream out;
+
+    private Config config;
+
+    private BatchSender batchSender;
+
+    private BatchRecord record;
+
+    @Setup
+    public void setup() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+        config = BenchmarkUtils.createConfig("localhost", greenMail.getSmtp().getPort());
+        config.setReceiver("jane.doe@no-where-no-no.com");
+        config.setMessage(BenchmarkUtils.createBody(1000, false));
+        batchSender = new BatchSender(config);
+        record = BatchRecord.of(config);
+        // Sending prints a line for every message
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+        batchSender.close();
+        greenMail.stop();
+    }
+
+    @TearDown(Level.Iteration)
+    public void purge() throws FolderException {
+        greenMail.purgeEmailFromAllMailboxes();
+    }
+
+    @Benchmark
+    public void sendNewConnection() {
+        new SendMailApp().send(config);
+    }
+
+    @Benchmark
+    public void sendReusedConnection() {
+        batchSender.send(record);
+    }
+
+}
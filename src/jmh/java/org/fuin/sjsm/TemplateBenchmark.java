@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark for rendering the mail merge templates of a single data row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateBenchmark {
+
+    private Template receiver;
+
+    private Template subject;
+
+    private Template message;
+
+    private String[] values;
+
+    private StringBuilder buf;
+
+    @Setup
+    public void setup() {
+        final List<String> names = new ArrayList<>();
+        receiver = Template.compile("${email}", names);
+        subject = Template.compile("Your invoice ${invoice}", names);
+        message = Template.compile(BenchmarkUtils.createBody(2000, false)
+                + "Dear ${name}, please pay ${amount} EUR until ${date}.\n"
+                + BenchmarkUtils.createBody(2000, false), names);
+        values = new String[] { "jane.doe@no-where-no-no.com", "2024-0815", "Jane Doe", "12.50", "2024-12-31" };
+        buf = new StringBuilder();
+    }
+
+    @Benchmark
+    public String[] renderRow() {
+        return new String[] { render(receiver), render(subject), render(message) };
+    }
+
+    private String render(final Template template) {
+        buf.setLength(0);
+        template.render(buf, values);
+        return buf.toString();
+    }
+
+}
@@ -0,0 +1,357 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.net.SocketTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+import com.sun.mail.smtp.SMTPSenderFailedException;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * Limits the number of SMTP sessions in flight and adapts the limit to the
+ * server using "additive increase, multiplicative decrease". The limit starts
+ * at one and doubles with every successful round trip until the server signals
+ * an overload (slow start). Then it grows by one for every round trip as long
+ * as the latency stays healthy. An overload (SMTP reply 421, 450 or 451 or a
+ * timeout) halves the limit, at most once per round trip. Instances are
+ * thread-safe.
+ */
+public final class AdaptiveLimiter {
+
+    /** A round trip is "healthy" as long as the latency is below this multiple of the minimal latency. */
+    private static final double LATENCY_TOLERANCE = 2.0;
+
+    /** Weight of a new latency sample for the smoothed latency. */
+    private static final double SMOOTHING = 0.1;
+
+    private static final Pattern RESPONSE_CODE = Pattern.compile("response: (\\d{3})");
+
+    /**
+     * Result of a send operation.
+     */
+    public enum Outcome {
+
+        /** Message was sent. */
+        SUCCESS,
+
+        /** Server is overloaded or did not answer in time. */
+        OVERLOAD,
+
+        /** Failed for a reason that does not say anything about the server load. */
+        IGNORE
+
+    }
+
+    private final int maxLimit;
+
+    private final ReentrantLock lock;
+
+    private final Condition changed;
+
+    private double limit;
+
+    private boolean slowStart;
+
+    private int inFlight;
+
+    private long minLatency;
+
+    private double smoothedLatency;
+
+    private long lastDecrease;
+
+    private int decreases;
+
+    /**
+     * Constructor with upper bound.
+     *
+     * @param maxLimit
+     *            Maximal number of sessions in flight.
+     */
+    public AdaptiveLimiter(final int maxLimit) {
+        super();
+        if (maxLimit < 1) {
+            throw new IllegalArgumentException("Expected maxLimit > 0, but was: " + maxLimit);
+        }
+        this.maxLimit = maxLimit;
+        this.lock = new ReentrantLock();
+        this.changed = lock.newCondition();
+        this.limit = 1;
+        this.slowStart = true;
+        this.minLatency = Long.MAX_VALUE;
+        this.lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * Waits until a session may be started.
+     *
+     * @throws InterruptedException
+     *             The thread was interrupted while waiting.
+     */
+    public void acquire() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight >= (int) limit) {
+                changed.await();
+            }
+            inFlight++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Ends a session and adapts the limit.
+     *
+     * @param latencyNanos
+     *            Duration of the session in nanoseconds.
+     * @param outcome
+     *            Result of the session.
+     */
+    public void release(final long latencyNanos, final Outcome outcome) {
+        release(System.nanoTime(), latencyNanos, outcome);
+    }
+
+    /**
+     * Ends a session and adapts the limit.
+     *
+     * @param now
+     *            Current time in nanoseconds.
+     * @param latencyNanos
+     *            Duration of the session in nanoseconds.
+     * @param outcome
+     *            Result of the session.
+     */
+    void release(final long now, final long latencyNanos, final Outcome outcome) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (outcome == Outcome.SUCCESS) {
+                minLatency = Math.min(minLatency, latencyNanos);
+                smoothedLatency = smoothedLatency == 0 ? latencyNanos
+                        : smoothedLatency + SMOOTHING * (latencyNanos - smoothedLatency);
+                if (smoothedLatency <= LATENCY_TOLERANCE * minLatency) {
+                    // One more session per round trip or twice the sessions in slow start
+                    limit = Math.min(maxLimit, limit + (slowStart ? 1 : 1 / limit));
+                } else {
+                    slowStart = false;
+                }
+            } else if (outcome == Outcome.OVERLOAD) {
+                // Sessions started before the decrease may still fail: Only decrease once per round trip
+                if (now - lastDecrease >= smoothedLatency) {
+                    limit = Math.max(1, limit / 2);
+                    slowStart = false;
+                    lastDecrease = now;
+                    decreases++;
+                }
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Waits until no session is in flight.
+     *
+     * @throws InterruptedException
+     *             The thread was interrupted while waiting.
+     */
+    public void awaitIdle() throws InterruptedException {
+        lock.lock();
+        try {
+            while (inFlight > 0) {
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current limit.
+     *
+     * @return Number of sessions allowed in flight.
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return (int) limit;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the number of sessions currently in flight.
+     *
+     * @return Active sessions.
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the smoothed latency of successful sessions.
+     *
+     * @return Latency in milliseconds.
+     */
+    public long getLatencyMillis() {
+        lock.lock();
+        try {
+            return TimeUnit.NANOSECONDS.toMillis((long) smoothedLatency);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the minimal latency of successful sessions.
+     *
+     * @return Latency in milliseconds or 0 if nothing was sent yet.
+     */
+    public long getMinLatencyMillis() {
+        lock.lock();
+        try {
+            return minLatency == Long.MAX_VALUE ? 0 : TimeUnit.NANOSECONDS.toMillis(minLatency);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns how often the limit was decreased because of an overload.
+     *
+     * @return Number of decreases.
+     */
+    public int getDecreases() {
+        lock.lock();
+        try {
+            return decreases;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Adaptive limit: " + getLimit() + " sessions (max " + maxLimit + ", latency " + getLatencyMillis()
+                + " ms, min " + getMinLatencyMillis() + " ms, " + getDecreases() + " decreases)";
+    }
+
+    /**
+     * Classifies a failure.
+     *
+     * @param ex
+     *            Exception thrown by sending.
+     *
+     * @return {@link Outcome#OVERLOAD} if the server replied with 421, 450 or
+     *         451 or did not answer in time, else {@link Outcome#IGNORE}.
+     */
+    public static Outcome classify(final Throwable ex) {
+        Throwable current = ex;
+        int depth = 0;
+        while (current != null && depth++ < 20) {
+            if (current instanceof SocketTimeoutException) {
+                return Outcome.OVERLOAD;
+            }
+            if (isOverloadCode(returnCode(current))) {
+                return Outcome.OVERLOAD;
+            }
+            // The cause of a messaging exception is the next exception of the chain
+            current = current.getCause();
+        }
+        return Outcome.IGNORE;
+    }
+
+    /**
+     * Classifies the result of a session.
+     *
+     * @param result
+     *            Result per receiver.
+     *
+     * @return {@link Outcome#SUCCESS} if the message was sent to all
+     *         receivers, {@link Outcome#OVERLOAD} if the server replied with
+     *         421, 450 or 451 to any of them, else {@link Outcome#IGNORE}.
+     */
+    public static Outcome classify(final SendResult result) {
+        if (result.getReplyCodes().stream().anyMatch(AdaptiveLimiter::isOverloadCode)) {
+            return Outcome.OVERLOAD;
+        }
+        return result.isSuccess() ? Outcome.SUCCESS : Outcome.IGNORE;
+    }
+
+    /**
+     * Returns the first SMTP reply code found in the exception chain.
+     *
+     * @param ex
+     *            Exception thrown by connecting or sending.
+     *
+     * @return Reply code or -1 if there is none.
+     */
+    static int replyCode(final Throwable ex) {
+        Throwable current = ex;
+        int depth = 0;
+        while (current != null && depth++ < 20) {
+            final int code = returnCode(current);
+            if (code > 0) {
+                return code;
+            }
+            current = current.getCause();
+        }
+        return -1;
+    }
+
+    private static int returnCode(final Throwable ex) {
+        if (ex instanceof SMTPSendFailedException) {
+            return ((SMTPSendFailedException) ex).getReturnCode();
+        }
+        if (ex instanceof SMTPAddressFailedException) {
+            return ((SMTPAddressFailedException) ex).getReturnCode();
+        }
+        if (ex instanceof SMTPSenderFailedException) {
+            return ((SMTPSenderFailedException) ex).getReturnCode();
+        }
+        if (ex instanceof MessagingException && ex.getMessage() != null) {
+            // Connect failures like a bad greeting only have the code in the text
+            final Matcher matcher = RESPONSE_CODE.matcher(ex.getMessage());
+            if (matcher.find()) {
+                return Integer.parseInt(matcher.group(1));
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isOverloadCode(final int code) {
+        return code == 421 || code == 450 || code == 451;
+    }
+
+}
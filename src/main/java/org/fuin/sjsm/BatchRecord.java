@@ -0,0 +1,239 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.StringReader;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.StringJoiner;
+
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonObjectBuilder;
+import jakarta.json.JsonReader;
+import jakarta.mail.Address;
+
+/**
+ * Single message of a batch. All values are optional and override the
+ * corresponding value of the base configuration.
+ */
+public final class BatchRecord {
+
+    private final String subject;
+
+    private final String receiver;
+
+    private final String message;
+
+    private final Boolean html;
+
+    private final Boolean important;
+
+    /**
+     * Constructor with all data.
+     *
+     * @param subject
+     *            Message subject or {@literal null}.
+     * @param receiver
+     *            Receiver(s) separated with a semicolon or {@literal null}.
+     * @param message
+     *            Text or HTML message or {@literal null}.
+     * @param html
+     *            HTML flag or {@literal null}.
+     * @param important
+     *            Important (X-Priority) flag or {@literal null}.
+     */
+    public BatchRecord(final String subject, final String receiver, final String message, final Boolean html,
+            final Boolean important) {
+        super();
+        this.subject = subject;
+        this.receiver = receiver;
+        this.message = message;
+        this.html = html;
+        this.important = important;
+    }
+
+    /**
+     * Returns the message subject.
+     *
+     * @return Message subject or {@literal null}.
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * Returns the receiver.
+     *
+     * @return Receiver(s) or {@literal null}.
+     */
+    public String getReceiver() {
+        return receiver;
+    }
+
+    /**
+     * Returns the message body.
+     *
+     * @return Text or HTML message or {@literal null}.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the HTML flag.
+     *
+     * @return HTML flag or {@literal null}.
+     */
+    public Boolean getHtml() {
+        return html;
+    }
+
+    /**
+     * Returns the important (X-Priority) flag.
+     *
+     * @return Important flag or {@literal null}.
+     */
+    public Boolean getImportant() {
+        return important;
+    }
+
+    /**
+     * Creates a copy of the given configuration with all values of this record
+     * applied.
+     *
+     * @param base
+     *            Base configuration with connection settings and defaults.
+     *
+     * @return New configuration instance.
+     */
+    public Config applyTo(final Config base) {
+        Objects.requireNonNull(base, "base == null");
+        final Config config = new Config(base);
+        if (subject != null) {
+            config.setSubject(subject);
+        }
+        if (receiver != null) {
+            config.setReceiver(receiver);
+        }
+        if (message != null) {
+            config.setMessage(message);
+        }
+        if (html != null) {
+            config.setHtml(html);
+        }
+        if (important != null) {
+            config.setImportant(important);
+        }
+        return config;
+    }
+
+    /**
+     * Creates a copy of this record that is sent to other receivers.
+     *
+     * @param receivers
+     *            Receivers of the copy.
+     *
+     * @return New record instance.
+     */
+    public BatchRecord withReceivers(final Collection<? extends Address> receivers) {
+        Objects.requireNonNull(receivers, "receivers == null");
+        final StringJoiner joiner = new StringJoiner(";");
+        for (final Address address : receivers) {
+            joiner.add(address.toString());
+        }
+        return new BatchRecord(subject, joiner.toString(), message, html, important);
+    }
+
+    /**
+     * Returns the record as JSON object in the format expected by
+     * {@link #parse(String)}.
+     *
+     * @return JSON object with all values that are not {@literal null}.
+     */
+    public String toJson() {
+        final JsonObjectBuilder builder = Json.createObjectBuilder();
+        if (subject != null) {
+            builder.add("subject", subject);
+        }
+        if (receiver != null) {
+            builder.add("to", receiver);
+        }
+        if (message != null) {
+            builder.add("message", message);
+        }
+        if (html != null) {
+            builder.add("html", html);
+        }
+        if (important != null) {
+            builder.add("important", important);
+        }
+        return builder.build().toString();
+    }
+
+    /**
+     * Creates a record with the message values of a configuration.
+     *
+     * @param config
+     *            Configuration to take subject, receiver, message, HTML and
+     *            important flag from.
+     *
+     * @return New record instance.
+     */
+    public static BatchRecord of(final Config config) {
+        Objects.requireNonNull(config, "config == null");
+        return new BatchRecord(config.getSubject(), config.getReceiver(), config.getMessage(), config.isHtml(),
+                config.getImportant());
+    }
+
+    /**
+     * Parses a single JSON object like
+     * <code>{ "subject": "...", "to": "...", "message": "...", "html": true, "important": false }</code>.
+     *
+     * @param json
+     *            JSON object to parse.
+     *
+     * @return New record instance.
+     */
+    public static BatchRecord parse(final String json) {
+        Objects.requireNonNull(json, "json == null");
+        try (final JsonReader reader = Json.createReader(new StringReader(json))) {
+            final JsonObject obj = reader.readObject();
+            return new BatchRecord(string(obj, "subject"), string(obj, "to"), string(obj, "message"),
+                    bool(obj, "html"), bool(obj, "important"));
+        } catch (final JsonException | ClassCastException ex) {
+            throw new RuntimeException("Failed to parse batch record: " + json, ex);
+        }
+    }
+
+    private static String string(final JsonObject obj, final String name) {
+        if (!obj.containsKey(name) || obj.isNull(name)) {
+            return null;
+        }
+        return obj.getString(name);
+    }
+
+    private static Boolean bool(final JsonObject obj, final String name) {
+        if (!obj.containsKey(name) || obj.isNull(name)) {
+            return null;
+        }
+        return obj.getBoolean(name);
+    }
+
+}
@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Objects;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Sends multiple messages over one connected transport. The connection is
+ * opened with the first message and only re-established if the server dropped
+ * it. If additional relays are configured, every message is sent over its own
+ * connection to a relay of a {@link RelayGroup} instead, so the load is shared
+ * and a failing relay is taken over by the others. Instances are not
+ * thread-safe.
+ */
+public final class BatchSender implements AutoCloseable {
+
+    private final Config config;
+
+    private final Session session;
+
+    private final MessageCache cache;
+
+    private final RateLimiter limiter;
+
+    private final ChunkedSender chunked;
+
+    private final RelayGroup relays;
+
+    private Transport transport;
+
+    private int sent;
+
+    private int failed;
+
+    /**
+     * Constructor with connection configuration.
+     *
+     * @param config
+     *            Configuration with the connection settings and the defaults
+     *            for all messages.
+     */
+    public BatchSender(final Config config) {
+        super();
+        this.config = Objects.requireNonNull(config, "config == null");
+        this.session = config.getSession();
+        this.cache = new MessageCache(config.isEncodeOnce());
+        this.limiter = RateLimiter.of(config);
+        this.chunked = new ChunkedSender(config.getMaxRcpt(), config.getRetries(), config.getRetryDelay());
+        this.relays = config.getRelays().isEmpty() ? null : RelayGroup.of(config);
+    }
+
+    /**
+     * Sends all records read line by line from the reader. Empty lines are
+     * ignored. A failing record is reported to {@link System#err} and does not
+     * stop the batch.
+     *
+     * @param reader
+     *            Reader with one JSON object per line.
+     *
+     * @throws IOException
+     *             Error reading the input.
+     */
+    public void sendAll(final BufferedReader reader) throws IOException {
+        Objects.requireNonNull(reader, "reader == null");
+        sendAll(new JsonLinesReader(reader));
+    }
+
+    /**
+     * Sends all records of the record reader. A failing record is reported to
+     * {@link System#err} and does not stop the batch.
+     *
+     * @param records
+     *            Source of the records.
+     *
+     * @throws IOException
+     *             Error reading the input.
+     */
+    public void sendAll(final RecordReader records) throws IOException {
+        Objects.requireNonNull(records, "records == null");
+        while (true) {
+            try {
+                final BatchRecord record = records.read();
+                if (record == null) {
+                    return;
+                }
+                send(record);
+                sent++;
+            } catch (final RuntimeException ex) {
+                failed++;
+                System.err.println(ex.getMessage());
+                if (ex.getCause() != null) {
+                    System.err.println("    " + ex.getCause());
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a single record over the shared connection.
+     *
+     * @param record
+     *            Record to apply to the base configuration.
+     */
+    public void send(final BatchRecord record) {
+        Objects.requireNonNull(record, "record == null");
+        final Config msgConfig = record.applyTo(config);
+        final SendResult result = deliver(msgConfig);
+        if (!result.isSuccess()) {
+            throw new RuntimeException("Failed to send mail with subject '" + msgConfig.getSubject() + "' to "
+                    + result.getFailedCount() + " receivers: " + result);
+        }
+    }
+
+    /**
+     * Sends a single record over the shared connection and returns the result
+     * per receiver. Receivers that failed temporarily are retried as
+     * configured, all others are sent only once.
+     *
+     * @param record
+     *            Record to apply to the base configuration.
+     *
+     * @return Result per receiver.
+     */
+    public SendResult deliver(final BatchRecord record) {
+        Objects.requireNonNull(record, "record == null");
+        return deliver(record.applyTo(config));
+    }
+
+    private SendResult deliver(final Config msgConfig) {
+        final SendResult result;
+        try {
+            final MimeMessage msg = cache.create(msgConfig, session);
+            limiter.acquire();
+            result = sendMessage(msg);
+        } catch (final RuntimeException | MessagingException ex) {
+            throw new RuntimeException("Failed to send mail with subject '" + msgConfig.getSubject() + "' to "
+                    + msgConfig.getReceiver(), ex);
+        }
+        if (result.isSuccess()) {
+            System.out.println("Successfully sent message '" + msgConfig.getSubject() + "' to '"
+                    + msgConfig.getReceiver() + "'");
+        }
+        return result;
+    }
+
+    private SendResult sendMessage(final MimeMessage msg) throws MessagingException {
+        if (relays != null) {
+            return relays.send(chunked, msg);
+        }
+        if (transport == null) {
+            transport = session.getTransport(config.getTransportType());
+            Transports.connect(transport, config);
+        }
+        return chunked.send(transport, msg);
+    }
+
+    /**
+     * Returns the number of successfully sent messages of all
+     * {@link #sendAll(RecordReader)} calls.
+     *
+     * @return Sent message count.
+     */
+    public int getSent() {
+        return sent;
+    }
+
+    /**
+     * Returns the number of messages of all {@link #sendAll(RecordReader)}
+     * calls that could not be sent.
+     *
+     * @return Failed message count.
+     */
+    public int getFailed() {
+        return failed;
+    }
+
+    @Override
+    public void close() {
+        if (transport != null) {
+            try {
+                Transports.close(transport);
+            } catch (final MessagingException ex) {
+                System.err.println("Failed to close transport: " + ex.getMessage());
+            }
+        }
+    }
+
+}
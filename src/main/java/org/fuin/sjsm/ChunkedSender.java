@@ -0,0 +1,446 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Sends a message with many receivers in multiple SMTP transactions, each with
+ * at most the configured number of receivers. If the message is sent more than
+ * once (multiple chunks or a retry), it's serialized only once and the same
+ * bytes are sent for each transaction (unless it's streamed from a file). The
+ * results of all chunks
+ * are aggregated per receiver. Receivers that failed temporarily are retried
+ * with an exponential backoff, the others are never sent twice.
+ */
+public final class ChunkedSender {
+
+    /** Maximal delay between two retries. */
+    static final long MAX_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+
+    private final int maxRcpt;
+
+    private final int retries;
+
+    private final long retryDelay;
+
+    /**
+     * Constructor with chunk size and without retries.
+     *
+     * @param maxRcpt
+     *            Maximal number of receivers per transaction.
+     */
+    public ChunkedSender(final int maxRcpt) {
+        this(maxRcpt, 0, 0);
+    }
+
+    /**
+     * Constructor with chunk size and retries.
+     *
+     * @param maxRcpt
+     *            Maximal number of receivers per transaction or 0 for no
+     *            limit.
+     * @param retries
+     *            Maximal number of retries for receivers that failed
+     *            temporarily.
+     * @param retryDelay
+     *            Delay before the first retry in milliseconds. It doubles with
+     *            every further retry.
+     */
+    public ChunkedSender(final int maxRcpt, final int retries, final long retryDelay) {
+        super();
+        if (maxRcpt < 0) {
+            throw new IllegalArgumentException("Expected maxRcpt >= 0, but was: " + maxRcpt);
+        }
+        if (retries < 0) {
+            throw new IllegalArgumentException("Expected retries >= 0, but was: " + retries);
+        }
+        this.maxRcpt = maxRcpt == 0 ? Integer.MAX_VALUE : maxRcpt;
+        this.retries = retries;
+        this.retryDelay = Math.max(0, retryDelay);
+    }
+
+    /**
+     * Sends the message chunk by chunk over one connected transport. If the
+     * connection is lost and cannot be re-established, the remaining chunks
+     * are reported as unsent. Unsent receivers are retried.
+     *
+     * @param transport
+     *            Connected transport.
+     * @param msg
+     *            Message with all changes already saved.
+     *
+     * @return Result per receiver.
+     *
+     * @throws MessagingException
+     *             The message could not be serialized.
+     */
+    public SendResult send(final Transport transport, final MimeMessage msg) throws MessagingException {
+        Objects.requireNonNull(msg, "msg == null");
+        return send(transport, msg, msg.getAllRecipients());
+    }
+
+    /**
+     * Sends the message to some receivers chunk by chunk over one connected
+     * transport. Unsent receivers are retried as long as the transport is
+     * still connected.
+     *
+     * @param transport
+     *            Connected transport.
+     * @param msg
+     *            Message with all changes already saved.
+     * @param receivers
+     *            Receivers to send to instead of the ones of the message.
+     *
+     * @return Result per receiver.
+     *
+     * @throws MessagingException
+     *             The message could not be serialized.
+     */
+    public SendResult send(final Transport transport, final MimeMessage msg, final Address[] receivers)
+            throws MessagingException {
+        Objects.requireNonNull(transport, "transport == null");
+        Objects.requireNonNull(receivers, "receivers == null");
+        MimeMessage serialized = firstAttempt(msg, receivers);
+        SendResult result = sendChunks(transport, serialized, receivers);
+        for (int attempt = 1; attempt <= retries && !result.getUnsent().isEmpty(); attempt++) {
+            // Only checked after a failure as it costs a round trip
+            if (!transport.isConnected() || !sleep(attempt)) {
+                break;
+            }
+            serialized = serialize(serialized);
+            result = result.retried(sendChunks(transport, serialized, unsent(result)));
+        }
+        return result;
+    }
+
+    private SendResult sendChunks(final Transport transport, final MimeMessage serialized,
+            final Address[] recipients) {
+        final Results results = new Results();
+        final List<Address[]> chunks = split(recipients, maxRcpt);
+        for (int i = 0; i < chunks.size(); i++) {
+            final Address[] chunk = chunks.get(i);
+            try {
+                Transports.send(transport, serialized, chunk);
+                results.sent(chunk);
+            } catch (final SendFailedException ex) {
+                results.failed(chunk, ex);
+            } catch (final MessagingException | IllegalStateException ex) {
+                results.unsent(chunk, ex);
+                if (!transport.isConnected()) {
+                    for (int j = i + 1; j < chunks.size(); j++) {
+                        results.unsent(chunks.get(j), ex);
+                    }
+                    break;
+                }
+            }
+        }
+        return results.toResult();
+    }
+
+    /**
+     * Sends the chunks in parallel, each over a connection borrowed from the
+     * pool. Unsent receivers are retried.
+     *
+     * @param pool
+     *            Pool to borrow connections from.
+     * @param config
+     *            Connection configuration.
+     * @param msg
+     *            Message with all changes already saved.
+     * @param executor
+     *            Executor that sends the chunks. The number of threads limits
+     *            the parallel connections.
+     *
+     * @return Result per receiver.
+     *
+     * @throws MessagingException
+     *             The message could not be serialized.
+     */
+    public SendResult send(final TransportPool pool, final Config config, final MimeMessage msg,
+            final ExecutorService executor) throws MessagingException {
+        Objects.requireNonNull(pool, "pool == null");
+        Objects.requireNonNull(config, "config == null");
+        Objects.requireNonNull(executor, "executor == null");
+        MimeMessage serialized = firstAttempt(msg, msg.getAllRecipients());
+        SendResult result = send(pool, config, serialized, executor, msg.getAllRecipients());
+        for (int attempt = 1; attempt <= retries && !result.getUnsent().isEmpty(); attempt++) {
+            if (!sleep(attempt)) {
+                break;
+            }
+            serialized = serialize(serialized);
+            result = result.retried(send(pool, config, serialized, executor, unsent(result)));
+        }
+        return result;
+    }
+
+    private SendResult send(final TransportPool pool, final Config config, final MimeMessage serialized,
+            final ExecutorService executor, final Address[] recipients) {
+        final Results results = new Results();
+        final List<Future<?>> futures = new ArrayList<>();
+        for (final Address[] chunk : split(recipients, maxRcpt)) {
+            futures.add(executor.submit(() -> {
+                sendPooled(pool, config, serialized, chunk, results);
+                return null;
+            }));
+        }
+        for (final Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while sending chunks", ex);
+            } catch (final ExecutionException ex) {
+                throw new RuntimeException("Sending a chunk failed", ex.getCause());
+            }
+        }
+        return results.toResult();
+    }
+
+    private static void sendPooled(final TransportPool pool, final Config config, final MimeMessage msg,
+            final Address[] chunk, final Results results) {
+        try (final PooledTransport pooled = pool.borrow(config)) {
+            try {
+                Transports.send(pooled.getTransport(), msg, chunk);
+                results.sent(chunk);
+            } catch (final SendFailedException ex) {
+                results.failed(chunk, ex);
+            } catch (final MessagingException | IllegalStateException ex) {
+                if (!pooled.getTransport().isConnected()) {
+                    pooled.invalidate();
+                }
+                results.unsent(chunk, ex);
+            }
+        } catch (final MessagingException ex) {
+            results.unsent(chunk, ex);
+        }
+    }
+
+    private static Address[] unsent(final SendResult result) {
+        return result.getUnsent().keySet().toArray(new Address[0]);
+    }
+
+    /**
+     * Waits before a retry.
+     *
+     * @return {@literal false} if the thread was interrupted.
+     */
+    private boolean sleep(final int attempt) {
+        try {
+            Thread.sleep(retryDelay(retryDelay, attempt));
+            return true;
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Returns the delay before a retry.
+     *
+     * @param retryDelay
+     *            Delay before the first retry.
+     * @param attempt
+     *            Number of the retry starting with 1.
+     *
+     * @return Delay in milliseconds.
+     */
+    static long retryDelay(final long retryDelay, final int attempt) {
+        final int shift = Math.min(Math.max(attempt - 1, 0), 20);
+        return Math.min(retryDelay << shift, MAX_RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * Returns the message for the first attempt. A message sent in a single
+     * transaction is sent as it is, as encoding it first would only pay off if
+     * it's sent again. It's encoded only for multiple chunks or a retry.
+     */
+    private MimeMessage firstAttempt(final MimeMessage msg, final Address[] receivers)
+            throws MessagingException {
+        Objects.requireNonNull(msg, "msg == null");
+        if (receivers.length > maxRcpt) {
+            return serialize(msg);
+        }
+        return msg;
+    }
+
+    /**
+     * Creates a copy of the message that writes its pre-encoded bytes, so the
+     * content is encoded only once and can be written concurrently. A message
+     * streamed from a file is not copied, as reading the mapped file again is
+     * cheaper than holding it in memory.
+     */
+    private static MimeMessage serialize(final MimeMessage msg) throws MessagingException {
+        Objects.requireNonNull(msg, "msg == null");
+        if (EncodedMessage.isEncoded(msg) || isStreamed(msg)) {
+            return msg;
+        }
+        return EncodedMessage.encode(msg).newMessage(null);
+    }
+
+    /**
+     * Determines if the content of the message or any of its parts is read
+     * from a file.
+     *
+     * @param msg
+     *            Message to inspect.
+     *
+     * @return {@literal true} if the content is streamed.
+     *
+     * @throws MessagingException
+     *             Error reading the content.
+     */
+    static boolean isStreamed(final MimeMessage msg) throws MessagingException {
+        return MappedFileDataSource.mappedSize(msg) > 0;
+    }
+
+    /**
+     * Splits the receivers into chunks.
+     *
+     * @param addresses
+     *            Receivers to split.
+     * @param max
+     *            Maximal size of a chunk.
+     *
+     * @return Chunks in order of the receivers.
+     */
+    static List<Address[]> split(final Address[] addresses, final int max) {
+        final List<Address[]> chunks = new ArrayList<>(addresses.length / max + 1);
+        for (int i = 0; i < addresses.length; i += max) {
+            chunks.add(Arrays.copyOfRange(addresses, i, Math.min(i + max, addresses.length)));
+        }
+        return chunks;
+    }
+
+    /**
+     * Thread-safe collector of the receiver results.
+     */
+    private static final class Results {
+
+        private final List<Address> sent = new ArrayList<>();
+
+        private final Map<Address, String> unsent = new LinkedHashMap<>();
+
+        private final Map<Address, String> invalid = new LinkedHashMap<>();
+
+        private final Set<Integer> replyCodes = new LinkedHashSet<>();
+
+        synchronized void sent(final Address[] addresses) {
+            sent.addAll(Arrays.asList(addresses));
+        }
+
+        synchronized void unsent(final Address[] addresses, final Exception ex) {
+            final String reason = String.valueOf(ex.getMessage()).trim();
+            for (final Address address : addresses) {
+                unsent.put(address, reason);
+            }
+            replyCode(AdaptiveLimiter.replyCode(ex));
+        }
+
+        private void replyCode(final int code) {
+            if (code > 0) {
+                replyCodes.add(code);
+            }
+        }
+
+        synchronized void failed(final Address[] chunk, final SendFailedException ex) {
+            final Map<Address, SMTPAddressFailedException> reasons = reasons(ex);
+            final String defaultReason = String.valueOf(ex.getMessage()).trim();
+            // A permanent error for the whole transaction (like "554 Rejected") won't go away with a retry
+            final boolean permanent = ex instanceof SMTPSendFailedException
+                    && ((SMTPSendFailedException) ex).getReturnCode() >= 500;
+            replyCode(AdaptiveLimiter.replyCode(ex));
+            for (final SMTPAddressFailedException reason : reasons.values()) {
+                replyCode(reason.getReturnCode());
+            }
+            final Set<Address> known = new HashSet<>();
+            if (ex.getValidSentAddresses() != null) {
+                sent.addAll(Arrays.asList(ex.getValidSentAddresses()));
+                known.addAll(Arrays.asList(ex.getValidSentAddresses()));
+            }
+            if (ex.getValidUnsentAddresses() != null) {
+                for (final Address address : ex.getValidUnsentAddresses()) {
+                    final SMTPAddressFailedException reason = reasons.get(address);
+                    if (permanent || (reason != null && reason.getReturnCode() >= 500)) {
+                        invalid.put(address, reason == null ? defaultReason : text(reason));
+                    } else {
+                        unsent.put(address, reason == null ? defaultReason : text(reason));
+                    }
+                    known.add(address);
+                }
+            }
+            if (ex.getInvalidAddresses() != null) {
+                for (final Address address : ex.getInvalidAddresses()) {
+                    final SMTPAddressFailedException reason = reasons.get(address);
+                    invalid.put(address, reason == null ? defaultReason : text(reason));
+                    known.add(address);
+                }
+            }
+            // Receivers the exception doesn't know about were not sent
+            for (final Address address : chunk) {
+                if (!known.contains(address)) {
+                    unsent.put(address, defaultReason);
+                }
+            }
+        }
+
+        private static String text(final Exception ex) {
+            return String.valueOf(ex.getMessage()).trim();
+        }
+
+        private static Map<Address, SMTPAddressFailedException> reasons(final MessagingException ex) {
+            final Map<Address, SMTPAddressFailedException> reasons = new HashMap<>();
+            Exception next = ex.getNextException();
+            while (next != null) {
+                if (next instanceof SMTPAddressFailedException) {
+                    final SMTPAddressFailedException failed = (SMTPAddressFailedException) next;
+                    reasons.put(failed.getAddress(), failed);
+                }
+                next = next instanceof MessagingException ? ((MessagingException) next).getNextException() : null;
+            }
+            return reasons;
+        }
+
+        synchronized SendResult toResult() {
+            return new SendResult(sent, unsent, invalid, replyCodes);
+        }
+
+    }
+
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Sends each message on its own thread over its own connection. The number of
+ * SMTP sessions in flight is bounded by a semaphore. Virtual threads are used
+ * if the JVM supports them (Java 21 or later), otherwise platform threads.
+ */
+public final class ConcurrentSender {
+
+    private final Config config;
+
+    private final Session session;
+
+    private final MessageCache cache;
+
+    private final RateLimiter limiter;
+
+    private final RelayGroup relays;
+
+    private final ChunkedSender chunked;
+
+    private final int maxInFlight;
+
+    private final AdaptiveLimiter adaptive;
+
+    private final AtomicInteger sent;
+
+    private final AtomicInteger failed;
+
+    /**
+     * Constructor with configuration.
+     *
+     * @param config
+     *            Configuration with the connection settings and the defaults
+     *            for all messages. The number of concurrent sessions is taken
+     *            from {@link Config#getInFlight()}. It is the upper bound of an
+     *            adaptive limit if {@link Config#isAdaptive()} is set.
+     */
+    public ConcurrentSender(final Config config) {
+        super();
+        this.config = Objects.requireNonNull(config, "config == null");
+        this.session = config.getSession();
+        this.cache = new MessageCache(config.isEncodeOnce());
+        this.limiter = RateLimiter.of(config);
+        this.relays = RelayGroup.of(config);
+        this.chunked = new ChunkedSender(config.getMaxRcpt(), config.getRetries(), config.getRetryDelay());
+        this.maxInFlight = Math.max(1, config.getInFlight());
+        this.adaptive = config.isAdaptive() ? new AdaptiveLimiter(maxInFlight) : null;
+        this.sent = new AtomicInteger();
+        this.failed = new AtomicInteger();
+    }
+
+    /**
+     * Sends all records read line by line from the reader. Empty lines are
+     * ignored. A failing record is reported to {@link System#err} and does not
+     * stop the batch. Reading blocks while the maximal number of sessions is in
+     * flight. The method returns after all records are processed.
+     *
+     * @param reader
+     *            Reader with one JSON object per line.
+     *
+     * @throws IOException
+     *             Error reading the input.
+     */
+    public void sendAll(final BufferedReader reader) throws IOException {
+        Objects.requireNonNull(reader, "reader == null");
+        sendAll(new JsonLinesReader(reader));
+    }
+
+    /**
+     * Sends all records of the record reader. A failing record is reported to
+     * {@link System#err} and does not stop the batch. Reading blocks while the
+     * maximal number of sessions is in flight. The method returns after all
+     * records are processed.
+     *
+     * @param records
+     *            Source of the records.
+     *
+     * @throws IOException
+     *             Error reading the input.
+     */
+    public void sendAll(final RecordReader records) throws IOException {
+        Objects.requireNonNull(records, "records == null");
+        final Semaphore inFlight = new Semaphore(maxInFlight);
+        final ExecutorService executor = Threads.newPerTaskExecutor("sjsm-sender");
+        try {
+            while (true) {
+                final BatchRecord record;
+                try {
+                    record = records.read();
+                } catch (final RuntimeException ex) {
+                    failed(ex);
+                    continue;
+                }
+                if (record == null) {
+                    break;
+                }
+                if (adaptive == null) {
+                    inFlight.acquire();
+                    executor.execute(() -> {
+                        try {
+                            sendRecord(record, new Sample());
+                        } finally {
+                            inFlight.release();
+                        }
+                    });
+                } else {
+                    adaptive.acquire();
+                    executor.execute(() -> {
+                        final Sample sample = new Sample();
+                        try {
+                            sendRecord(record, sample);
+                        } finally {
+                            adaptive.release(sample.nanos, sample.outcome);
+                        }
+                    });
+                }
+            }
+            // Wait until all sessions are finished
+            if (adaptive == null) {
+                inFlight.acquire(maxInFlight);
+            } else {
+                adaptive.awaitIdle();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while sending batch", ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void sendRecord(final BatchRecord record, final Sample sample) {
+        try {
+            send(record, sample);
+            sent.incrementAndGet();
+        } catch (final RuntimeException ex) {
+            failed(ex);
+        }
+    }
+
+    private void failed(final RuntimeException ex) {
+        failed.incrementAndGet();
+        System.err.println(ex.getMessage());
+        if (ex.getCause() != null) {
+            System.err.println("    " + ex.getCause());
+        }
+    }
+
+    /**
+     * Connects, sends a single record and closes the connection.
+     *
+     * @param record
+     *            Record to apply to the base configuration.
+     */
+    public void send(final BatchRecord record) {
+        send(record, new Sample());
+    }
+
+    private void send(final BatchRecord record, final Sample sample) {
+        Objects.requireNonNull(record, "record == null");
+        final Config msgConfig = record.applyTo(config);
+        final SendResult result;
+        try {
+            final MimeMessage msg = cache.create(msgConfig, session);
+            limiter.acquire();
+            final long start = System.nanoTime();
+            try {
+                result = relays.send(chunked, msg);
+                sample.outcome = AdaptiveLimiter.classify(result);
+            } catch (final RuntimeException | MessagingException ex) {
+                sample.outcome = AdaptiveLimiter.classify(ex);
+                throw ex;
+            } finally {
+                sample.nanos = System.nanoTime() - start;
+            }
+        } catch (final RuntimeException | MessagingException ex) {
+            throw new RuntimeException("Failed to send mail with subject '" + msgConfig.getSubject() + "' to "
+                    + msgConfig.getReceiver(), ex);
+        }
+        if (!result.isSuccess()) {
+            throw new RuntimeException("Failed to send mail with subject '" + msgConfig.getSubject() + "' to "
+                    + result.getFailedCount() + " receivers: " + result);
+        }
+        System.out.println("Successfully sent message '" + msgConfig.getSubject() + "' to '"
+                + msgConfig.getReceiver() + "'");
+    }
+
+    /**
+     * Returns the number of successfully sent messages of all
+     * {@link #sendAll(RecordReader)} calls.
+     *
+     * @return Sent message count.
+     */
+    public int getSent() {
+        return sent.get();
+    }
+
+    /**
+     * Returns the number of messages of all {@link #sendAll(RecordReader)}
+     * calls that could not be sent.
+     *
+     * @return Failed message count.
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the adaptive limit of sessions in flight.
+     *
+     * @return Limiter or {@literal null} if the limit is fixed.
+     */
+    public AdaptiveLimiter getAdaptiveLimiter() {
+        return adaptive;
+    }
+
+    /**
+     * Duration and outcome of the relay call of a session. The time waiting
+     * for the rate limiter is not included.
+     */
+    private static final class Sample {
+
+        private long nanos;
+
+        private AdaptiveLimiter.Outcome outcome = AdaptiveLimiter.Outcome.IGNORE;
+
+    }
+
+}
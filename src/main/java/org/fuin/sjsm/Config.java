@@ -17,6 +17,13 @@
  */
 package org.fuin.sjsm;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 import jakarta.mail.*;
@@ -31,13 +38,16 @@ import org.kohsuke.args4j.Option;
  */
 public final class Config {
 
-    @Option(name = "-host", usage = "Host", metaVar = "HOST", required = true)
+    @Option(name = "-host", usage = "Host", metaVar = "HOST")
     private String host;
 
-    @Option(name = "-port", usage = "Port", metaVar = "PORT", required = true)
+    @Option(name = "-port", usage = "Port", metaVar = "PORT")
     private int port;
 
-    @Option(name = "-user", usage = "User", metaVar = "USER", required = true)
+    @Option(name = "-relay", usage = "Additional relay with the same settings that shares the load and takes over if a relay fails (can be used multiple times)", metaVar = "HOST[:PORT]")
+    private List<String> relays;
+
+    @Option(name = "-user", usage = "User", metaVar = "USER")
     private String user;
 
     @Option(name = "-pw", usage = "Password", metaVar = "PW")
@@ -46,29 +56,50 @@ public final class Config {
     @Option(name = "-envPw", usage = "Name of an environment variable that contains the password", metaVar = "ENV_PW")
     private String envPw;
 
-    @Option(name = "-from", usage = "Sender", metaVar = "SEND", required = true)
+    @Option(name = "-from", usage = "Sender", metaVar = "SEND")
     private String from;
 
-    @Option(name = "-to", usage = "Receiver", metaVar = "RCVR", required = true)
+    @Option(name = "-to", usage = "Receiver", metaVar = "RCVR")
     private String receiver;
 
-    @Option(name = "-subject", usage = "Subject", metaVar = "SUBJ", required = true)
+    @Option(name = "-toFile", forbids = { "-spool", "-client" }, usage = "File with additional receivers (one per line) for every message", metaVar = "FILE")
+    private String receiverFile;
+
+    /** Parsed content of the receiver file, shared by all copies. */
+    private Recipients fileRecipients;
+
+    @Option(name = "-subject", usage = "Subject", metaVar = "SUBJ")
     private String subject;
 
-    @Option(name = "-message", usage = "Text or HTML message", metaVar = "MSG", required = true)
+    @Option(name = "-message", usage = "Text or HTML message", metaVar = "MSG")
     private String message;
 
+    @Option(name = "-messageFile", forbids = { "-message", "-spool", "-client" }, usage = "File with the text or HTML message that is streamed to the server ('-' reads stdin)", metaVar = "FILE")
+    private String messageFile;
+
+    /** Mapped message file shared by all copies. */
+    private MappedFileDataSource messageSource;
+
+    @Option(name = "-attach", forbids = { "-spool", "-client" }, usage = "File that is attached to the message and streamed to the server (can be used multiple times)", metaVar = "FILE")
+    private List<String> attachments;
+
+    /** Mapped attachments shared by all copies. */
+    private List<MappedFileDataSource> attachmentSources;
+
     @Option(name = "-html", usage = "HTML message (otherwise TEXT)")
     private boolean html;
 
     @Option(name = "-charset", usage = "Message encoding (Defaults to UTF-8)")
-    private String charset = "UTF-8";
+    private String charset = MailMessage.DEFAULT_CHARSET;
 
     @Option(name = "-smtp", usage = "Use smtp (not smtps)")
     private boolean smtp;
 
+    @Option(name = "-pipelining", usage = "Pipeline the receivers and send the body with BDAT if the server supports PIPELINING or CHUNKING")
+    private boolean pipelining;
+
     @Option(name = "-timeout", usage = "Timeout millis (defaults to 5 seconds)", metaVar = "MILLIS")
-    private int timeout = 5000;
+    private int timeout = ConnectionSettings.DEFAULT_TIMEOUT;
 
     @Option(name = "-noauth", usage = "SMTP without authentication")
     private boolean noauth;
@@ -76,6 +107,163 @@ public final class Config {
     @Option(name = "-important", usage = "Send High Priority Email (X-Priority)")
     private boolean important;
 
+    @Option(name = "-batch", usage = "JSON lines file with one message per line ('-' reads from stdin)", metaVar = "FILE")
+    private String batch;
+
+    @Option(name = "-data", forbids = "-batch", usage = "CSV (with header line) or JSON lines file with the values for the ${name} placeholders in '-to', '-subject' and '-message' ('-' reads JSON lines from stdin)", metaVar = "FILE")
+    private String data;
+
+    @Option(name = "-poolMin", usage = "Minimal number of pooled connections (defaults to 0)", metaVar = "COUNT")
+    private int poolMin = 0;
+
+    @Option(name = "-poolMax", usage = "Maximal number of pooled connections used in parallel for a batch (defaults to 1)", metaVar = "COUNT")
+    private int poolMax = 1;
+
+    @Option(name = "-poolIdle", usage = "Idle pooled connections are closed after this time (defaults to 30 seconds)", metaVar = "MILLIS")
+    private long poolIdle = 30000;
+
+    @Option(name = "-inFlight", usage = "Send a batch concurrently with one connection per message and at most this number of sessions in flight", metaVar = "COUNT")
+    private int inFlight;
+
+    @Option(name = "-adaptive", depends = "-inFlight", usage = "Start with one session in flight and adapt the number up to '-inFlight' to the server load (backs off on 421, 450, 451 and timeouts)")
+    private boolean adaptive;
+
+    @Option(name = "-encodeOnce", usage = "Encode messages of a batch that only differ in the receivers once and reuse the bytes")
+    private boolean encodeOnce;
+
+    @Option(name = "-maxRcpt", usage = "Maximal number of receivers per SMTP transaction: More receivers are sent in chunks (defaults to 0 = no limit)", metaVar = "COUNT")
+    private int maxRcpt;
+
+    @Option(name = "-retries", usage = "Maximal number of retries for receivers that failed temporarily (defaults to 2)", metaVar = "COUNT")
+    private int retries = Mailer.DEFAULT_RETRIES;
+
+    @Option(name = "-retryDelay", usage = "Delay before the first retry, doubled for every further retry (defaults to 1 second)", metaVar = "MILLIS")
+    private long retryDelay = Mailer.DEFAULT_RETRY_DELAY;
+
+    @Option(name = "-maxPerSecond", usage = "Maximal messages per second sent to the host (defaults to 0 = no limit)", metaVar = "COUNT")
+    private int maxPerSecond;
+
+    @Option(name = "-maxPerWindow", usage = "Maximal messages per '-rateWindow' sent to the host (defaults to 0 = no limit)", metaVar = "COUNT")
+    private int maxPerWindow;
+
+    @Option(name = "-rateWindow", usage = "Time window for '-maxPerWindow' (defaults to 3600 seconds)", metaVar = "SECONDS")
+    private long rateWindow = 3600;
+
+    @Option(name = "-metrics", usage = "Write latency histograms and counters in the Prometheus text format to this file at the end", metaVar = "FILE")
+    private String metrics;
+
+    @Option(name = "-spool", usage = "Directory of a spool: Messages are only appended to it unless '-drain' is used", metaVar = "DIR")
+    private String spool;
+
+    @Option(name = "-drain", usage = "Deliver all messages of the spool and exit when it's empty")
+    private boolean drain;
+
+    @Option(name = "-spoolRetries", usage = "Maximal delivery attempts for a spooled message (defaults to 10)", metaVar = "COUNT")
+    private int spoolRetries = 10;
+
+    @Option(name = "-spoolSync", usage = "Force every spooled message to disk")
+    private boolean spoolSync;
+
+    @Option(name = "-daemon", usage = "Run as daemon accepting send requests on this loopback port", metaVar = "PORT")
+    private Integer daemon;
+
+    @Option(name = "-client", usage = "Forward the message to a daemon listening on this loopback port", metaVar = "PORT")
+    private Integer client;
+
+    @Option(name = "-daemonToken", usage = "File with the secret a client must present to the daemon (defaults to ~/.sjsm/daemon-PORT.token)", metaVar = "FILE")
+    private String daemonToken;
+
+    @Option(name = "-loadtest", forbids = { "-batch", "-data", "-spool", "-daemon", "-client" }, usage = "Send this number of synthetic messages with '-inFlight' sessions (defaults to 1) and report throughput and latency", metaVar = "COUNT")
+    private Integer loadTest;
+
+    @Option(name = "-loadBodySize", depends = "-loadtest", usage = "Body size of the load test messages (defaults to 1024 bytes)", metaVar = "BYTES")
+    private int loadBodySize = 1024;
+
+    @Option(name = "-loadRcpt", depends = "-loadtest", usage = "Number of generated receivers per load test message (defaults to 1)", metaVar = "COUNT")
+    private int loadRcpt = 1;
+
+    @Option(name = "-sink", forbids = { "-batch", "-data", "-spool", "-daemon", "-client", "-loadtest" }, usage = "Run an SMTP sink that counts and discards all messages on this loopback port", metaVar = "PORT")
+    private Integer sink;
+
+    @Option(name = "-sinkLatency", depends = "-sink", usage = "Delay of the sink's reply to the message data (defaults to 0)", metaVar = "MILLIS")
+    private long sinkLatency;
+
+    @Option(name = "-sinkTempFail", depends = "-sink", usage = "Rate of receivers the sink rejects with 450 (defaults to 0.0)", metaVar = "RATE")
+    private double sinkTempFail;
+
+    @Option(name = "-sinkPermFail", depends = "-sink", usage = "Rate of receivers the sink rejects with 550 (defaults to 0.0)", metaVar = "RATE")
+    private double sinkPermFail;
+
+    /**
+     * Default constructor.
+     */
+    public Config() {
+        super();
+    }
+
+    /**
+     * Copy constructor.
+     *
+     * @param other
+     *            Configuration to copy all values from.
+     */
+    public Config(final Config other) {
+        super();
+        Objects.requireNonNull(other, "other == null");
+        this.host = other.host;
+        this.port = other.port;
+        this.relays = other.relays == null ? null : new ArrayList<>(other.relays);
+        this.user = other.user;
+        this.pw = other.pw;
+        this.envPw = other.envPw;
+        this.from = other.from;
+        this.receiver = other.receiver;
+        this.receiverFile = other.receiverFile;
+        this.fileRecipients = other.receiverFile == null ? null : other.getFileRecipients();
+        this.subject = other.subject;
+        this.message = other.message;
+        this.messageFile = other.messageFile;
+        this.messageSource = other.messageFile == null ? null : other.getMessageSource();
+        this.attachments = other.attachments == null ? null : new ArrayList<>(other.attachments);
+        this.attachmentSources = other.hasAttachments() ? other.getAttachmentSources() : null;
+        this.html = other.html;
+        this.charset = other.charset;
+        this.smtp = other.smtp;
+        this.pipelining = other.pipelining;
+        this.timeout = other.timeout;
+        this.noauth = other.noauth;
+        this.important = other.important;
+        this.batch = other.batch;
+        this.data = other.data;
+        this.poolMin = other.poolMin;
+        this.poolMax = other.poolMax;
+        this.poolIdle = other.poolIdle;
+        this.inFlight = other.inFlight;
+        this.adaptive = other.adaptive;
+        this.maxRcpt = other.maxRcpt;
+        this.encodeOnce = other.encodeOnce;
+        this.retries = other.retries;
+        this.retryDelay = other.retryDelay;
+        this.maxPerSecond = other.maxPerSecond;
+        this.metrics = other.metrics;
+        this.maxPerWindow = other.maxPerWindow;
+        this.rateWindow = other.rateWindow;
+        this.spool = other.spool;
+        this.drain = other.drain;
+        this.spoolRetries = other.spoolRetries;
+        this.spoolSync = other.spoolSync;
+        this.daemon = other.daemon;
+        this.client = other.client;
+        this.daemonToken = other.daemonToken;
+        this.loadTest = other.loadTest;
+        this.loadBodySize = other.loadBodySize;
+        this.loadRcpt = other.loadRcpt;
+        this.sink = other.sink;
+        this.sinkLatency = other.sinkLatency;
+        this.sinkTempFail = other.sinkTempFail;
+        this.sinkPermFail = other.sinkPermFail;
+    }
+
     /**
      * Returns the host.
      *
@@ -114,6 +302,29 @@ public final class Config {
         this.port = port;
     }
 
+    /**
+     * Returns the additional relays.
+     *
+     * @return Unmodifiable list of "host" or "host:port" entries.
+     */
+    public List<String> getRelays() {
+        if (relays == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(relays);
+    }
+
+    /**
+     * Sets the additional relays.
+     *
+     * @param relays
+     *            Entries with "host" or "host:port" or {@literal null}. The
+     *            port defaults to the one of the primary host.
+     */
+    public void setRelays(final List<String> relays) {
+        this.relays = relays == null ? null : new ArrayList<>(relays);
+    }
+
     /**
      * Returns the user.
      *
@@ -258,6 +469,150 @@ public final class Config {
         this.receiver = receiver;
     }
 
+    /**
+     * Returns the file with additional receivers.
+     *
+     * @return File with one receiver per line or {@literal null}.
+     */
+    public String getReceiverFile() {
+        return receiverFile;
+    }
+
+    /**
+     * Sets the file with additional receivers.
+     *
+     * @param receiverFile
+     *            File with one receiver per line or {@literal null}.
+     */
+    public synchronized void setReceiverFile(final String receiverFile) {
+        this.receiverFile = receiverFile;
+        this.fileRecipients = null;
+    }
+
+    /**
+     * Returns all receivers of the receiver string and the receiver file.
+     * Addresses are de-duplicated ignoring case. Invalid entries are not
+     * included in the addresses but returned separately.
+     *
+     * @return Parsed receivers.
+     */
+    public Recipients getRecipients() {
+        final RecipientParser parser = new RecipientParser();
+        if (receiverFile != null) {
+            parser.add(getFileRecipients());
+        }
+        if (receiver != null) {
+            parser.parse(receiver);
+        }
+        return parser.toRecipients();
+    }
+
+    private synchronized Recipients getFileRecipients() {
+        if (fileRecipients == null) {
+            try (final Reader reader = Files.newBufferedReader(Path.of(receiverFile), StandardCharsets.UTF_8)) {
+                fileRecipients = new RecipientParser().parse(reader).toRecipients();
+            } catch (final IOException ex) {
+                throw new UncheckedIOException("Failed to read receiver file: " + receiverFile, ex);
+            }
+        }
+        return fileRecipients;
+    }
+
+    /**
+     * Returns the file with the message.
+     *
+     * @return File name, "-" for stdin or {@literal null}.
+     */
+    public String getMessageFile() {
+        return messageFile;
+    }
+
+    /**
+     * Sets the file with the message. It is only used if no message text is
+     * set.
+     *
+     * @param messageFile
+     *            File name, "-" for stdin or {@literal null}.
+     */
+    public synchronized void setMessageFile(final String messageFile) {
+        this.messageFile = messageFile;
+        this.messageSource = null;
+    }
+
+    private synchronized MappedFileDataSource getMessageSource() {
+        if (messageSource == null) {
+            try {
+                final Path file;
+                if ("-".equals(messageFile)) {
+                    // Stdin can only be read once, but the message may be written multiple times
+                    file = Files.createTempFile("sjsm-", ".msg");
+                    file.toFile().deleteOnExit();
+                    Files.copy(System.in, file, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    file = Path.of(messageFile);
+                }
+                messageSource = MappedFileDataSource.map(file, getContentType());
+            } catch (final IOException ex) {
+                throw new UncheckedIOException("Failed to read message file: " + messageFile, ex);
+            }
+        }
+        return messageSource;
+    }
+
+    /**
+     * Returns the files attached to the message.
+     *
+     * @return Unmodifiable list of file names.
+     */
+    public List<String> getAttachments() {
+        if (attachments == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(attachments);
+    }
+
+    /**
+     * Sets the files attached to the message.
+     *
+     * @param attachments
+     *            File names or {@literal null}.
+     */
+    public synchronized void setAttachments(final List<String> attachments) {
+        this.attachments = attachments == null ? null : new ArrayList<>(attachments);
+        this.attachmentSources = null;
+    }
+
+    private boolean hasAttachments() {
+        return attachments != null && !attachments.isEmpty();
+    }
+
+    private synchronized List<MappedFileDataSource> getAttachmentSources() {
+        if (attachmentSources == null) {
+            final List<MappedFileDataSource> sources = new ArrayList<>();
+            for (final String attachment : attachments) {
+                try {
+                    final Path file = Path.of(attachment);
+                    final String type = Files.probeContentType(file);
+                    sources.add(MappedFileDataSource.map(file, type == null ? "application/octet-stream" : type));
+                } catch (final IOException ex) {
+                    throw new UncheckedIOException("Failed to read attachment: " + attachment, ex);
+                }
+            }
+            attachmentSources = Collections.unmodifiableList(sources);
+        }
+        return attachmentSources;
+    }
+
+    /**
+     * Determines if the message content is streamed from files.
+     *
+     * @return {@literal true} if the message is read from a file or has
+     *         attachments.
+     */
+    boolean isStreamed() {
+        return messageFile != null || hasAttachments();
+    }
+
     /**
      * Returns the message subject.
      *
@@ -383,6 +738,26 @@ public final class Config {
         this.smtp = smtp;
     }
 
+    /**
+     * Returns if receivers are pipelined and the body is sent with BDAT.
+     *
+     * @return {@literal true} if the server extensions are used if available.
+     */
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    /**
+     * Sets if receivers are pipelined and the body is sent with BDAT.
+     *
+     * @param pipelining
+     *            {@literal true} if the server extensions are used if
+     *            available.
+     */
+    public void setPipelining(final boolean pipelining) {
+        this.pipelining = pipelining;
+    }
+
     /**
      * Returns the timeout in milliseconds.
      *
@@ -421,6 +796,579 @@ public final class Config {
         this.noauth = noauth;
     }
 
+    /**
+     * Returns the batch file.
+     *
+     * @return JSON lines file with one message per line, "-" for stdin or
+     *         {@literal null} if a single message should be sent.
+     */
+    public String getBatch() {
+        return batch;
+    }
+
+    /**
+     * Sets the batch file.
+     *
+     * @param batch
+     *            JSON lines file with one message per line, "-" for stdin or
+     *            {@literal null} if a single message should be sent.
+     */
+    public void setBatch(final String batch) {
+        this.batch = batch;
+    }
+
+    /**
+     * Returns the mail merge data file.
+     *
+     * @return CSV or JSON lines file with one row per message, "-" for stdin
+     *         or {@literal null} if no templates are used.
+     */
+    public String getData() {
+        return data;
+    }
+
+    /**
+     * Sets the mail merge data file.
+     *
+     * @param data
+     *            CSV or JSON lines file with one row per message, "-" for
+     *            stdin or {@literal null} if no templates are used.
+     */
+    public void setData(final String data) {
+        this.data = data;
+    }
+
+    /**
+     * Returns the minimal number of pooled connections.
+     *
+     * @return Connections kept open even if idle.
+     */
+    public int getPoolMin() {
+        return poolMin;
+    }
+
+    /**
+     * Sets the minimal number of pooled connections.
+     *
+     * @param poolMin
+     *            Connections kept open even if idle.
+     */
+    public void setPoolMin(final int poolMin) {
+        this.poolMin = poolMin;
+    }
+
+    /**
+     * Returns the maximal number of pooled connections.
+     *
+     * @return Maximal number of connections used in parallel.
+     */
+    public int getPoolMax() {
+        return poolMax;
+    }
+
+    /**
+     * Sets the maximal number of pooled connections.
+     *
+     * @param poolMax
+     *            Maximal number of connections used in parallel.
+     */
+    public void setPoolMax(final int poolMax) {
+        this.poolMax = poolMax;
+    }
+
+    /**
+     * Returns the time after that idle pooled connections are closed.
+     *
+     * @return Idle time in milliseconds.
+     */
+    public long getPoolIdle() {
+        return poolIdle;
+    }
+
+    /**
+     * Sets the time after that idle pooled connections are closed.
+     *
+     * @param poolIdle
+     *            Idle time in milliseconds.
+     */
+    public void setPoolIdle(final long poolIdle) {
+        this.poolIdle = poolIdle;
+    }
+
+    /**
+     * Returns the maximal number of concurrent sessions used to send a batch
+     * with one connection per message.
+     *
+     * @return Sessions in flight or zero if batches are not sent this way.
+     */
+    public int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Sets the maximal number of concurrent sessions used to send a batch with
+     * one connection per message.
+     *
+     * @param inFlight
+     *            Sessions in flight or zero if batches are not sent this way.
+     */
+    public void setInFlight(final int inFlight) {
+        this.inFlight = inFlight;
+    }
+
+    /**
+     * Returns if the number of sessions in flight adapts to the server load.
+     *
+     * @return {@literal true} if '-inFlight' is only the upper bound.
+     */
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * Sets if the number of sessions in flight adapts to the server load.
+     *
+     * @param adaptive
+     *            {@literal true} if '-inFlight' is only the upper bound.
+     */
+    public void setAdaptive(final boolean adaptive) {
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * Returns the maximal number of receivers per SMTP transaction.
+     *
+     * @return Receivers per transaction or 0 if there is no limit.
+     */
+    public int getMaxRcpt() {
+        return maxRcpt;
+    }
+
+    /**
+     * Sets the maximal number of receivers per SMTP transaction. A message with
+     * more receivers is sent multiple times, each time with a chunk of the
+     * receivers.
+     *
+     * @param maxRcpt
+     *            Receivers per transaction or 0 if there is no limit.
+     */
+    public void setMaxRcpt(final int maxRcpt) {
+        this.maxRcpt = maxRcpt;
+    }
+
+    /**
+     * Returns if messages of a batch with the same content are encoded only
+     * once.
+     *
+     * @return {@literal true} if encoded messages are reused.
+     */
+    public boolean isEncodeOnce() {
+        return encodeOnce;
+    }
+
+    /**
+     * Sets if messages of a batch with the same content are encoded only once.
+     * All messages created from the same encoding share date and message ID
+     * and only differ in the "To" header.
+     *
+     * @param encodeOnce
+     *            {@literal true} if encoded messages are reused.
+     */
+    public void setEncodeOnce(final boolean encodeOnce) {
+        this.encodeOnce = encodeOnce;
+    }
+
+    /**
+     * Returns the maximal number of retries for receivers that failed
+     * temporarily.
+     *
+     * @return Number of retries.
+     */
+    public int getRetries() {
+        return retries;
+    }
+
+    /**
+     * Sets the maximal number of retries for receivers that failed
+     * temporarily.
+     *
+     * @param retries
+     *            Number of retries.
+     */
+    public void setRetries(final int retries) {
+        this.retries = retries;
+    }
+
+    /**
+     * Returns the delay before the first retry.
+     *
+     * @return Delay in milliseconds.
+     */
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    /**
+     * Sets the delay before the first retry.
+     *
+     * @param retryDelay
+     *            Delay in milliseconds.
+     */
+    public void setRetryDelay(final long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Returns the maximal number of messages per second.
+     *
+     * @return Messages per second or 0 if there is no limit.
+     */
+    public int getMaxPerSecond() {
+        return maxPerSecond;
+    }
+
+    /**
+     * Sets the maximal number of messages per second.
+     *
+     * @param maxPerSecond
+     *            Messages per second or 0 if there is no limit.
+     */
+    public void setMaxPerSecond(final int maxPerSecond) {
+        this.maxPerSecond = maxPerSecond;
+    }
+
+    /**
+     * Returns the maximal number of messages per time window.
+     *
+     * @return Messages per window or 0 if there is no limit.
+     */
+    public int getMaxPerWindow() {
+        return maxPerWindow;
+    }
+
+    /**
+     * Sets the maximal number of messages per time window.
+     *
+     * @param maxPerWindow
+     *            Messages per window or 0 if there is no limit.
+     */
+    public void setMaxPerWindow(final int maxPerWindow) {
+        this.maxPerWindow = maxPerWindow;
+    }
+
+    /**
+     * Returns the time window for the maximal number of messages.
+     *
+     * @return Window in seconds.
+     */
+    public long getRateWindow() {
+        return rateWindow;
+    }
+
+    /**
+     * Sets the time window for the maximal number of messages.
+     *
+     * @param rateWindow
+     *            Window in seconds.
+     */
+    public void setRateWindow(final long rateWindow) {
+        this.rateWindow = rateWindow;
+    }
+
+    /**
+     * Returns the file the metrics are written to.
+     *
+     * @return Prometheus text file or {@literal null}.
+     */
+    public String getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the file the metrics are written to.
+     *
+     * @param metrics
+     *            Prometheus text file or {@literal null}.
+     */
+    public void setMetrics(final String metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the spool directory.
+     *
+     * @return Directory of the spool or {@literal null} if messages are sent
+     *         immediately.
+     */
+    public String getSpool() {
+        return spool;
+    }
+
+    /**
+     * Sets the spool directory.
+     *
+     * @param spool
+     *            Directory of the spool or {@literal null} if messages are sent
+     *            immediately.
+     */
+    public void setSpool(final String spool) {
+        this.spool = spool;
+    }
+
+    /**
+     * Determines if the spool should be drained.
+     *
+     * @return {@literal true} if the messages of the spool are delivered,
+     *         {@literal false} if new messages are appended to it.
+     */
+    public boolean isDrain() {
+        return drain;
+    }
+
+    /**
+     * Sets if the spool should be drained.
+     *
+     * @param drain
+     *            {@literal true} if the messages of the spool are delivered,
+     *            {@literal false} if new messages are appended to it.
+     */
+    public void setDrain(final boolean drain) {
+        this.drain = drain;
+    }
+
+    /**
+     * Returns the maximal number of delivery attempts for a spooled message.
+     *
+     * @return Maximal attempts.
+     */
+    public int getSpoolRetries() {
+        return spoolRetries;
+    }
+
+    /**
+     * Sets the maximal number of delivery attempts for a spooled message.
+     *
+     * @param spoolRetries
+     *            Maximal attempts.
+     */
+    public void setSpoolRetries(final int spoolRetries) {
+        this.spoolRetries = spoolRetries;
+    }
+
+    /**
+     * Determines if every spooled message is forced to disk.
+     *
+     * @return {@literal true} if the spool is synced after every append.
+     */
+    public boolean isSpoolSync() {
+        return spoolSync;
+    }
+
+    /**
+     * Sets if every spooled message is forced to disk.
+     *
+     * @param spoolSync
+     *            {@literal true} if the spool is synced after every append.
+     */
+    public void setSpoolSync(final boolean spoolSync) {
+        this.spoolSync = spoolSync;
+    }
+
+    /**
+     * Returns the loopback port to listen on in daemon mode.
+     *
+     * @return Port (zero for any free port) or {@literal null} if not running
+     *         as daemon.
+     */
+    public Integer getDaemon() {
+        return daemon;
+    }
+
+    /**
+     * Sets the loopback port to listen on in daemon mode.
+     *
+     * @param daemon
+     *            Port (zero for any free port) or {@literal null} if not
+     *            running as daemon.
+     */
+    public void setDaemon(final Integer daemon) {
+        this.daemon = daemon;
+    }
+
+    /**
+     * Returns the loopback port of the daemon to forward the message to.
+     *
+     * @return Daemon port or {@literal null} if the message is sent directly.
+     */
+    public Integer getClient() {
+        return client;
+    }
+
+    /**
+     * Sets the loopback port of the daemon to forward the message to.
+     *
+     * @param client
+     *            Daemon port or {@literal null} if the message is sent
+     *            directly.
+     */
+    public void setClient(final Integer client) {
+        this.client = client;
+    }
+
+    /**
+     * Returns the file with the secret shared by daemon and client.
+     *
+     * @return File name or {@literal null} for the default file in the user's
+     *         home directory.
+     */
+    public String getDaemonToken() {
+        return daemonToken;
+    }
+
+    /**
+     * Sets the file with the secret shared by daemon and client.
+     *
+     * @param daemonToken
+     *            File name or {@literal null} for the default file in the
+     *            user's home directory.
+     */
+    public void setDaemonToken(final String daemonToken) {
+        this.daemonToken = daemonToken;
+    }
+
+    /**
+     * Returns the number of load test messages.
+     *
+     * @return Message count or {@literal null} if no load test is run.
+     */
+    public Integer getLoadTest() {
+        return loadTest;
+    }
+
+    /**
+     * Sets the number of load test messages.
+     *
+     * @param loadTest
+     *            Message count or {@literal null} if no load test is run.
+     */
+    public void setLoadTest(final Integer loadTest) {
+        this.loadTest = loadTest;
+    }
+
+    /**
+     * Returns the body size of the load test messages.
+     *
+     * @return Number of bytes.
+     */
+    public int getLoadBodySize() {
+        return loadBodySize;
+    }
+
+    /**
+     * Sets the body size of the load test messages.
+     *
+     * @param loadBodySize
+     *            Number of bytes.
+     */
+    public void setLoadBodySize(final int loadBodySize) {
+        this.loadBodySize = loadBodySize;
+    }
+
+    /**
+     * Returns the number of receivers per load test message.
+     *
+     * @return Receiver count.
+     */
+    public int getLoadRcpt() {
+        return loadRcpt;
+    }
+
+    /**
+     * Sets the number of receivers per load test message.
+     *
+     * @param loadRcpt
+     *            Receiver count.
+     */
+    public void setLoadRcpt(final int loadRcpt) {
+        this.loadRcpt = loadRcpt;
+    }
+
+    /**
+     * Returns the loopback port of the SMTP sink.
+     *
+     * @return Sink port or {@literal null} if no sink is run.
+     */
+    public Integer getSink() {
+        return sink;
+    }
+
+    /**
+     * Sets the loopback port of the SMTP sink.
+     *
+     * @param sink
+     *            Sink port or {@literal null} if no sink is run.
+     */
+    public void setSink(final Integer sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Returns the delay of the sink's reply to the message data.
+     *
+     * @return Milliseconds.
+     */
+    public long getSinkLatency() {
+        return sinkLatency;
+    }
+
+    /**
+     * Sets the delay of the sink's reply to the message data.
+     *
+     * @param sinkLatency
+     *            Milliseconds.
+     */
+    public void setSinkLatency(final long sinkLatency) {
+        this.sinkLatency = sinkLatency;
+    }
+
+    /**
+     * Returns the rate of receivers the sink rejects temporarily.
+     *
+     * @return Rate between 0.0 and 1.0.
+     */
+    public double getSinkTempFail() {
+        return sinkTempFail;
+    }
+
+    /**
+     * Sets the rate of receivers the sink rejects temporarily.
+     *
+     * @param sinkTempFail
+     *            Rate between 0.0 and 1.0.
+     */
+    public void setSinkTempFail(final double sinkTempFail) {
+        this.sinkTempFail = sinkTempFail;
+    }
+
+    /**
+     * Returns the rate of receivers the sink rejects permanently.
+     *
+     * @return Rate between 0.0 and 1.0.
+     */
+    public double getSinkPermFail() {
+        return sinkPermFail;
+    }
+
+    /**
+     * Sets the rate of receivers the sink rejects permanently.
+     *
+     * @param sinkPermFail
+     *            Rate between 0.0 and 1.0.
+     */
+    public void setSinkPermFail(final double sinkPermFail) {
+        this.sinkPermFail = sinkPermFail;
+    }
+
     /**
      * Returns the transport type.
      *
@@ -433,44 +1381,108 @@ public final class Config {
         return "smtps";
     }
 
+    /**
+     * Returns the connection settings of the configuration. A password from an
+     * environment variable is resolved.
+     *
+     * @return New immutable settings.
+     */
+    public ConnectionSettings toConnectionSettings() {
+        return toConnectionSettings(host, port);
+    }
+
+    /**
+     * Returns the connection settings of the host and all additional relays.
+     *
+     * @return Settings of the primary host followed by the relays.
+     */
+    public List<ConnectionSettings> toRelaySettings() {
+        final List<ConnectionSettings> list = new ArrayList<>();
+        list.add(toConnectionSettings());
+        for (final String relay : getRelays()) {
+            final int colon = relay.lastIndexOf(':');
+            if (colon > 0 && relay.indexOf(':') == colon) {
+                final String relayPort = relay.substring(colon + 1);
+                try {
+                    list.add(toConnectionSettings(relay.substring(0, colon), Integer.parseInt(relayPort)));
+                } catch (final NumberFormatException ex) {
+                    throw new IllegalArgumentException("Invalid port of relay '" + relay + "': " + relayPort, ex);
+                }
+            } else {
+                list.add(toConnectionSettings(relay, port));
+            }
+        }
+        return list;
+    }
+
+    private ConnectionSettings toConnectionSettings(final String relayHost, final int relayPort) {
+        final ConnectionSettings.Builder builder = ConnectionSettings.builder().host(relayHost).port(relayPort)
+                .smtp(smtp).timeout(timeout).pipelining(pipelining);
+        if (!noauth && user != null) {
+            builder.credentials(user, pw != null || envPw == null ? pw : System.getenv(envPw));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Returns the message of the configuration. Invalid receivers are
+     * reported to {@link System#err}.
+     *
+     * @return New immutable message.
+     */
+    public MailMessage toMailMessage() {
+        final MailMessage.Builder builder = MailMessage.builder().from(getFromAddress()).to(validRecipients())
+                .subject(subject).html(html).charset(getCharset()).important(getImportant());
+        if (message == null && messageFile != null) {
+            builder.textFile(getMessageSource());
+        } else {
+            builder.text(message);
+        }
+        if (hasAttachments()) {
+            for (final MappedFileDataSource source : getAttachmentSources()) {
+                builder.attach(source);
+            }
+        }
+        return builder.build();
+    }
+
     /**
      * Returns the session properties based on the configuration.
      *
      * @return Properties.
      */
     public Properties createSessionProperties() {
-        final Properties props = new Properties();
-        final String key = getTransportType();
-        if (!smtp) {
-            props.put("mail.smtps.starttls.enable", "true");
-        }
-        props.put("mail." + key + ".host", host);
-        props.put("mail." + key + ".port", "" + port);
-        props.put("mail." + key + ".timeout", "" + timeout);
-        props.put("mail." + key + ".sendpartial", "true");
-        if (!noauth) {
-            props.put("mail." + key + ".auth", "true");
-        }
-        return props;
+        return toConnectionSettings().createSessionProperties();
     }
 
     /**
-     * Returns an authenticator based on user/pw.
+     * Returns an authenticator based on user/pw. The password is resolved
+     * only once when the authenticator is created.
      *
      * @return New authenticator instance.
      */
     public Authenticator createAuthenticator() {
-        return new Authenticator() {
-            protected PasswordAuthentication getPasswordAuthentication() {
-                final String p;
-                if (pw == null) {
-                    p = System.getenv(envPw);
-                } else {
-                    p = pw;
-                }
-                return new PasswordAuthentication(user, p);
-            }
-        };
+        return toConnectionSettings().createAuthenticator();
+    }
+
+    /**
+     * Returns a session for the connection settings of the configuration. The
+     * session is shared with all other configurations that have the same
+     * connection settings, so it's only created once for repeated sends.
+     *
+     * @return Shared session instance.
+     */
+    public Session getSession() {
+        return toConnectionSettings().getSession();
+    }
+
+    /**
+     * Creates a new mail session based on the configuration.
+     *
+     * @return New session instance.
+     */
+    public Session createSession() {
+        return toConnectionSettings().createSession();
     }
 
     /**
@@ -482,18 +1494,20 @@ public final class Config {
      * @return Message connected with the session.
      */
     public MimeMessage createMimeMessage(final Session session) {
+        final SmtpEvent.Build event = new SmtpEvent.Build();
+        event.begin();
+        final long start = System.nanoTime();
         try {
-            final MimeMessage msg = new MimeMessage(session);
-            msg.addHeader("Content-type", getContentTypeAndEncoding());
-            msg.addHeader("Content-Transfer-Encoding", "8BIT");
-            msg.setFrom(getFromAddress());
-            msg.setSubject(subject, getCharset());
-            msg.setContent(message, getContentType());
-            msg.setSentDate(new Date());
-            if (this.getImportant()) {
-                msg.setHeader("X-Priority", "1");
+            final MailMessage mailMessage = toMailMessage();
+            final MimeMessage msg = mailMessage.createMimeMessage(session);
+            Metrics.global().record(Metrics.Phase.BUILD, System.nanoTime() - start);
+            if (event.shouldCommit()) {
+                event.target(this);
+                event.recipients = mailMessage.getTo().size();
+                event.messageSize = mailMessage.getContentSize();
+                event.succeeded();
+                event.commit();
             }
-            msg.setRecipients(Message.RecipientType.TO, convertToInternetAddress(extractRecipients(getReceiver())));
             return msg;
         } catch (final MessagingException ex) {
             throw new RuntimeException(
@@ -503,6 +1517,24 @@ public final class Config {
         }
     }
 
+    /**
+     * Returns the valid receivers for a message. Invalid receivers are
+     * reported to {@link System#err}.
+     *
+     * @return Valid receivers.
+     */
+    InternetAddress[] validRecipients() {
+        final Recipients recipients = getRecipients();
+        for (final String invalid : recipients.getInvalid()) {
+            System.err.println("Ignoring invalid receiver: '" + invalid + "'");
+        }
+        if (recipients.size() == 0) {
+            throw new RuntimeException("No valid email address in receivers: '" + receiver + "'"
+                    + (receiverFile == null ? "" : " and " + receiverFile));
+        }
+        return recipients.getAddresses();
+    }
+
     /**
      * Splits the string into a list of receivers.
      *
@@ -0,0 +1,370 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.Objects;
+import java.util.Properties;
+
+import jakarta.mail.Authenticator;
+import jakarta.mail.PasswordAuthentication;
+import jakarta.mail.Session;
+
+/**
+ * Everything needed to connect to a mail server. Instances are immutable and
+ * thread-safe. Two instances with the same values are equal, so they can be
+ * used as key for sessions or connections.
+ */
+public final class ConnectionSettings {
+
+    /** Default port for "smtp". */
+    public static final int DEFAULT_SMTP_PORT = 25;
+
+    /** Default port for "smtps". */
+    public static final int DEFAULT_SMTPS_PORT = 465;
+
+    /** Default timeout in milliseconds. */
+    public static final int DEFAULT_TIMEOUT = 5000;
+
+    private final String host;
+
+    private final int port;
+
+    private final boolean smtp;
+
+    private final int timeout;
+
+    private final String user;
+
+    private final String password;
+
+    private final boolean pipelining;
+
+    private ConnectionSettings(final Builder builder) {
+        super();
+        this.host = builder.host;
+        this.port = builder.port > 0 ? builder.port : builder.smtp ? DEFAULT_SMTP_PORT : DEFAULT_SMTPS_PORT;
+        this.smtp = builder.smtp;
+        this.timeout = builder.timeout;
+        this.user = builder.user;
+        this.password = builder.password;
+        this.pipelining = builder.pipelining;
+    }
+
+    /**
+     * Creates a builder for new settings.
+     *
+     * @return New builder instance.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the host.
+     *
+     * @return Host.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the port.
+     *
+     * @return Port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Send via (unsecured) SMTP.
+     *
+     * @return True for SMTP, else false (SMTPS).
+     */
+    public boolean isSmtp() {
+        return smtp;
+    }
+
+    /**
+     * Returns the transport type.
+     *
+     * @return Either "smtp" or "smtps".
+     */
+    public String getTransportType() {
+        return smtp ? "smtp" : "smtps";
+    }
+
+    /**
+     * Returns the timeout.
+     *
+     * @return Timeout in milliseconds.
+     */
+    public int getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * Returns the user.
+     *
+     * @return Authentication user or {@literal null} if no authentication is
+     *         used.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Returns if commands are pipelined and the body is sent in chunks if the
+     * server supports it.
+     *
+     * @return {@literal true} if the {@link PipeliningTransport} is used.
+     */
+    public boolean isPipelining() {
+        return pipelining;
+    }
+
+    /**
+     * Returns if the connection is authenticated.
+     *
+     * @return {@literal true} if there are credentials.
+     */
+    public boolean isAuth() {
+        return user != null;
+    }
+
+    /**
+     * Returns the session properties.
+     *
+     * @return New properties instance.
+     */
+    public Properties createSessionProperties() {
+        final Properties props = new Properties();
+        final String key = getTransportType();
+        if (!smtp) {
+            props.put("mail.smtps.starttls.enable", "true");
+        }
+        props.put("mail." + key + ".host", host);
+        props.put("mail." + key + ".port", "" + port);
+        props.put("mail." + key + ".timeout", "" + timeout);
+        props.put("mail." + key + ".sendpartial", "true");
+        if (isAuth()) {
+            props.put("mail." + key + ".auth", "true");
+        }
+        if (pipelining) {
+            props.put("mail." + key + ".chunksize", "" + PipeliningTransport.CHUNK_SIZE);
+        }
+        return props;
+    }
+
+    /**
+     * Returns an authenticator with the credentials.
+     *
+     * @return New authenticator instance.
+     */
+    public Authenticator createAuthenticator() {
+        final PasswordAuthentication auth = new PasswordAuthentication(user, password);
+        return new Authenticator() {
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return auth;
+            }
+        };
+    }
+
+    /**
+     * Creates a new mail session. Prefer {@link #getSession()} if the session
+     * can be shared.
+     *
+     * @return New session instance.
+     */
+    public Session createSession() {
+        final long start = System.nanoTime();
+        final Session session;
+        if (isAuth()) {
+            session = Session.getInstance(createSessionProperties(), createAuthenticator());
+        } else {
+            session = Session.getInstance(createSessionProperties());
+        }
+        if (pipelining) {
+            PipeliningTransport.register(session, getTransportType());
+        }
+        Metrics.global().record(Metrics.Phase.SESSION, System.nanoTime() - start);
+        return session;
+    }
+
+    /**
+     * Returns a session for the settings. The session is shared with all equal
+     * settings, so it's only created once for repeated sends.
+     *
+     * @return Shared session instance.
+     */
+    public Session getSession() {
+        return SessionCache.global().get(this);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(host, port, smtp, timeout, user, password, pipelining);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ConnectionSettings)) {
+            return false;
+        }
+        final ConnectionSettings other = (ConnectionSettings) obj;
+        return port == other.port && smtp == other.smtp && timeout == other.timeout
+                && pipelining == other.pipelining && host.equals(other.host) && Objects.equals(user, other.user) && Objects.equals(password, other.password);
+    }
+
+    @Override
+    public String toString() {
+        return getTransportType() + "://" + (user == null ? "" : user + "@") + host + ":" + port;
+    }
+
+    /**
+     * Builds connection settings. A builder must not be used by multiple
+     * threads.
+     */
+    public static final class Builder {
+
+        private String host;
+
+        private int port;
+
+        private boolean smtp;
+
+        private int timeout = DEFAULT_TIMEOUT;
+
+        private String user;
+
+        private String password;
+
+        private boolean pipelining;
+
+        private Builder() {
+            super();
+        }
+
+        /**
+         * Sets the host.
+         *
+         * @param host
+         *            Host.
+         *
+         * @return This builder.
+         */
+        public Builder host(final String host) {
+            this.host = host;
+            return this;
+        }
+
+        /**
+         * Sets the port.
+         *
+         * @param port
+         *            Port or 0 for the default port of the transport type.
+         *
+         * @return This builder.
+         */
+        public Builder port(final int port) {
+            this.port = port;
+            return this;
+        }
+
+        /**
+         * Sets the transport type.
+         *
+         * @param smtp
+         *            True for (unsecured) SMTP, else false for SMTPS (default).
+         *
+         * @return This builder.
+         */
+        public Builder smtp(final boolean smtp) {
+            this.smtp = smtp;
+            return this;
+        }
+
+        /**
+         * Sets the timeout.
+         *
+         * @param timeout
+         *            Timeout in milliseconds (defaults to
+         *            {@link ConnectionSettings#DEFAULT_TIMEOUT}).
+         *
+         * @return This builder.
+         */
+        public Builder timeout(final int timeout) {
+            this.timeout = timeout;
+            return this;
+        }
+
+        /**
+         * Sets the credentials. Without credentials no authentication is used.
+         *
+         * @param user
+         *            User.
+         * @param password
+         *            Password.
+         *
+         * @return This builder.
+         */
+        public Builder credentials(final String user, final String password) {
+            this.user = Objects.requireNonNull(user, "user == null");
+            this.password = password;
+            return this;
+        }
+
+        /**
+         * Sets if commands are pipelined and the body is sent in chunks. Both
+         * are only used if the server announces PIPELINING or CHUNKING.
+         *
+         * @param pipelining
+         *            {@literal true} to use the {@link PipeliningTransport}.
+         *
+         * @return This builder.
+         */
+        public Builder pipelining(final boolean pipelining) {
+            this.pipelining = pipelining;
+            return this;
+        }
+
+        /**
+         * Creates the settings.
+         *
+         * @return New immutable instance.
+         */
+        public ConnectionSettings build() {
+            if (host == null) {
+                throw new IllegalStateException("The host is required");
+            }
+            if (port < 0) {
+                throw new IllegalStateException("Expected port >= 0, but was: " + port);
+            }
+            if (timeout < 0) {
+                throw new IllegalStateException("Expected timeout >= 0, but was: " + timeout);
+            }
+            return new ConnectionSettings(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Message that counts the bytes it writes, so the size on the wire is known
+ * after sending it without encoding it a second time.
+ */
+final class CountingMimeMessage extends MimeMessage {
+
+    private volatile long written = -1;
+
+    /**
+     * Constructor with session.
+     *
+     * @param session
+     *            Session for the message.
+     */
+    CountingMimeMessage(final Session session) {
+        super(session);
+    }
+
+    @Override
+    public void writeTo(final OutputStream os, final String[] ignoreList) throws IOException, MessagingException {
+        final CountingOutputStream out = new CountingOutputStream(os);
+        super.writeTo(out, ignoreList);
+        written = out.count;
+    }
+
+    /**
+     * Returns the number of bytes the message wrote the last time.
+     *
+     * @return Size of header and body or -1 if the message was not written
+     *         yet.
+     */
+    long getWritten() {
+        return written;
+    }
+
+    /**
+     * Stream that counts the bytes written to the underlying stream.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+
+        private long count;
+
+        CountingOutputStream(final OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int off, final int len) throws IOException {
+            out.write(bytes, off, len);
+            count += len;
+        }
+
+    }
+
+}
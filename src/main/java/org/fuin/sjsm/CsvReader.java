@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Minimal reader for comma separated values as described in RFC 4180. Fields
+ * may be quoted with double quotes and then contain commas, line breaks and
+ * escaped (doubled) quotes. Empty lines are ignored. Instances are not
+ * thread-safe.
+ */
+final class CsvReader {
+
+    private static final String[] EMPTY = new String[0];
+
+    private final BufferedReader reader;
+
+    private final List<String> fields;
+
+    private final StringBuilder field;
+
+    private int lineNo;
+
+    /**
+     * Constructor with reader.
+     *
+     * @param reader
+     *            Reader to read from.
+     */
+    CsvReader(final BufferedReader reader) {
+        super();
+        this.reader = Objects.requireNonNull(reader, "reader == null");
+        this.fields = new ArrayList<>();
+        this.field = new StringBuilder();
+    }
+
+    /**
+     * Reads the next row.
+     *
+     * @return Fields of the row or {@literal null} at the end of the input.
+     *
+     * @throws IOException
+     *             Error reading the input.
+     */
+    String[] readRow() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return null;
+            }
+            lineNo++;
+        } while (line.isEmpty());
+
+        fields.clear();
+        field.setLength(0);
+        boolean quoted = false;
+        int pos = 0;
+        while (true) {
+            if (pos == line.length()) {
+                if (!quoted) {
+                    break;
+                }
+                // Line break inside a quoted field
+                line = reader.readLine();
+                if (line == null) {
+                    throw new IllegalArgumentException("Unterminated quoted field in line " + lineNo);
+                }
+                lineNo++;
+                field.append('\n');
+                pos = 0;
+                continue;
+            }
+            final char ch = line.charAt(pos++);
+            if (quoted) {
+                if (ch == '"') {
+                    if (pos < line.length() && line.charAt(pos) == '"') {
+                        field.append('"');
+                        pos++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(ch);
+                }
+            } else if (ch == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else if (ch == '"' && field.length() == 0) {
+                quoted = true;
+            } else {
+                field.append(ch);
+            }
+        }
+        fields.add(field.toString());
+        return fields.toArray(EMPTY);
+    }
+
+    /**
+     * Returns the number of the last line read.
+     *
+     * @return Line number starting with 1.
+     */
+    int getLineNo() {
+        return lineNo;
+    }
+
+}
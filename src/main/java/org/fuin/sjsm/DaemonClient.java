@@ -0,0 +1,126 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Objects;
+
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+
+/**
+ * Forwards a message to a {@link SendMailDaemon} listening on a loopback port.
+ */
+public final class DaemonClient {
+
+    private final URL url;
+
+    private final int timeout;
+
+    private final String token;
+
+    /**
+     * Constructor with port, timeout and token.
+     *
+     * @param port
+     *            Loopback port of the daemon.
+     * @param timeout
+     *            Connect and read timeout in milliseconds. The daemon writes
+     *            data while it sends, so the read timeout does not need to
+     *            cover the time for sending.
+     * @param tokenFile
+     *            File with the secret written by the daemon.
+     */
+    public DaemonClient(final int port, final int timeout, final Path tokenFile) {
+        super();
+        Objects.requireNonNull(tokenFile, "tokenFile == null");
+        try {
+            this.url = new URL("http", InetAddress.getLoopbackAddress().getHostAddress(), port,
+                    SendMailDaemon.SEND_PATH);
+        } catch (final IOException ex) {
+            throw new IllegalArgumentException("Invalid port: " + port, ex);
+        }
+        this.timeout = timeout;
+        this.token = SendMailDaemon.readToken(tokenFile);
+    }
+
+    /**
+     * Sends a message via the daemon.
+     *
+     * @param record
+     *            Message to send.
+     *
+     * @return Status returned by the daemon: Either "sent" or "spooled".
+     */
+    public String send(final BatchRecord record) {
+        Objects.requireNonNull(record, "record == null");
+        try {
+            final HttpURLConnection con = (HttpURLConnection) url.openConnection();
+            try {
+                con.setConnectTimeout(timeout);
+                // Daemon writes whitespace while sending, so this only expires if it hangs
+                con.setReadTimeout((int) Math.max(timeout, 2 * SendMailDaemon.HEARTBEAT_MILLIS));
+                con.setRequestMethod("POST");
+                con.setDoOutput(true);
+                con.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+                con.setRequestProperty("Authorization", "Bearer " + token);
+                try (final OutputStream out = con.getOutputStream()) {
+                    out.write(record.toJson().getBytes(StandardCharsets.UTF_8));
+                }
+                final int code = con.getResponseCode();
+                final JsonObject response = read(code < 400 ? con.getInputStream() : con.getErrorStream());
+                if (code >= 300) {
+                    throw new RuntimeException("Daemon at " + url + " returned " + code + ": "
+                            + response.getString("error", "unknown error"));
+                }
+                if ("error".equals(response.getString("status", "sent"))) {
+                    throw new RuntimeException("Daemon at " + url + " failed to send: "
+                            + response.getString("error", "unknown error"));
+                }
+                return response.getString("status", "sent");
+            } finally {
+                con.disconnect();
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to send message to daemon at " + url, ex);
+        }
+    }
+
+    private static JsonObject read(final InputStream in) throws IOException {
+        if (in == null) {
+            return JsonObject.EMPTY_JSON_OBJECT;
+        }
+        try (in; final JsonReader reader = Json
+                .createReader(new StringReader(new String(in.readAllBytes(), StandardCharsets.UTF_8)))) {
+            return reader.readObject();
+        } catch (final JsonException ex) {
+            return JsonObject.EMPTY_JSON_OBJECT;
+        }
+    }
+
+}
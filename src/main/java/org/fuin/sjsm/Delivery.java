@@ -0,0 +1,110 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.Objects;
+
+/**
+ * Outcome of sending one message of a stream: Either a report or the error
+ * that prevented sending the message at all. Instances are immutable.
+ */
+public final class Delivery {
+
+    private final MailMessage message;
+
+    private final DeliveryReport report;
+
+    private final Throwable error;
+
+    private Delivery(final MailMessage message, final DeliveryReport report, final Throwable error) {
+        super();
+        this.message = Objects.requireNonNull(message, "message == null");
+        this.report = report;
+        this.error = error;
+    }
+
+    /**
+     * Creates the outcome of a message that was sent.
+     *
+     * @param message
+     *            Message.
+     * @param report
+     *            Report with the result per receiver.
+     *
+     * @return New instance.
+     */
+    public static Delivery sent(final MailMessage message, final DeliveryReport report) {
+        return new Delivery(message, Objects.requireNonNull(report, "report == null"), null);
+    }
+
+    /**
+     * Creates the outcome of a message that could not be sent.
+     *
+     * @param message
+     *            Message.
+     * @param error
+     *            Error creating the message or connecting to the server.
+     *
+     * @return New instance.
+     */
+    public static Delivery failed(final MailMessage message, final Throwable error) {
+        return new Delivery(message, null, Objects.requireNonNull(error, "error == null"));
+    }
+
+    /**
+     * Returns the message.
+     *
+     * @return Message that was sent or not.
+     */
+    public MailMessage getMessage() {
+        return message;
+    }
+
+    /**
+     * Returns the report.
+     *
+     * @return Report or {@literal null} if the message could not be sent.
+     */
+    public DeliveryReport getReport() {
+        return report;
+    }
+
+    /**
+     * Returns the error.
+     *
+     * @return Error or {@literal null} if the message was sent.
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * Returns if the message was sent to all receivers.
+     *
+     * @return {@literal true} if there is a report without rejected receivers.
+     */
+    public boolean isSuccess() {
+        return report != null && report.isSuccess();
+    }
+
+    @Override
+    public String toString() {
+        return "Delivery '" + message.getSubject() + "': " + (report == null ? "Failed: " + error : report);
+    }
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import jakarta.mail.Address;
+
+/**
+ * Result of sending one message: The message id, the result per receiver and
+ * how long the stages took. Instances are immutable.
+ */
+public final class DeliveryReport {
+
+    private final String messageId;
+
+    private final SendResult result;
+
+    private final long buildNanos;
+
+    private final long connectNanos;
+
+    private final long sendNanos;
+
+    private final long totalNanos;
+
+    /**
+     * Constructor with all data.
+     *
+     * @param messageId
+     *            Value of the "Message-ID" header or {@literal null}.
+     * @param result
+     *            Result per receiver.
+     * @param buildNanos
+     *            Time for creating the message and saving the changes.
+     * @param connectNanos
+     *            Time for connecting and authenticating.
+     * @param sendNanos
+     *            Time for sending the message including retries.
+     * @param totalNanos
+     *            Time from the start of the send until the connection was
+     *            closed.
+     */
+    public DeliveryReport(final String messageId, final SendResult result, final long buildNanos,
+            final long connectNanos, final long sendNanos, final long totalNanos) {
+        super();
+        this.messageId = messageId;
+        this.result = Objects.requireNonNull(result, "result == null");
+        this.buildNanos = buildNanos;
+        this.connectNanos = connectNanos;
+        this.sendNanos = sendNanos;
+        this.totalNanos = totalNanos;
+    }
+
+    /**
+     * Returns the message id.
+     *
+     * @return Value of the "Message-ID" header or {@literal null}.
+     */
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * Returns the result per receiver.
+     *
+     * @return Result.
+     */
+    public SendResult getResult() {
+        return result;
+    }
+
+    /**
+     * Returns the receivers the message was sent to.
+     *
+     * @return Unmodifiable list of receivers.
+     */
+    public List<Address> getAccepted() {
+        return result.getSent();
+    }
+
+    /**
+     * Returns the receivers the message was not sent to.
+     *
+     * @return Unmodifiable map with the unsent and invalid receivers and the
+     *         reason.
+     */
+    public Map<Address, String> getRejected() {
+        final Map<Address, String> rejected = new LinkedHashMap<>(result.getUnsent());
+        rejected.putAll(result.getInvalid());
+        return Map.copyOf(rejected);
+    }
+
+    /**
+     * Returns if the message was sent to all receivers.
+     *
+     * @return {@literal true} if no receiver was rejected.
+     */
+    public boolean isSuccess() {
+        return result.isSuccess();
+    }
+
+    /**
+     * Returns the time for creating the message and saving the changes.
+     *
+     * @return Duration.
+     */
+    public Duration getBuildTime() {
+        return Duration.ofNanos(buildNanos);
+    }
+
+    /**
+     * Returns the time for connecting and authenticating.
+     *
+     * @return Duration.
+     */
+    public Duration getConnectTime() {
+        return Duration.ofNanos(connectNanos);
+    }
+
+    /**
+     * Returns the time for sending the message including retries.
+     *
+     * @return Duration.
+     */
+    public Duration getSendTime() {
+        return Duration.ofNanos(sendNanos);
+    }
+
+    /**
+     * Returns the time from the start of the send until the connection was
+     * closed.
+     *
+     * @return Duration.
+     */
+    public Duration getTotalTime() {
+        return Duration.ofNanos(totalNanos);
+    }
+
+    @Override
+    public String toString() {
+        return "Message " + messageId + ": " + result + " (build " + getBuildTime().toMillis() + " ms, connect "
+                + getConnectTime().toMillis() + " ms, send " + getSendTime().toMillis() + " ms, total "
+                + getTotalTime().toMillis() + " ms)";
+    }
+
+}
@@ -0,0 +1,435 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.Objects;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetHeaders;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeUtility;
+
+/**
+ * A message that is encoded only once into immutable bytes. Any number of
+ * {@link MimeMessage} instances can be created from it that write exactly
+ * these bytes to the transport, optionally with some headers replaced (like
+ * the "To" header for each receiver). Large bodies are kept outside the Java
+ * heap. Instances are immutable and thread-safe.
+ */
+public final class EncodedMessage {
+
+    /** Bodies of this size or larger are stored off-heap by default. */
+    public static final int DEFAULT_OFF_HEAP_THRESHOLD = 64 * 1024;
+
+    /** Headers that are never sent (same as the SMTP transport ignores). */
+    private static final String[] IGNORE_LIST = { "Bcc", "Content-Length" };
+
+    private static final byte[] CRLF = { '\r', '\n' };
+
+    private static final int COPY_BUFFER_SIZE = 8192;
+
+    /** Headers including the empty line that ends them. */
+    private final byte[] header;
+
+    /** Read-only body. */
+    private final ByteBuffer body;
+
+    private final String messageId;
+
+    private EncodedMessage(final byte[] header, final ByteBuffer body, final String messageId) {
+        super();
+        this.header = header;
+        this.body = body;
+        this.messageId = messageId;
+    }
+
+    /**
+     * Encodes a message. Changes are saved first if this was not done before.
+     * Bodies larger than {@link #DEFAULT_OFF_HEAP_THRESHOLD} are stored
+     * off-heap.
+     *
+     * @param msg
+     *            Message to encode.
+     *
+     * @return Encoded message.
+     *
+     * @throws MessagingException
+     *             Error encoding the message.
+     */
+    public static EncodedMessage encode(final MimeMessage msg) throws MessagingException {
+        return encode(msg, DEFAULT_OFF_HEAP_THRESHOLD);
+    }
+
+    /**
+     * Encodes a message. Changes are saved first if this was not done before.
+     *
+     * @param msg
+     *            Message to encode.
+     * @param offHeapThreshold
+     *            Bodies of this size or larger are stored off-heap.
+     *
+     * @return Encoded message.
+     *
+     * @throws MessagingException
+     *             Error encoding the message.
+     */
+    public static EncodedMessage encode(final MimeMessage msg, final int offHeapThreshold)
+            throws MessagingException {
+        Objects.requireNonNull(msg, "msg == null");
+        final EncodingOutputStream out = new EncodingOutputStream(offHeapThreshold);
+        try {
+            msg.writeTo(out, IGNORE_LIST);
+        } catch (final IOException ex) {
+            throw new MessagingException("Failed to encode message", ex);
+        }
+        return new EncodedMessage(out.header(), out.body().asReadOnlyBuffer(), msg.getMessageID());
+    }
+
+    /**
+     * Creates a message that writes the encoded bytes.
+     *
+     * @param session
+     *            Session for the message or {@literal null}.
+     *
+     * @return New message instance. It must not be changed.
+     *
+     * @throws MessagingException
+     *             Error parsing the encoded headers.
+     */
+    public MimeMessage newMessage(final Session session) throws MessagingException {
+        return new EncodedMimeMessage(session, Collections.emptyMap());
+    }
+
+    /**
+     * Creates a message that writes the encoded bytes, but with some headers
+     * replaced.
+     *
+     * @param session
+     *            Session for the message or {@literal null}.
+     * @param headers
+     *            Headers to set with name and value. Values must already be
+     *            encoded as required for {@link MimeMessage#setHeader(String, String)}.
+     *
+     * @return New message instance. It must not be changed.
+     *
+     * @throws MessagingException
+     *             Error parsing the encoded headers.
+     */
+    public MimeMessage newMessage(final Session session, final Map<String, String> headers)
+            throws MessagingException {
+        Objects.requireNonNull(headers, "headers == null");
+        return new EncodedMimeMessage(session, headers);
+    }
+
+    /**
+     * Returns the Message-ID of the encoded message.
+     *
+     * @return Message-ID including the angle brackets or {@literal null}.
+     */
+    public String getMessageId() {
+        return messageId;
+    }
+
+    /**
+     * Returns the size of the encoded body.
+     *
+     * @return Number of bytes.
+     */
+    public int getBodySize() {
+        return body.remaining();
+    }
+
+    /**
+     * Returns the size of the encoded message.
+     *
+     * @return Number of header and body bytes.
+     */
+    public int getSize() {
+        return header.length + body.remaining();
+    }
+
+    /**
+     * Returns if the body is stored outside the Java heap.
+     *
+     * @return {@literal true} if the body is off-heap.
+     */
+    public boolean isOffHeap() {
+        return body.isDirect();
+    }
+
+    /**
+     * Tests if a message was created by an encoded message.
+     *
+     * @param msg
+     *            Message to test.
+     *
+     * @return {@literal true} if the message writes pre-encoded bytes.
+     */
+    static boolean isEncoded(final MimeMessage msg) {
+        return msg instanceof EncodedMimeMessage;
+    }
+
+    /**
+     * Returns the number of bytes a message has on the wire.
+     *
+     * @param msg
+     *            Message to return the size for.
+     *
+     * @return Size of header and body for pre-encoded messages and messages
+     *         that counted their bytes while they were sent, the size of the
+     *         files for streamed messages, otherwise the size of the content
+     *         or -1 if it's unknown.
+     *
+     * @throws MessagingException
+     *             Error determining the size.
+     */
+    static long wireSize(final MimeMessage msg) throws MessagingException {
+        if (msg instanceof EncodedMimeMessage) {
+            return ((EncodedMimeMessage) msg).encoded().getSize();
+        }
+        if (msg instanceof CountingMimeMessage && ((CountingMimeMessage) msg).getWritten() >= 0) {
+            return ((CountingMimeMessage) msg).getWritten();
+        }
+        final long mapped = MappedFileDataSource.mappedSize(msg);
+        if (mapped > 0) {
+            return mapped;
+        }
+        return msg.getSize();
+    }
+
+    private void writeBodyTo(final OutputStream out) throws IOException {
+        final ByteBuffer buf = body.duplicate();
+        final byte[] chunk = new byte[Math.min(COPY_BUFFER_SIZE, buf.remaining())];
+        while (buf.hasRemaining()) {
+            final int count = Math.min(chunk.length, buf.remaining());
+            buf.get(chunk, 0, count);
+            out.write(chunk, 0, count);
+        }
+    }
+
+    /**
+     * Message that streams the encoded bytes instead of encoding its content.
+     */
+    private final class EncodedMimeMessage extends MimeMessage {
+
+        private final boolean replaced;
+
+        EncodedMimeMessage(final Session session, final Map<String, String> replacements)
+                throws MessagingException {
+            super(session);
+            this.headers = new InternetHeaders(new ByteArrayInputStream(header));
+            for (final Map.Entry<String, String> entry : replacements.entrySet()) {
+                final String name = entry.getKey();
+                headers.setHeader(name, MimeUtility.fold(name.length() + 2, entry.getValue()));
+            }
+            this.replaced = !replacements.isEmpty();
+            this.modified = false;
+            this.saved = true;
+        }
+
+        @Override
+        public void writeTo(final OutputStream os, final String[] ignoreList) throws IOException {
+            if (replaced) {
+                final Enumeration<String> lines = headers.getNonMatchingHeaderLines(ignoreList);
+                while (lines.hasMoreElements()) {
+                    os.write(lines.nextElement().getBytes(StandardCharsets.UTF_8));
+                    os.write(CRLF);
+                }
+                os.write(CRLF);
+            } else {
+                os.write(header);
+            }
+            writeBodyTo(os);
+            os.flush();
+        }
+
+        @Override
+        public int getSize() {
+            return getBodySize();
+        }
+
+        EncodedMessage encoded() {
+            return EncodedMessage.this;
+        }
+
+        @Override
+        protected InputStream getContentStream() {
+            return new ByteBufferInputStream(body.duplicate());
+        }
+
+        @Override
+        public void saveChanges() {
+            // Already encoded
+        }
+
+        @Override
+        protected void updateHeaders() {
+            // Already encoded
+        }
+
+    }
+
+    /**
+     * Input stream reading a byte buffer.
+     */
+    static final class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(final ByteBuffer buf) {
+            super();
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] bytes, final int off, final int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            final int count = Math.min(len, buf.remaining());
+            buf.get(bytes, off, count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buf.remaining();
+        }
+
+    }
+
+    /**
+     * Output stream that splits an encoded message into header and body. The
+     * body is written to the heap until it reaches the off-heap threshold and
+     * from then on directly into a growing off-heap buffer, so a large body is
+     * never held on the heap as a whole.
+     */
+    private static final class EncodingOutputStream extends OutputStream {
+
+        private final int offHeapThreshold;
+
+        private final ByteArrayOutputStream header;
+
+        /** 0 = in a line, 1 = after LF, 2 = after LF CR. */
+        private int state;
+
+        private boolean inBody;
+
+        private ExposedByteArrayOutputStream heapBody;
+
+        private ByteBuffer offHeapBody;
+
+        EncodingOutputStream(final int offHeapThreshold) {
+            super();
+            this.offHeapThreshold = offHeapThreshold;
+            this.header = new ByteArrayOutputStream();
+            this.heapBody = new ExposedByteArrayOutputStream();
+        }
+
+        @Override
+        public void write(final int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(final byte[] bytes, final int off, final int len) {
+            int pos = off;
+            final int end = off + len;
+            while (!inBody && pos < end) {
+                final byte b = bytes[pos++];
+                header.write(b);
+                // The headers end with an empty line
+                if (b == '\n' && state != 0) {
+                    inBody = true;
+                } else if (b == '\r' && state == 1) {
+                    state = 2;
+                } else {
+                    state = b == '\n' ? 1 : 0;
+                }
+            }
+            if (pos < end) {
+                writeBody(bytes, pos, end - pos);
+            }
+        }
+
+        private void writeBody(final byte[] bytes, final int off, final int len) {
+            if (offHeapBody == null) {
+                if (heapBody.size() + len < offHeapThreshold) {
+                    heapBody.write(bytes, off, len);
+                    return;
+                }
+                offHeapBody = ByteBuffer.allocateDirect(Math.max(COPY_BUFFER_SIZE, 2 * (heapBody.size() + len)));
+                offHeapBody.put(heapBody.buffer(), 0, heapBody.size());
+                heapBody = null;
+            }
+            if (offHeapBody.remaining() < len) {
+                final ByteBuffer larger = ByteBuffer
+                        .allocateDirect(Math.max(2 * offHeapBody.capacity(), offHeapBody.position() + len));
+                offHeapBody.flip();
+                larger.put(offHeapBody);
+                offHeapBody = larger;
+            }
+            offHeapBody.put(bytes, off, len);
+        }
+
+        byte[] header() {
+            return header.toByteArray();
+        }
+
+        ByteBuffer body() {
+            if (offHeapBody == null) {
+                return ByteBuffer.wrap(heapBody.buffer(), 0, heapBody.size()).slice();
+            }
+            final ByteBuffer body = offHeapBody.duplicate();
+            body.flip();
+            return body.slice();
+        }
+
+    }
+
+    /**
+     * Output stream that gives access to its buffer without copying it.
+     */
+    private static final class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+
+        byte[] buffer() {
+            return buf;
+        }
+
+    }
+
+}
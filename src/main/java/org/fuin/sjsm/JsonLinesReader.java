@@ -0,0 +1,59 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Reads records from a reader with one JSON object per line. Empty lines are
+ * ignored.
+ */
+public final class JsonLinesReader implements RecordReader {
+
+    private final BufferedReader reader;
+
+    /**
+     * Constructor with reader.
+     *
+     * @param reader
+     *            Reader with one JSON object per line.
+     */
+    public JsonLinesReader(final BufferedReader reader) {
+        super();
+        this.reader = Objects.requireNonNull(reader, "reader == null");
+    }
+
+    @Override
+    public BatchRecord read() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.isBlank()) {
+                return BatchRecord.parse(line);
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of latencies in microseconds with a fixed relative precision, like
+ * the "High Dynamic Range" histogram: Values below 128 µs are counted exactly,
+ * larger values in 64 linear buckets per power of two (less than 1.6% error).
+ * Recording is lock-free and does not allocate. Values above about 19 hours
+ * are counted in the last bucket. Instances are thread-safe.
+ */
+public final class LatencyHistogram {
+
+    /** Number of exact buckets at the start. */
+    private static final int EXACT = 128;
+
+    /** Linear buckets per power of two. */
+    private static final int HALF = EXACT / 2;
+
+    /** Bits of the exact range. */
+    private static final int EXACT_BITS = 7;
+
+    /** Number of buckets: Covers values up to 2^36 µs. */
+    private static final int BUCKETS = (36 - EXACT_BITS + 2) * HALF + HALF;
+
+    private final AtomicLongArray counts;
+
+    private final LongAdder count;
+
+    private final LongAdder sum;
+
+    private final AtomicLong max;
+
+    /**
+     * Default constructor.
+     */
+    public LatencyHistogram() {
+        super();
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new LongAdder();
+        this.sum = new LongAdder();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records a latency.
+     *
+     * @param nanos
+     *            Latency in nanoseconds.
+     */
+    public void record(final long nanos) {
+        final long micros = Math.max(0, TimeUnit.NANOSECONDS.toMicros(nanos));
+        counts.incrementAndGet(index(micros));
+        count.increment();
+        sum.add(micros);
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * Returns the bucket of a value.
+     *
+     * @param micros
+     *            Value to find the bucket for.
+     *
+     * @return Index of the bucket.
+     */
+    static int index(final long micros) {
+        if (micros < EXACT) {
+            return (int) micros;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(micros) - (EXACT_BITS - 1);
+        final int index = (shift + 1) * HALF + (int) ((micros >>> shift) - HALF);
+        return Math.min(index, BUCKETS - 1);
+    }
+
+    /**
+     * Returns the highest value that is counted in a bucket.
+     *
+     * @param index
+     *            Index of the bucket.
+     *
+     * @return Upper bound of the bucket.
+     */
+    static long upperBound(final int index) {
+        if (index < EXACT) {
+            return index;
+        }
+        final int shift = index / HALF - 1;
+        final long sub = index % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Returns the number of recorded values.
+     *
+     * @return Value count.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Returns the sum of all recorded values.
+     *
+     * @return Sum in microseconds.
+     */
+    public long getSumMicros() {
+        return sum.sum();
+    }
+
+    /**
+     * Returns the highest recorded value.
+     *
+     * @return Maximum in microseconds.
+     */
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    /**
+     * Returns the value below which the given fraction of all values lies.
+     *
+     * @param quantile
+     *            Fraction between 0 and 1, for example 0.99 for the 99th
+     *            percentile.
+     *
+     * @return Upper bound of the bucket containing the quantile (but not more
+     *         than the maximum) in microseconds or 0 if nothing was recorded.
+     */
+    public long getQuantileMicros(final double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("Expected a quantile between 0 and 1, but was: " + quantile);
+        }
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            total += counts.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), getMaxMicros());
+            }
+        }
+        return getMaxMicros();
+    }
+
+}
@@ -0,0 +1,320 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * Sends a number of synthetic messages with the connection settings of a
+ * configuration and measures throughput and latency. The messages have a body
+ * of the given size and the given number of generated receivers in the domain
+ * of the sender. The latency per phase is taken from the
+ * {@link Metrics#global() global metrics}, so it includes all messages sent
+ * before in the same JVM.
+ */
+public final class LoadTest {
+
+    private static final String LINE = "The quick brown fox jumps over the lazy dog. 0123456789 ABCDEFGHIJKLMNOPQRST";
+
+    private final Config config;
+
+    private final int count;
+
+    private final int concurrency;
+
+    private final RelayGroup relays;
+
+    /**
+     * Constructor with configuration.
+     *
+     * @param config
+     *            Configuration with connection settings, number of messages,
+     *            body size, receivers per message and sessions in flight.
+     */
+    public LoadTest(final Config config) {
+        super();
+        this.config = new Config(Objects.requireNonNull(config, "config == null"));
+        this.count = config.getLoadTest() == null ? 0 : config.getLoadTest();
+        this.concurrency = config.getInFlight() == 0 ? 1 : config.getInFlight();
+        if (count < 1) {
+            throw new IllegalArgumentException("Expected loadTest > 0, but was: " + count);
+        }
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Expected inFlight > 0, but was: " + concurrency);
+        }
+        this.relays = RelayGroup.of(this.config);
+    }
+
+    /**
+     * Sends all messages and waits until they are sent.
+     *
+     * @return Result.
+     */
+    public Result run() {
+        final MailMessage message = createMessage();
+        final Mailer mailer = new Mailer(relays, config.getMaxRcpt(), config.getRetries(), config.getRetryDelay());
+        final RateLimiter limiter = RateLimiter.of(config);
+        final LatencyHistogram total = new LatencyHistogram();
+        final LongAdder sent = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final long bytesBefore = Metrics.global().getBytes();
+        final ExecutorService executor = Executors.newFixedThreadPool(concurrency,
+                Threads.daemonFactory("sjsm-loadtest"));
+        final long start = System.nanoTime();
+        try {
+            final List<Future<?>> futures = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                futures.add(executor.submit(() -> {
+                    limiter.acquire();
+                    final long begin = System.nanoTime();
+                    try {
+                        if (mailer.deliver(message).isSuccess()) {
+                            sent.increment();
+                        } else {
+                            failed.increment();
+                        }
+                    } catch (final Exception ex) {
+                        failed.increment();
+                    }
+                    total.record(System.nanoTime() - begin);
+                }));
+            }
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Load test was interrupted", ex);
+        } catch (final ExecutionException ex) {
+            throw new IllegalStateException("Load test failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        return new Result(sent.sum(), failed.sum(), System.nanoTime() - start,
+                Metrics.global().getBytes() - bytesBefore, total);
+    }
+
+    /**
+     * Returns the relays the messages are sent to.
+     *
+     * @return Group with the health of all runs.
+     */
+    public RelayGroup getRelays() {
+        return relays;
+    }
+
+    private MailMessage createMessage() {
+        final String from = config.getFromAddress().getAddress();
+        final String domain = from.substring(from.indexOf('@') + 1);
+        final MailMessage.Builder builder = MailMessage.builder().from(config.getFromAddress())
+                .subject(config.getSubject() == null ? "Load test" : config.getSubject())
+                .text(createBody(config.getLoadBodySize(), config.isHtml())).html(config.isHtml())
+                .charset(config.getCharset());
+        for (int i = 1; i <= config.getLoadRcpt(); i++) {
+            builder.to(createReceiver(i, domain));
+        }
+        return builder.build();
+    }
+
+    private static InternetAddress createReceiver(final int index, final String domain) {
+        final InternetAddress address = new InternetAddress();
+        address.setAddress("loadtest" + index + "@" + domain);
+        return address;
+    }
+
+    /**
+     * Creates a body with lines of ASCII text.
+     *
+     * @param size
+     *            Number of characters.
+     * @param html
+     *            {@literal true} if the text is wrapped in HTML.
+     *
+     * @return Body with exactly the given number of characters.
+     */
+    static String createBody(final int size, final boolean html) {
+        final StringBuilder sb = new StringBuilder(size);
+        if (html) {
+            sb.append("<html><body><pre>\r\n");
+        }
+        final int end = html ? size - "</pre></body></html>".length() : size;
+        while (sb.length() < end) {
+            sb.append(LINE, 0, Math.min(LINE.length(), end - sb.length()));
+            if (sb.length() + 2 <= end) {
+                sb.append("\r\n");
+            }
+        }
+        if (html) {
+            sb.append("</pre></body></html>");
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "Load test: " + count + " messages with " + config.getLoadRcpt() + " receivers and "
+                + config.getLoadBodySize() + " bytes body, " + concurrency + " sessions, "
+                + config.toConnectionSettings();
+    }
+
+    /**
+     * Result of a load test. Instances are immutable.
+     */
+    public static final class Result {
+
+        private final long sent;
+
+        private final long failed;
+
+        private final long elapsedNanos;
+
+        private final long bytes;
+
+        private final LatencyHistogram total;
+
+        /**
+         * Constructor with all data.
+         *
+         * @param sent
+         *            Number of messages sent to all receivers.
+         * @param failed
+         *            Number of messages not sent to all receivers.
+         * @param elapsedNanos
+         *            Duration of the test.
+         * @param bytes
+         *            Number of bytes written.
+         * @param total
+         *            Latency of the whole send per message. It must not be
+         *            changed later.
+         */
+        public Result(final long sent, final long failed, final long elapsedNanos, final long bytes,
+                final LatencyHistogram total) {
+            super();
+            this.sent = sent;
+            this.failed = failed;
+            this.elapsedNanos = elapsedNanos;
+            this.bytes = bytes;
+            this.total = Objects.requireNonNull(total, "total == null");
+        }
+
+        /**
+         * Returns the number of messages sent to all receivers.
+         *
+         * @return Message count.
+         */
+        public long getSent() {
+            return sent;
+        }
+
+        /**
+         * Returns the number of messages not sent to all receivers.
+         *
+         * @return Message count.
+         */
+        public long getFailed() {
+            return failed;
+        }
+
+        /**
+         * Returns the duration of the test.
+         *
+         * @return Elapsed nanoseconds.
+         */
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        /**
+         * Returns the number of bytes written.
+         *
+         * @return Encoded size of all sent messages.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Returns the number of messages per second.
+         *
+         * @return Sent and failed messages per second.
+         */
+        public double getMessagesPerSecond() {
+            return (sent + failed) * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        /**
+         * Returns the number of bytes per second.
+         *
+         * @return Bytes written per second.
+         */
+        public double getBytesPerSecond() {
+            return bytes * 1e9 / Math.max(1, elapsedNanos);
+        }
+
+        /**
+         * Returns the latency of the whole send per message.
+         *
+         * @return Histogram.
+         */
+        public LatencyHistogram getTotal() {
+            return total;
+        }
+
+        /**
+         * Returns a table with throughput and latency percentiles per phase.
+         *
+         * @return Multi line report.
+         */
+        public String report() {
+            final StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ROOT, "%d sent, %d failed in %.3f s: %.1f msg/s, %.1f KB/s%n", sent,
+                    failed, elapsedNanos / 1e9, getMessagesPerSecond(), getBytesPerSecond() / 1024));
+            sb.append(String.format(Locale.ROOT, "%-13s %10s %10s %10s %10s %10s%n", "Phase (ms)", "count", "p50",
+                    "p90", "p99", "max"));
+            for (final Metrics.Phase phase : Metrics.Phase.values()) {
+                append(sb, phase.getLabel(), Metrics.global().getHistogram(phase));
+            }
+            append(sb, "total", total);
+            return sb.toString();
+        }
+
+        private static void append(final StringBuilder sb, final String label, final LatencyHistogram histogram) {
+            sb.append(String.format(Locale.ROOT, "%-13s %10d %10.3f %10.3f %10.3f %10.3f%n", label,
+                    histogram.getCount(), histogram.getQuantileMicros(0.5) / 1000.0,
+                    histogram.getQuantileMicros(0.9) / 1000.0, histogram.getQuantileMicros(0.99) / 1000.0,
+                    histogram.getMaxMicros() / 1000.0));
+        }
+
+        @Override
+        public String toString() {
+            return sent + " sent, " + failed + " failed";
+        }
+
+    }
+
+}
@@ -0,0 +1,482 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+
+import jakarta.activation.DataHandler;
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Part;
+import jakarta.mail.Session;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+
+/**
+ * A message to send: Sender, receivers, subject, body and attachments. Bodies
+ * and attachments read from files are memory-mapped and streamed when the
+ * message is written. Instances are immutable and thread-safe, so the same
+ * message can be sent by multiple threads.
+ */
+public final class MailMessage {
+
+    /** Default character set. */
+    public static final String DEFAULT_CHARSET = "UTF-8";
+
+    private final InternetAddress from;
+
+    private final List<InternetAddress> to;
+
+    private final String subject;
+
+    private final String text;
+
+    private final MappedFileDataSource textFile;
+
+    private final boolean html;
+
+    private final String charset;
+
+    private final boolean important;
+
+    private final List<MappedFileDataSource> attachments;
+
+    private MailMessage(final Builder builder) {
+        super();
+        this.from = builder.from;
+        this.to = List.copyOf(builder.to);
+        this.subject = builder.subject;
+        this.text = builder.text;
+        this.html = builder.html;
+        this.charset = builder.charset;
+        this.textFile = builder.textFile == null ? null : builder.textFile.withContentType(getContentType());
+        this.important = builder.important;
+        this.attachments = List.copyOf(builder.attachments);
+    }
+
+    /**
+     * Creates a builder for a new message.
+     *
+     * @return New builder instance.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Returns the sender.
+     *
+     * @return Sender's address.
+     */
+    public InternetAddress getFrom() {
+        return from;
+    }
+
+    /**
+     * Returns the receivers.
+     *
+     * @return Unmodifiable list of receivers.
+     */
+    public List<InternetAddress> getTo() {
+        return to;
+    }
+
+    /**
+     * Returns the subject.
+     *
+     * @return Subject or {@literal null}.
+     */
+    public String getSubject() {
+        return subject;
+    }
+
+    /**
+     * Returns the text of the message.
+     *
+     * @return Text or HTML message or {@literal null} if the message is read
+     *         from a file.
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Returns if the message is HTML.
+     *
+     * @return {@literal true} for HTML, {@literal false} for TEXT.
+     */
+    public boolean isHtml() {
+        return html;
+    }
+
+    /**
+     * Returns the character set of the message.
+     *
+     * @return Character set.
+     */
+    public String getCharset() {
+        return charset;
+    }
+
+    /**
+     * Returns if the message has a high priority.
+     *
+     * @return {@literal true} if the message is important.
+     */
+    public boolean isImportant() {
+        return important;
+    }
+
+    /**
+     * Returns the content type.
+     *
+     * @return MIME type with the character set.
+     */
+    public String getContentType() {
+        return (html ? "text/html" : "text/plain") + "; charset=" + charset;
+    }
+
+    /**
+     * Returns the number of attachments.
+     *
+     * @return Number of attached files.
+     */
+    public int getAttachmentCount() {
+        return attachments.size();
+    }
+
+    /**
+     * Determines if any content is streamed from files.
+     *
+     * @return {@literal true} if the message is read from a file or has
+     *         attachments.
+     */
+    public boolean isStreamed() {
+        return textFile != null || !attachments.isEmpty();
+    }
+
+    /**
+     * Returns the size of the unencoded content.
+     *
+     * @return Number of characters of the text plus the number of bytes of
+     *         all files.
+     */
+    public long getContentSize() {
+        long size = text != null ? text.length() : textFile == null ? 0 : textFile.getSize();
+        for (final MappedFileDataSource attachment : attachments) {
+            size += attachment.getSize();
+        }
+        return size;
+    }
+
+    /**
+     * Creates a message that can be sent.
+     *
+     * @param session
+     *            Session for the message.
+     *
+     * @return New message instance. Changes are not saved yet.
+     *
+     * @throws MessagingException
+     *             Error creating the message.
+     */
+    public MimeMessage createMimeMessage(final Session session) throws MessagingException {
+        final MimeMessage msg = new CountingMimeMessage(session);
+        msg.addHeader("Content-type",
+                getContentType() + (html ? "; format=flowed" : ""));
+        msg.addHeader("Content-Transfer-Encoding", "8BIT");
+        msg.setFrom(from);
+        msg.setSubject(subject, charset);
+        if (attachments.isEmpty()) {
+            setBody(msg);
+        } else {
+            final MimeMultipart multipart = new MimeMultipart();
+            final MimeBodyPart body = new MimeBodyPart();
+            setBody(body);
+            multipart.addBodyPart(body);
+            for (final MappedFileDataSource source : attachments) {
+                multipart.addBodyPart(createAttachment(source));
+            }
+            msg.setContent(multipart);
+        }
+        msg.setSentDate(new Date());
+        if (important) {
+            msg.setHeader("X-Priority", "1");
+        }
+        msg.setRecipients(Message.RecipientType.TO, to.toArray(new Address[0]));
+        return msg;
+    }
+
+    private void setBody(final Part part) throws MessagingException {
+        if (textFile == null) {
+            part.setContent(text, getContentType());
+        } else {
+            part.setDataHandler(new DataHandler(textFile));
+        }
+    }
+
+    private static MimeBodyPart createAttachment(final MappedFileDataSource source) throws MessagingException {
+        final MimeBodyPart part = new MimeBodyPart();
+        part.setDataHandler(new DataHandler(source));
+        part.setFileName(source.getName());
+        part.setDisposition(Part.ATTACHMENT);
+        // Set after the data handler, otherwise the whole file is scanned to select the encoding
+        part.setHeader("Content-Transfer-Encoding", "base64");
+        return part;
+    }
+
+    /**
+     * Builds a message. A builder must not be used by multiple threads.
+     */
+    public static final class Builder {
+
+        private InternetAddress from;
+
+        private final List<InternetAddress> to;
+
+        private String subject;
+
+        private String text;
+
+        private MappedFileDataSource textFile;
+
+        private boolean html;
+
+        private String charset;
+
+        private boolean important;
+
+        private final List<MappedFileDataSource> attachments;
+
+        private Builder() {
+            super();
+            this.to = new ArrayList<>();
+            this.charset = DEFAULT_CHARSET;
+            this.attachments = new ArrayList<>();
+        }
+
+        /**
+         * Sets the sender.
+         *
+         * @param from
+         *            Sender's email address.
+         *
+         * @return This builder.
+         *
+         * @throws IllegalArgumentException
+         *             The address is invalid.
+         */
+        public Builder from(final String from) {
+            return from(parse(from));
+        }
+
+        /**
+         * Sets the sender.
+         *
+         * @param from
+         *            Sender's address.
+         *
+         * @return This builder.
+         */
+        public Builder from(final InternetAddress from) {
+            this.from = Objects.requireNonNull(from, "from == null");
+            return this;
+        }
+
+        /**
+         * Adds receivers.
+         *
+         * @param addresses
+         *            Receivers' email addresses.
+         *
+         * @return This builder.
+         *
+         * @throws IllegalArgumentException
+         *             An address is invalid.
+         */
+        public Builder to(final String... addresses) {
+            for (final String address : addresses) {
+                to.add(parse(address));
+            }
+            return this;
+        }
+
+        /**
+         * Adds receivers.
+         *
+         * @param addresses
+         *            Receivers' addresses.
+         *
+         * @return This builder.
+         */
+        public Builder to(final InternetAddress... addresses) {
+            for (final InternetAddress address : addresses) {
+                to.add(Objects.requireNonNull(address, "address == null"));
+            }
+            return this;
+        }
+
+        /**
+         * Sets the subject.
+         *
+         * @param subject
+         *            Subject.
+         *
+         * @return This builder.
+         */
+        public Builder subject(final String subject) {
+            this.subject = subject;
+            return this;
+        }
+
+        /**
+         * Sets the text of the message. Replaces a text file set before.
+         *
+         * @param text
+         *            Text or HTML message.
+         *
+         * @return This builder.
+         */
+        public Builder text(final String text) {
+            this.text = text;
+            this.textFile = null;
+            return this;
+        }
+
+        /**
+         * Sets a file with the text of the message that is streamed when the
+         * message is written. Replaces a text set before.
+         *
+         * @param file
+         *            File with the text or HTML message. It must not be
+         *            modified while the message is used.
+         *
+         * @return This builder.
+         *
+         * @throws IOException
+         *             Error mapping the file.
+         */
+        public Builder textFile(final Path file) throws IOException {
+            return textFile(MappedFileDataSource.map(file, "text/plain"));
+        }
+
+        Builder textFile(final MappedFileDataSource source) {
+            this.textFile = Objects.requireNonNull(source, "source == null");
+            this.text = null;
+            return this;
+        }
+
+        /**
+         * Sets if the message is HTML.
+         *
+         * @param html
+         *            {@literal true} for HTML, {@literal false} for TEXT
+         *            (default).
+         *
+         * @return This builder.
+         */
+        public Builder html(final boolean html) {
+            this.html = html;
+            return this;
+        }
+
+        /**
+         * Sets the character set.
+         *
+         * @param charset
+         *            Character set (defaults to {@link MailMessage#DEFAULT_CHARSET}).
+         *
+         * @return This builder.
+         */
+        public Builder charset(final String charset) {
+            this.charset = Objects.requireNonNull(charset, "charset == null");
+            return this;
+        }
+
+        /**
+         * Sets if the message has a high priority (X-Priority).
+         *
+         * @param important
+         *            {@literal true} if the message is important.
+         *
+         * @return This builder.
+         */
+        public Builder important(final boolean important) {
+            this.important = important;
+            return this;
+        }
+
+        /**
+         * Attaches a file that is streamed when the message is written.
+         *
+         * @param file
+         *            File to attach. It must not be modified while the message
+         *            is used.
+         *
+         * @return This builder.
+         *
+         * @throws IOException
+         *             Error mapping the file.
+         */
+        public Builder attach(final Path file) throws IOException {
+            final String type = Files.probeContentType(file);
+            return attach(MappedFileDataSource.map(file, type == null ? "application/octet-stream" : type));
+        }
+
+        Builder attach(final MappedFileDataSource source) {
+            attachments.add(Objects.requireNonNull(source, "source == null"));
+            return this;
+        }
+
+        /**
+         * Creates the message.
+         *
+         * @return New immutable instance.
+         */
+        public MailMessage build() {
+            if (from == null) {
+                throw new IllegalStateException("The sender is required");
+            }
+            if (to.isEmpty()) {
+                throw new IllegalStateException("At least one receiver is required");
+            }
+            return new MailMessage(this);
+        }
+
+        private static InternetAddress parse(final String address) {
+            Objects.requireNonNull(address, "address == null");
+            try {
+                return new InternetAddress(address, true);
+            } catch (final AddressException ex) {
+                throw new IllegalArgumentException("Invalid email address: '" + address + "'", ex);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Sends a stream of messages from a {@link Flow.Publisher} and publishes a
+ * {@link Delivery} for each of them. The demand is matched to the number of
+ * connections: At most "concurrency" messages are requested at the start and
+ * only one more after a message was sent. A fast producer therefore never
+ * causes more than "concurrency" messages to be held in memory. Publishing a
+ * delivery blocks while the buffer of a result subscriber is full, so a slow
+ * result subscriber slows down the sending as well. Results must be subscribed
+ * before the processor subscribes to the messages, deliveries without result
+ * subscriber are dropped. The order of the deliveries is the order in which
+ * sending completes.
+ */
+public final class MailProcessor implements Flow.Processor<MailMessage, Delivery>, AutoCloseable {
+
+    private final Mailer mailer;
+
+    private final int concurrency;
+
+    private final Executor executor;
+
+    private final boolean ownExecutor;
+
+    private final SubmissionPublisher<Delivery> results;
+
+    private final AtomicInteger inFlight;
+
+    private final AtomicBoolean closed;
+
+    private volatile boolean upstreamDone;
+
+    private volatile Throwable upstreamError;
+
+    private Flow.Subscription subscription;
+
+    /**
+     * Constructor with mailer and number of connections. Each connection has
+     * its own thread.
+     *
+     * @param mailer
+     *            Mailer to send the messages with.
+     * @param concurrency
+     *            Maximal number of messages sent in parallel.
+     */
+    public MailProcessor(final Mailer mailer, final int concurrency) {
+        this(mailer, concurrency,
+                Executors.newFixedThreadPool(requirePositive(concurrency), Threads.daemonFactory("sjsm-processor")),
+                true);
+    }
+
+    /**
+     * Constructor with mailer, number of connections and executor.
+     *
+     * @param mailer
+     *            Mailer to send the messages with.
+     * @param concurrency
+     *            Maximal number of messages sent in parallel.
+     * @param executor
+     *            Executor to send the messages on. It must be able to run
+     *            "concurrency" tasks in parallel.
+     */
+    public MailProcessor(final Mailer mailer, final int concurrency, final Executor executor) {
+        this(mailer, requirePositive(concurrency), executor, false);
+    }
+
+    private MailProcessor(final Mailer mailer, final int concurrency, final Executor executor,
+            final boolean ownExecutor) {
+        super();
+        this.mailer = Objects.requireNonNull(mailer, "mailer == null");
+        this.concurrency = concurrency;
+        this.executor = Objects.requireNonNull(executor, "executor == null");
+        this.ownExecutor = ownExecutor;
+        this.results = new SubmissionPublisher<>();
+        this.inFlight = new AtomicInteger();
+        this.closed = new AtomicBoolean();
+    }
+
+    private static int requirePositive(final int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("Expected concurrency > 0, but was: " + concurrency);
+        }
+        return concurrency;
+    }
+
+    @Override
+    public void subscribe(final Flow.Subscriber<? super Delivery> subscriber) {
+        results.subscribe(subscriber);
+    }
+
+    /**
+     * Subscribes a consumer for the deliveries.
+     *
+     * @param consumer
+     *            Called for every delivery.
+     *
+     * @return Future completed when all messages were sent or exceptionally
+     *         with the error of the message publisher.
+     */
+    public CompletableFuture<Void> consume(final Consumer<? super Delivery> consumer) {
+        return results.consume(consumer);
+    }
+
+    @Override
+    public synchronized void onSubscribe(final Flow.Subscription subscription) {
+        Objects.requireNonNull(subscription, "subscription == null");
+        if (this.subscription != null || upstreamDone) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(concurrency);
+    }
+
+    @Override
+    public void onNext(final MailMessage message) {
+        Objects.requireNonNull(message, "message == null");
+        inFlight.incrementAndGet();
+        try {
+            executor.execute(() -> process(message));
+        } catch (final RejectedExecutionException ex) {
+            results.submit(Delivery.failed(message, ex));
+            finished();
+        }
+    }
+
+    @Override
+    public void onError(final Throwable error) {
+        upstreamError = Objects.requireNonNull(error, "error == null");
+        onComplete();
+    }
+
+    @Override
+    public void onComplete() {
+        upstreamDone = true;
+        if (inFlight.get() == 0) {
+            closeResults();
+        }
+    }
+
+    /**
+     * Cancels the subscription of the messages. Messages that are already
+     * sent are published before the results are completed.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (subscription != null) {
+                subscription.cancel();
+            }
+        }
+        onComplete();
+    }
+
+    /**
+     * Returns the number of messages that were requested and are not
+     * published yet.
+     *
+     * @return Number of messages in flight.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    private void process(final MailMessage message) {
+        Delivery delivery;
+        try {
+            delivery = Delivery.sent(message, mailer.deliver(message));
+        } catch (final Exception ex) {
+            delivery = Delivery.failed(message, ex);
+        }
+        results.submit(delivery);
+        finished();
+    }
+
+    private void finished() {
+        if (inFlight.decrementAndGet() == 0 && upstreamDone) {
+            closeResults();
+        } else if (!upstreamDone) {
+            synchronized (this) {
+                subscription.request(1);
+            }
+        }
+    }
+
+    private void closeResults() {
+        if (closed.compareAndSet(false, true)) {
+            final Throwable error = upstreamError;
+            if (error == null) {
+                results.close();
+            } else {
+                results.closeExceptionally(error);
+            }
+            if (ownExecutor) {
+                ((ExecutorService) executor).shutdown();
+            }
+        }
+    }
+
+}
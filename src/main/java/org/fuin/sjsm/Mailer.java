@@ -0,0 +1,299 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Sends messages to one mail server or a {@link RelayGroup}. Instances are
+ * immutable and thread-safe, so one mailer can be shared by all threads of an
+ * application. Every send uses its own connection. Messages are sent either
+ * blocking or asynchronously on an executor.
+ */
+public final class Mailer {
+
+    /** Default maximal number of retries for receivers that failed temporarily. */
+    public static final int DEFAULT_RETRIES = 2;
+
+    /** Default delay before the first retry in milliseconds. */
+    public static final long DEFAULT_RETRY_DELAY = 1000;
+
+    private final RelayGroup relays;
+
+    private final Session session;
+
+    private final ChunkedSender sender;
+
+    private final Executor executor;
+
+    /**
+     * Constructor with settings. Messages are sent in one transaction and
+     * receivers that failed temporarily are retried with the defaults.
+     * Asynchronous sends use the default executor.
+     *
+     * @param settings
+     *            Server to send messages to.
+     */
+    public Mailer(final ConnectionSettings settings) {
+        this(settings, 0, DEFAULT_RETRIES, DEFAULT_RETRY_DELAY);
+    }
+
+    /**
+     * Constructor with settings and executor. Messages are sent in one
+     * transaction and receivers that failed temporarily are retried with the
+     * defaults.
+     *
+     * @param settings
+     *            Server to send messages to.
+     * @param executor
+     *            Executor for asynchronous sends.
+     */
+    public Mailer(final ConnectionSettings settings, final Executor executor) {
+        this(settings, 0, DEFAULT_RETRIES, DEFAULT_RETRY_DELAY, executor);
+    }
+
+    /**
+     * Constructor with all data.
+     *
+     * @param settings
+     *            Server to send messages to.
+     * @param maxRcpt
+     *            Maximal number of receivers per transaction or 0 for no
+     *            limit.
+     * @param retries
+     *            Maximal number of retries for receivers that failed
+     *            temporarily.
+     * @param retryDelay
+     *            Delay before the first retry in milliseconds. It doubles with
+     *            every further retry.
+     */
+    public Mailer(final ConnectionSettings settings, final int maxRcpt, final int retries, final long retryDelay) {
+        this(settings, maxRcpt, retries, retryDelay, DefaultExecutor.INSTANCE);
+    }
+
+    /**
+     * Constructor with all data and executor.
+     *
+     * @param settings
+     *            Server to send messages to.
+     * @param maxRcpt
+     *            Maximal number of receivers per transaction or 0 for no
+     *            limit.
+     * @param retries
+     *            Maximal number of retries for receivers that failed
+     *            temporarily.
+     * @param retryDelay
+     *            Delay before the first retry in milliseconds. It doubles with
+     *            every further retry.
+     * @param executor
+     *            Executor for asynchronous sends.
+     */
+    public Mailer(final ConnectionSettings settings, final int maxRcpt, final int retries, final long retryDelay,
+            final Executor executor) {
+        this(RelayGroup.of(Objects.requireNonNull(settings, "settings == null")), maxRcpt, retries, retryDelay,
+                executor);
+    }
+
+    /**
+     * Constructor with relays. Messages are sent in one transaction and
+     * receivers that failed temporarily are retried with the defaults.
+     * Asynchronous sends use the default executor.
+     *
+     * @param relays
+     *            Servers to send messages to.
+     */
+    public Mailer(final RelayGroup relays) {
+        this(relays, 0, DEFAULT_RETRIES, DEFAULT_RETRY_DELAY, DefaultExecutor.INSTANCE);
+    }
+
+    /**
+     * Constructor with relays and retries. Asynchronous sends use the default
+     * executor.
+     *
+     * @param relays
+     *            Servers to send messages to.
+     * @param maxRcpt
+     *            Maximal number of receivers per transaction or 0 for no
+     *            limit.
+     * @param retries
+     *            Maximal number of retries for receivers that failed
+     *            temporarily.
+     * @param retryDelay
+     *            Delay before the first retry in milliseconds. It doubles with
+     *            every further retry.
+     */
+    public Mailer(final RelayGroup relays, final int maxRcpt, final int retries, final long retryDelay) {
+        this(relays, maxRcpt, retries, retryDelay, DefaultExecutor.INSTANCE);
+    }
+
+    /**
+     * Constructor with relays and all data.
+     *
+     * @param relays
+     *            Servers to send messages to.
+     * @param maxRcpt
+     *            Maximal number of receivers per transaction or 0 for no
+     *            limit.
+     * @param retries
+     *            Maximal number of retries for receivers that failed
+     *            temporarily.
+     * @param retryDelay
+     *            Delay before the first retry in milliseconds. It doubles with
+     *            every further retry.
+     * @param executor
+     *            Executor for asynchronous sends.
+     */
+    public Mailer(final RelayGroup relays, final int maxRcpt, final int retries, final long retryDelay,
+            final Executor executor) {
+        super();
+        this.relays = Objects.requireNonNull(relays, "relays == null");
+        this.executor = Objects.requireNonNull(executor, "executor == null");
+        this.session = relays.getPrimary().getSession();
+        this.sender = new ChunkedSender(maxRcpt, retries, retryDelay);
+    }
+
+    /**
+     * Returns the server messages are sent to.
+     *
+     * @return Connection settings of the primary relay.
+     */
+    public ConnectionSettings getSettings() {
+        return relays.getPrimary();
+    }
+
+    /**
+     * Returns the servers messages are sent to.
+     *
+     * @return Relays.
+     */
+    public RelayGroup getRelays() {
+        return relays;
+    }
+
+    /**
+     * Sends a message.
+     *
+     * @param message
+     *            Message to send.
+     *
+     * @return Result per receiver. Receivers the message could not be sent to
+     *         are reported there and not as exception.
+     *
+     * @throws MessagingException
+     *             The message could not be created or the connection failed.
+     */
+    public SendResult send(final MailMessage message) throws MessagingException {
+        return deliver(message).getResult();
+    }
+
+    /**
+     * Sends a message and reports the message id and timings.
+     *
+     * @param message
+     *            Message to send.
+     *
+     * @return Report with the result per receiver. Receivers the message
+     *         could not be sent to are reported there and not as exception.
+     *
+     * @throws MessagingException
+     *             The message could not be created or no relay could be
+     *             connected.
+     */
+    public DeliveryReport deliver(final MailMessage message) throws MessagingException {
+        Objects.requireNonNull(message, "message == null");
+        final long start = System.nanoTime();
+        final MimeMessage msg = message.createMimeMessage(session);
+        Metrics.global().record(Metrics.Phase.BUILD, System.nanoTime() - start);
+        Transports.saveChanges(msg);
+        final long built = System.nanoTime();
+        final long[] connected = new long[1];
+        final SendResult result = relays.send(msg.getAllRecipients(), (transport, receivers) -> {
+            // Connect time includes failed attempts on other relays
+            if (connected[0] == 0) {
+                connected[0] = System.nanoTime();
+            }
+            return sender.send(transport, msg, receivers);
+        });
+        final long sent = System.nanoTime();
+        return new DeliveryReport(msg.getMessageID(), result, built - start, connected[0] - built,
+                sent - connected[0], sent - start);
+    }
+
+    /**
+     * Sends a message asynchronously on the executor of the mailer.
+     *
+     * @param message
+     *            Message to send.
+     *
+     * @return Future completed with the report or exceptionally with the
+     *         {@link MessagingException} if the message could not be created
+     *         or the connection failed.
+     */
+    public CompletableFuture<DeliveryReport> sendAsync(final MailMessage message) {
+        return sendAsync(message, executor);
+    }
+
+    /**
+     * Sends a message asynchronously.
+     *
+     * @param message
+     *            Message to send.
+     * @param executor
+     *            Executor to send the message on.
+     *
+     * @return Future completed with the report or exceptionally with the
+     *         {@link MessagingException} if the message could not be created
+     *         or the connection failed.
+     */
+    public CompletableFuture<DeliveryReport> sendAsync(final MailMessage message, final Executor executor) {
+        Objects.requireNonNull(message, "message == null");
+        Objects.requireNonNull(executor, "executor == null");
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return deliver(message);
+            } catch (final MessagingException ex) {
+                throw new CompletionException(ex);
+            }
+        }, executor);
+    }
+
+    @Override
+    public String toString() {
+        return "Mailer " + relays.getRelays();
+    }
+
+    /**
+     * Executor shared by all mailers without their own executor. It's only
+     * created with the first of these mailers. Sends block on the network, so
+     * every send gets its own (virtual if available) daemon thread.
+     */
+    private static final class DefaultExecutor {
+
+        static final ExecutorService INSTANCE = Threads.newPerTaskExecutor("sjsm-mailer");
+
+    }
+
+}
@@ -0,0 +1,163 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+import jakarta.activation.DataSource;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Multipart;
+import jakarta.mail.Part;
+
+/**
+ * Data source that reads a memory-mapped file. The file is mapped once and
+ * every input stream reads the mapping, so the content is streamed from the
+ * page cache to the connection and never copied to the Java heap. Instances
+ * are immutable and may be used by multiple threads.
+ */
+public final class MappedFileDataSource implements DataSource {
+
+    private final String name;
+
+    private final ByteBuffer buffer;
+
+    private final String contentType;
+
+    private MappedFileDataSource(final String name, final ByteBuffer buffer, final String contentType) {
+        super();
+        this.name = name;
+        this.buffer = buffer;
+        this.contentType = contentType;
+    }
+
+    /**
+     * Maps a file.
+     *
+     * @param file
+     *            File to map. It must not be modified while the data source is
+     *            used.
+     * @param contentType
+     *            MIME type of the content.
+     *
+     * @return New data source.
+     *
+     * @throws IOException
+     *             Error mapping the file or the file is larger than 2 GB.
+     */
+    public static MappedFileDataSource map(final Path file, final String contentType) throws IOException {
+        Objects.requireNonNull(file, "file == null");
+        Objects.requireNonNull(contentType, "contentType == null");
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("File is too large (" + size + " bytes): " + file);
+            }
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            final Path fileName = file.getFileName();
+            return new MappedFileDataSource(fileName == null ? file.toString() : fileName.toString(),
+                    buffer.asReadOnlyBuffer(), contentType);
+        }
+    }
+
+    /**
+     * Returns a data source for the same mapping with another content type.
+     *
+     * @param contentType
+     *            MIME type of the content.
+     *
+     * @return New data source sharing the mapping.
+     */
+    public MappedFileDataSource withContentType(final String contentType) {
+        Objects.requireNonNull(contentType, "contentType == null");
+        return new MappedFileDataSource(name, buffer, contentType);
+    }
+
+    /**
+     * Returns the size of the file.
+     *
+     * @return Number of bytes.
+     */
+    public int getSize() {
+        return buffer.capacity();
+    }
+
+    /**
+     * Returns the number of bytes a part reads from mapped files.
+     *
+     * @param part
+     *            Part to inspect including all nested parts.
+     *
+     * @return Sum of the mapped file sizes or 0 if the content is not streamed
+     *         from mapped files.
+     *
+     * @throws MessagingException
+     *             Error reading the content.
+     */
+    static long mappedSize(final Part part) throws MessagingException {
+        Objects.requireNonNull(part, "part == null");
+        final DataSource source = part.getDataHandler().getDataSource();
+        if (source instanceof MappedFileDataSource) {
+            return ((MappedFileDataSource) source).getSize();
+        }
+        if (!part.isMimeType("multipart/*")) {
+            return 0;
+        }
+        final Object content;
+        try {
+            content = part.getContent();
+        } catch (final IOException ex) {
+            throw new MessagingException("Failed to read the content", ex);
+        }
+        long size = 0;
+        if (content instanceof Multipart) {
+            final Multipart multipart = (Multipart) content;
+            for (int i = 0; i < multipart.getCount(); i++) {
+                size += mappedSize(multipart.getBodyPart(i));
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new EncodedMessage.ByteBufferInputStream(buffer.duplicate());
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        throw new IOException("Read only data source: " + name);
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+}
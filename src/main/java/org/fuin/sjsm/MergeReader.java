@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import jakarta.json.Json;
+import jakarta.json.JsonException;
+import jakarta.json.JsonObject;
+import jakarta.json.JsonReader;
+import jakarta.json.JsonString;
+import jakarta.json.JsonValue;
+
+/**
+ * Creates one record per data row by filling the placeholders of the receiver,
+ * subject and message templates of the configuration. The templates are
+ * compiled only once and all rows are rendered into the same buffer. Data is
+ * either CSV with a header line naming the columns or JSON lines with one
+ * object per row. Instances are not thread-safe.
+ */
+public final class MergeReader implements RecordReader {
+
+    private final BufferedReader reader;
+
+    private final CsvReader csv;
+
+    private final String[] names;
+
+    /** CSV column of each name. */
+    private final int[] columns;
+
+    private final Template receiver;
+
+    private final Template subject;
+
+    private final Template message;
+
+    private final String[] values;
+
+    private final StringBuilder buf;
+
+    private int rowNo;
+
+    /**
+     * Constructor with templates and data.
+     *
+     * @param config
+     *            Configuration with receiver, subject and message templates.
+     * @param reader
+     *            Reader with the data rows.
+     * @param csv
+     *            {@literal true} if the data is CSV with a header line, else
+     *            JSON lines.
+     *
+     * @throws IOException
+     *             Error reading the CSV header.
+     */
+    public MergeReader(final Config config, final BufferedReader reader, final boolean csv) throws IOException {
+        super();
+        Objects.requireNonNull(config, "config == null");
+        this.reader = Objects.requireNonNull(reader, "reader == null");
+        final List<String> nameList = new ArrayList<>();
+        this.receiver = compile(config.getReceiver(), nameList);
+        this.subject = compile(config.getSubject(), nameList);
+        this.message = compile(config.getMessage(), nameList);
+        this.names = nameList.toArray(new String[0]);
+        this.values = new String[names.length];
+        this.buf = new StringBuilder();
+        if (csv) {
+            this.csv = new CsvReader(reader);
+            this.columns = columns(this.csv.readRow(), names);
+        } else {
+            this.csv = null;
+            this.columns = null;
+        }
+    }
+
+    /**
+     * Opens the data file of the configuration. Files ending with ".csv" are
+     * read as CSV, all others (and stdin) as JSON lines.
+     *
+     * @param config
+     *            Configuration with data file and templates.
+     *
+     * @return New reader.
+     *
+     * @throws IOException
+     *             Error opening the data file.
+     */
+    public static MergeReader open(final Config config) throws IOException {
+        Objects.requireNonNull(config, "config == null");
+        final String data = Objects.requireNonNull(config.getData(), "config.data == null");
+        if ("-".equals(data)) {
+            return new MergeReader(config, new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)),
+                    false);
+        }
+        final BufferedReader reader = Files.newBufferedReader(Path.of(data), StandardCharsets.UTF_8);
+        try {
+            return new MergeReader(config, reader, data.toLowerCase(Locale.ROOT).endsWith(".csv"));
+        } catch (final IOException | RuntimeException ex) {
+            reader.close();
+            throw ex;
+        }
+    }
+
+    private static Template compile(final String text, final List<String> names) {
+        if (text == null) {
+            return null;
+        }
+        return Template.compile(text, names);
+    }
+
+    private static int[] columns(final String[] header, final String[] names) {
+        if (header == null) {
+            throw new IllegalArgumentException("CSV data has no header line");
+        }
+        if (header.length > 0 && header[0].startsWith("\uFEFF")) {
+            header[0] = header[0].substring(1);
+        }
+        final List<String> headerList = Arrays.asList(header);
+        final int[] columns = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            columns[i] = headerList.indexOf(names[i]);
+            if (columns[i] < 0) {
+                throw new IllegalArgumentException(
+                        "CSV data has no column '" + names[i] + "' used in a template: " + headerList);
+            }
+        }
+        return columns;
+    }
+
+    @Override
+    public BatchRecord read() throws IOException {
+        if (csv == null) {
+            if (!readJson()) {
+                return null;
+            }
+        } else if (!readCsv()) {
+            return null;
+        }
+        return new BatchRecord(render(subject), render(receiver), render(message), null, null);
+    }
+
+    private boolean readCsv() throws IOException {
+        final String[] row = csv.readRow();
+        if (row == null) {
+            return false;
+        }
+        rowNo++;
+        for (int i = 0; i < names.length; i++) {
+            if (columns[i] >= row.length) {
+                throw new IllegalArgumentException("Row " + rowNo + " (line " + csv.getLineNo() + ") has only "
+                        + row.length + " columns: No value for '" + names[i] + "'");
+            }
+            values[i] = row[columns[i]];
+        }
+        return true;
+    }
+
+    private boolean readJson() throws IOException {
+        String line;
+        do {
+            line = reader.readLine();
+            if (line == null) {
+                return false;
+            }
+        } while (line.isBlank());
+        rowNo++;
+        final JsonObject obj;
+        try (final JsonReader jsonReader = Json.createReader(new StringReader(line))) {
+            obj = jsonReader.readObject();
+        } catch (final JsonException ex) {
+            throw new RuntimeException("Failed to parse data row " + rowNo + ": " + line, ex);
+        }
+        for (int i = 0; i < names.length; i++) {
+            final JsonValue value = obj.get(names[i]);
+            if (value == null || value == JsonValue.NULL) {
+                throw new IllegalArgumentException("Row " + rowNo + " has no value for '" + names[i] + "': " + line);
+            }
+            values[i] = value instanceof JsonString ? ((JsonString) value).getString() : value.toString();
+        }
+        return true;
+    }
+
+    private String render(final Template template) {
+        if (template == null) {
+            return null;
+        }
+        buf.setLength(0);
+        template.render(buf, values);
+        return buf.toString();
+    }
+
+    /**
+     * Returns the names of all placeholders used in the templates.
+     *
+     * @return Placeholder names in order of first occurrence.
+     */
+    public List<String> getNames() {
+        return List.of(names);
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+
+}
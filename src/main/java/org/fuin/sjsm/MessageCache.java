@@ -0,0 +1,183 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.security.SecureRandom;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MailDateFormat;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Creates the saved messages of a batch. If enabled, messages that only differ
+ * in the receivers are encoded only once: Further messages with the same
+ * content reuse the {@link EncodedMessage} and only get their own "To",
+ * "Message-ID" and "Date" headers. Instances are thread-safe.
+ */
+final class MessageCache {
+
+    /** Maximal number of different message contents kept. */
+    static final int MAX_ENTRIES = 16;
+
+    /** Random part of all Message-IDs created by this JVM. */
+    private static final String ID_PREFIX = Long.toHexString(new SecureRandom().nextLong() & Long.MAX_VALUE);
+
+    private static final AtomicLong ID_COUNTER = new AtomicLong();
+
+    private static final MailDateFormat DATE_FORMAT = new MailDateFormat();
+
+    private final boolean enabled;
+
+    private final Map<Key, EncodedMessage> cache;
+
+    /**
+     * Constructor with enabled flag.
+     *
+     * @param enabled
+     *            {@literal true} if messages should be reused, else every
+     *            message is created and encoded on its own.
+     */
+    MessageCache(final boolean enabled) {
+        super();
+        this.enabled = enabled;
+        this.cache = new LinkedHashMap<>(MAX_ENTRIES * 2, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<Key, EncodedMessage> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * Creates a message with all changes saved.
+     *
+     * @param msgConfig
+     *            Configuration of the message.
+     * @param session
+     *            Session for the message.
+     *
+     * @return New message ready to send.
+     *
+     * @throws MessagingException
+     *             Error creating or encoding the message.
+     */
+    MimeMessage create(final Config msgConfig, final Session session) throws MessagingException {
+        Objects.requireNonNull(msgConfig, "msgConfig == null");
+        if (!enabled || msgConfig.isStreamed()) {
+            // Message files and attachments are never copied into memory
+            final MimeMessage msg = msgConfig.createMimeMessage(session);
+            Transports.saveChanges(msg);
+            return msg;
+        }
+        final Key key = new Key(msgConfig);
+        final EncodedMessage encoded;
+        synchronized (cache) {
+            encoded = cache.get(key);
+        }
+        if (encoded == null) {
+            final MimeMessage msg = msgConfig.createMimeMessage(session);
+            Transports.saveChanges(msg);
+            final EncodedMessage created = EncodedMessage.encode(msg);
+            synchronized (cache) {
+                cache.put(key, created);
+            }
+            return created.newMessage(session);
+        }
+        final Address[] recipients = msgConfig.validRecipients();
+        return encoded.newMessage(session, Map.of("To", InternetAddress.toString(recipients, "To: ".length()),
+                "Message-ID", messageId(encoded.getMessageId()), "Date", date()));
+    }
+
+    /**
+     * Creates a new unique Message-ID with the domain of another one.
+     *
+     * @param template
+     *            Message-ID to take the domain from or {@literal null}.
+     *
+     * @return New Message-ID including the angle brackets.
+     */
+    static String messageId(final String template) {
+        final int at = template == null ? -1 : template.lastIndexOf('@');
+        final String domain = at < 0 ? "@localhost>" : template.substring(at);
+        return "<" + ID_PREFIX + "." + ID_COUNTER.incrementAndGet() + "." + System.currentTimeMillis() + domain;
+    }
+
+    private static String date() {
+        synchronized (DATE_FORMAT) {
+            return DATE_FORMAT.format(new Date());
+        }
+    }
+
+    /**
+     * Everything that makes up a message except the receivers.
+     */
+    private static final class Key {
+
+        private final String subject;
+
+        private final String message;
+
+        private final String messageFile;
+
+        private final String charset;
+
+        private final boolean html;
+
+        private final boolean important;
+
+        Key(final Config config) {
+            this.subject = config.getSubject();
+            this.message = config.getMessage();
+            this.messageFile = config.getMessageFile();
+            this.charset = config.getCharset();
+            this.html = config.isHtml();
+            this.important = config.getImportant();
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(subject, message, messageFile, charset, html, important);
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return html == other.html && important == other.important && Objects.equals(subject, other.subject)
+                    && Objects.equals(message, other.message) && Objects.equals(messageFile, other.messageFile)
+                    && Objects.equals(charset, other.charset);
+        }
+
+    }
+
+}
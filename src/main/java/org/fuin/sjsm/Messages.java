@@ -15,7 +15,13 @@ public enum Messages implements Localizable {
     MISSING_PASSWORD_OPTION,
 
     /** The environment variable from 'envPw' argument is not set. */
-    PASSWORD_ENV_VAR_NOT_SET;
+    PASSWORD_ENV_VAR_NOT_SET,
+
+    /** One of the message arguments is not set and neither batch nor drain is used. */
+    MISSING_MESSAGE_OPTION,
+
+    /** A mandatory argument is not set. */
+    MISSING_OPTION;
 
     @Override
     public String formatWithLocale(final Locale locale, final Object... args) {
@@ -0,0 +1,299 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histograms per phase of sending a message and counters for sent
+ * messages, bytes and failures. Exported in the Prometheus text format and as
+ * a summary line. Instances are thread-safe.
+ */
+public final class Metrics {
+
+    /** Quantiles that are exported. */
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+    private static final Metrics GLOBAL = new Metrics();
+
+    /**
+     * Phase of sending a message.
+     */
+    public enum Phase {
+
+        /** Creating the mail session. */
+        SESSION("session"),
+
+        /** Creating the message. */
+        BUILD("build"),
+
+        /** Opening the connection: TCP, TLS and authentication. */
+        CONNECT("connect"),
+
+        /** Saving the changes: Encoding the content and updating the headers. */
+        SAVE_CHANGES("save_changes"),
+
+        /** Sending the message over a connected transport. */
+        SEND("send");
+
+        private final String label;
+
+        Phase(final String label) {
+            this.label = label;
+        }
+
+        /**
+         * Returns the label used for the export.
+         *
+         * @return Lower case name.
+         */
+        public String getLabel() {
+            return label;
+        }
+
+    }
+
+    private final LatencyHistogram[] histograms;
+
+    private final LongAdder messages;
+
+    private final LongAdder bytes;
+
+    private final ConcurrentMap<String, LongAdder> failures;
+
+    /**
+     * Default constructor.
+     */
+    public Metrics() {
+        super();
+        this.histograms = new LatencyHistogram[Phase.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        this.messages = new LongAdder();
+        this.bytes = new LongAdder();
+        this.failures = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Returns the metrics of this process.
+     *
+     * @return Global instance.
+     */
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Records the duration of a phase.
+     *
+     * @param phase
+     *            Phase that ended.
+     * @param nanos
+     *            Duration in nanoseconds.
+     */
+    public void record(final Phase phase, final long nanos) {
+        histograms[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Counts a message that was sent.
+     *
+     * @param size
+     *            Size of the message in bytes or a negative value if unknown.
+     */
+    public void sent(final long size) {
+        messages.increment();
+        if (size > 0) {
+            bytes.add(size);
+        }
+    }
+
+    /**
+     * Counts a failure by the SMTP reply code found in the exception chain.
+     *
+     * @param ex
+     *            Exception thrown by connecting or sending.
+     */
+    public void failed(final Throwable ex) {
+        failures.computeIfAbsent(code(ex), k -> new LongAdder()).increment();
+    }
+
+    private static String code(final Throwable ex) {
+        final int code = AdaptiveLimiter.replyCode(ex);
+        return code > 0 ? String.valueOf(code) : "none";
+    }
+
+    /**
+     * Returns the histogram of a phase.
+     *
+     * @param phase
+     *            Phase to return the histogram for.
+     *
+     * @return Histogram.
+     */
+    public LatencyHistogram getHistogram(final Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    /**
+     * Returns the number of sent messages.
+     *
+     * @return Message count.
+     */
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    /**
+     * Returns the number of sent bytes.
+     *
+     * @return Sum of all message sizes.
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Returns the failures by SMTP reply code ("none" if the failure had no
+     * reply code).
+     *
+     * @return Sorted copy of the counters.
+     */
+    public Map<String, Long> getFailures() {
+        final Map<String, Long> copy = new TreeMap<>();
+        failures.forEach((code, count) -> copy.put(code, count.sum()));
+        return copy;
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format.
+     *
+     * @param out
+     *            Writer to use.
+     *
+     * @throws IOException
+     *             Error writing.
+     */
+    public void writePrometheus(final Writer out) throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("# HELP sjsm_phase_seconds Duration of the phases of sending a message.\n");
+        sb.append("# TYPE sjsm_phase_seconds summary\n");
+        for (final Phase phase : Phase.values()) {
+            final LatencyHistogram histogram = getHistogram(phase);
+            for (final double quantile : QUANTILES) {
+                sb.append("sjsm_phase_seconds{phase=\"").append(phase.getLabel()).append("\",quantile=\"")
+                        .append(quantile).append("\"} ").append(seconds(histogram.getQuantileMicros(quantile)))
+                        .append('\n');
+            }
+            sb.append("sjsm_phase_seconds_sum{phase=\"").append(phase.getLabel()).append("\"} ")
+                    .append(seconds(histogram.getSumMicros())).append('\n');
+            sb.append("sjsm_phase_seconds_count{phase=\"").append(phase.getLabel()).append("\"} ")
+                    .append(histogram.getCount()).append('\n');
+        }
+        sb.append("# HELP sjsm_phase_max_seconds Maximal duration of the phases of sending a message.\n");
+        sb.append("# TYPE sjsm_phase_max_seconds gauge\n");
+        for (final Phase phase : Phase.values()) {
+            sb.append("sjsm_phase_max_seconds{phase=\"").append(phase.getLabel()).append("\"} ")
+                    .append(seconds(getHistogram(phase).getMaxMicros())).append('\n');
+        }
+        sb.append("# HELP sjsm_messages_total Messages sent (one per SMTP transaction).\n");
+        sb.append("# TYPE sjsm_messages_total counter\n");
+        sb.append("sjsm_messages_total ").append(getMessages()).append('\n');
+        sb.append("# HELP sjsm_bytes_total Bytes of all sent messages.\n");
+        sb.append("# TYPE sjsm_bytes_total counter\n");
+        sb.append("sjsm_bytes_total ").append(getBytes()).append('\n');
+        sb.append("# HELP sjsm_failures_total Failed connects and sends by SMTP reply code.\n");
+        sb.append("# TYPE sjsm_failures_total counter\n");
+        for (final Map.Entry<String, Long> entry : getFailures().entrySet()) {
+            sb.append("sjsm_failures_total{code=\"").append(entry.getKey()).append("\"} ").append(entry.getValue())
+                    .append('\n');
+        }
+        out.write(sb.toString());
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format to a file. The file is
+     * replaced atomically, so a collector never reads a partial file.
+     *
+     * @param file
+     *            File to write.
+     */
+    public void writePrometheus(final Path file) {
+        final Path abs = file.toAbsolutePath();
+        final Path tmp = abs.resolveSibling(abs.getFileName() + ".tmp");
+        try {
+            try (final Writer out = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writePrometheus(out);
+            }
+            Files.move(tmp, abs, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Failed to write metrics: " + file, ex);
+        }
+    }
+
+    /**
+     * Returns a summary with the 50th and 99th percentile and the maximum of
+     * the phases that were recorded.
+     *
+     * @return Single line for the user.
+     */
+    public String summary() {
+        final StringBuilder sb = new StringBuilder("Latency p50/p99/max:");
+        boolean first = true;
+        for (final Phase phase : Phase.values()) {
+            final LatencyHistogram histogram = getHistogram(phase);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            sb.append(first ? " " : ", ").append(phase.getLabel()).append(' ')
+                    .append(millis(histogram.getQuantileMicros(0.5))).append('/')
+                    .append(millis(histogram.getQuantileMicros(0.99))).append('/')
+                    .append(millis(histogram.getMaxMicros())).append(" ms");
+            first = false;
+        }
+        long failed = 0;
+        for (final Long count : getFailures().values()) {
+            failed += count;
+        }
+        sb.append(" (").append(getMessages()).append(" messages, ").append(getBytes()).append(" bytes, ")
+                .append(failed).append(" failures)");
+        return sb.toString();
+    }
+
+    private static String seconds(final long micros) {
+        return String.format(Locale.ROOT, "%.6f", micros / 1_000_000.0);
+    }
+
+    private static String millis(final long micros) {
+        return String.format(Locale.ROOT, "%.1f", micros / 1000.0);
+    }
+
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Sends messages in parallel over connections borrowed from a
+ * {@link TransportPool}. One worker thread per maximal pool connection drains
+ * a bounded queue that is filled by the reading thread.
+ */
+public final class ParallelSender {
+
+    private static final BatchRecord END = new BatchRecord(null, null, null, null, null);
+
+    private final Config config;
+
+    private final TransportPool pool;
+
+    private final MessageCache cache;
+
+    private final RateLimiter limiter;
+
+    private final ChunkedSender chunked;
+
+    private final int threads;
+
+    private final AtomicInteger sent;
+
+    private final AtomicInteger failed;
+
+    /**
+     * Constructor with configuration and pool.
+     *
+     * @param config
+     *            Configuration with the connection settings and the defaults
+     *            for all messages. The number of threads is the maximal pool
+     *            size.
+     * @param pool
+     *            Pool to borrow connections from.
+     */
+    public ParallelSender(final Config config, final TransportPool pool) {
+        super();
+        this.config = Objects.requireNonNull(config, "config == null");
+        this.pool = Objects.requireNonNull(pool, "pool == null");
+        this.cache = new MessageCache(config.isEncodeOnce());
+        this.limiter = RateLimiter.of(config);
+        this.chunked = new ChunkedSender(config.getMaxRcpt(), config.getRetries(), config.getRetryDelay());
+        this.threads = Math.max(1, config.getPoolMax());
+        this.sent = new AtomicInteger();
+        this.failed = new AtomicInteger();
+    }
+
+    /**
+     * Sends all records read line by line from the reader. Empty lines are
+     * ignored. A failing record is reported to {@link System#err} and does not
+     * stop the batch. The method returns after all records are processed.
+     *
+     * @param reader
+     *            Reader with one JSON object per line.
+     *
+     * @throws IOException
+     *             Error reading the input.
+     */
+    public void sendAll(final BufferedReader reader) throws IOException {
+        Objects.requireNonNull(reader, "reader == null");
+        sendAll(new JsonLinesReader(reader));
+    }
+
+    /**
+     * Sends all records of the record reader. A failing record is reported to
+     * {@link System#err} and does not stop the batch. The method returns after
+     * all records are processed.
+     *
+     * @param records
+     *            Source of the records.
+     *
+     * @throws IOException
+     *             Error reading the input.
+     */
+    public void sendAll(final RecordReader records) throws IOException {
+        Objects.requireNonNull(records, "records == null");
+        final BlockingQueue<BatchRecord> queue = new ArrayBlockingQueue<>(threads * 2);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads, Threads.daemonFactory("sjsm-sender"));
+        try {
+            final List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                workers.add(executor.submit(() -> {
+                    drain(queue);
+                    return null;
+                }));
+            }
+            try {
+                while (true) {
+                    final BatchRecord record;
+                    try {
+                        record = records.read();
+                    } catch (final RuntimeException ex) {
+                        failed(ex);
+                        continue;
+                    }
+                    if (record == null) {
+                        break;
+                    }
+                    put(queue, record);
+                }
+            } finally {
+                for (int i = 0; i < threads; i++) {
+                    put(queue, END);
+                }
+            }
+            for (final Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while sending batch", ex);
+        } catch (final ExecutionException ex) {
+            throw new RuntimeException("Sender thread failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void put(final BlockingQueue<BatchRecord> queue, final BatchRecord record) {
+        try {
+            queue.put(record);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while queuing record", ex);
+        }
+    }
+
+    private void drain(final BlockingQueue<BatchRecord> queue) throws InterruptedException {
+        BatchRecord record;
+        while ((record = queue.take()) != END) {
+            try {
+                send(record);
+                sent.incrementAndGet();
+            } catch (final RuntimeException ex) {
+                failed(ex);
+            }
+        }
+    }
+
+    private void failed(final RuntimeException ex) {
+        failed.incrementAndGet();
+        System.err.println(ex.getMessage());
+        if (ex.getCause() != null) {
+            System.err.println("    " + ex.getCause());
+        }
+    }
+
+    /**
+     * Removes the connection from the pool if the server closed it. Only
+     * called after a failure, as the check costs a round trip (NOOP).
+     */
+    private static void invalidateIfClosed(final PooledTransport pooled) {
+        if (!pooled.getTransport().isConnected()) {
+            pooled.invalidate();
+        }
+    }
+
+    /**
+     * Sends a single record over a pooled connection.
+     *
+     * @param record
+     *            Record to apply to the base configuration.
+     */
+    public void send(final BatchRecord record) {
+        Objects.requireNonNull(record, "record == null");
+        final Config msgConfig = record.applyTo(config);
+        limiter.acquire();
+        final SendResult result;
+        try (final PooledTransport pooled = pool.borrow(config)) {
+            try {
+                final MimeMessage msg = cache.create(msgConfig, pooled.getSession());
+                result = chunked.send(pooled.getTransport(), msg);
+            } catch (final RuntimeException | MessagingException ex) {
+                invalidateIfClosed(pooled);
+                throw ex;
+            }
+            if (!result.getUnsent().isEmpty()) {
+                invalidateIfClosed(pooled);
+            }
+        } catch (final RuntimeException | MessagingException ex) {
+            throw new RuntimeException("Failed to send mail with subject '" + msgConfig.getSubject() + "' to "
+                    + msgConfig.getReceiver(), ex);
+        }
+        if (!result.isSuccess()) {
+            throw new RuntimeException("Failed to send mail with subject '" + msgConfig.getSubject() + "' to "
+                    + result.getFailedCount() + " receivers: " + result);
+        }
+        System.out.println("Successfully sent message '" + msgConfig.getSubject() + "' to '"
+                + msgConfig.getReceiver() + "'");
+    }
+
+    /**
+     * Returns the number of successfully sent messages of all
+     * {@link #sendAll(RecordReader)} calls.
+     *
+     * @return Sent message count.
+     */
+    public int getSent() {
+        return sent.get();
+    }
+
+    /**
+     * Returns the number of messages of all {@link #sendAll(RecordReader)}
+     * calls that could not be sent.
+     *
+     * @return Failed message count.
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+}
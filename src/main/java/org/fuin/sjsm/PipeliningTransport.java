@@ -0,0 +1,208 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.NoSuchProviderException;
+import jakarta.mail.Provider;
+import jakarta.mail.Session;
+import jakarta.mail.URLName;
+import jakarta.mail.internet.InternetAddress;
+
+import com.sun.mail.smtp.SMTPMessage;
+import com.sun.mail.smtp.SMTPTransport;
+
+/**
+ * SMTP transport that saves round-trips to the server. If the server supports
+ * PIPELINING, the "MAIL FROM" and all "RCPT TO" commands of a message are
+ * written at once and the replies are read afterwards. If the server supports
+ * CHUNKING, the body is sent with BDAT instead of DATA (enabled by the
+ * "mail.smtp.chunksize" property). Without the extensions the transport
+ * behaves like the standard one. Use {@link #register(Session, String)} to
+ * make it the transport of a session.
+ */
+public class PipeliningTransport extends SMTPTransport {
+
+    /** Size of a BDAT chunk: Smaller messages are sent with a single command. */
+    public static final int CHUNK_SIZE = 256 * 1024;
+
+    private static final String CRLF = "\r\n";
+
+    private final String name;
+
+    /** Commands written ahead whose replies were not read yet. */
+    private final Deque<String> pending;
+
+    /** Receiver commands to write together with the next "MAIL FROM". */
+    private List<String> envelope;
+
+    /**
+     * Constructor for the "smtp" protocol.
+     *
+     * @param session
+     *            Session.
+     * @param urlname
+     *            URL name of the service.
+     */
+    public PipeliningTransport(final Session session, final URLName urlname) {
+        this(session, urlname, "smtp", false);
+    }
+
+    /**
+     * Constructor with all data.
+     *
+     * @param session
+     *            Session.
+     * @param urlname
+     *            URL name of the service.
+     * @param name
+     *            Protocol name.
+     * @param isSSL
+     *            {@literal true} if the connection uses SSL.
+     */
+    protected PipeliningTransport(final Session session, final URLName urlname, final String name,
+            final boolean isSSL) {
+        super(session, urlname, name, isSSL);
+        this.name = name;
+        this.pending = new ArrayDeque<>();
+    }
+
+    /**
+     * Makes this transport the one used by a session for a transport type.
+     *
+     * @param session
+     *            Session to change.
+     * @param transportType
+     *            Either "smtp" or "smtps".
+     */
+    public static void register(final Session session, final String transportType) {
+        final String className = "smtps".equals(transportType) ? Ssl.class.getName()
+                : PipeliningTransport.class.getName();
+        try {
+            session.setProvider(new Provider(Provider.Type.TRANSPORT, transportType, className, "fuin.org", null));
+        } catch (final NoSuchProviderException ex) {
+            throw new IllegalStateException("Failed to register transport for: " + transportType, ex);
+        }
+    }
+
+    @Override
+    public synchronized void sendMessage(final Message message, final Address[] addresses)
+            throws MessagingException {
+        envelope = supportsExtension("PIPELINING") ? receiverCommands(message, addresses) : null;
+        try {
+            super.sendMessage(message, addresses);
+        } catch (final MessagingException ex) {
+            if (ex.getNextException() instanceof IOException) {
+                // Connection is closed, so there is nothing left to read
+                pending.clear();
+            }
+            throw ex;
+        } finally {
+            envelope = null;
+            drainPending();
+        }
+    }
+
+    @Override
+    protected void sendCommand(final String cmd) throws MessagingException {
+        if (!pending.isEmpty()) {
+            if (cmd.equals(pending.peekFirst())) {
+                // Already written together with "MAIL FROM"
+                pending.removeFirst();
+                return;
+            }
+            drainPending();
+            if (cmd.startsWith("RCPT")) {
+                super.sendCommand("RSET");
+                readServerResponse();
+                throw new MessagingException("Pipelined receivers don't match the command: " + cmd);
+            }
+        }
+        if (envelope != null && cmd.startsWith("MAIL FROM:")) {
+            pending.addAll(envelope);
+            envelope = null;
+            super.sendCommand(cmd + CRLF + String.join(CRLF, pending));
+            return;
+        }
+        super.sendCommand(cmd);
+    }
+
+    /**
+     * Reads the replies of all commands written ahead that were not read.
+     */
+    private void drainPending() {
+        while (!pending.isEmpty()) {
+            pending.removeFirst();
+            try {
+                readServerResponse();
+            } catch (final MessagingException ex) {
+                pending.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns the receiver commands exactly like the base class creates them.
+     *
+     * @return Commands or {@literal null} if they depend on something that's
+     *         only known while sending.
+     */
+    private List<String> receiverCommands(final Message message, final Address[] addresses) {
+        if (message instanceof SMTPMessage || session.getProperty("mail." + name + ".dsn.notify") != null) {
+            // Receivers may get NOTIFY parameters
+            return null;
+        }
+        final List<String> cmds = new ArrayList<>(addresses.length);
+        for (final Address address : addresses) {
+            if (!(address instanceof InternetAddress) || ((InternetAddress) address).isGroup()) {
+                return null;
+            }
+            final String addr = ((InternetAddress) address).getAddress();
+            cmds.add("RCPT TO:" + (addr.startsWith("<") ? addr : "<" + addr + ">"));
+        }
+        return cmds;
+    }
+
+    /**
+     * Pipelining transport for the "smtps" protocol.
+     */
+    public static final class Ssl extends PipeliningTransport {
+
+        /**
+         * Constructor with session and URL name.
+         *
+         * @param session
+         *            Session.
+         * @param urlname
+         *            URL name of the service.
+         */
+        public Ssl(final Session session, final URLName urlname) {
+            super(session, urlname, "smtps", true);
+        }
+
+    }
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.Objects;
+
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+
+/**
+ * Connected transport borrowed from a {@link TransportPool}. Closing it returns
+ * the connection to the pool. Instances must only be used by the thread that
+ * borrowed them.
+ */
+public final class PooledTransport implements AutoCloseable {
+
+    /**
+     * Receives the connection when it's returned.
+     */
+    @FunctionalInterface
+    interface ReleaseHandler {
+
+        /**
+         * Returns a connection to the pool.
+         *
+         * @param pooled
+         *            Connection to return.
+         * @param broken
+         *            {@literal true} if the connection should be closed
+         *            instead of being reused.
+         */
+        void release(PooledTransport pooled, boolean broken);
+
+    }
+
+    private final ReleaseHandler handler;
+
+    private final Session session;
+
+    private final Transport transport;
+
+    private volatile long lastUsed;
+
+    private boolean inUse;
+
+    private boolean broken;
+
+    /**
+     * Constructor with all data.
+     *
+     * @param handler
+     *            Handler that returns the connection to the pool.
+     * @param session
+     *            Session the transport belongs to.
+     * @param transport
+     *            Connected transport.
+     */
+    PooledTransport(final ReleaseHandler handler, final Session session, final Transport transport) {
+        super();
+        this.handler = Objects.requireNonNull(handler, "handler == null");
+        this.session = Objects.requireNonNull(session, "session == null");
+        this.transport = Objects.requireNonNull(transport, "transport == null");
+        this.lastUsed = System.currentTimeMillis();
+    }
+
+    /**
+     * Returns the session the transport belongs to.
+     *
+     * @return Session to create messages for.
+     */
+    public Session getSession() {
+        return session;
+    }
+
+    /**
+     * Returns the connected transport.
+     *
+     * @return Transport.
+     */
+    public Transport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Marks the connection as broken. It will be closed instead of being
+     * returned to the pool.
+     */
+    public void invalidate() {
+        broken = true;
+    }
+
+    /**
+     * Returns the time since the connection was returned to the pool.
+     *
+     * @return Idle time in milliseconds.
+     */
+    long idleMillis() {
+        return System.currentTimeMillis() - lastUsed;
+    }
+
+    /**
+     * Returns the time the connection was returned to the pool.
+     *
+     * @return Time in milliseconds since the epoch.
+     */
+    long lastUsed() {
+        return lastUsed;
+    }
+
+    void borrowed() {
+        inUse = true;
+        broken = false;
+    }
+
+    void released() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    @Override
+    public void close() {
+        if (inUse) {
+            inUse = false;
+            handler.release(this, broken);
+        }
+    }
+
+}
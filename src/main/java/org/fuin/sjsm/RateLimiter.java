@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Limits the number of messages sent per second and per time window. Each
+ * limit is a sliding window: A message is only sent if less than the limit
+ * were sent within the period before it, so no period ever holds more messages
+ * than the limit. The next slot is reserved under a short lock and the caller
+ * then waits outside of any lock until the slot is due. Instances are
+ * thread-safe.
+ * <p>
+ * The lock is intentional: A lock-free token bucket (or GCRA over an atomic
+ * timestamp) refills while a burst is sent, so it lets up to twice the limit
+ * minus one messages pass within the first period. Keeping the limit for every
+ * period needs the send times of the last messages, and a ring of them cannot
+ * be updated with a single compare-and-set. The lock is held for a few array
+ * accesses and never while waiting, which is negligible compared to a send.
+ * Senders without limits use {@link #UNLIMITED} and never take it.
+ */
+public final class RateLimiter {
+
+    /** Limiter without any limits. */
+    public static final RateLimiter UNLIMITED = new RateLimiter(0, 0, 0);
+
+    private static final ConcurrentMap<String, RateLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+    private final Bucket perSecond;
+
+    private final Bucket perWindow;
+
+    private final LongAdder acquired;
+
+    private final LongAdder delayed;
+
+    private final LongAdder waitedNanos;
+
+    /**
+     * Constructor with limits.
+     *
+     * @param maxPerSecond
+     *            Maximal messages per second or 0 for no limit.
+     * @param maxPerWindow
+     *            Maximal messages per time window or 0 for no limit.
+     * @param windowSeconds
+     *            Length of the time window in seconds.
+     */
+    public RateLimiter(final int maxPerSecond, final int maxPerWindow, final long windowSeconds) {
+        super();
+        this.perSecond = maxPerSecond > 0 ? new Bucket(maxPerSecond, TimeUnit.SECONDS.toNanos(1)) : null;
+        if (maxPerWindow > 0) {
+            if (windowSeconds <= 0) {
+                throw new IllegalArgumentException("Expected windowSeconds > 0, but was: " + windowSeconds);
+            }
+            this.perWindow = new Bucket(maxPerWindow, TimeUnit.SECONDS.toNanos(windowSeconds));
+        } else {
+            this.perWindow = null;
+        }
+        this.acquired = new LongAdder();
+        this.delayed = new LongAdder();
+        this.waitedNanos = new LongAdder();
+    }
+
+    /**
+     * Returns the limiter for the host of the configuration. All senders of the
+     * same host with the same limits share one limiter.
+     *
+     * @param config
+     *            Configuration with host and limits.
+     *
+     * @return Shared limiter or {@link #UNLIMITED} if no limits are configured.
+     */
+    public static RateLimiter of(final Config config) {
+        Objects.requireNonNull(config, "config == null");
+        if (config.getMaxPerSecond() <= 0 && config.getMaxPerWindow() <= 0) {
+            return UNLIMITED;
+        }
+        final String key = config.getHost() + "|" + config.getMaxPerSecond() + "|" + config.getMaxPerWindow() + "|"
+                + config.getRateWindow();
+        return LIMITERS.computeIfAbsent(key,
+                k -> new RateLimiter(config.getMaxPerSecond(), config.getMaxPerWindow(), config.getRateWindow()));
+    }
+
+    /**
+     * Waits until the next message may be sent.
+     *
+     * @return Time waited in nanoseconds.
+     */
+    public long acquire() {
+        if (this == UNLIMITED) {
+            return 0;
+        }
+        final long start = System.nanoTime();
+        final long wait = reserve(start);
+        acquired.increment();
+        if (wait <= 0) {
+            return 0;
+        }
+        final long deadline = start + wait;
+        long remaining = wait;
+        while (remaining > 0) {
+            LockSupport.parkNanos(this, remaining);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for the rate limit");
+            }
+            remaining = deadline - System.nanoTime();
+        }
+        final long waited = System.nanoTime() - start;
+        delayed.increment();
+        waitedNanos.add(waited);
+        return waited;
+    }
+
+    /**
+     * Reserves the next slot. Synchronized, as both limits must record the
+     * same slot and the slots of one limit must not decrease.
+     *
+     * @param now
+     *            Current time in nanoseconds.
+     *
+     * @return Time to wait until the slot is due in nanoseconds.
+     */
+    synchronized long reserve(final long now) {
+        long slot = now;
+        if (perSecond != null) {
+            slot = Math.max(slot, perSecond.next(now));
+        }
+        if (perWindow != null) {
+            slot = Math.max(slot, perWindow.next(now));
+        }
+        // Both windows must see the real send time
+        if (perSecond != null) {
+            perSecond.add(slot);
+        }
+        if (perWindow != null) {
+            perWindow.add(slot);
+        }
+        return slot - now;
+    }
+
+    /**
+     * Returns the number of messages that passed the limiter.
+     *
+     * @return Message count.
+     */
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    /**
+     * Returns the number of messages that had to wait.
+     *
+     * @return Delayed message count.
+     */
+    public long getDelayed() {
+        return delayed.sum();
+    }
+
+    /**
+     * Returns the total time messages waited.
+     *
+     * @return Sum of all waits in milliseconds.
+     */
+    public long getWaitedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitedNanos.sum());
+    }
+
+    /**
+     * Returns a short summary of the waits.
+     *
+     * @return Text for the user.
+     */
+    public String summary() {
+        return getDelayed() + " of " + getAcquired() + " messages waited " + getWaitedMillis()
+                + " ms for the rate limit";
+    }
+
+    /**
+     * Send times of the last messages within one period. Not thread-safe.
+     */
+    private static final class Bucket {
+
+        private final long periodNanos;
+
+        /** Ring with the send times of the last "limit" messages. */
+        private final long[] slots;
+
+        /** Index of the oldest slot, that is also the next one to overwrite. */
+        private int oldest;
+
+        private int count;
+
+        Bucket(final int limit, final long periodNanos) {
+            this.periodNanos = periodNanos;
+            this.slots = new long[limit];
+        }
+
+        /**
+         * Returns the earliest time the next message may be sent.
+         */
+        long next(final long now) {
+            if (count == 0) {
+                return now;
+            }
+            final long last = slots[Math.floorMod(oldest - 1, slots.length)];
+            long next = Math.max(now, last);
+            if (count == slots.length) {
+                next = Math.max(next, slots[oldest] + periodNanos);
+            }
+            return next;
+        }
+
+        /**
+         * Adds the send time of a message. Times must not decrease.
+         */
+        void add(final long slot) {
+            slots[oldest] = slot;
+            oldest = (oldest + 1) % slots.length;
+            count = Math.min(count + 1, slots.length);
+        }
+
+    }
+
+}
@@ -0,0 +1,317 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * Parses receivers separated with semicolons or line breaks in a single pass.
+ * Plain addresses like <code>jane.doe@example.com</code> are validated
+ * directly without the full RFC 822 parser, which is only used for entries
+ * with a personal name or other special characters. Addresses are
+ * de-duplicated ignoring case and invalid entries are collected instead of
+ * failing the whole list. Instances are not thread-safe.
+ */
+public final class RecipientParser {
+
+    private static final int MAX_LOCAL_LENGTH = 64;
+
+    private static final int MAX_DOMAIN_LENGTH = 255;
+
+    private final List<InternetAddress> addresses;
+
+    private final List<String> invalid;
+
+    private final AddressSet seen;
+
+    private final StringBuilder token;
+
+    private int duplicates;
+
+    /**
+     * Default constructor.
+     */
+    public RecipientParser() {
+        super();
+        this.addresses = new ArrayList<>();
+        this.invalid = new ArrayList<>();
+        this.seen = new AddressSet();
+        this.token = new StringBuilder();
+    }
+
+    /**
+     * Parses a list of receivers.
+     *
+     * @param receivers
+     *            Receivers separated with semicolons or line breaks.
+     *
+     * @return This instance.
+     */
+    public RecipientParser parse(final CharSequence receivers) {
+        Objects.requireNonNull(receivers, "receivers == null");
+        final String str = receivers.toString();
+        final int length = str.length();
+        int start = 0;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || isSeparator(str.charAt(i))) {
+                add(str, start, i);
+                start = i + 1;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Parses all receivers of a reader, for example a file with one receiver
+     * per line.
+     *
+     * @param reader
+     *            Reader with receivers separated with semicolons or line
+     *            breaks. The reader is not closed.
+     *
+     * @return This instance.
+     *
+     * @throws IOException
+     *             Error reading the input.
+     */
+    public RecipientParser parse(final Reader reader) throws IOException {
+        Objects.requireNonNull(reader, "reader == null");
+        final char[] buf = new char[8192];
+        int count;
+        while ((count = reader.read(buf)) >= 0) {
+            for (int i = 0; i < count; i++) {
+                final char ch = buf[i];
+                if (isSeparator(ch)) {
+                    add(token, 0, token.length());
+                    token.setLength(0);
+                } else {
+                    token.append(ch);
+                }
+            }
+        }
+        add(token, 0, token.length());
+        token.setLength(0);
+        return this;
+    }
+
+    /**
+     * Adds already parsed receivers. Duplicates of addresses added before are
+     * ignored.
+     *
+     * @param recipients
+     *            Receivers to add.
+     *
+     * @return This instance.
+     */
+    public RecipientParser add(final Recipients recipients) {
+        Objects.requireNonNull(recipients, "recipients == null");
+        for (int i = 0; i < recipients.size(); i++) {
+            addAddress(recipients.get(i));
+        }
+        invalid.addAll(recipients.getInvalid());
+        duplicates += recipients.getDuplicates();
+        return this;
+    }
+
+    /**
+     * Returns the result of all receivers parsed so far.
+     *
+     * @return Immutable result.
+     */
+    public Recipients toRecipients() {
+        return new Recipients(addresses.toArray(new InternetAddress[0]), new ArrayList<>(invalid), duplicates);
+    }
+
+    private static boolean isSeparator(final char ch) {
+        return ch == ';' || ch == '\n' || ch == '\r';
+    }
+
+    private void add(final CharSequence seq, final int from, final int to) {
+        int start = from;
+        int end = to;
+        while (start < end && Character.isWhitespace(seq.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(seq.charAt(end - 1))) {
+            end--;
+        }
+        if (start == end) {
+            return;
+        }
+        final String entry = seq.subSequence(start, end).toString();
+        final InternetAddress address;
+        if (isPlainAddress(entry)) {
+            address = new InternetAddress();
+            address.setAddress(entry);
+        } else {
+            try {
+                address = new InternetAddress(entry, true);
+            } catch (final AddressException ex) {
+                invalid.add(entry);
+                return;
+            }
+        }
+        addAddress(address);
+    }
+
+    private void addAddress(final InternetAddress address) {
+        if (seen.add(address.getAddress())) {
+            addresses.add(address);
+        } else {
+            duplicates++;
+        }
+    }
+
+    /**
+     * Tests if the string is a simple <code>local@domain</code> address.
+     * Returns {@literal false} for invalid addresses and for entries that
+     * need the full parser (personal name, quotes, comments, ...).
+     *
+     * @param str
+     *            String to test.
+     *
+     * @return {@literal true} if the string is a valid plain address.
+     */
+    static boolean isPlainAddress(final String str) {
+        final int at = str.indexOf('@');
+        if (at <= 0 || at > MAX_LOCAL_LENGTH || at == str.length() - 1
+                || str.length() - at - 1 > MAX_DOMAIN_LENGTH) {
+            return false;
+        }
+        char prev = '.';
+        for (int i = 0; i < at; i++) {
+            final char ch = str.charAt(i);
+            if (ch == '.') {
+                if (prev == '.') {
+                    return false;
+                }
+            } else if (!isAtext(ch)) {
+                return false;
+            }
+            prev = ch;
+        }
+        if (prev == '.') {
+            return false;
+        }
+        prev = '.';
+        for (int i = at + 1; i < str.length(); i++) {
+            final char ch = str.charAt(i);
+            if (ch == '.') {
+                if (prev == '.' || prev == '-') {
+                    return false;
+                }
+            } else if (ch == '-') {
+                if (prev == '.') {
+                    return false;
+                }
+            } else if (!(ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch >= '0' && ch <= '9' || ch > 127)) {
+                return false;
+            }
+            prev = ch;
+        }
+        return prev != '.' && prev != '-';
+    }
+
+    private static boolean isAtext(final char ch) {
+        if (ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch >= '0' && ch <= '9' || ch > 127) {
+            return true;
+        }
+        return "!#$%&'*+-/=?^_`{|}~".indexOf(ch) >= 0;
+    }
+
+    /**
+     * Open addressing hash set of strings that ignores case without creating
+     * lower case copies.
+     */
+    static final class AddressSet {
+
+        private String[] table = new String[64];
+
+        private int[] hashes = new int[64];
+
+        private int size;
+
+        /**
+         * Adds a string if no equal one (ignoring case) is in the set.
+         *
+         * @param str
+         *            String to add.
+         *
+         * @return {@literal true} if the string was added.
+         */
+        boolean add(final String str) {
+            if ((size + 1) * 2 > table.length) {
+                resize();
+            }
+            final int hash = hash(str);
+            final int mask = table.length - 1;
+            int i = hash >>> Integer.numberOfLeadingZeros(mask);
+            while (table[i] != null) {
+                if (hashes[i] == hash && table[i].equalsIgnoreCase(str)) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = str;
+            hashes[i] = hash;
+            size++;
+            return true;
+        }
+
+        private void resize() {
+            final String[] oldTable = table;
+            final int[] oldHashes = hashes;
+            table = new String[oldTable.length * 2];
+            hashes = new int[oldTable.length * 2];
+            final int mask = table.length - 1;
+            for (int j = 0; j < oldTable.length; j++) {
+                if (oldTable[j] != null) {
+                    int i = oldHashes[j] >>> Integer.numberOfLeadingZeros(mask);
+                    while (table[i] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    table[i] = oldTable[j];
+                    hashes[i] = oldHashes[j];
+                }
+            }
+        }
+
+        private static int hash(final String str) {
+            int h = 0;
+            for (int i = 0; i < str.length(); i++) {
+                final char ch = str.charAt(i);
+                if (ch < 128) {
+                    h = 31 * h + (ch >= 'A' && ch <= 'Z' ? ch + ('a' - 'A') : ch);
+                } else {
+                    h = 31 * h + Character.toLowerCase(Character.toUpperCase(ch));
+                }
+            }
+            // Fibonacci hashing: The upper bits are used as index
+            return h * 0x9E3779B9;
+        }
+
+    }
+
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * Result of parsing receivers: The valid and de-duplicated addresses plus all
+ * entries that are not valid email addresses. Instances are immutable.
+ */
+public final class Recipients {
+
+    /** No receivers at all. */
+    public static final Recipients EMPTY = new Recipients(new InternetAddress[0], Collections.emptyList(), 0);
+
+    private final InternetAddress[] addresses;
+
+    private final List<String> invalid;
+
+    private final int duplicates;
+
+    /**
+     * Constructor with all data.
+     *
+     * @param addresses
+     *            Valid addresses in order of first occurrence.
+     * @param invalid
+     *            Entries that are not valid email addresses.
+     * @param duplicates
+     *            Number of ignored duplicate entries.
+     */
+    Recipients(final InternetAddress[] addresses, final List<String> invalid, final int duplicates) {
+        super();
+        this.addresses = Objects.requireNonNull(addresses, "addresses == null");
+        this.invalid = Collections.unmodifiableList(Objects.requireNonNull(invalid, "invalid == null"));
+        this.duplicates = duplicates;
+    }
+
+    /**
+     * Returns the valid addresses.
+     *
+     * @return Copy of the addresses in order of first occurrence.
+     */
+    public InternetAddress[] getAddresses() {
+        return addresses.clone();
+    }
+
+    /**
+     * Returns the number of valid addresses.
+     *
+     * @return Address count.
+     */
+    public int size() {
+        return addresses.length;
+    }
+
+    /**
+     * Returns a valid address.
+     *
+     * @param index
+     *            Index of the address.
+     *
+     * @return Address at the given index.
+     */
+    public InternetAddress get(final int index) {
+        return addresses[index];
+    }
+
+    /**
+     * Returns the entries that are not valid email addresses.
+     *
+     * @return Unmodifiable list of invalid entries as found in the input.
+     */
+    public List<String> getInvalid() {
+        return invalid;
+    }
+
+    /**
+     * Returns the number of entries that were ignored because the same
+     * address (ignoring case) was already found before.
+     *
+     * @return Duplicate count.
+     */
+    public int getDuplicates() {
+        return duplicates;
+    }
+
+}
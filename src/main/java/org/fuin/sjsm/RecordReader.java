@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of the messages of a batch.
+ */
+public interface RecordReader extends Closeable {
+
+    /**
+     * Reads the next record. A {@link RuntimeException} signals an invalid
+     * entry that was skipped: The caller may report it and continue reading.
+     *
+     * @return Next record or {@literal null} if there are no more records.
+     *
+     * @throws IOException
+     *             Error reading the input.
+     */
+    BatchRecord read() throws IOException;
+
+}
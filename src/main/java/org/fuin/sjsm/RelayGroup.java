@@ -0,0 +1,533 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Distributes sends over multiple relays with the same settings except host
+ * and port. Every send goes to the relay with the lowest expected latency: The
+ * smoothed latency of its recent sends multiplied with the number of sends in
+ * flight plus one. Relays without sends yet are tried first and equal relays
+ * take turns. A relay that failed a number of times in a row is ejected for a
+ * while. If connecting fails or the server replies 421 (service not available),
+ * the send is retried on the next relay. The same applies to a
+ * {@link SendResult} with a 421 reply or without any sent or invalid receiver:
+ * Only the unsent receivers are retried on the next relay. Other failures are
+ * not retried, because the message may have been accepted already. Instances
+ * are thread-safe.
+ */
+public final class RelayGroup {
+
+    /** Default number of failures in a row that eject a relay. */
+    public static final int DEFAULT_MAX_FAILURES = 3;
+
+    /** Default time an ejected relay is not used in milliseconds. */
+    public static final long DEFAULT_EJECT_MILLIS = 30_000;
+
+    /** Weight of the latest send in the smoothed latency. */
+    private static final double ALPHA = 0.3;
+
+    private final List<Relay> relays;
+
+    private final int maxFailures;
+
+    private final long ejectNanos;
+
+    private final AtomicInteger next;
+
+    /**
+     * Constructor with relays and default ejection.
+     *
+     * @param relays
+     *            Relays in order of preference. The first one is the primary
+     *            relay.
+     */
+    public RelayGroup(final List<ConnectionSettings> relays) {
+        this(relays, DEFAULT_MAX_FAILURES, DEFAULT_EJECT_MILLIS);
+    }
+
+    /**
+     * Constructor with all data.
+     *
+     * @param relays
+     *            Relays in order of preference. The first one is the primary
+     *            relay.
+     * @param maxFailures
+     *            Number of failures in a row that eject a relay.
+     * @param ejectMillis
+     *            Time an ejected relay is not used in milliseconds.
+     */
+    public RelayGroup(final List<ConnectionSettings> relays, final int maxFailures, final long ejectMillis) {
+        super();
+        Objects.requireNonNull(relays, "relays == null");
+        if (relays.isEmpty()) {
+            throw new IllegalArgumentException("At least one relay is required");
+        }
+        if (maxFailures < 1) {
+            throw new IllegalArgumentException("Expected maxFailures >= 1, but was: " + maxFailures);
+        }
+        final List<Relay> list = new ArrayList<>(relays.size());
+        for (final ConnectionSettings settings : relays) {
+            list.add(new Relay(Objects.requireNonNull(settings, "relays contains null")));
+        }
+        this.relays = Collections.unmodifiableList(list);
+        this.maxFailures = maxFailures;
+        this.ejectNanos = TimeUnit.MILLISECONDS.toNanos(ejectMillis);
+        this.next = new AtomicInteger();
+    }
+
+    /**
+     * Returns a group with a single relay.
+     *
+     * @param settings
+     *            Relay.
+     *
+     * @return New group without failover.
+     */
+    public static RelayGroup of(final ConnectionSettings settings) {
+        return new RelayGroup(List.of(settings));
+    }
+
+    /**
+     * Returns a group with the relays of the configuration. The health is
+     * tracked per group, so senders that should share it must share the
+     * instance.
+     *
+     * @param config
+     *            Configuration with host, port and additional relays.
+     *
+     * @return New group.
+     */
+    public static RelayGroup of(final Config config) {
+        Objects.requireNonNull(config, "config == null");
+        return new RelayGroup(config.toRelaySettings());
+    }
+
+    /**
+     * Returns the first relay.
+     *
+     * @return Connection settings of the primary relay.
+     */
+    public ConnectionSettings getPrimary() {
+        return relays.get(0).settings;
+    }
+
+    /**
+     * Returns all relays.
+     *
+     * @return Connection settings in order of preference.
+     */
+    public List<ConnectionSettings> getRelays() {
+        final List<ConnectionSettings> list = new ArrayList<>(relays.size());
+        for (final Relay relay : relays) {
+            list.add(relay.settings);
+        }
+        return list;
+    }
+
+    /**
+     * Connects to a relay and sends over the connection. The connection is
+     * closed afterwards.
+     *
+     * @param call
+     *            Sends over the connected transport.
+     *
+     * @return Result of the call.
+     *
+     * @param <T>
+     *            Type of the result.
+     *
+     * @throws MessagingException
+     *             No relay could be connected or the call failed.
+     */
+    public <T> T execute(final Call<T> call) throws MessagingException {
+        Objects.requireNonNull(call, "call == null");
+        final List<Relay> tried = new ArrayList<>(relays.size());
+        MessagingException last = null;
+        while (true) {
+            final Relay relay = select(tried);
+            if (relay == null) {
+                throw last;
+            }
+            tried.add(relay);
+            final Transport transport = relay.settings.getSession()
+                    .getTransport(relay.settings.getTransportType());
+            relay.inFlight.incrementAndGet();
+            final long start = System.nanoTime();
+            try {
+                try {
+                    Transports.connect(transport, relay.settings);
+                } catch (final MessagingException ex) {
+                    relay.failed(System.nanoTime() - start);
+                    last = ex;
+                    continue;
+                }
+                final T result;
+                try {
+                    result = call.send(transport);
+                } catch (final MessagingException | RuntimeException ex) {
+                    if (failover(relay, ex, start)) {
+                        last = (MessagingException) ex;
+                        continue;
+                    }
+                    throw ex;
+                }
+                relay.succeeded(System.nanoTime() - start);
+                return result;
+            } finally {
+                relay.inFlight.decrementAndGet();
+                Transports.closeQuietly(transport);
+            }
+        }
+    }
+
+    /**
+     * Sends a message to all its receivers with a chunked sender.
+     *
+     * @param sender
+     *            Sender to use.
+     * @param msg
+     *            Message with all changes already saved.
+     *
+     * @return Result per receiver of all relays tried.
+     *
+     * @throws MessagingException
+     *             No relay could be connected or the send failed.
+     *
+     * @see #send(Address[], SendCall)
+     */
+    public SendResult send(final ChunkedSender sender, final MimeMessage msg) throws MessagingException {
+        Objects.requireNonNull(sender, "sender == null");
+        Objects.requireNonNull(msg, "msg == null");
+        return send(msg.getAllRecipients(), (transport, receivers) -> sender.send(transport, msg, receivers));
+    }
+
+    /**
+     * Connects to a relay and sends to the receivers over the connection. If
+     * the relay fails the send as a whole (421 reply or no receiver sent or
+     * rejected permanently), it counts as failure of the relay and the unsent
+     * receivers are sent again over the next relay. The connection is closed
+     * afterwards.
+     *
+     * @param receivers
+     *            Receivers to send to.
+     * @param call
+     *            Sends to the given receivers over the connected transport.
+     *
+     * @return Result per receiver of all relays tried.
+     *
+     * @throws MessagingException
+     *             No relay could be connected or the call failed.
+     */
+    public SendResult send(final Address[] receivers, final SendCall call) throws MessagingException {
+        Objects.requireNonNull(receivers, "receivers == null");
+        Objects.requireNonNull(call, "call == null");
+        final List<Relay> tried = new ArrayList<>(relays.size());
+        Address[] remaining = receivers;
+        SendResult total = null;
+        MessagingException last = null;
+        while (true) {
+            final Relay relay = select(tried);
+            if (relay == null) {
+                if (total != null) {
+                    return total;
+                }
+                throw last;
+            }
+            tried.add(relay);
+            final Transport transport = relay.settings.getSession()
+                    .getTransport(relay.settings.getTransportType());
+            relay.inFlight.incrementAndGet();
+            final long start = System.nanoTime();
+            try {
+                try {
+                    Transports.connect(transport, relay.settings);
+                } catch (final MessagingException ex) {
+                    relay.failed(System.nanoTime() - start);
+                    last = ex;
+                    continue;
+                }
+                final SendResult result;
+                try {
+                    result = call.send(transport, remaining);
+                } catch (final MessagingException | RuntimeException ex) {
+                    if (failover(relay, ex, start)) {
+                        last = (MessagingException) ex;
+                        continue;
+                    }
+                    throw ex;
+                }
+                total = total == null ? result : total.retried(result);
+                if (isRelayFailure(result)) {
+                    relay.failed(System.nanoTime() - start);
+                    remaining = result.getUnsent().keySet().toArray(new Address[0]);
+                    continue;
+                }
+                relay.succeeded(System.nanoTime() - start);
+                return total;
+            } finally {
+                relay.inFlight.decrementAndGet();
+                Transports.closeQuietly(transport);
+            }
+        }
+    }
+
+    /**
+     * Records a failed call and determines if it is retried on the next relay.
+     *
+     * @return {@literal true} if the server did not accept the message
+     *         (421).
+     */
+    private static boolean failover(final Relay relay, final Exception ex, final long start) {
+        if (AdaptiveLimiter.classify(ex) == AdaptiveLimiter.Outcome.OVERLOAD) {
+            relay.failed(System.nanoTime() - start);
+        }
+        return ex instanceof MessagingException && AdaptiveLimiter.replyCode(ex) == 421;
+    }
+
+    /**
+     * Determines if a relay failed a send as a whole. This is the case if it
+     * replied 421 (service not available) or if there are unsent receivers,
+     * but none was sent or rejected permanently (like every receiver
+     * tempfailed or the connection was lost).
+     *
+     * @param result
+     *            Result of the send over the relay.
+     *
+     * @return {@literal true} if the unsent receivers should be sent over
+     *         another relay.
+     */
+    static boolean isRelayFailure(final SendResult result) {
+        if (result.getUnsent().isEmpty()) {
+            return false;
+        }
+        return result.getReplyCodes().contains(421)
+                || (result.getSent().isEmpty() && result.getInvalid().isEmpty());
+    }
+
+    /**
+     * Selects the relay for the next attempt.
+     *
+     * @param tried
+     *            Relays already tried for this send.
+     *
+     * @return Relay or {@literal null} if there is no further relay to try.
+     */
+    Relay select(final List<Relay> tried) {
+        final long now = System.nanoTime();
+        final int size = relays.size();
+        final int first = Math.floorMod(next.getAndIncrement(), size);
+        Relay best = null;
+        double bestScore = Double.MAX_VALUE;
+        Relay ejected = null;
+        for (int i = 0; i < size; i++) {
+            final Relay relay = relays.get((first + i) % size);
+            if (tried.contains(relay)) {
+                continue;
+            }
+            if (relay.isAvailable(now)) {
+                final double score = relay.score();
+                if (score < bestScore) {
+                    best = relay;
+                    bestScore = score;
+                }
+            } else if (ejected == null || relay.ejectedUntil() - ejected.ejectedUntil() < 0) {
+                ejected = relay;
+            }
+        }
+        if (best == null && tried.isEmpty()) {
+            // All relays are ejected: Use the one that comes back first
+            return ejected;
+        }
+        return best;
+    }
+
+    /**
+     * Returns the health of a relay.
+     *
+     * @param index
+     *            Index of the relay.
+     *
+     * @return Relay.
+     */
+    Relay relay(final int index) {
+        return relays.get(index);
+    }
+
+    @Override
+    public String toString() {
+        final long now = System.nanoTime();
+        final StringBuilder sb = new StringBuilder("Relays:");
+        for (final Relay relay : relays) {
+            sb.append(System.lineSeparator()).append("  ").append(relay.toString(now));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Sends over a connected transport.
+     *
+     * @param <T>
+     *            Type of the result.
+     */
+    @FunctionalInterface
+    public interface Call<T> {
+
+        /**
+         * Sends over the transport.
+         *
+         * @param transport
+         *            Connected transport.
+         *
+         * @return Result of the send.
+         *
+         * @throws MessagingException
+         *             Sending failed.
+         */
+        T send(Transport transport) throws MessagingException;
+
+    }
+
+    /**
+     * Sends to some receivers over a connected transport.
+     */
+    @FunctionalInterface
+    public interface SendCall {
+
+        /**
+         * Sends over the transport.
+         *
+         * @param transport
+         *            Connected transport.
+         * @param receivers
+         *            Receivers to send to.
+         *
+         * @return Result per receiver.
+         *
+         * @throws MessagingException
+         *             Sending failed.
+         */
+        SendResult send(Transport transport, Address[] receivers) throws MessagingException;
+
+    }
+
+    /**
+     * Health of one relay.
+     */
+    final class Relay {
+
+        private final ConnectionSettings settings;
+
+        private final AtomicInteger inFlight;
+
+        private final LongAdder sent;
+
+        private final LongAdder failed;
+
+        // Guarded by this
+
+        private double latencyNanos;
+
+        private int failures;
+
+        private boolean ejected;
+
+        private long ejectedUntil;
+
+        private int ejections;
+
+        Relay(final ConnectionSettings settings) {
+            this.settings = settings;
+            this.inFlight = new AtomicInteger();
+            this.sent = new LongAdder();
+            this.failed = new LongAdder();
+        }
+
+        synchronized void succeeded(final long nanos) {
+            sent.increment();
+            failures = 0;
+            ejected = false;
+            latency(nanos);
+        }
+
+        synchronized void failed(final long nanos) {
+            failed.increment();
+            failures++;
+            latency(nanos);
+            if (failures >= maxFailures) {
+                // Also ejects again after a single failure when it's back
+                ejected = true;
+                ejectedUntil = System.nanoTime() + ejectNanos;
+                ejections++;
+            }
+        }
+
+        private void latency(final long nanos) {
+            latencyNanos = latencyNanos == 0 ? nanos : ALPHA * nanos + (1 - ALPHA) * latencyNanos;
+        }
+
+        synchronized boolean isAvailable(final long now) {
+            return !ejected || now - ejectedUntil >= 0;
+        }
+
+        synchronized long ejectedUntil() {
+            return ejectedUntil;
+        }
+
+        synchronized double score() {
+            return latencyNanos * (inFlight.get() + 1);
+        }
+
+        ConnectionSettings getSettings() {
+            return settings;
+        }
+
+        long getSent() {
+            return sent.sum();
+        }
+
+        long getFailed() {
+            return failed.sum();
+        }
+
+        synchronized int getEjections() {
+            return ejections;
+        }
+
+        synchronized String toString(final long now) {
+            return settings.getHost() + ":" + settings.getPort() + " " + sent.sum() + " sent, " + failed.sum()
+                    + " failed, " + String.format(Locale.ROOT, "%.1f", latencyNanos / 1e6) + " ms"
+                    + (isAvailable(now) ? "" : ", ejected");
+        }
+
+    }
+
+}
@@ -17,8 +17,26 @@
  */
 package org.fuin.sjsm;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.mail.MessagingException;
 import jakarta.mail.Session;
-import jakarta.mail.Transport;
 import jakarta.mail.internet.MimeMessage;
 
 import org.kohsuke.args4j.CmdLineException;
@@ -26,39 +44,135 @@ import org.kohsuke.args4j.CmdLineParser;
 
 /**
  * Main command line application that sends a single mail message via SMTPS to a
- * single receiver.
+ * single receiver or a batch of messages over one connection.
  */
 public final class SendMailApp {
 
+    /** Relays of all sends of this application, so the health of a relay is kept between sends. */
+    private final ConcurrentMap<List<ConnectionSettings>, RelayGroup> relayGroups = new ConcurrentHashMap<>();
+
     /**
-     * Sends a message.
+     * Sends a message. Receivers that failed temporarily are retried, so the
+     * message is never sent twice to the same receiver.
      * 
      * @param config
      *            Configuration to use.
      */
     public void send(final Config config) {
 
-        try {
-            final Session session;
-            if (config.isNoauth()) {
-                session = Session.getInstance(config.createSessionProperties());
-            } else {
-                session = Session.getInstance(config.createSessionProperties(),
-                        config.createAuthenticator());
+        final SendResult result = sendPerReceiver(config);
+        if (!result.isSuccess()) {
+            throw new RuntimeException("Failed to send mail with subject '" + config.getSubject() + "' to "
+                    + result.getFailedCount() + " receivers: " + result);
+        }
+
+    }
+
+    /**
+     * Sends a message asynchronously. The configuration is copied first, so it
+     * may be changed after this method returns. Receivers that failed
+     * temporarily are retried and the configured rate limit is applied.
+     *
+     * @param config
+     *            Configuration to use.
+     * @param executor
+     *            Executor to send the message on.
+     *
+     * @return Future completed with the report or exceptionally if the
+     *         message could not be created or the connection failed.
+     *         Receivers the message could not be sent to are reported in the
+     *         report and not as exception.
+     */
+    public CompletableFuture<DeliveryReport> sendAsync(final Config config, final Executor executor) {
+        Objects.requireNonNull(config, "config == null");
+        Objects.requireNonNull(executor, "executor == null");
+        final Config copy = new Config(config);
+        return CompletableFuture.supplyAsync(() -> {
+            RateLimiter.of(copy).acquire();
+            try {
+                return new Mailer(relays(copy), copy.getMaxRcpt(), copy.getRetries(), copy.getRetryDelay(),
+                        executor).deliver(copy.toMailMessage());
+            } catch (final MessagingException ex) {
+                throw new CompletionException(ex);
             }
+        }, executor);
+    }
 
+    /**
+     * Returns the relays for the configuration. All sends of this application
+     * to the same relays share one group.
+     *
+     * @param config
+     *            Configuration with host, port and additional relays.
+     *
+     * @return Shared group.
+     */
+    RelayGroup relays(final Config config) {
+        return relayGroups.computeIfAbsent(config.toRelaySettings(), RelayGroup::new);
+    }
+
+    /**
+     * Runs a load test and prints throughput and latency.
+     *
+     * @param config
+     *            Configuration with connection settings and load test options.
+     *
+     * @return Result of the test.
+     */
+    public LoadTest.Result loadTest(final Config config) {
+        final LoadTest test = new LoadTest(config);
+        System.out.println(test);
+        final LoadTest.Result result = test.run();
+        System.out.print(result.report());
+        if (!config.getRelays().isEmpty()) {
+            System.out.println(test.getRelays());
+        }
+        return result;
+    }
+
+    /**
+     * Sends a message and reports the result per receiver. Receivers that
+     * failed temporarily are retried with an exponential backoff. If there is
+     * a maximal number of receivers per transaction, the message is sent in
+     * multiple transactions. The chunks are sent in parallel over pooled
+     * connections if the maximal pool size is greater than one.
+     *
+     * @param config
+     *            Configuration to use.
+     *
+     * @return Result per receiver. Receivers the message could not be sent to
+     *         are reported there and not as exception.
+     */
+    public SendResult sendPerReceiver(final Config config) {
+
+        try {
+            final Session session = config.getSession();
             final MimeMessage msg = config.createMimeMessage(session);
-            final Transport transport = session.getTransport(config.getTransportType());
-            try {
-                transport.connect();
-                msg.saveChanges();
-                transport.sendMessage(msg, msg.getAllRecipients());
-            } finally {
-                transport.close();
-            }
-            System.out
-                    .println("Successfully sent message '" + config.getSubject()
-                            + "' to '" + config.getReceiver() + "'");
+            Transports.saveChanges(msg);
+            final ChunkedSender sender = new ChunkedSender(config.getMaxRcpt(), config.getRetries(),
+                    config.getRetryDelay());
+            final long waited = RateLimiter.of(config).acquire();
+            final SendResult result;
+            if (config.getMaxRcpt() > 0 && config.getPoolMax() > 1) {
+                final ExecutorService executor = Executors.newFixedThreadPool(config.getPoolMax(),
+                        Threads.daemonFactory("sjsm-chunk-sender"));
+                try (final TransportPool pool = new TransportPool(config)) {
+                    result = sender.send(pool, config, msg, executor);
+                } finally {
+                    executor.shutdownNow();
+                }
+            } else {
+                result = relays(config).send(sender, msg);
+            }
+            if (result.isSuccess()) {
+                System.out.println("Successfully sent message '" + config.getSubject() + "' to '"
+                        + config.getReceiver() + "'");
+            } else {
+                System.out.println("Sent message '" + config.getSubject() + "' to " + result.getSent().size()
+                        + " of " + msg.getAllRecipients().length + " receivers");
+            }
+            printWait(waited);
+            return result;
         } catch (final Exception ex) {
             throw new RuntimeException("Failed to send mail with subject '"
                     + config.getSubject() + "' to " + config.getReceiver(), ex);
@@ -66,6 +180,256 @@ public final class SendMailApp {
 
     }
 
+    private static void printWait(final long waitedNanos) {
+        if (waitedNanos > 0) {
+            System.out.println("Waited " + TimeUnit.NANOSECONDS.toMillis(waitedNanos) + " ms for the rate limit");
+        }
+    }
+
+    /**
+     * Sends all messages from the batch file (or stdin) or one message per row
+     * of the mail merge data. Messages are sent
+     * concurrently with one connection each if a number of sessions in flight
+     * is set, in parallel over multiple pooled connections if the maximal pool
+     * size is greater than one, or otherwise sequentially over one connection.
+     *
+     * @param config
+     *            Configuration with connection settings and message defaults.
+     *
+     * @return Number of messages that could not be sent.
+     */
+    public int sendBatch(final Config config) {
+
+        try (final RecordReader reader = openRecords(config)) {
+            final int sent;
+            final int failed;
+            if (config.getInFlight() > 0) {
+                final ConcurrentSender sender = new ConcurrentSender(config);
+                sender.sendAll(reader);
+                sent = sender.getSent();
+                failed = sender.getFailed();
+                if (sender.getAdaptiveLimiter() != null) {
+                    System.out.println(sender.getAdaptiveLimiter());
+                }
+            } else if (config.getPoolMax() > 1) {
+                try (final TransportPool pool = new TransportPool(config)) {
+                    final ParallelSender sender = new ParallelSender(config, pool);
+                    sender.sendAll(reader);
+                    sent = sender.getSent();
+                    failed = sender.getFailed();
+                }
+            } else {
+                try (final BatchSender sender = new BatchSender(config)) {
+                    sender.sendAll(reader);
+                    sent = sender.getSent();
+                    failed = sender.getFailed();
+                }
+            }
+            System.out.println("Batch finished: " + sent + " sent, " + failed + " failed");
+            final RateLimiter limiter = RateLimiter.of(config);
+            if (limiter.getDelayed() > 0) {
+                System.out.println(limiter.summary());
+            }
+            return failed;
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read batch: " + input(config), ex);
+        }
+
+    }
+
+    /**
+     * Appends the message (or all messages of the batch) to the spool.
+     *
+     * @param config
+     *            Configuration with spool directory and message(s).
+     */
+    public void spool(final Config config) {
+
+        try (final Spool spool = new Spool(Path.of(config.getSpool()), Spool.DEFAULT_SEGMENT_SIZE,
+                config.isSpoolSync())) {
+            if (config.getBatch() == null && config.getData() == null) {
+                spool.enqueue(BatchRecord.of(config));
+                System.out.println("Spooled message '" + config.getSubject() + "' to '" + config.getReceiver() + "'");
+                return;
+            }
+            int count = 0;
+            try (final RecordReader reader = openRecords(config)) {
+                BatchRecord record;
+                while ((record = reader.read()) != null) {
+                    spool.enqueue(record);
+                    count++;
+                }
+            } catch (final IOException ex) {
+                throw new RuntimeException("Failed to read batch: " + input(config), ex);
+            }
+            System.out.println("Spooled " + count + " messages");
+        }
+
+    }
+
+    /**
+     * Delivers all messages of the spool and returns when it's empty.
+     *
+     * @param config
+     *            Configuration with spool directory, connection settings and
+     *            message defaults.
+     *
+     * @return Number of messages that finally failed.
+     */
+    public int drainSpool(final Config config) {
+
+        try (final Spool spool = new Spool(Path.of(config.getSpool()), Spool.DEFAULT_SEGMENT_SIZE,
+                config.isSpoolSync()); final SpoolDrainer drainer = new SpoolDrainer(config, spool)) {
+            drainer.drainUntilEmpty();
+            System.out.println("Spool drained: " + drainer.getDelivered() + " delivered, " + drainer.getFailed()
+                    + " failed");
+            final RateLimiter limiter = RateLimiter.of(config);
+            if (limiter.getDelayed() > 0) {
+                System.out.println(limiter.summary());
+            }
+            return drainer.getFailed();
+        }
+
+    }
+
+    /**
+     * Runs a daemon that accepts send requests until the JVM is shut down.
+     *
+     * @param config
+     *            Configuration with daemon port, connection settings and
+     *            message defaults.
+     */
+    public void runDaemon(final Config config) {
+
+        final SendMailDaemon daemon = new SendMailDaemon(config);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            daemon.close();
+            stopped.countDown();
+        }));
+        daemon.start();
+        try {
+            stopped.await();
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            daemon.close();
+        }
+
+    }
+
+    /**
+     * Runs an SMTP sink until the JVM is shut down. The received throughput is
+     * printed every ten seconds and on shutdown.
+     *
+     * @param config
+     *            Configuration with sink port, latency and error rates.
+     */
+    public void runSink(final Config config) {
+
+        final SmtpSink sink = new SmtpSink(config);
+        final CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            sink.close();
+            System.out.println(sink.summary());
+            stopped.countDown();
+        }));
+        sink.start();
+        System.out.println("SMTP sink listening on port " + sink.getPort());
+        try {
+            while (!stopped.await(10, TimeUnit.SECONDS)) {
+                System.out.println(sink.summary());
+            }
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            sink.close();
+        }
+
+    }
+
+    /**
+     * Forwards the message (or all messages of the batch) to a daemon.
+     *
+     * @param config
+     *            Configuration with daemon port and message(s).
+     *
+     * @return Number of messages that could not be forwarded or sent.
+     */
+    public int sendViaDaemon(final Config config) {
+
+        final DaemonClient client = new DaemonClient(config.getClient(), config.getTimeout(),
+                SendMailDaemon.tokenFile(config, config.getClient()));
+        if (config.getBatch() == null && config.getData() == null) {
+            final String status = client.send(BatchRecord.of(config));
+            System.out.println(("spooled".equals(status) ? "Spooled" : "Successfully sent") + " message '"
+                    + config.getSubject() + "' to '" + config.getReceiver() + "'");
+            return 0;
+        }
+        int failed = 0;
+        try (final RecordReader reader = openRecords(config)) {
+            while (true) {
+                try {
+                    final BatchRecord record = reader.read();
+                    if (record == null) {
+                        break;
+                    }
+                    client.send(record);
+                } catch (final RuntimeException ex) {
+                    failed++;
+                    System.err.println(ex.getMessage());
+                }
+            }
+        } catch (final IOException ex) {
+            throw new RuntimeException("Failed to read batch: " + input(config), ex);
+        }
+        return failed;
+
+    }
+
+    private static RecordReader openRecords(final Config config) throws IOException {
+        if (config.getData() != null) {
+            return MergeReader.open(config);
+        }
+        if ("-".equals(config.getBatch())) {
+            return new JsonLinesReader(new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)));
+        }
+        return new JsonLinesReader(Files.newBufferedReader(Path.of(config.getBatch()), StandardCharsets.UTF_8));
+    }
+
+    private static String input(final Config config) {
+        return config.getData() == null ? config.getBatch() : config.getData();
+    }
+
+    private static void ensureConnectionIsSet(final CmdLineParser parser, final Config config)
+            throws CmdLineException {
+        if (config.getHost() == null) {
+            throw new CmdLineException(parser, Messages.MISSING_OPTION, "-host");
+        }
+        if (config.getPort() == 0) {
+            throw new CmdLineException(parser, Messages.MISSING_OPTION, "-port");
+        }
+        if (config.getUser() == null) {
+            throw new CmdLineException(parser, Messages.MISSING_OPTION, "-user");
+        }
+        if (config.getFrom() == null) {
+            throw new CmdLineException(parser, Messages.MISSING_OPTION, "-from");
+        }
+    }
+
+    private static void ensureMessageIsSet(final CmdLineParser parser, final Config config) throws CmdLineException {
+        if (config.getBatch() != null || config.isDrain()) {
+            return;
+        }
+        if (config.getReceiver() == null && config.getReceiverFile() == null) {
+            throw new CmdLineException(parser, Messages.MISSING_MESSAGE_OPTION, "-to");
+        }
+        if (config.getSubject() == null) {
+            throw new CmdLineException(parser, Messages.MISSING_MESSAGE_OPTION, "-subject");
+        }
+        if (config.getMessage() == null && config.getMessageFile() == null) {
+            throw new CmdLineException(parser, Messages.MISSING_MESSAGE_OPTION, "-message");
+        }
+    }
+
     private static void ensurePasswordIsSet(final CmdLineParser parser , final Config config) throws CmdLineException {
         if (config.getPw() == null && config.getEnvPw() == null) {
             throw new CmdLineException(parser, Messages.MISSING_PASSWORD_OPTION);
@@ -88,9 +452,40 @@ public final class SendMailApp {
         final CmdLineParser parser = new CmdLineParser(config);
         try {
             parser.parseArgument(args);
+            if (config.getClient() != null) {
+                ensureMessageIsSet(parser, config);
+                final int failed = new SendMailApp().sendViaDaemon(config);
+                System.exit(failed == 0 ? 0 : 2);
+            }
+            if (config.getSink() != null) {
+                new SendMailApp().runSink(config);
+                return;
+            }
+            ensureConnectionIsSet(parser, config);
             ensurePasswordIsSet(parser, config);
-            new SendMailApp().send(config);
-            System.exit(0);
+            if (config.getDaemon() != null) {
+                new SendMailApp().runDaemon(config);
+                return;
+            }
+            if (config.getLoadTest() != null) {
+                final LoadTest.Result result = new SendMailApp().loadTest(config);
+                exit(config, result.getFailed() == 0 ? 0 : 2);
+            }
+            ensureMessageIsSet(parser, config);
+            if (config.getSpool() != null) {
+                if (config.isDrain()) {
+                    final int failed = new SendMailApp().drainSpool(config);
+                    exit(config, failed == 0 ? 0 : 2);
+                }
+                new SendMailApp().spool(config);
+                System.exit(0);
+            }
+            if (config.getBatch() == null && config.getData() == null) {
+                new SendMailApp().send(config);
+                exit(config, 0);
+            }
+            final int failed = new SendMailApp().sendBatch(config);
+            exit(config, failed == 0 ? 0 : 2);
         } catch (final CmdLineException ex) {
             System.err.println(ex.getMessage());
             System.err.println("java -jar sjsm.jar <arguments>");
@@ -99,9 +494,27 @@ public final class SendMailApp {
             System.exit(1);
         } catch (final RuntimeException ex) {
             ex.printStackTrace(System.err);
-            System.exit(2);
+            exit(config, 2);
         }
 
     }
 
+    /**
+     * Reports the metrics and terminates the JVM.
+     */
+    private static void exit(final Config config, final int status) {
+        final Metrics metrics = Metrics.global();
+        if (metrics.getHistogram(Metrics.Phase.CONNECT).getCount() > 0) {
+            System.out.println(metrics.summary());
+        }
+        if (config.getMetrics() != null) {
+            try {
+                metrics.writePrometheus(Path.of(config.getMetrics()));
+            } catch (final RuntimeException ex) {
+                System.err.println(ex.getMessage());
+            }
+        }
+        System.exit(status);
+    }
+
 }
@@ -0,0 +1,365 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import jakarta.json.Json;
+import jakarta.json.JsonObjectBuilder;
+
+/**
+ * Long-running process that accepts send requests on a loopback HTTP endpoint.
+ * The JVM, mail session and pooled connections stay warm between requests.
+ * A request is a <code>POST /send</code> with a JSON object in the same format
+ * as a batch line and the secret of the token file as bearer token. While the
+ * message is sent, whitespace is written to the response in regular intervals,
+ * so a client can tell a slow relay from a dead daemon. If a spool is
+ * configured, requests are only appended to it and a background drainer
+ * delivers them. The metrics are available with <code>GET /metrics</code> in
+ * the Prometheus text format.
+ */
+public final class SendMailDaemon implements AutoCloseable {
+
+    /** Path of the send endpoint. */
+    public static final String SEND_PATH = "/send";
+
+    /** Path of the metrics endpoint. */
+    public static final String METRICS_PATH = "/metrics";
+
+    /** Maximal size of a send request. */
+    public static final int MAX_REQUEST_BYTES = 1024 * 1024;
+
+    /** Interval of the whitespace written while a message is sent. */
+    public static final long HEARTBEAT_MILLIS = 1000;
+
+    private final TransportPool pool;
+
+    private final ParallelSender sender;
+
+    private final Spool spool;
+
+    private final SpoolDrainer drainer;
+
+    private final ExecutorService executor;
+
+    private final ScheduledExecutorService heartbeat;
+
+    private final HttpServer server;
+
+    private final Path tokenFile;
+
+    private final byte[] token;
+
+    /**
+     * Constructor with configuration.
+     *
+     * @param config
+     *            Configuration with daemon port, connection settings and
+     *            message defaults.
+     */
+    public SendMailDaemon(final Config config) {
+        super();
+        Objects.requireNonNull(config, "config == null");
+        this.pool = new TransportPool(config);
+        this.sender = new ParallelSender(config, pool);
+        if (config.getSpool() == null) {
+            this.spool = null;
+            this.drainer = null;
+        } else {
+            this.spool = new Spool(Path.of(config.getSpool()), Spool.DEFAULT_SEGMENT_SIZE, config.isSpoolSync());
+            this.drainer = new SpoolDrainer(config, spool);
+        }
+        this.executor = Executors.newFixedThreadPool(Math.max(1, config.getPoolMax()),
+                Threads.daemonFactory("sjsm-daemon"));
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(Threads.daemonFactory("sjsm-daemon-heartbeat"));
+        try {
+            this.server = HttpServer.create(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), config.getDaemon()), 0);
+        } catch (final IOException ex) {
+            close();
+            throw new UncheckedIOException("Failed to listen on loopback port " + config.getDaemon(), ex);
+        }
+        this.tokenFile = tokenFile(config, getPort());
+        this.token = newToken();
+        try {
+            writeToken(tokenFile, token);
+        } catch (final IOException ex) {
+            close();
+            throw new UncheckedIOException("Failed to write token file: " + tokenFile, ex);
+        }
+        server.setExecutor(executor);
+        server.createContext(SEND_PATH, this::handleSend);
+        server.createContext(METRICS_PATH, this::handleMetrics);
+    }
+
+    /**
+     * Starts accepting requests.
+     */
+    public void start() {
+        if (drainer != null) {
+            drainer.start();
+        }
+        server.start();
+        System.out.println("Listening on http://" + server.getAddress().getHostString() + ":" + getPort() + SEND_PATH);
+    }
+
+    /**
+     * Returns the port the daemon listens on.
+     *
+     * @return Loopback port.
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handleSend(final HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "error", "Only POST is allowed");
+                return;
+            }
+            if (!isAuthorized(exchange.getRequestHeaders().getFirst("Authorization"))) {
+                exchange.getResponseHeaders().set("WWW-Authenticate", "Bearer");
+                respond(exchange, 401, "error", "Missing or invalid token");
+                return;
+            }
+            final byte[] body;
+            try (final InputStream in = exchange.getRequestBody()) {
+                body = in.readNBytes(MAX_REQUEST_BYTES + 1);
+            }
+            if (body.length > MAX_REQUEST_BYTES) {
+                respond(exchange, 413, "error", "Request exceeds " + MAX_REQUEST_BYTES + " bytes");
+                return;
+            }
+            final BatchRecord record;
+            try {
+                record = BatchRecord.parse(new String(body, StandardCharsets.UTF_8));
+            } catch (final RuntimeException ex) {
+                respond(exchange, 400, "error", ex.getMessage());
+                return;
+            }
+            if (spool == null) {
+                send(exchange, record);
+            } else {
+                try {
+                    spool.enqueue(record);
+                    respond(exchange, 202, "spooled", null);
+                } catch (final RuntimeException ex) {
+                    System.err.println(ex.getMessage());
+                    respond(exchange, 502, "error", message(ex));
+                }
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sends the message and reports the result in the body of a 200 response.
+     * The headers are sent before the message and whitespace is written until
+     * it's done, so the client's read timeout only expires if the daemon hangs.
+     */
+    private void send(final HttpExchange exchange, final BatchRecord record) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            final ScheduledFuture<?> beat = heartbeat.scheduleAtFixedRate(() -> write(out, " "), HEARTBEAT_MILLIS,
+                    HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+            final JsonObjectBuilder builder = Json.createObjectBuilder();
+            try {
+                sender.send(record);
+                builder.add("status", "sent");
+            } catch (final RuntimeException ex) {
+                System.err.println(ex.getMessage());
+                builder.add("status", "error").add("error", message(ex));
+            } finally {
+                beat.cancel(false);
+            }
+            synchronized (out) {
+                out.write(builder.build().toString().getBytes(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static void write(final OutputStream out, final String text) {
+        synchronized (out) {
+            try {
+                out.write(text.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+            } catch (final IOException ex) {
+                // Client is gone, the result is written to the log anyway
+            }
+        }
+    }
+
+    private static String message(final RuntimeException ex) {
+        return ex.getMessage() + (ex.getCause() == null ? "" : ": " + ex.getCause());
+    }
+
+    private boolean isAuthorized(final String authorization) {
+        if (authorization == null || !authorization.startsWith("Bearer ")) {
+            return false;
+        }
+        final byte[] presented = authorization.substring("Bearer ".length()).trim()
+                .getBytes(StandardCharsets.US_ASCII);
+        return MessageDigest.isEqual(presented, token);
+    }
+
+    private void handleMetrics(final HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "error", "Only GET is allowed");
+                return;
+            }
+            final StringWriter writer = new StringWriter();
+            Metrics.global().writePrometheus(writer);
+            final byte[] body = writer.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (final OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void respond(final HttpExchange exchange, final int code, final String status, final String error)
+            throws IOException {
+        final JsonObjectBuilder builder = Json.createObjectBuilder().add("status", status);
+        if (error != null) {
+            builder.add("error", error);
+        }
+        final byte[] body = builder.build().toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(code, body.length);
+        try (final OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Returns the file with the secret shared by daemon and client.
+     *
+     * @param config
+     *            Configuration with the token file or {@literal null} for the
+     *            default file.
+     * @param port
+     *            Loopback port of the daemon.
+     *
+     * @return Path of the token file.
+     */
+    public static Path tokenFile(final Config config, final int port) {
+        if (config.getDaemonToken() != null) {
+            return Path.of(config.getDaemonToken());
+        }
+        return Path.of(System.getProperty("user.home"), ".sjsm", "daemon-" + port + ".token");
+    }
+
+    /**
+     * Reads the secret written by a running daemon.
+     *
+     * @param tokenFile
+     *            File with the secret.
+     *
+     * @return Secret to present as bearer token.
+     */
+    public static String readToken(final Path tokenFile) {
+        try {
+            return Files.readString(tokenFile, StandardCharsets.US_ASCII).trim();
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Failed to read daemon token: " + tokenFile, ex);
+        }
+    }
+
+    private static byte[] newToken() {
+        final byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(random).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Replaces the token file with a new one that only the owner can read.
+     */
+    private static void writeToken(final Path file, final byte[] token) throws IOException {
+        final Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Files.deleteIfExists(file);
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(file, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(file);
+            final File f = file.toFile();
+            if (!(f.setReadable(false, false) && f.setReadable(true, true) && f.setWritable(false, false)
+                    && f.setWritable(true, true))) {
+                throw new IOException("Failed to restrict access to: " + file);
+            }
+        }
+        Files.write(file, token);
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(1);
+        }
+        executor.shutdownNow();
+        heartbeat.shutdownNow();
+        if (tokenFile != null) {
+            try {
+                Files.deleteIfExists(tokenFile);
+            } catch (final IOException ex) {
+                System.err.println("Failed to delete token file: " + tokenFile);
+            }
+        }
+        if (drainer != null) {
+            drainer.close();
+        }
+        if (spool != null) {
+            spool.close();
+        }
+        pool.close();
+    }
+
+}
@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import jakarta.mail.Address;
+
+/**
+ * Result of sending a message to multiple receivers. Each receiver is either
+ * sent, unsent (valid, but not sent because of an error that may be
+ * temporary, so a retry may succeed) or invalid (rejected permanently by the
+ * server). Instances are immutable.
+ */
+public final class SendResult {
+
+    private final List<Address> sent;
+
+    private final Map<Address, String> unsent;
+
+    private final Map<Address, String> invalid;
+
+    private final Set<Integer> replyCodes;
+
+    /**
+     * Constructor without reply codes.
+     *
+     * @param sent
+     *            Receivers the message was sent to.
+     * @param unsent
+     *            Valid receivers the message was not sent to with the reason.
+     * @param invalid
+     *            Receivers rejected by the server with the reason.
+     */
+    public SendResult(final List<Address> sent, final Map<Address, String> unsent,
+            final Map<Address, String> invalid) {
+        this(sent, unsent, invalid, Set.of());
+    }
+
+    /**
+     * Constructor with all data.
+     *
+     * @param sent
+     *            Receivers the message was sent to.
+     * @param unsent
+     *            Valid receivers the message was not sent to with the reason.
+     * @param invalid
+     *            Receivers rejected by the server with the reason.
+     * @param replyCodes
+     *            SMTP reply codes of all failures.
+     */
+    public SendResult(final List<Address> sent, final Map<Address, String> unsent,
+            final Map<Address, String> invalid, final Set<Integer> replyCodes) {
+        super();
+        this.sent = List.copyOf(Objects.requireNonNull(sent, "sent == null"));
+        this.unsent = Collections.unmodifiableMap(new LinkedHashMap<>(Objects.requireNonNull(unsent, "unsent == null")));
+        this.invalid = Collections
+                .unmodifiableMap(new LinkedHashMap<>(Objects.requireNonNull(invalid, "invalid == null")));
+        this.replyCodes = Collections
+                .unmodifiableSet(new LinkedHashSet<>(Objects.requireNonNull(replyCodes, "replyCodes == null")));
+    }
+
+    /**
+     * Returns the receivers the message was sent to.
+     *
+     * @return Unmodifiable list of receivers.
+     */
+    public List<Address> getSent() {
+        return sent;
+    }
+
+    /**
+     * Returns the valid receivers the message was not sent to.
+     *
+     * @return Unmodifiable map with receiver and reason.
+     */
+    public Map<Address, String> getUnsent() {
+        return unsent;
+    }
+
+    /**
+     * Returns the result after retrying the unsent receivers.
+     *
+     * @param retry
+     *            Result of sending the message again to the unsent receivers
+     *            of this result.
+     *
+     * @return Receivers sent by any of the attempts, still unsent by the
+     *         retry and invalid in any of the attempts.
+     */
+    SendResult retried(final SendResult retry) {
+        final List<Address> allSent = new ArrayList<>(sent);
+        allSent.addAll(retry.sent);
+        final Map<Address, String> allInvalid = new LinkedHashMap<>(invalid);
+        allInvalid.putAll(retry.invalid);
+        final Set<Integer> allCodes = new LinkedHashSet<>(replyCodes);
+        allCodes.addAll(retry.replyCodes);
+        return new SendResult(allSent, retry.unsent, allInvalid, allCodes);
+    }
+
+    /**
+     * Returns the receivers that were rejected by the server.
+     *
+     * @return Unmodifiable map with receiver and reason.
+     */
+    public Map<Address, String> getInvalid() {
+        return invalid;
+    }
+
+    /**
+     * Returns the SMTP reply codes of all failures, including the ones of
+     * receivers that succeeded with a retry.
+     *
+     * @return Unmodifiable set of reply codes.
+     */
+    public Set<Integer> getReplyCodes() {
+        return replyCodes;
+    }
+
+    /**
+     * Returns if the message was sent to all receivers.
+     *
+     * @return {@literal true} if there are no unsent or invalid receivers.
+     */
+    public boolean isSuccess() {
+        return unsent.isEmpty() && invalid.isEmpty();
+    }
+
+    /**
+     * Returns the number of receivers the message was not sent to.
+     *
+     * @return Unsent plus invalid receivers.
+     */
+    public int getFailedCount() {
+        return unsent.size() + invalid.size();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(sent.size()).append(" sent, ").append(unsent.size()).append(" unsent, ").append(invalid.size())
+                .append(" invalid");
+        append(sb, "Unsent", unsent);
+        append(sb, "Invalid", invalid);
+        return sb.toString();
+    }
+
+    private static void append(final StringBuilder sb, final String label, final Map<Address, String> map) {
+        final int max = 10;
+        int count = 0;
+        for (final Map.Entry<Address, String> entry : map.entrySet()) {
+            if (count == max) {
+                sb.append(" ... (").append(map.size() - max).append(" more)");
+                return;
+            }
+            sb.append(count == 0 ? "\n" + label + ": " : ", ").append(entry.getKey()).append(" (")
+                    .append(entry.getValue()).append(')');
+            count++;
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import jakarta.mail.Session;
+
+/**
+ * Keeps the sessions for the connection settings that were used recently.
+ * Creating a session loads the provider configuration from the class path and
+ * resolves the credentials, so repeated sends with the same settings only do
+ * the message specific work. Instances are thread-safe.
+ */
+final class SessionCache {
+
+    /** Maximal number of different connection settings kept. */
+    static final int MAX_ENTRIES = 16;
+
+    private static final SessionCache GLOBAL = new SessionCache();
+
+    private final Map<ConnectionSettings, Session> cache;
+
+    /**
+     * Default constructor.
+     */
+    SessionCache() {
+        super();
+        this.cache = new LinkedHashMap<>(MAX_ENTRIES * 2, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<ConnectionSettings, Session> eldest) {
+                return size() > MAX_ENTRIES;
+            }
+        };
+    }
+
+    /**
+     * Returns the cache used by {@link ConnectionSettings#getSession()}.
+     *
+     * @return Global instance.
+     */
+    static SessionCache global() {
+        return GLOBAL;
+    }
+
+    /**
+     * Returns the session for connection settings. A new session is only
+     * created if there is none for the settings yet.
+     *
+     * @param settings
+     *            Settings to return a session for.
+     *
+     * @return Shared session.
+     */
+    Session get(final ConnectionSettings settings) {
+        Objects.requireNonNull(settings, "settings == null");
+        final long start = System.nanoTime();
+        final Session cached;
+        synchronized (cache) {
+            cached = cache.get(settings);
+        }
+        if (cached != null) {
+            Metrics.global().record(Metrics.Phase.SESSION, System.nanoTime() - start);
+            return cached;
+        }
+        final Session created = settings.createSession();
+        synchronized (cache) {
+            final Session other = cache.putIfAbsent(settings, created);
+            return other == null ? created : other;
+        }
+    }
+
+    /**
+     * Returns the number of cached sessions.
+     *
+     * @return Number of different connection settings.
+     */
+    int size() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+
+}
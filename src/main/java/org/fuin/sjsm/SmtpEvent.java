@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import jakarta.mail.Service;
+import jakarta.mail.URLName;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder event for a stage of sending a message. The events are
+ * only filled and committed if a recording enabled them, so they cost next to
+ * nothing otherwise. Start a recording for example with
+ * <code>-XX:StartFlightRecording:filename=sjsm.jfr</code> and look for the
+ * "SJSM" category in JDK Mission Control.
+ */
+@Category({ "SJSM", "SMTP" })
+@StackTrace(false)
+abstract class SmtpEvent extends Event {
+
+    @Label("Host")
+    @Description("Host name of the mail server")
+    String host;
+
+    @Label("Port")
+    int port;
+
+    @Label("Transport Type")
+    @Description("Protocol like 'smtp' or 'smtps'")
+    String transportType;
+
+    @Label("Recipients")
+    @Description("Number of receivers of the message or SMTP transaction")
+    int recipients;
+
+    @Label("Message Size")
+    @DataAmount
+    long messageSize;
+
+    @Label("Success")
+    boolean success;
+
+    @Label("Reply Code")
+    @Description("SMTP reply code of a failure or 0 if there was none")
+    int replyCode;
+
+    @Label("Error")
+    String error;
+
+    /**
+     * Sets the server from the configuration.
+     *
+     * @param config
+     *            Configuration with host, port and transport type.
+     */
+    final void target(final Config config) {
+        host = config.getHost();
+        port = config.getPort();
+        transportType = config.getTransportType();
+    }
+
+    /**
+     * Sets the server from connection settings.
+     *
+     * @param settings
+     *            Settings with host, port and transport type.
+     */
+    final void target(final ConnectionSettings settings) {
+        host = settings.getHost();
+        port = settings.getPort();
+        transportType = settings.getTransportType();
+    }
+
+    /**
+     * Sets the server of a transport that was connected before.
+     *
+     * @param service
+     *            Transport to take the server from.
+     */
+    final void target(final Service service) {
+        final URLName url = service.getURLName();
+        if (url != null) {
+            host = url.getHost();
+            port = url.getPort();
+            transportType = url.getProtocol();
+        }
+    }
+
+    /**
+     * Marks the stage as succeeded.
+     */
+    final void succeeded() {
+        success = true;
+    }
+
+    /**
+     * Marks the stage as failed.
+     *
+     * @param ex
+     *            Cause of the failure.
+     */
+    final void failed(final Throwable ex) {
+        success = false;
+        replyCode = Math.max(0, AdaptiveLimiter.replyCode(ex));
+        error = ex.getClass().getSimpleName() + ": " + ex.getMessage();
+    }
+
+    /**
+     * Opening the connection. Jakarta Mail does TCP connect, TLS handshake and
+     * authentication in one call, so this covers all of them.
+     */
+    @Name("org.fuin.sjsm.Connect")
+    @Label("SMTP Connect")
+    @Description("TCP connect, TLS handshake and authentication")
+    static final class Connect extends SmtpEvent {
+
+        @Label("Authenticated")
+        @Description("Authentication was part of the connect")
+        boolean authenticated;
+
+    }
+
+    /**
+     * Building a message from the configuration.
+     */
+    @Name("org.fuin.sjsm.Build")
+    @Label("SMTP Message Build")
+    @Description("Creating the message from the configuration")
+    static final class Build extends SmtpEvent {
+    }
+
+    /**
+     * Encoding the content and updating the headers.
+     */
+    @Name("org.fuin.sjsm.SaveChanges")
+    @Label("SMTP Message Encode")
+    @Description("Encoding the content and updating the headers")
+    static final class SaveChanges extends SmtpEvent {
+    }
+
+    /**
+     * Sending a message in one SMTP transaction.
+     */
+    @Name("org.fuin.sjsm.Send")
+    @Label("SMTP Data Transfer")
+    @Description("MAIL FROM, RCPT TO and DATA of one SMTP transaction")
+    static final class Send extends SmtpEvent {
+    }
+
+    /**
+     * Closing the connection.
+     */
+    @Name("org.fuin.sjsm.Close")
+    @Label("SMTP Close")
+    @Description("QUIT and closing the connection")
+    static final class Close extends SmtpEvent {
+    }
+
+}
@@ -0,0 +1,660 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SMTP server on a loopback port that discards all messages and only counts
+ * them. One thread serves all connections with a selector, so it can receive
+ * far more messages than the client can send. It supports EHLO with
+ * PIPELINING, 8BITMIME and CHUNKING (BDAT), can delay the reply after the message data and can
+ * reject receivers temporarily (450) or permanently (550) at a given rate.
+ * When set unavailable, it replies 421 to every transaction like a server that
+ * shuts down. This makes it a local stand-in for a relay when benchmarking
+ * sjsm.
+ */
+public final class SmtpSink implements AutoCloseable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String EHLO_REPLY = "250-localhost\r\n" + "250-PIPELINING\r\n" + "250-8BITMIME\r\n"
+            + "250-CHUNKING\r\n" + "250 ENHANCEDSTATUSCODES\r\n";
+
+    private final int requestedPort;
+
+    private final long latencyNanos;
+
+    private final double tempFailRate;
+
+    private final double permFailRate;
+
+    private final LongAdder connections;
+
+    private final LongAdder messages;
+
+    private final LongAdder bytes;
+
+    private final LongAdder rejected;
+
+    private final LongAdder receivers;
+
+    private final LongAdder roundTrips;
+
+    private final List<Connection> delayed;
+
+    private ServerSocketChannel server;
+
+    private Selector selector;
+
+    private Thread thread;
+
+    private volatile boolean running;
+
+    private volatile boolean unavailable;
+
+    private long startNanos;
+
+    /**
+     * Constructor with configuration.
+     *
+     * @param config
+     *            Configuration with port, latency and error rates of the sink.
+     */
+    public SmtpSink(final Config config) {
+        this(Objects.requireNonNull(config, "config == null").getSink(), config.getSinkLatency(),
+                config.getSinkTempFail(), config.getSinkPermFail());
+    }
+
+    /**
+     * Constructor with all data.
+     *
+     * @param port
+     *            Loopback port or 0 for any free port.
+     * @param latencyMillis
+     *            Delay of the reply after the message data.
+     * @param tempFailRate
+     *            Rate of receivers rejected temporarily (0.0 - 1.0).
+     * @param permFailRate
+     *            Rate of receivers rejected permanently (0.0 - 1.0).
+     */
+    public SmtpSink(final int port, final long latencyMillis, final double tempFailRate, final double permFailRate) {
+        super();
+        if (tempFailRate < 0 || permFailRate < 0 || tempFailRate + permFailRate > 1) {
+            throw new IllegalArgumentException("Expected error rates between 0 and 1, but was: tempFailRate="
+                    + tempFailRate + ", permFailRate=" + permFailRate);
+        }
+        this.requestedPort = port;
+        this.latencyNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, latencyMillis));
+        this.tempFailRate = tempFailRate;
+        this.permFailRate = permFailRate;
+        this.connections = new LongAdder();
+        this.messages = new LongAdder();
+        this.bytes = new LongAdder();
+        this.rejected = new LongAdder();
+        this.receivers = new LongAdder();
+        this.roundTrips = new LongAdder();
+        this.delayed = new ArrayList<>();
+    }
+
+    /**
+     * Starts listening in a background thread.
+     */
+    public void start() {
+        try {
+            selector = Selector.open();
+            server = ServerSocketChannel.open();
+            server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), requestedPort), 1024);
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Failed to listen on loopback port " + requestedPort, ex);
+        }
+        startNanos = System.nanoTime();
+        running = true;
+        thread = new Thread(this::run, "sjsm-sink");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Returns the port the sink listens on.
+     *
+     * @return Loopback port.
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Returns the number of accepted connections.
+     *
+     * @return Connection count.
+     */
+    public long getConnections() {
+        return connections.sum();
+    }
+
+    /**
+     * Returns the number of received messages.
+     *
+     * @return Message count.
+     */
+    public long getMessages() {
+        return messages.sum();
+    }
+
+    /**
+     * Returns the number of bytes of the received message data.
+     *
+     * @return Byte count.
+     */
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    /**
+     * Returns the number of rejected receivers.
+     *
+     * @return Receiver count.
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /**
+     * Returns the number of accepted receivers.
+     *
+     * @return Receiver count.
+     */
+    public long getReceivers() {
+        return receivers.sum();
+    }
+
+    /**
+     * Returns how often the sink replied after processing all commands it
+     * received, so the client had to wait for it. Pipelined commands are
+     * answered in one round-trip.
+     *
+     * @return Number of round-trips without the greetings.
+     */
+    public long getRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    /**
+     * Returns the received throughput since the start.
+     *
+     * @return One line with counts and rates.
+     */
+    public String summary() {
+        final double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+        return String.format(Locale.ROOT,
+                "Received %d messages (%d bytes) in %.1f s: %.1f msg/s, %.1f KB/s, %d connections, %d rejected receivers",
+                getMessages(), getBytes(), seconds, getMessages() / seconds, getBytes() / seconds / 1024,
+                getConnections(), getRejected());
+    }
+
+    /**
+     * Sets if the sink replies 421 (service not available) to MAIL and closes
+     * the connection.
+     *
+     * @param unavailable
+     *            {@literal true} to fail all transactions.
+     */
+    public void setUnavailable(final boolean unavailable) {
+        this.unavailable = unavailable;
+    }
+
+    @Override
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            thread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                final long timeout = nextTimeout();
+                if (timeout < 0) {
+                    selector.selectNow();
+                } else {
+                    selector.select(timeout);
+                }
+                final Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    final SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                    } else {
+                        ((Connection) key.attachment()).handle(key);
+                    }
+                }
+                releaseDelayed();
+            }
+        } catch (final IOException ex) {
+            System.err.println("SMTP sink failed: " + ex);
+        } finally {
+            for (final SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+            } catch (final IOException ex) {
+                // Ignore
+            }
+        }
+    }
+
+    /**
+     * Returns the milliseconds to wait for the next delayed reply, 0 to wait
+     * without limit or -1 if a reply is already due.
+     */
+    private long nextTimeout() {
+        if (delayed.isEmpty()) {
+            return 0;
+        }
+        long due = Long.MAX_VALUE;
+        for (final Connection connection : delayed) {
+            due = Math.min(due, connection.dueNanos);
+        }
+        final long millis = TimeUnit.NANOSECONDS.toMillis(due - System.nanoTime());
+        return millis <= 0 ? -1 : millis;
+    }
+
+    private void releaseDelayed() {
+        if (delayed.isEmpty()) {
+            return;
+        }
+        final long now = System.nanoTime();
+        final Iterator<Connection> it = delayed.iterator();
+        final List<Connection> due = new ArrayList<>();
+        while (it.hasNext()) {
+            final Connection connection = it.next();
+            if (connection.dueNanos - now <= 0) {
+                it.remove();
+                due.add(connection);
+            }
+        }
+        for (final Connection connection : due) {
+            connection.release();
+        }
+    }
+
+    private void accept() throws IOException {
+        final SocketChannel channel = server.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        connections.increment();
+        final Connection connection = new Connection(channel);
+        connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+        connection.reply("220 localhost ESMTP sjsm sink");
+        connection.flush();
+    }
+
+    private static void closeQuietly(final SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (final IOException ex) {
+            // Ignore
+        }
+    }
+
+    /**
+     * State of one client connection.
+     */
+    private final class Connection {
+
+        private final SocketChannel channel;
+
+        private final ByteBuffer in;
+
+        private ByteBuffer out;
+
+        private SelectionKey key;
+
+        /** Reading the message data. */
+        private boolean data;
+
+        /** Number of bytes of the end of data sequence "\r\n.\r\n" matched. */
+        private int eom;
+
+        /** Bytes of the current BDAT chunk not received yet. */
+        private long chunkRemaining;
+
+        private boolean chunkLast;
+
+        private long dataBytes;
+
+        private boolean mail;
+
+        private int accepted;
+
+        private boolean quit;
+
+        private long dueNanos;
+
+        private String delayedReply;
+
+        Connection(final SocketChannel channel) {
+            this.channel = channel;
+            this.in = ByteBuffer.allocate(BUFFER_SIZE);
+            this.out = ByteBuffer.allocate(1024);
+        }
+
+        void handle(final SelectionKey key) throws IOException {
+            try {
+                if (key.isReadable()) {
+                    if (channel.read(in) < 0) {
+                        closeQuietly(key);
+                        return;
+                    }
+                    process();
+                }
+                if (key.isValid() && key.isWritable()) {
+                    flush();
+                }
+            } catch (final IOException ex) {
+                closeQuietly(key);
+            }
+        }
+
+        /**
+         * Sends the delayed reply and continues with pipelined commands.
+         */
+        void release() {
+            dueNanos = 0;
+            reply(delayedReply);
+            delayedReply = null;
+            try {
+                process();
+            } catch (final IOException ex) {
+                closeQuietly(key);
+            }
+        }
+
+        private void process() throws IOException {
+            final int replied = out.position();
+            final long due = dueNanos;
+            in.flip();
+            while (dueNanos == 0 && !quit && in.hasRemaining()) {
+                if (chunkRemaining > 0) {
+                    skipChunk();
+                } else if (data) {
+                    scanData();
+                } else {
+                    final String line = readLine();
+                    if (line == null) {
+                        break;
+                    }
+                    command(line);
+                }
+            }
+            in.compact();
+            if (out.position() > replied || dueNanos != due) {
+                roundTrips.increment();
+            }
+            flush();
+        }
+
+        private String readLine() {
+            for (int i = in.position(); i < in.limit(); i++) {
+                if (in.get(i) == '\n') {
+                    final int end = i > in.position() && in.get(i - 1) == '\r' ? i - 1 : i;
+                    final byte[] bytes = new byte[end - in.position()];
+                    in.get(bytes);
+                    in.position(i + 1);
+                    return new String(bytes, StandardCharsets.US_ASCII);
+                }
+            }
+            if (in.remaining() == in.capacity()) {
+                in.position(in.limit());
+                reply("500 5.5.6 Line too long");
+            }
+            return null;
+        }
+
+        private void scanData() {
+            while (in.hasRemaining()) {
+                final byte b = in.get();
+                dataBytes++;
+                if (b == '\r') {
+                    eom = eom == 3 ? 4 : 1;
+                } else if (b == '\n') {
+                    if (eom == 4) {
+                        endOfData();
+                        return;
+                    }
+                    eom = eom == 1 ? 2 : 0;
+                } else if (b == '.' && eom == 2) {
+                    eom = 3;
+                } else {
+                    eom = 0;
+                }
+            }
+        }
+
+        private void skipChunk() {
+            final int skip = (int) Math.min(chunkRemaining, in.remaining());
+            in.position(in.position() + skip);
+            chunkRemaining -= skip;
+            dataBytes += skip;
+            if (chunkRemaining > 0) {
+                return;
+            }
+            if (accepted == 0) {
+                // Chunks must be read even if they are rejected
+                chunkLast = false;
+                reply("503 5.5.1 No valid recipients");
+            } else if (chunkLast) {
+                chunkLast = false;
+                bytes.add(dataBytes);
+                queued();
+            } else {
+                reply("250 2.0.0 Ok: chunk received");
+            }
+        }
+
+        private void endOfData() {
+            data = false;
+            // Don't count the terminating ".\r\n"
+            bytes.add(dataBytes - 3);
+            queued();
+        }
+
+        private void queued() {
+            messages.increment();
+            resetTransaction();
+            if (latencyNanos > 0) {
+                dueNanos = System.nanoTime() + latencyNanos;
+                delayedReply = "250 2.0.0 Ok: queued";
+                delayed.add(this);
+            } else {
+                reply("250 2.0.0 Ok: queued");
+            }
+        }
+
+        private void command(final String line) {
+            final String cmd = line.length() < 4 ? line.toUpperCase(Locale.ROOT)
+                    : line.substring(0, 4).toUpperCase(Locale.ROOT);
+            switch (cmd) {
+            case "EHLO":
+                resetTransaction();
+                appendReply(EHLO_REPLY);
+                break;
+            case "HELO":
+                resetTransaction();
+                reply("250 localhost");
+                break;
+            case "MAIL":
+                resetTransaction();
+                if (unavailable) {
+                    quit = true;
+                    reply("421 4.3.2 Service not available, closing transmission channel");
+                    break;
+                }
+                mail = true;
+                reply("250 2.1.0 Ok");
+                break;
+            case "RCPT":
+                rcpt();
+                break;
+            case "DATA":
+                if (!mail) {
+                    reply("503 5.5.1 Need MAIL command");
+                } else if (accepted == 0) {
+                    reply("554 5.5.1 No valid recipients");
+                } else {
+                    data = true;
+                    eom = 2;
+                    dataBytes = 0;
+                    reply("354 End data with <CR><LF>.<CR><LF>");
+                }
+                break;
+            case "BDAT":
+                bdat(line);
+                break;
+            case "RSET":
+                resetTransaction();
+                reply("250 2.0.0 Ok");
+                break;
+            case "NOOP":
+                reply("250 2.0.0 Ok");
+                break;
+            case "QUIT":
+                quit = true;
+                reply("221 2.0.0 Bye");
+                break;
+            default:
+                reply("502 5.5.2 Command not recognized");
+                break;
+            }
+        }
+
+        private void bdat(final String line) {
+            final String[] args = line.trim().split(" +");
+            if (args.length < 2 || args.length > 3 || args.length == 3 && !"LAST".equalsIgnoreCase(args[2])) {
+                reply("501 5.5.4 Syntax: BDAT size [LAST]");
+                return;
+            }
+            final long size;
+            try {
+                size = Long.parseLong(args[1]);
+            } catch (final NumberFormatException ex) {
+                reply("501 5.5.4 Invalid chunk size: " + args[1]);
+                return;
+            }
+            chunkRemaining = size;
+            chunkLast = args.length == 3;
+            if (size == 0) {
+                skipChunk();
+            }
+        }
+
+        private void rcpt() {
+            if (!mail) {
+                reply("503 5.5.1 Need MAIL command");
+                return;
+            }
+            final double random = tempFailRate + permFailRate > 0 ? ThreadLocalRandom.current().nextDouble() : 1;
+            if (random < tempFailRate) {
+                rejected.increment();
+                reply("450 4.2.1 Mailbox busy (injected)");
+            } else if (random < tempFailRate + permFailRate) {
+                rejected.increment();
+                reply("550 5.1.1 Mailbox unavailable (injected)");
+            } else {
+                accepted++;
+                receivers.increment();
+                reply("250 2.1.5 Ok");
+            }
+        }
+
+        private void resetTransaction() {
+            mail = false;
+            accepted = 0;
+            dataBytes = 0;
+        }
+
+        void reply(final String reply) {
+            appendReply(reply + "\r\n");
+        }
+
+        private void appendReply(final String reply) {
+            final byte[] bytes = reply.getBytes(StandardCharsets.US_ASCII);
+            if (out.remaining() < bytes.length) {
+                final ByteBuffer larger = ByteBuffer.allocate(Math.max(out.capacity() * 2, out.position() + bytes.length));
+                out.flip();
+                larger.put(out);
+                out = larger;
+            }
+            out.put(bytes);
+        }
+
+        void flush() throws IOException {
+            out.flip();
+            channel.write(out);
+            out.compact();
+            if (out.position() == 0 && quit) {
+                closeQuietly(key);
+                return;
+            }
+            int ops = out.position() > 0 ? SelectionKey.OP_WRITE : 0;
+            if (in.hasRemaining()) {
+                // Keep reading pipelined commands while a reply is delayed
+                ops |= SelectionKey.OP_READ;
+            }
+            key.interestOps(ops);
+        }
+
+    }
+
+}
@@ -0,0 +1,575 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+/**
+ * Append-only outbox for messages that are delivered later. Records are
+ * appended to memory-mapped segment files. Each record has a fixed header
+ * followed by the message:
+ * <ul>
+ * <li>int - Length of the message (written last, zero marks the end of the
+ * segment)</li>
+ * <li>byte - Status (pending, done or failed)</li>
+ * <li>byte - Number of delivery attempts</li>
+ * <li>long - Earliest time of the next attempt (epoch millis)</li>
+ * <li>byte[] - Message (flags followed by subject, receiver and message as
+ * length prefixed UTF-8)</li>
+ * </ul>
+ * Records are padded to a multiple of 8 bytes.<br>
+ * Appending is guarded by a file lock, so multiple processes may write to the
+ * same spool directory. The lock file also holds the number of the latest
+ * segment, mapped into the memory of all processes, so an append only lists
+ * the directory if another process started a new segment. Only one
+ * {@link SpoolDrainer} should process a spool at a time. Segments that only
+ * contain finished records are deleted by {@link #compact()}. The mapping of a
+ * segment is released before its file is deleted, as Windows does not delete
+ * mapped files.
+ */
+public final class Spool implements AutoCloseable {
+
+    /** Default size of a segment file. */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    /** Record is waiting for delivery. */
+    static final byte PENDING = 0;
+
+    /** Record was delivered. */
+    static final byte DONE = 1;
+
+    /** Record could not be delivered and will not be retried. */
+    static final byte FAILED = 2;
+
+    static final int HEADER_SIZE = 14;
+
+    private static final int STATUS_OFFSET = 4;
+
+    private static final int ATTEMPTS_OFFSET = 5;
+
+    private static final int NEXT_ATTEMPT_OFFSET = 6;
+
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.BIG_ENDIAN);
+
+    private static final String PREFIX = "segment-";
+
+    private static final String SUFFIX = ".spool";
+
+    private static final String LOCK_FILE = "spool.lock";
+
+    /** Unsafe instance and its "invokeCleaner" method or {@literal null} if not available. */
+    private static final Object UNSAFE;
+
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (final ReflectiveOperationException | RuntimeException ex) {
+            // Mappings are only released when garbage collected
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private final Path dir;
+
+    private final int segmentSize;
+
+    private final boolean sync;
+
+    private final FileChannel lockChannel;
+
+    /** Number of the latest segment shared by all processes (guarded by the file lock). */
+    private final MappedByteBuffer latest;
+
+    private final Map<Long, Segment> segments;
+
+    private Segment active;
+
+    /**
+     * Constructor with all data.
+     *
+     * @param dir
+     *            Directory with the segment files. Will be created if it does
+     *            not exist.
+     * @param segmentSize
+     *            Size of new segment files in bytes.
+     * @param sync
+     *            {@literal true} if every appended record should be forced to
+     *            disk, {@literal false} if the operating system decides (A
+     *            crashing JVM does not lose records, but a crashing OS may).
+     */
+    public Spool(final Path dir, final int segmentSize, final boolean sync) {
+        super();
+        this.dir = Objects.requireNonNull(dir, "dir == null");
+        if (segmentSize < HEADER_SIZE + 16) {
+            throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        }
+        this.segmentSize = segmentSize;
+        this.sync = sync;
+        this.segments = new TreeMap<>();
+        try {
+            Files.createDirectories(dir);
+            this.lockChannel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.latest = lockChannel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Failed to open spool: " + dir, ex);
+        }
+    }
+
+    /**
+     * Returns the spool directory.
+     *
+     * @return Directory with the segment files.
+     */
+    public Path getDir() {
+        return dir;
+    }
+
+    /**
+     * Appends a message to the spool.
+     *
+     * @param record
+     *            Message to deliver later.
+     */
+    public synchronized void enqueue(final BatchRecord record) {
+        Objects.requireNonNull(record, "record == null");
+        append(record, 0, 0L);
+    }
+
+    private void append(final BatchRecord record, final int attempts, final long nextAttempt) {
+        final byte[] data = encode(record);
+        final int needed = recordSize(data.length);
+        try {
+            final FileLock lock = lockChannel.lock();
+            try {
+                Segment segment = activeSegment();
+                int pos = segment.end();
+                if (pos + needed > segment.capacity()) {
+                    segment = createSegment(segment.number + 1, Math.max(segmentSize, needed));
+                    pos = 0;
+                }
+                final MappedByteBuffer buf = segment.buffer;
+                buf.put(pos + STATUS_OFFSET, PENDING);
+                buf.put(pos + ATTEMPTS_OFFSET, (byte) Math.min(attempts, 255));
+                buf.putLong(pos + NEXT_ATTEMPT_OFFSET, nextAttempt);
+                buf.duplicate().position(pos + HEADER_SIZE).put(data);
+                // Length is written last as it commits the record
+                INT.setRelease(buf, pos, data.length);
+                segment.writePos = pos + needed;
+                if (sync) {
+                    buf.force();
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Failed to append message to spool: " + dir, ex);
+        }
+    }
+
+    /**
+     * Returns all records that still wait for delivery in the order they were
+     * appended.
+     *
+     * @return Pending records.
+     */
+    public synchronized List<SpoolEntry> pending() {
+        final List<SpoolEntry> entries = new ArrayList<>();
+        for (final Segment segment : refreshSegments()) {
+            final MappedByteBuffer buf = segment.buffer;
+            int pos = 0;
+            int length;
+            while ((length = segment.lengthAt(pos)) > 0) {
+                if (buf.get(pos + STATUS_OFFSET) == PENDING) {
+                    final byte[] data = new byte[length];
+                    buf.duplicate().position(pos + HEADER_SIZE).get(data);
+                    entries.add(new SpoolEntry(segment.number, pos, buf.get(pos + ATTEMPTS_OFFSET) & 0xFF,
+                            buf.getLong(pos + NEXT_ATTEMPT_OFFSET), decode(data)));
+                }
+                pos += recordSize(length);
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Marks a record as delivered.
+     *
+     * @param entry
+     *            Record to mark.
+     */
+    public synchronized void markDone(final SpoolEntry entry) {
+        update(entry, DONE, entry.getAttempts() + 1, 0L);
+    }
+
+    /**
+     * Marks a record as finally failed.
+     *
+     * @param entry
+     *            Record to mark.
+     */
+    public synchronized void markFailed(final SpoolEntry entry) {
+        update(entry, FAILED, entry.getAttempts() + 1, 0L);
+    }
+
+    /**
+     * Records a failed delivery attempt that should be retried later.
+     *
+     * @param entry
+     *            Record to mark.
+     * @param nextAttempt
+     *            Earliest time of the next attempt (epoch millis).
+     */
+    public synchronized void markRetry(final SpoolEntry entry, final long nextAttempt) {
+        update(entry, PENDING, entry.getAttempts() + 1, nextAttempt);
+    }
+
+    /**
+     * Records a delivery attempt that failed only for some receivers. The
+     * record is replaced with one for the remaining receivers that should be
+     * retried later.
+     *
+     * @param entry
+     *            Record to mark.
+     * @param nextAttempt
+     *            Earliest time of the next attempt (epoch millis).
+     * @param remaining
+     *            Copy of the record with the receivers that still wait for
+     *            delivery.
+     */
+    public synchronized void markRetry(final SpoolEntry entry, final long nextAttempt, final BatchRecord remaining) {
+        Objects.requireNonNull(remaining, "remaining == null");
+        // Append first, so a crash in between sends the remaining receivers twice instead of never
+        append(remaining, entry.getAttempts() + 1, nextAttempt);
+        update(entry, DONE, entry.getAttempts() + 1, 0L);
+    }
+
+    private void update(final SpoolEntry entry, final byte status, final int attempts, final long nextAttempt) {
+        Objects.requireNonNull(entry, "entry == null");
+        final Segment segment = segments.get(entry.getSegment());
+        if (segment == null) {
+            throw new IllegalStateException("Unknown segment: " + entry.getSegment());
+        }
+        final MappedByteBuffer buf = segment.buffer;
+        buf.put(entry.getPosition() + ATTEMPTS_OFFSET, (byte) Math.min(attempts, 255));
+        buf.putLong(entry.getPosition() + NEXT_ATTEMPT_OFFSET, nextAttempt);
+        buf.put(entry.getPosition() + STATUS_OFFSET, status);
+        if (sync) {
+            buf.force();
+        }
+    }
+
+    /**
+     * Deletes all segments (except the latest) that only contain delivered or
+     * failed records.
+     *
+     * @return Number of deleted segments.
+     */
+    public synchronized int compact() {
+        int deleted = 0;
+        try {
+            final FileLock lock = lockChannel.lock();
+            try {
+                final List<Segment> all = refreshSegments();
+                for (int i = 0; i < all.size() - 1; i++) {
+                    final Segment segment = all.get(i);
+                    if (segment.isFinished()) {
+                        segments.remove(segment.number);
+                        if (active == segment) {
+                            active = null;
+                        }
+                        segment.close();
+                        Files.deleteIfExists(segment.path);
+                        deleted++;
+                    }
+                }
+            } finally {
+                lock.release();
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Failed to compact spool: " + dir, ex);
+        }
+        return deleted;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (final Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+        active = null;
+        unmap(latest);
+        try {
+            lockChannel.close();
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Failed to close spool: " + dir, ex);
+        }
+    }
+
+    private Segment activeSegment() throws IOException {
+        if (active != null && active.number == latest.getLong(0)) {
+            return active;
+        }
+        // First append or another process started a new segment
+        final List<Segment> all = refreshSegments();
+        if (all.isEmpty()) {
+            active = createSegment(1, segmentSize);
+        } else {
+            active = all.get(all.size() - 1);
+            latest.putLong(0, active.number);
+        }
+        return active;
+    }
+
+    private Segment createSegment(final long number, final int size) throws IOException {
+        final Segment segment = Segment.open(segmentPath(number), number, size);
+        segments.put(number, segment);
+        active = segment;
+        latest.putLong(0, number);
+        return segment;
+    }
+
+    private List<Segment> refreshSegments() {
+        final List<Long> numbers = new ArrayList<>();
+        try (final Stream<Path> stream = Files.list(dir)) {
+            stream.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+                    .forEach(name -> numbers.add(
+                            Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()))));
+            final Iterator<Segment> it = segments.values().iterator();
+            while (it.hasNext()) {
+                final Segment segment = it.next();
+                if (!numbers.contains(segment.number)) {
+                    // Deleted by another process
+                    segment.close();
+                    it.remove();
+                }
+            }
+            for (final Long number : numbers) {
+                final Segment segment = segments.get(number);
+                if (segment == null || segment.capacity() < Files.size(segment.path)) {
+                    if (segment != null) {
+                        segment.close();
+                    }
+                    segments.put(number, Segment.open(segmentPath(number), number, 0));
+                }
+            }
+            if (active != null) {
+                // The segment may have been closed and mapped again
+                active = segments.get(active.number);
+            }
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Failed to read spool: " + dir, ex);
+        }
+        return new ArrayList<>(segments.values());
+    }
+
+    /**
+     * Returns the size of a record including header and padding. Records are
+     * aligned to 8 bytes, so the length can be accessed atomically.
+     */
+    private static int recordSize(final int length) {
+        return (HEADER_SIZE + length + 7) & ~7;
+    }
+
+    /**
+     * Releases a mapping right away instead of when it's garbage collected.
+     * The buffer must not be used afterwards.
+     */
+    private static void unmap(final MappedByteBuffer buffer) {
+        if (INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buffer);
+        } catch (final ReflectiveOperationException | RuntimeException ex) {
+            // Mapping stays valid until garbage collected
+        }
+    }
+
+    private Path segmentPath(final long number) {
+        return dir.resolve(String.format("%s%010d%s", PREFIX, number, SUFFIX));
+    }
+
+    static byte[] encode(final BatchRecord record) {
+        final byte[] subject = bytes(record.getSubject());
+        final byte[] receiver = bytes(record.getReceiver());
+        final byte[] message = bytes(record.getMessage());
+        final ByteBuffer buf = ByteBuffer.allocate(1 + size(subject) + size(receiver) + size(message));
+        int flags = 0;
+        if (record.getHtml() != null) {
+            flags |= 1 | (record.getHtml() ? 2 : 0);
+        }
+        if (record.getImportant() != null) {
+            flags |= 4 | (record.getImportant() ? 8 : 0);
+        }
+        buf.put((byte) flags);
+        put(buf, subject);
+        put(buf, receiver);
+        put(buf, message);
+        return buf.array();
+    }
+
+    static BatchRecord decode(final byte[] data) {
+        final ByteBuffer buf = ByteBuffer.wrap(data);
+        final int flags = buf.get();
+        final String subject = string(buf);
+        final String receiver = string(buf);
+        final String message = string(buf);
+        final Boolean html = (flags & 1) == 0 ? null : (flags & 2) != 0;
+        final Boolean important = (flags & 4) == 0 ? null : (flags & 8) != 0;
+        return new BatchRecord(subject, receiver, message, html, important);
+    }
+
+    private static byte[] bytes(final String str) {
+        if (str == null) {
+            return null;
+        }
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int size(final byte[] bytes) {
+        return 4 + (bytes == null ? 0 : bytes.length);
+    }
+
+    private static void put(final ByteBuffer buf, final byte[] bytes) {
+        if (bytes == null) {
+            buf.putInt(-1);
+        } else {
+            buf.putInt(bytes.length);
+            buf.put(bytes);
+        }
+    }
+
+    private static String string(final ByteBuffer buf) {
+        final int length = buf.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final String str = new String(buf.array(), buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return str;
+    }
+
+    /**
+     * Memory-mapped segment file.
+     */
+    private static final class Segment {
+
+        private final Path path;
+
+        private final long number;
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        private int writePos;
+
+        private Segment(final Path path, final long number, final FileChannel channel, final MappedByteBuffer buffer) {
+            this.path = path;
+            this.number = number;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        static Segment open(final Path path, final long number, final int size) throws IOException {
+            final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE);
+            final long length = Math.max(channel.size(), size);
+            return new Segment(path, number, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+
+        int lengthAt(final int pos) {
+            if (pos + HEADER_SIZE > buffer.capacity()) {
+                return 0;
+            }
+            return (int) INT.getAcquire(buffer, pos);
+        }
+
+        /**
+         * Returns the position after the last record. Records appended by
+         * other processes are skipped.
+         */
+        int end() {
+            int length;
+            while ((length = lengthAt(writePos)) > 0) {
+                writePos += recordSize(length);
+            }
+            return writePos;
+        }
+
+        boolean isFinished() {
+            int pos = 0;
+            int length;
+            while ((length = lengthAt(pos)) > 0) {
+                if (buffer.get(pos + STATUS_OFFSET) == PENDING) {
+                    return false;
+                }
+                pos += recordSize(length);
+            }
+            return true;
+        }
+
+        void close() {
+            unmap(buffer);
+            try {
+                channel.close();
+            } catch (final IOException ex) {
+                // Ignore
+            }
+        }
+
+    }
+
+}
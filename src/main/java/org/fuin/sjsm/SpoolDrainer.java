@@ -0,0 +1,289 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers the pending messages of a {@link Spool} over one reused connection.
+ * Failed deliveries are retried with exponential backoff until the maximal
+ * number of attempts is reached. Only the receivers that failed temporarily
+ * are retried, permanently rejected receivers are dropped. Only one drainer per spool directory is
+ * allowed, which is enforced with a file lock.
+ */
+public final class SpoolDrainer implements AutoCloseable {
+
+    /** Delay after the first failed attempt. */
+    static final long BASE_DELAY_MILLIS = 1000;
+
+    /** Maximal delay between two attempts. */
+    static final long MAX_DELAY_MILLIS = 5 * 60 * 1000;
+
+    /** Time between two checks of an empty spool in background mode. */
+    static final long POLL_MILLIS = 1000;
+
+    private static final String LOCK_FILE = "drain.lock";
+
+    private final Spool spool;
+
+    private final BatchSender sender;
+
+    private final int maxAttempts;
+
+    private final FileChannel lockChannel;
+
+    private final FileLock lock;
+
+    private final AtomicInteger delivered;
+
+    private final AtomicInteger failed;
+
+    private volatile boolean stopped;
+
+    private Thread thread;
+
+    private long nextDue;
+
+    /**
+     * Constructor with configuration and spool.
+     *
+     * @param config
+     *            Configuration with connection settings and message defaults.
+     *            The maximal number of attempts is taken from
+     *            {@link Config#getSpoolRetries()}.
+     * @param spool
+     *            Spool to drain.
+     */
+    public SpoolDrainer(final Config config, final Spool spool) {
+        super();
+        Objects.requireNonNull(config, "config == null");
+        this.spool = Objects.requireNonNull(spool, "spool == null");
+        this.maxAttempts = Math.max(1, config.getSpoolRetries());
+        this.delivered = new AtomicInteger();
+        this.failed = new AtomicInteger();
+        try {
+            this.lockChannel = FileChannel.open(spool.getDir().resolve(LOCK_FILE), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            FileLock fileLock;
+            try {
+                fileLock = lockChannel.tryLock();
+            } catch (final OverlappingFileLockException ex) {
+                fileLock = null;
+            }
+            if (fileLock == null) {
+                lockChannel.close();
+                throw new IllegalStateException("Another drainer is already running for: " + spool.getDir());
+            }
+            this.lock = fileLock;
+        } catch (final IOException ex) {
+            throw new UncheckedIOException("Failed to lock spool: " + spool.getDir(), ex);
+        }
+        // Receivers that failed temporarily are spooled again instead of retried in place
+        final Config senderConfig = new Config(config);
+        senderConfig.setRetries(0);
+        this.sender = new BatchSender(senderConfig);
+    }
+
+    /**
+     * Tries to deliver all pending messages that are due.
+     *
+     * @return Number of messages that are still pending.
+     */
+    public synchronized int drainOnce() {
+        final List<SpoolEntry> entries = spool.pending();
+        int remaining = 0;
+        nextDue = Long.MAX_VALUE;
+        for (final SpoolEntry entry : entries) {
+            if (stopped) {
+                return entries.size();
+            }
+            if (entry.getNextAttempt() > System.currentTimeMillis()) {
+                remaining++;
+                nextDue = Math.min(nextDue, entry.getNextAttempt());
+                continue;
+            }
+            final SendResult result;
+            try {
+                result = sender.deliver(entry.getRecord());
+            } catch (final RuntimeException ex) {
+                if (retry(entry, null, ex.getMessage())) {
+                    remaining++;
+                }
+                continue;
+            }
+            if (!result.getInvalid().isEmpty()) {
+                System.err.println("Dropping " + result.getInvalid().size() + " receivers rejected permanently: "
+                        + result.getInvalid().keySet());
+            }
+            if (!result.getUnsent().isEmpty()) {
+                // Only spool a new record if some receivers are done
+                final boolean partly = !result.getSent().isEmpty() || !result.getInvalid().isEmpty();
+                final BatchRecord unsent = partly ? entry.getRecord().withReceivers(result.getUnsent().keySet())
+                        : null;
+                if (retry(entry, unsent, result.toString())) {
+                    remaining++;
+                }
+            } else {
+                spool.markDone(entry);
+                if (result.getInvalid().isEmpty()) {
+                    delivered.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                }
+            }
+        }
+        return remaining;
+    }
+
+    /**
+     * Marks a failed attempt.
+     *
+     * @return {@literal true} if the record is retried later.
+     */
+    private boolean retry(final SpoolEntry entry, final BatchRecord remaining, final String reason) {
+        final int attempts = entry.getAttempts() + 1;
+        if (attempts >= maxAttempts) {
+            spool.markFailed(entry);
+            failed.incrementAndGet();
+            System.err.println("Giving up after " + attempts + " attempts: " + reason);
+            return false;
+        }
+        final long next = System.currentTimeMillis() + delay(attempts);
+        if (remaining == null) {
+            spool.markRetry(entry, next);
+        } else {
+            spool.markRetry(entry, next, remaining);
+        }
+        nextDue = Math.min(nextDue, next);
+        System.err.println("Attempt " + attempts + " failed, retrying later: " + reason);
+        return true;
+    }
+
+    /**
+     * Delivers messages until the spool contains no more pending ones.
+     */
+    public void drainUntilEmpty() {
+        while (!stopped) {
+            final int remaining = drainOnce();
+            spool.compact();
+            if (remaining == 0) {
+                return;
+            }
+            sleep(nextDue - System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * Starts a background thread that delivers messages until the drainer is
+     * closed.
+     */
+    public synchronized void start() {
+        if (thread != null) {
+            throw new IllegalStateException("Drainer was already started");
+        }
+        thread = Threads.daemonFactory("sjsm-spool-drainer").newThread(() -> {
+            while (!stopped) {
+                try {
+                    drainUntilEmpty();
+                } catch (final RuntimeException ex) {
+                    System.err.println("Failed to drain spool " + spool.getDir() + ": " + ex.getMessage());
+                }
+                sleep(POLL_MILLIS);
+            }
+        });
+        thread.start();
+    }
+
+    /**
+     * Returns the number of delivered messages.
+     *
+     * @return Delivered message count.
+     */
+    public int getDelivered() {
+        return delivered.get();
+    }
+
+    /**
+     * Returns the number of messages that finally failed.
+     *
+     * @return Failed message count.
+     */
+    public int getFailed() {
+        return failed.get();
+    }
+
+    /**
+     * Returns the delay before the next attempt.
+     *
+     * @param attempts
+     *            Number of failed attempts so far.
+     *
+     * @return Delay in milliseconds.
+     */
+    static long delay(final int attempts) {
+        final int shift = Math.min(Math.max(attempts - 1, 0), 30);
+        return Math.min(BASE_DELAY_MILLIS << shift, MAX_DELAY_MILLIS);
+    }
+
+    private void sleep(final long millis) {
+        if (millis <= 0 || stopped) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            stopped = true;
+        }
+    }
+
+    @Override
+    public void close() {
+        stopped = true;
+        final Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t != null) {
+            t.interrupt();
+            try {
+                t.join(POLL_MILLIS);
+            } catch (final InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            sender.close();
+            try {
+                lock.release();
+                lockChannel.close();
+            } catch (final IOException ex) {
+                throw new UncheckedIOException("Failed to unlock spool: " + spool.getDir(), ex);
+            }
+        }
+    }
+
+}
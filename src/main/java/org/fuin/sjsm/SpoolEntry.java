@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.Objects;
+
+/**
+ * Pending record read from a {@link Spool}.
+ */
+public final class SpoolEntry {
+
+    private final long segment;
+
+    private final int position;
+
+    private final int attempts;
+
+    private final long nextAttempt;
+
+    private final BatchRecord record;
+
+    /**
+     * Constructor with all data.
+     *
+     * @param segment
+     *            Number of the segment file.
+     * @param position
+     *            Position of the record inside the segment.
+     * @param attempts
+     *            Number of failed delivery attempts so far.
+     * @param nextAttempt
+     *            Earliest time of the next attempt (epoch millis).
+     * @param record
+     *            Message to deliver.
+     */
+    SpoolEntry(final long segment, final int position, final int attempts, final long nextAttempt,
+            final BatchRecord record) {
+        super();
+        this.segment = segment;
+        this.position = position;
+        this.attempts = attempts;
+        this.nextAttempt = nextAttempt;
+        this.record = Objects.requireNonNull(record, "record == null");
+    }
+
+    /**
+     * Returns the number of the segment file.
+     *
+     * @return Segment number.
+     */
+    public long getSegment() {
+        return segment;
+    }
+
+    /**
+     * Returns the position of the record inside the segment.
+     *
+     * @return Byte offset.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Returns the number of failed delivery attempts.
+     *
+     * @return Attempts so far.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Returns the earliest time of the next delivery attempt.
+     *
+     * @return Epoch millis.
+     */
+    public long getNextAttempt() {
+        return nextAttempt;
+    }
+
+    /**
+     * Returns the message to deliver.
+     *
+     * @return Message.
+     */
+    public BatchRecord getRecord() {
+        return record;
+    }
+
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Text with <code>${name}</code> placeholders that is parsed only once. A
+ * literal <code>${</code> is written as <code>$${</code>. Placeholders are
+ * resolved to an index into a value array, so rendering is only a sequence of
+ * appends without any lookups.
+ */
+public final class Template {
+
+    private static final String[] EMPTY = new String[0];
+
+    private final String text;
+
+    /** Literal text before each placeholder plus the trailing text. */
+    private final String[] literals;
+
+    /** Value index of each placeholder. */
+    private final int[] indexes;
+
+    private final int minLength;
+
+    private Template(final String text, final String[] literals, final int[] indexes) {
+        super();
+        this.text = text;
+        this.literals = literals;
+        this.indexes = indexes;
+        int length = 0;
+        for (final String literal : literals) {
+            length += literal.length();
+        }
+        this.minLength = length;
+    }
+
+    /**
+     * Parses a template.
+     *
+     * @param text
+     *            Text with placeholders.
+     * @param names
+     *            Names of the values. Names of placeholders that are not yet
+     *            in the list are appended to it, so multiple templates can
+     *            share one value array.
+     *
+     * @return Compiled template.
+     */
+    public static Template compile(final String text, final List<String> names) {
+        Objects.requireNonNull(text, "text == null");
+        Objects.requireNonNull(names, "names == null");
+        final List<String> literals = new ArrayList<>();
+        final List<Integer> indexes = new ArrayList<>();
+        final StringBuilder literal = new StringBuilder();
+        int pos = 0;
+        while (pos < text.length()) {
+            final int start = text.indexOf("${", pos);
+            if (start < 0) {
+                literal.append(text, pos, text.length());
+                break;
+            }
+            if (start > 0 && text.charAt(start - 1) == '$') {
+                // Escaped: "$${" is a literal "${"
+                literal.append(text, pos, start - 1).append("${");
+                pos = start + 2;
+                continue;
+            }
+            final int end = text.indexOf('}', start + 2);
+            if (end < 0) {
+                throw new IllegalArgumentException("Unterminated placeholder at position " + start + ": " + text);
+            }
+            final String name = text.substring(start + 2, end).trim();
+            if (name.isEmpty()) {
+                throw new IllegalArgumentException("Empty placeholder at position " + start + ": " + text);
+            }
+            literal.append(text, pos, start);
+            literals.add(literal.toString());
+            literal.setLength(0);
+            int index = names.indexOf(name);
+            if (index < 0) {
+                index = names.size();
+                names.add(name);
+            }
+            indexes.add(index);
+            pos = end + 1;
+        }
+        literals.add(literal.toString());
+        final int[] idx = new int[indexes.size()];
+        for (int i = 0; i < idx.length; i++) {
+            idx[i] = indexes.get(i);
+        }
+        return new Template(text, literals.toArray(EMPTY), idx);
+    }
+
+    /**
+     * Appends the text with all placeholders replaced to a buffer.
+     *
+     * @param buf
+     *            Buffer to append to.
+     * @param values
+     *            Values in the order of the names used for compiling. A
+     *            {@literal null} value is rendered as empty string.
+     */
+    public void render(final StringBuilder buf, final String[] values) {
+        buf.ensureCapacity(buf.length() + minLength);
+        for (int i = 0; i < indexes.length; i++) {
+            buf.append(literals[i]);
+            final String value = values[indexes[i]];
+            if (value != null) {
+                buf.append(value);
+            }
+        }
+        buf.append(literals[indexes.length]);
+    }
+
+    /**
+     * Returns if the template contains any placeholders.
+     *
+     * @return {@literal true} if rendering depends on the values.
+     */
+    public boolean hasPlaceholders() {
+        return indexes.length > 0;
+    }
+
+    @Override
+    public String toString() {
+        return text;
+    }
+
+}
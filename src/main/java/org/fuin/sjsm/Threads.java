@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Utilities for creating threads.
+ */
+final class Threads {
+
+    private static final Method NEW_VIRTUAL_EXECUTOR = findVirtualExecutorFactory();
+
+    private Threads() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Determines if the JVM supports virtual threads (Java 21 or later).
+     *
+     * @return {@literal true} if virtual threads are available.
+     */
+    static boolean isVirtualAvailable() {
+        return NEW_VIRTUAL_EXECUTOR != null;
+    }
+
+    /**
+     * Creates an executor that starts a new thread for each task. Virtual
+     * threads are used if the JVM supports them, otherwise daemon platform
+     * threads from a cached pool.
+     *
+     * @param name
+     *            Name prefix for platform threads.
+     *
+     * @return New executor.
+     */
+    static ExecutorService newPerTaskExecutor(final String name) {
+        if (NEW_VIRTUAL_EXECUTOR != null) {
+            try {
+                return (ExecutorService) NEW_VIRTUAL_EXECUTOR.invoke(null);
+            } catch (final IllegalAccessException | InvocationTargetException ex) {
+                throw new IllegalStateException("Failed to create virtual thread executor", ex);
+            }
+        }
+        return Executors.newCachedThreadPool(daemonFactory(name));
+    }
+
+    /**
+     * Creates a factory for named daemon threads.
+     *
+     * @param name
+     *            Name prefix of the threads.
+     *
+     * @return New thread factory.
+     */
+    static ThreadFactory daemonFactory(final String name) {
+        final AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private static Method findVirtualExecutorFactory() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (final NoSuchMethodException ex) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.Objects;
+
+/**
+ * Identifies connections that can be shared: Same host, port, user and
+ * transport type.
+ */
+public final class TransportKey {
+
+    private final String host;
+
+    private final int port;
+
+    private final String user;
+
+    private final String transportType;
+
+    /**
+     * Constructor with all data.
+     *
+     * @param host
+     *            Host.
+     * @param port
+     *            Port.
+     * @param user
+     *            Authentication user or {@literal null} if no authentication
+     *            is used.
+     * @param transportType
+     *            Either "smtp" or "smtps".
+     */
+    public TransportKey(final String host, final int port, final String user, final String transportType) {
+        super();
+        this.host = Objects.requireNonNull(host, "host == null");
+        this.port = port;
+        this.user = user;
+        this.transportType = Objects.requireNonNull(transportType, "transportType == null");
+    }
+
+    /**
+     * Returns the host.
+     *
+     * @return Host.
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * Returns the port.
+     *
+     * @return Port.
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * Returns the user.
+     *
+     * @return Authentication user or {@literal null}.
+     */
+    public String getUser() {
+        return user;
+    }
+
+    /**
+     * Returns the transport type.
+     *
+     * @return Either "smtp" or "smtps".
+     */
+    public String getTransportType() {
+        return transportType;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(host, port, user, transportType);
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof TransportKey)) {
+            return false;
+        }
+        final TransportKey other = (TransportKey) obj;
+        return port == other.port && host.equals(other.host) && Objects.equals(user, other.user)
+                && transportType.equals(other.transportType);
+    }
+
+    @Override
+    public String toString() {
+        return transportType + "://" + (user == null ? "" : user + "@") + host + ":" + port;
+    }
+
+    /**
+     * Creates a key from the effective connection settings of a configuration.
+     *
+     * @param config
+     *            Configuration to use.
+     *
+     * @return New key instance.
+     */
+    public static TransportKey of(final Config config) {
+        Objects.requireNonNull(config, "config == null");
+        final ConnectionSettings settings = config.toConnectionSettings();
+        return new TransportKey(settings.getHost(), settings.getPort(), settings.getUser(),
+                settings.getTransportType());
+    }
+
+}
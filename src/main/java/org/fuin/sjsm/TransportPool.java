@@ -0,0 +1,390 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+
+/**
+ * Thread-safe pool of connected (and authenticated) transports. Connections
+ * are grouped by {@link TransportKey}. Each group keeps at least
+ * <code>minSize</code> and at most <code>maxSize</code> connections. Idle
+ * connections above the minimum are closed after <code>maxIdleMillis</code>,
+ * the remaining ones are checked periodically with a NOOP command.
+ */
+public final class TransportPool implements AutoCloseable {
+
+    /** Idle connections are checked with a NOOP before they are borrowed after this time. */
+    static final long VALIDATE_AFTER_MILLIS = 5000;
+
+    private final int minSize;
+
+    private final int maxSize;
+
+    private final long maxIdleMillis;
+
+    private final long maxWaitMillis;
+
+    private final Map<TransportKey, KeyPool> pools;
+
+    private final ScheduledExecutorService evictor;
+
+    private volatile boolean closed;
+
+    /**
+     * Constructor with all data.
+     *
+     * @param minSize
+     *            Minimal number of connections per key.
+     * @param maxSize
+     *            Maximal number of connections per key.
+     * @param maxIdleMillis
+     *            Idle connections above the minimum are closed after this
+     *            time.
+     * @param maxWaitMillis
+     *            Maximal time to wait for a connection if all are in use.
+     */
+    public TransportPool(final int minSize, final int maxSize, final long maxIdleMillis, final long maxWaitMillis) {
+        super();
+        if (minSize < 0) {
+            throw new IllegalArgumentException("minSize < 0: " + minSize);
+        }
+        if (maxSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("maxSize must be at least 1 and not less than minSize: " + maxSize);
+        }
+        if (maxIdleMillis < 1) {
+            throw new IllegalArgumentException("maxIdleMillis < 1: " + maxIdleMillis);
+        }
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.maxIdleMillis = maxIdleMillis;
+        this.maxWaitMillis = maxWaitMillis;
+        this.pools = new ConcurrentHashMap<>();
+        this.evictor = Executors.newSingleThreadScheduledExecutor(Threads.daemonFactory("sjsm-pool-evictor"));
+        final long period = Math.max(1000, maxIdleMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evict, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Convenience constructor using the pool settings of a configuration.
+     *
+     * @param config
+     *            Configuration to use.
+     */
+    public TransportPool(final Config config) {
+        this(config.getPoolMin(), config.getPoolMax(), config.getPoolIdle(), config.getTimeout());
+    }
+
+    /**
+     * Returns a connected transport for the configuration. If no idle
+     * connection exists and the maximum is reached, the method blocks until a
+     * connection is returned.
+     *
+     * @param config
+     *            Configuration with the connection settings.
+     *
+     * @return Connected transport that must be closed after use to return it
+     *         to the pool.
+     *
+     * @throws MessagingException
+     *             Connecting failed or no connection was available in time.
+     */
+    public PooledTransport borrow(final Config config) throws MessagingException {
+        Objects.requireNonNull(config, "config == null");
+        ensureOpen();
+        final KeyPool pool = pools.computeIfAbsent(TransportKey.of(config), key -> new KeyPool(key, config));
+        return pool.borrow();
+    }
+
+    /**
+     * Returns the number of idle connections for a key.
+     *
+     * @param key
+     *            Key to return the idle count for.
+     *
+     * @return Idle connections.
+     */
+    public int getIdleCount(final TransportKey key) {
+        final KeyPool pool = pools.get(key);
+        if (pool == null) {
+            return 0;
+        }
+        return pool.idleCount();
+    }
+
+    /**
+     * Returns the number of open (idle and borrowed) connections for a key.
+     *
+     * @param key
+     *            Key to return the total count for.
+     *
+     * @return Open connections.
+     */
+    public int getOpenCount(final TransportKey key) {
+        final KeyPool pool = pools.get(key);
+        if (pool == null) {
+            return 0;
+        }
+        return pool.openCount();
+    }
+
+    /**
+     * Closes idle connections and checks the health of the remaining ones.
+     */
+    void evict() {
+        for (final KeyPool pool : pools.values()) {
+            try {
+                pool.evict();
+            } catch (final RuntimeException ex) {
+                System.err.println("Failed to evict connections for " + pool.key + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    private void ensureOpen() {
+        if (closed) {
+            throw new IllegalStateException("The pool is already closed");
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        for (final KeyPool pool : pools.values()) {
+            pool.close();
+        }
+        pools.clear();
+    }
+
+    /**
+     * Connections for the same key.
+     */
+    private final class KeyPool {
+
+        private final TransportKey key;
+
+        private final Config config;
+
+        private final Session session;
+
+        private final Deque<PooledTransport> idle;
+
+        private int open;
+
+        KeyPool(final TransportKey key, final Config config) {
+            this.key = key;
+            this.config = new Config(config);
+            this.session = config.getSession();
+            this.idle = new ArrayDeque<>();
+            if (minSize > 0) {
+                evictor.execute(this::fill);
+            }
+        }
+
+        PooledTransport borrow() throws MessagingException {
+            final long deadline = System.currentTimeMillis() + maxWaitMillis;
+            PooledTransport pooled = null;
+            synchronized (this) {
+                while (pooled == null) {
+                    ensureOpen();
+                    // Most recently used connection first as it's the most likely alive
+                    pooled = idle.pollFirst();
+                    if (pooled == null) {
+                        if (open < maxSize) {
+                            open++;
+                            break;
+                        }
+                        final long wait = deadline - System.currentTimeMillis();
+                        if (wait <= 0) {
+                            throw new MessagingException("No pooled connection for " + key + " available within "
+                                    + maxWaitMillis + " millis");
+                        }
+                        try {
+                            wait(wait);
+                        } catch (final InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                            throw new MessagingException("Interrupted while waiting for a connection to " + key, ex);
+                        }
+                    }
+                }
+            }
+            if (pooled != null) {
+                if (pooled.idleMillis() < VALIDATE_AFTER_MILLIS || pooled.getTransport().isConnected()) {
+                    pooled.borrowed();
+                    return pooled;
+                }
+                // Dropped by the server: Replace it with a new connection
+                Transports.closeQuietly(pooled.getTransport());
+            }
+            try {
+                return connect();
+            } catch (final MessagingException | RuntimeException ex) {
+                synchronized (this) {
+                    open--;
+                    notifyAll();
+                }
+                throw ex;
+            }
+        }
+
+        private PooledTransport connect() throws MessagingException {
+            final Transport transport = session.getTransport(config.getTransportType());
+            Transports.connect(transport, config);
+            final PooledTransport pooled = new PooledTransport(this::release, session, transport);
+            pooled.borrowed();
+            return pooled;
+        }
+
+        void release(final PooledTransport pooled, final boolean broken) {
+            synchronized (this) {
+                if (!closed && !broken) {
+                    pooled.released();
+                    idle.addFirst(pooled);
+                    notifyAll();
+                    return;
+                }
+                open--;
+                notifyAll();
+            }
+            Transports.closeQuietly(pooled.getTransport());
+        }
+
+        void evict() {
+            final List<PooledTransport> candidates = new ArrayList<>();
+            synchronized (this) {
+                // Least recently used connections are at the end
+                final Iterator<PooledTransport> it = idle.descendingIterator();
+                while (it.hasNext() && open - candidates.size() > minSize) {
+                    final PooledTransport pooled = it.next();
+                    if (pooled.idleMillis() < maxIdleMillis) {
+                        break;
+                    }
+                    it.remove();
+                    candidates.add(pooled);
+                }
+                open -= candidates.size();
+            }
+            for (final PooledTransport pooled : candidates) {
+                Transports.closeQuietly(pooled.getTransport());
+            }
+            healthCheck();
+            fill();
+        }
+
+        private void healthCheck() {
+            final List<PooledTransport> toCheck;
+            synchronized (this) {
+                toCheck = new ArrayList<>(idle);
+            }
+            for (final PooledTransport pooled : toCheck) {
+                // Only one connection at a time is taken out, so all others can still be borrowed
+                synchronized (this) {
+                    if (!idle.remove(pooled)) {
+                        // Borrowed in the meantime
+                        continue;
+                    }
+                }
+                // Sends a NOOP command
+                final boolean alive = pooled.getTransport().isConnected();
+                synchronized (this) {
+                    if (alive && !closed) {
+                        putBack(pooled);
+                        notifyAll();
+                        continue;
+                    }
+                    open--;
+                    notifyAll();
+                }
+                Transports.closeQuietly(pooled.getTransport());
+            }
+        }
+
+        /**
+         * Returns a checked connection to the idle ones at the position of its
+         * last use, so the eviction still finds the least recently used
+         * connections at the end.
+         */
+        private void putBack(final PooledTransport pooled) {
+            final Deque<PooledTransport> older = new ArrayDeque<>();
+            while (!idle.isEmpty() && idle.peekLast().lastUsed() < pooled.lastUsed()) {
+                older.addFirst(idle.pollLast());
+            }
+            idle.addLast(pooled);
+            idle.addAll(older);
+        }
+
+        private void fill() {
+            while (true) {
+                synchronized (this) {
+                    if (closed || open >= minSize) {
+                        return;
+                    }
+                    open++;
+                }
+                try {
+                    final PooledTransport pooled = connect();
+                    release(pooled, false);
+                } catch (final MessagingException | RuntimeException ex) {
+                    synchronized (this) {
+                        open--;
+                        notifyAll();
+                    }
+                    System.err.println("Failed to open pooled connection to " + key + ": " + ex.getMessage());
+                    return;
+                }
+            }
+        }
+
+        synchronized int idleCount() {
+            return idle.size();
+        }
+
+        synchronized int openCount() {
+            return open;
+        }
+
+        void close() {
+            final List<PooledTransport> toClose;
+            synchronized (this) {
+                toClose = new ArrayList<>(idle);
+                idle.clear();
+                open -= toClose.size();
+                notifyAll();
+            }
+            for (final PooledTransport pooled : toClose) {
+                Transports.closeQuietly(pooled.getTransport());
+            }
+        }
+
+    }
+
+}
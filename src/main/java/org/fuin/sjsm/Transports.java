@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ *
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ *
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Utilities for connected transports.
+ */
+final class Transports {
+
+    private Transports() {
+        throw new UnsupportedOperationException("Utility class");
+    }
+
+    /**
+     * Sends a message over a connected transport. If the server dropped the
+     * connection, the transport is reconnected once and the message is sent
+     * again.
+     *
+     * @param transport
+     *            Connected transport.
+     * @param msg
+     *            Message with all changes already saved.
+     *
+     * @throws MessagingException
+     *             Sending failed.
+     */
+    static void send(final Transport transport, final MimeMessage msg) throws MessagingException {
+        send(transport, msg, msg.getAllRecipients());
+    }
+
+    /**
+     * Sends a message to the given receivers over a connected transport. If
+     * the server dropped the connection, the transport is reconnected once and
+     * the message is sent again.
+     *
+     * @param transport
+     *            Connected transport.
+     * @param msg
+     *            Message with all changes already saved.
+     * @param recipients
+     *            Receivers of the SMTP envelope.
+     *
+     * @throws MessagingException
+     *             Sending failed.
+     */
+    static void send(final Transport transport, final MimeMessage msg, final Address[] recipients)
+            throws MessagingException {
+        try {
+            sendMessage(transport, msg, recipients);
+        } catch (final MessagingException | IllegalStateException ex) {
+            if (transport.isConnected()) {
+                // Connection is fine, so it's a problem with the message itself
+                throw ex;
+            }
+            // Server dropped the connection: Reconnect once and try again
+            connect(transport, (ConnectionSettings) null);
+            sendMessage(transport, msg, recipients);
+        }
+    }
+
+    private static void sendMessage(final Transport transport, final MimeMessage msg, final Address[] recipients)
+            throws MessagingException {
+        final Metrics metrics = Metrics.global();
+        final SmtpEvent.Send event = new SmtpEvent.Send();
+        event.begin();
+        final long start = System.nanoTime();
+        try {
+            transport.sendMessage(msg, recipients);
+            metrics.sent(EncodedMessage.wireSize(msg));
+            event.succeeded();
+        } catch (final MessagingException | RuntimeException ex) {
+            metrics.failed(ex);
+            event.failed(ex);
+            throw ex;
+        } finally {
+            metrics.record(Metrics.Phase.SEND, System.nanoTime() - start);
+            if (event.shouldCommit()) {
+                event.target(transport);
+                event.recipients = recipients.length;
+                event.messageSize = EncodedMessage.wireSize(msg);
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Connects the transport and records the duration.
+     *
+     * @param transport
+     *            Transport to connect.
+     * @param config
+     *            Configuration the transport was created with or
+     *            {@literal null} if the transport was connected before.
+     *
+     * @throws MessagingException
+     *             Connecting failed.
+     */
+    static void connect(final Transport transport, final Config config) throws MessagingException {
+        connect(transport, config == null ? null : config.toConnectionSettings());
+    }
+
+    /**
+     * Connects the transport and records the duration.
+     *
+     * @param transport
+     *            Transport to connect.
+     * @param settings
+     *            Settings the transport was created with or {@literal null}
+     *            if the transport was connected before.
+     *
+     * @throws MessagingException
+     *             Connecting failed.
+     */
+    static void connect(final Transport transport, final ConnectionSettings settings) throws MessagingException {
+        final Metrics metrics = Metrics.global();
+        final SmtpEvent.Connect event = new SmtpEvent.Connect();
+        event.begin();
+        final long start = System.nanoTime();
+        try {
+            transport.connect();
+            event.succeeded();
+        } catch (final MessagingException | RuntimeException ex) {
+            metrics.failed(ex);
+            event.failed(ex);
+            throw ex;
+        } finally {
+            metrics.record(Metrics.Phase.CONNECT, System.nanoTime() - start);
+            if (event.shouldCommit()) {
+                if (settings == null) {
+                    event.target(transport);
+                } else {
+                    event.target(settings);
+                    event.authenticated = settings.isAuth();
+                }
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Saves the changes of a message and records the duration.
+     *
+     * @param msg
+     *            Message to save.
+     *
+     * @throws MessagingException
+     *             Saving failed.
+     */
+    static void saveChanges(final MimeMessage msg) throws MessagingException {
+        final SmtpEvent.SaveChanges event = new SmtpEvent.SaveChanges();
+        event.begin();
+        final long start = System.nanoTime();
+        try {
+            msg.saveChanges();
+            event.succeeded();
+        } catch (final MessagingException | RuntimeException ex) {
+            event.failed(ex);
+            throw ex;
+        } finally {
+            Metrics.global().record(Metrics.Phase.SAVE_CHANGES, System.nanoTime() - start);
+            if (event.shouldCommit()) {
+                final Address[] recipients = msg.getAllRecipients();
+                event.recipients = recipients == null ? 0 : recipients.length;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Closes the transport.
+     *
+     * @param transport
+     *            Transport to close.
+     *
+     * @throws MessagingException
+     *             Closing failed.
+     */
+    static void close(final Transport transport) throws MessagingException {
+        final SmtpEvent.Close event = new SmtpEvent.Close();
+        event.begin();
+        try {
+            transport.close();
+            event.succeeded();
+        } catch (final MessagingException | RuntimeException ex) {
+            event.failed(ex);
+            throw ex;
+        } finally {
+            if (event.shouldCommit()) {
+                event.target(transport);
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Closes the transport and ignores any error.
+     *
+     * @param transport
+     *            Transport to close.
+     */
+    static void closeQuietly(final Transport transport) {
+        try {
+            close(transport);
+        } catch (final MessagingException | RuntimeException ex) {
+            // Nothing we can do about it
+        }
+    }
+
+}
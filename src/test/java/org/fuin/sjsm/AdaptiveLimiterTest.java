@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.fuin.sjsm.AdaptiveLimiter.Outcome;
+import org.junit.jupiter.api.Test;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * Test for the {@link AdaptiveLimiter} class.
+ */
+class AdaptiveLimiterTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private static void roundTrip(final AdaptiveLimiter testee, final long now, final long latency,
+            final Outcome outcome) throws InterruptedException {
+        final int sessions = testee.getLimit();
+        for (int i = 0; i < sessions; i++) {
+            testee.acquire();
+        }
+        for (int i = 0; i < sessions; i++) {
+            testee.release(now, latency, outcome);
+        }
+    }
+
+    @Test
+    void testSlowStartAndIncrease() throws InterruptedException {
+
+        // PREPARE
+        final AdaptiveLimiter testee = new AdaptiveLimiter(100);
+        long now = System.nanoTime();
+
+        // TEST & VERIFY (doubles per round trip)
+        assertThat(testee.getLimit()).isEqualTo(1);
+        roundTrip(testee, now, 10 * MS, Outcome.SUCCESS);
+        assertThat(testee.getLimit()).isEqualTo(2);
+        roundTrip(testee, now, 10 * MS, Outcome.SUCCESS);
+        assertThat(testee.getLimit()).isEqualTo(4);
+        roundTrip(testee, now, 10 * MS, Outcome.SUCCESS);
+        assertThat(testee.getLimit()).isEqualTo(8);
+
+        // TEST & VERIFY (overload halves once per round trip)
+        now += 100 * MS;
+        testee.acquire();
+        testee.acquire();
+        testee.release(now, 0, Outcome.OVERLOAD);
+        testee.release(now, 0, Outcome.OVERLOAD);
+        assertThat(testee.getLimit()).isEqualTo(4);
+        assertThat(testee.getDecreases()).isEqualTo(1);
+
+        // TEST & VERIFY (grows by one per round trip after the first overload)
+        roundTrip(testee, now, 10 * MS, Outcome.SUCCESS);
+        assertThat(testee.getLimit()).isEqualTo(4);
+        roundTrip(testee, now, 10 * MS, Outcome.SUCCESS);
+        assertThat(testee.getLimit()).isEqualTo(5);
+        assertThat(testee.getLatencyMillis()).isEqualTo(10);
+        assertThat(testee.getMinLatencyMillis()).isEqualTo(10);
+        assertThat(testee.getInFlight()).isZero();
+        assertThat(testee.toString()).startsWith("Adaptive limit: 5 sessions");
+
+    }
+
+    @Test
+    void testHoldOnHighLatency() throws InterruptedException {
+
+        // PREPARE
+        final AdaptiveLimiter testee = new AdaptiveLimiter(100);
+        final long now = System.nanoTime();
+        roundTrip(testee, now, 10 * MS, Outcome.SUCCESS);
+        final int limit = testee.getLimit();
+
+        // TEST
+        for (int i = 0; i < 20; i++) {
+            roundTrip(testee, now, 100 * MS, Outcome.SUCCESS);
+        }
+
+        // VERIFY
+        assertThat(testee.getLimit()).isLessThanOrEqualTo(limit + 1);
+
+    }
+
+    @Test
+    void testMaxLimit() throws InterruptedException {
+
+        // PREPARE
+        final AdaptiveLimiter testee = new AdaptiveLimiter(3);
+        final long now = System.nanoTime();
+
+        // TEST
+        for (int i = 0; i < 5; i++) {
+            roundTrip(testee, now, MS, Outcome.SUCCESS);
+        }
+
+        // VERIFY
+        assertThat(testee.getLimit()).isEqualTo(3);
+
+    }
+
+    @Test
+    void testClassify() throws Exception {
+
+        final Address[] none = new Address[0];
+        final InternetAddress address = new InternetAddress("a@fuin.org");
+
+        assertThat(AdaptiveLimiter.classify(new RuntimeException("Failed",
+                new SMTPSendFailedException("DATA", 451, "451 Try again later", null, none, none, none))))
+                        .isEqualTo(Outcome.OVERLOAD);
+        assertThat(AdaptiveLimiter.classify(new SMTPSendFailedException("DATA", 554, "554 Rejected", null, none,
+                none, none))).isEqualTo(Outcome.IGNORE);
+
+        final MessagingException chained = new MessagingException("Invalid Addresses");
+        chained.setNextException(new SMTPAddressFailedException(address, "RCPT TO", 450, "450 Mailbox busy"));
+        assertThat(AdaptiveLimiter.classify(chained)).isEqualTo(Outcome.OVERLOAD);
+
+        assertThat(AdaptiveLimiter.classify(new MessagingException(
+                "Got bad greeting from SMTP host: localhost, port: 25, response: 421 Too many connections")))
+                        .isEqualTo(Outcome.OVERLOAD);
+        assertThat(AdaptiveLimiter.classify(
+                new MessagingException("Exception reading response", new SocketTimeoutException("Read timed out"))))
+                        .isEqualTo(Outcome.OVERLOAD);
+        assertThat(AdaptiveLimiter.classify(new MessagingException("IO", new IOException("Broken pipe"))))
+                .isEqualTo(Outcome.IGNORE);
+
+    }
+
+    @Test
+    void testClassifyResult() throws Exception {
+
+        final InternetAddress a = new InternetAddress("a@fuin.org");
+        final InternetAddress b = new InternetAddress("b@fuin.org");
+
+        assertThat(AdaptiveLimiter.classify(new SendResult(List.of(a, b), Map.of(), Map.of())))
+                .isEqualTo(Outcome.SUCCESS);
+        assertThat(AdaptiveLimiter.classify(
+                new SendResult(List.of(a), Map.of(b, "450 Mailbox busy"), Map.of(), Set.of(450))))
+                        .isEqualTo(Outcome.OVERLOAD);
+        assertThat(AdaptiveLimiter.classify(
+                new SendResult(List.of(a, b), Map.of(), Map.of(), Set.of(421))))
+                        .isEqualTo(Outcome.OVERLOAD);
+        assertThat(AdaptiveLimiter.classify(
+                new SendResult(List.of(a), Map.of(), Map.of(b, "550 No such user"), Set.of(550))))
+                        .isEqualTo(Outcome.IGNORE);
+
+    }
+
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.dumbster.smtp.SimpleSmtpServer;
+import com.dumbster.smtp.SmtpMessage;
+
+/**
+ * Test for the {@link BatchSender} class.
+ */
+class BatchSenderTest {
+
+    private static SimpleSmtpServer dumbster;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        dumbster = SimpleSmtpServer.start(SimpleSmtpServer.AUTO_SMTP_PORT);
+    }
+
+    @AfterEach
+    void tearDown() {
+        dumbster.close();
+    }
+
+    @Test
+    void testSendAll() throws IOException {
+
+        // PREPARE
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(dumbster.getPort());
+        config.setUser("myaccount");
+        config.setPw("mypw");
+        config.setFrom("test@fuin.org");
+        config.setSubject("Default subject");
+        config.setMessage("Default message");
+        config.setSmtp(true);
+        config.setTimeout(1000);
+        config.setNoauth(true);
+        final String batch = "{ \"to\": \"a@fuin.org\" }\n" + "\n"
+                + "{ \"to\": \"b@fuin.org\", \"subject\": \"Other subject\", \"message\": \"Other message\" }\n"
+                + "{ \"to\": \"c@fuin.org\", \"important\": true }\n";
+
+        // TEST
+        try (final BatchSender testee = new BatchSender(config)) {
+            testee.sendAll(new BufferedReader(new StringReader(batch)));
+
+            // VERIFY
+            assertThat(testee.getSent()).isEqualTo(3);
+            assertThat(testee.getFailed()).isZero();
+        }
+        final List<SmtpMessage> emails = dumbster.getReceivedEmails();
+        assertThat(emails).hasSize(3);
+        assertThat(emails.get(0).getHeaderValue("To")).isEqualTo("a@fuin.org");
+        assertThat(emails.get(0).getHeaderValue("Subject")).isEqualTo("Default subject");
+        assertThat(emails.get(0).getBody()).isEqualTo("Default message");
+        assertThat(emails.get(1).getHeaderValue("To")).isEqualTo("b@fuin.org");
+        assertThat(emails.get(1).getHeaderValue("Subject")).isEqualTo("Other subject");
+        assertThat(emails.get(1).getBody()).isEqualTo("Other message");
+        assertThat(emails.get(2).getHeaderValue("To")).isEqualTo("c@fuin.org");
+        assertThat(emails.get(2).getHeaderValue("X-Priority")).isEqualTo("1");
+
+    }
+
+    @Test
+    void testSendAllContinuesAfterFailure() throws IOException {
+
+        // PREPARE
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(dumbster.getPort());
+        config.setUser("myaccount");
+        config.setPw("mypw");
+        config.setFrom("test@fuin.org");
+        config.setSubject("Subject");
+        config.setMessage("Message");
+        config.setSmtp(true);
+        config.setTimeout(1000);
+        config.setNoauth(true);
+        final String batch = "{ \"to\": \"a@fuin.org\" }\n" + "no json\n" + "{ \"to\": \"c@fuin.org\" }\n";
+
+        // TEST
+        try (final BatchSender testee = new BatchSender(config)) {
+            testee.sendAll(new BufferedReader(new StringReader(batch)));
+
+            // VERIFY
+            assertThat(testee.getSent()).isEqualTo(2);
+            assertThat(testee.getFailed()).isEqualTo(1);
+        }
+        assertThat(dumbster.getReceivedEmails()).hasSize(2);
+
+    }
+
+    @Test
+    void testSendAllOverRelays() throws IOException {
+
+        // PREPARE
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(freePort());
+        config.setRelays(List.of("localhost:" + dumbster.getPort()));
+        config.setFrom("test@fuin.org");
+        config.setSubject("Subject");
+        config.setMessage("Message");
+        config.setSmtp(true);
+        config.setTimeout(1000);
+        config.setNoauth(true);
+        final String batch = "{ \"to\": \"a@fuin.org\" }\n" + "{ \"to\": \"b@fuin.org\" }\n";
+
+        // TEST
+        try (final BatchSender testee = new BatchSender(config)) {
+            testee.sendAll(new BufferedReader(new StringReader(batch)));
+
+            // VERIFY
+            assertThat(testee.getSent()).isEqualTo(2);
+            assertThat(testee.getFailed()).isZero();
+        }
+        assertThat(dumbster.getReceivedEmails()).hasSize(2);
+
+    }
+
+    private static int freePort() throws IOException {
+        try (final ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+}
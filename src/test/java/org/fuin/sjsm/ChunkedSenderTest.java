@@ -0,0 +1,298 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+import com.sun.mail.smtp.SMTPAddressFailedException;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Test for the {@link ChunkedSender} class.
+ */
+class ChunkedSenderTest {
+
+    private static Config createConfig(final int port, final int receivers) {
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(port);
+        config.setUser("myaccount");
+        config.setPw("mypw");
+        config.setFrom("test@fuin.org");
+        config.setSubject("Chunked");
+        config.setMessage("Message");
+        config.setSmtp(true);
+        config.setTimeout(1000);
+        config.setNoauth(true);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < receivers; i++) {
+            sb.append("receiver").append(i).append("@fuin.org;");
+        }
+        config.setReceiver(sb.toString());
+        return config;
+    }
+
+    @Test
+    void testSplit() throws Exception {
+
+        final Address[] addresses = InternetAddress.parse("a@b.com,b@b.com,c@b.com,d@b.com,e@b.com");
+
+        assertThat(ChunkedSender.split(addresses, 2)).extracting(chunk -> chunk.length).containsExactly(2, 2, 1);
+        assertThat(ChunkedSender.split(addresses, 5)).extracting(chunk -> chunk.length).containsExactly(5);
+        assertThat(ChunkedSender.split(new Address[0], 5)).isEmpty();
+
+    }
+
+    @Test
+    void testSendSequential() throws Exception {
+
+        final GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+        try {
+            // PREPARE
+            final Config config = createConfig(greenMail.getSmtp().getPort(), 250);
+            final Session session = config.createSession();
+            final MimeMessage msg = config.createMimeMessage(session);
+            msg.saveChanges();
+            final Transport transport = session.getTransport(config.getTransportType());
+            transport.connect();
+            try {
+
+                // TEST
+                final SendResult result = new ChunkedSender(100).send(transport, msg);
+
+                // VERIFY
+                assertThat(result.isSuccess()).isTrue();
+                assertThat(result.getSent()).hasSize(250);
+            } finally {
+                transport.close();
+            }
+            assertThat(greenMail.getReceivedMessages()).hasSize(250);
+        } finally {
+            greenMail.stop();
+        }
+
+    }
+
+    @Test
+    void testSendParallel() {
+
+        final GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+        try {
+            // PREPARE
+            final Config config = createConfig(greenMail.getSmtp().getPort(), 250);
+            config.setPoolMax(4);
+            config.setMaxRcpt(30);
+
+            // TEST
+            final SendResult result = new SendMailApp().sendPerReceiver(config);
+
+            // VERIFY
+            assertThat(result.isSuccess()).isTrue();
+            assertThat(result.getSent()).hasSize(250);
+            assertThat(greenMail.getReceivedMessages()).hasSize(250);
+        } finally {
+            greenMail.stop();
+        }
+
+    }
+
+    @Test
+    void testSendPartialFailure() throws Exception {
+
+        // PREPARE
+        final Config config = createConfig(25, 0);
+        config.setReceiver("a@fuin.org;b@fuin.org;bad@fuin.org;c@fuin.org;d@fuin.org");
+        final Session session = Session.getInstance(config.createSessionProperties());
+        final MimeMessage msg = config.createMimeMessage(session);
+        msg.saveChanges();
+        final RejectingTransport transport = new RejectingTransport(session);
+
+        // TEST
+        final SendResult result = new ChunkedSender(2).send(transport, msg);
+
+        // VERIFY
+        assertThat(transport.chunks).containsExactly("a@fuin.org,b@fuin.org", "bad@fuin.org,c@fuin.org",
+                "d@fuin.org");
+        assertThat(result.isSuccess()).isFalse();
+        assertThat(result.getSent()).extracting(Address::toString).containsExactly("a@fuin.org", "b@fuin.org",
+                "d@fuin.org");
+        assertThat(result.getInvalid()).containsOnlyKeys(new InternetAddress("bad@fuin.org"));
+        assertThat(result.getUnsent()).containsOnlyKeys(new InternetAddress("c@fuin.org"));
+        assertThat(result.getFailedCount()).isEqualTo(2);
+
+    }
+
+    @Test
+    void testRetryOnlyTemporaryFailures() throws Exception {
+
+        // PREPARE
+        final Config config = createConfig(25, 0);
+        config.setReceiver("a@fuin.org;busy@fuin.org;bad@fuin.org;b@fuin.org");
+        final Session session = Session.getInstance(config.createSessionProperties());
+        final MimeMessage msg = config.createMimeMessage(session);
+        msg.saveChanges();
+        final BusyTransport transport = new BusyTransport(session, 2);
+
+        // TEST
+        final SendResult result = new ChunkedSender(0, 3, 1).send(transport, msg);
+
+        // VERIFY
+        assertThat(transport.chunks).containsExactly("a@fuin.org,busy@fuin.org,bad@fuin.org,b@fuin.org",
+                "busy@fuin.org", "busy@fuin.org");
+        assertThat(result.isSuccess()).isFalse();
+        assertThat(result.getSent()).extracting(Address::toString).containsExactly("a@fuin.org", "b@fuin.org",
+                "busy@fuin.org");
+        assertThat(result.getUnsent()).isEmpty();
+        assertThat(result.getInvalid()).containsOnlyKeys(new InternetAddress("bad@fuin.org"));
+        assertThat(result.getInvalid().get(new InternetAddress("bad@fuin.org"))).contains("550");
+        assertThat(result.getReplyCodes()).containsExactlyInAnyOrder(450, 550);
+
+    }
+
+    @Test
+    void testRetryExhausted() throws Exception {
+
+        // PREPARE
+        final Config config = createConfig(25, 0);
+        config.setReceiver("a@fuin.org;busy@fuin.org");
+        final Session session = Session.getInstance(config.createSessionProperties());
+        final MimeMessage msg = config.createMimeMessage(session);
+        msg.saveChanges();
+        final BusyTransport transport = new BusyTransport(session, 10);
+
+        // TEST
+        final SendResult result = new ChunkedSender(0, 2, 1).send(transport, msg);
+
+        // VERIFY
+        assertThat(transport.chunks).hasSize(3);
+        assertThat(result.getSent()).extracting(Address::toString).containsExactly("a@fuin.org");
+        assertThat(result.getUnsent()).containsOnlyKeys(new InternetAddress("busy@fuin.org"));
+        assertThat(result.getUnsent().get(new InternetAddress("busy@fuin.org"))).contains("450");
+        assertThat(result.getReplyCodes()).containsExactly(450);
+
+    }
+
+    @Test
+    void testRetryDelay() {
+
+        assertThat(ChunkedSender.retryDelay(1000, 1)).isEqualTo(1000);
+        assertThat(ChunkedSender.retryDelay(1000, 2)).isEqualTo(2000);
+        assertThat(ChunkedSender.retryDelay(1000, 3)).isEqualTo(4000);
+        assertThat(ChunkedSender.retryDelay(1000, 100)).isEqualTo(ChunkedSender.MAX_RETRY_DELAY_MILLIS);
+
+    }
+
+    /**
+     * Transport that rejects receivers starting with "bad" permanently and
+     * receivers starting with "busy" temporarily for the first attempts.
+     */
+    private static final class BusyTransport extends Transport {
+
+        private final List<String> chunks = new ArrayList<>();
+
+        private int busyAttempts;
+
+        BusyTransport(final Session session, final int busyAttempts) {
+            super(session, null);
+            this.busyAttempts = busyAttempts;
+            setConnected(true);
+        }
+
+        @Override
+        public void sendMessage(final Message msg, final Address[] addresses) throws MessagingException {
+            chunks.add(InternetAddress.toString(addresses).replace(", ", ","));
+            final boolean busy = busyAttempts-- > 0;
+            final List<Address> sent = new ArrayList<>();
+            final List<Address> unsent = new ArrayList<>();
+            final List<Address> invalid = new ArrayList<>();
+            MessagingException chain = null;
+            for (final Address address : addresses) {
+                final InternetAddress ia = (InternetAddress) address;
+                final MessagingException failure;
+                if (ia.getAddress().startsWith("bad")) {
+                    invalid.add(ia);
+                    failure = new SMTPAddressFailedException(ia, "RCPT TO", 550, "550 No such user");
+                } else if (busy && ia.getAddress().startsWith("busy")) {
+                    unsent.add(ia);
+                    failure = new SMTPAddressFailedException(ia, "RCPT TO", 450, "450 Mailbox busy");
+                } else {
+                    sent.add(ia);
+                    continue;
+                }
+                if (chain == null) {
+                    chain = failure;
+                } else {
+                    chain.setNextException(failure);
+                }
+            }
+            if (chain != null) {
+                throw new SendFailedException("Invalid Addresses", chain, sent.toArray(new Address[0]),
+                        unsent.toArray(new Address[0]), invalid.toArray(new Address[0]));
+            }
+        }
+
+    }
+
+    /**
+     * Transport that rejects the whole transaction if a receiver starts with
+     * "bad".
+     */
+    private static final class RejectingTransport extends Transport {
+
+        private final List<String> chunks = new ArrayList<>();
+
+        RejectingTransport(final Session session) {
+            super(session, null);
+            setConnected(true);
+        }
+
+        @Override
+        public void sendMessage(final Message msg, final Address[] addresses) throws MessagingException {
+            chunks.add(InternetAddress.toString(addresses).replace(", ", ","));
+            final List<Address> valid = new ArrayList<>();
+            final List<Address> invalid = new ArrayList<>();
+            for (final Address address : addresses) {
+                (address.toString().startsWith("bad") ? invalid : valid).add(address);
+            }
+            if (!invalid.isEmpty()) {
+                throw new SendFailedException("Invalid Addresses", null, new Address[0],
+                        valid.toArray(new Address[0]), invalid.toArray(new Address[0]));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+/**
+ * Test for the {@link ConcurrentSender} class.
+ */
+class ConcurrentSenderTest {
+
+    private GreenMail greenMail;
+
+    @BeforeEach
+    void setUp() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        greenMail.stop();
+    }
+
+    private Config createConfig() {
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(greenMail.getSmtp().getPort());
+        config.setUser("myaccount");
+        config.setPw("mypw");
+        config.setFrom("test@fuin.org");
+        config.setSubject("Subject");
+        config.setMessage("Message");
+        config.setSmtp(true);
+        config.setTimeout(1000);
+        config.setNoauth(true);
+        config.setInFlight(5);
+        return config;
+    }
+
+    private static String createRecords(final int count) {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            sb.append("{ \"to\": \"receiver" + i + "@fuin.org\" }\n");
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void testSendAll() throws IOException {
+
+        // PREPARE
+        final Config config = createConfig();
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append("{ \"to\": \"receiver" + i + "@fuin.org\" }\n");
+        }
+        sb.append("{ \"to\": \"invalid@@address\" }\n");
+        final ConcurrentSender testee = new ConcurrentSender(config);
+
+        // TEST
+        testee.sendAll(new BufferedReader(new StringReader(sb.toString())));
+
+        // VERIFY
+        assertThat(testee.getSent()).isEqualTo(20);
+        assertThat(testee.getFailed()).isEqualTo(1);
+        assertThat(greenMail.getReceivedMessages()).hasSize(20);
+
+    }
+
+    @Test
+    void testSendAllAdaptive() throws IOException {
+
+        // PREPARE
+        final Config config = createConfig();
+        config.setInFlight(8);
+        config.setAdaptive(true);
+        final ConcurrentSender testee = new ConcurrentSender(config);
+
+        // TEST
+        testee.sendAll(new BufferedReader(new StringReader(createRecords(30))));
+
+        // VERIFY
+        assertThat(testee.getSent()).isEqualTo(30);
+        assertThat(testee.getFailed()).isZero();
+        assertThat(greenMail.getReceivedMessages()).hasSize(30);
+        final AdaptiveLimiter limiter = testee.getAdaptiveLimiter();
+        assertThat(limiter.getInFlight()).isZero();
+        assertThat(limiter.getLimit()).isBetween(1, 8);
+        assertThat(limiter.getMinLatencyMillis()).isLessThanOrEqualTo(limiter.getLatencyMillis());
+
+    }
+
+}
@@ -1,13 +1,28 @@
 package org.fuin.sjsm;
 
+import jakarta.mail.Message;
+import jakarta.mail.Part;
+import jakarta.mail.Session;
 import jakarta.mail.internet.AddressException;
 import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeBodyPart;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.Collections;
 import java.util.List;
+import java.util.Random;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 /**
  * Test for the {@link Config} class.
@@ -29,4 +44,88 @@ class ConfigTest {
                 .containsOnly(new InternetAddress("a@b.com"), new InternetAddress("nobody@nowhere.com"));
     }
 
+    @Test
+    void testCreateMimeMessageRecipients(@TempDir final Path dir) throws Exception {
+
+        // PREPARE
+        final Path file = dir.resolve("receivers.txt");
+        Files.write(file, List.of("list1@fuin.org", "LIST2@fuin.org", "not valid", ""), StandardCharsets.UTF_8);
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(25);
+        config.setUser("myaccount");
+        config.setFrom("test@fuin.org");
+        config.setSubject("Subject");
+        config.setMessage("Message");
+        config.setReceiver("a@fuin.org;a@@fuin.org;list2@fuin.org");
+        config.setReceiverFile(file.toString());
+
+        // TEST
+        final MimeMessage msg = new Config(config).createMimeMessage(Session.getInstance(config.createSessionProperties()));
+
+        // VERIFY
+        assertThat(msg.getRecipients(Message.RecipientType.TO)).containsExactly(new InternetAddress("list1@fuin.org"),
+                new InternetAddress("LIST2@fuin.org"), new InternetAddress("a@fuin.org"));
+        assertThat(config.getRecipients().getInvalid()).containsExactly("not valid", "a@@fuin.org");
+
+    }
+
+    @Test
+    void testCreateMimeMessageNoValidRecipient() {
+
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(25);
+        config.setUser("myaccount");
+        config.setFrom("test@fuin.org");
+        config.setSubject("Subject");
+        config.setMessage("Message");
+        config.setReceiver("a@@fuin.org");
+
+        assertThatThrownBy(() -> config.createMimeMessage(Session.getInstance(config.createSessionProperties())))
+                .hasMessageContaining("No valid email address");
+
+    }
+
+    @Test
+    void testCreateMimeMessageAttachments(@TempDir final Path dir) throws Exception {
+
+        // PREPARE
+        final byte[] data = new byte[100_000];
+        new Random(1).nextBytes(data);
+        final Path file = dir.resolve("export.bin");
+        Files.write(file, data);
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(25);
+        config.setFrom("test@fuin.org");
+        config.setSubject("Subject");
+        config.setMessage("Message");
+        config.setReceiver("a@fuin.org");
+        config.setAttachments(List.of(file.toString()));
+        final Session session = Session.getInstance(config.createSessionProperties());
+
+        // TEST
+        final MimeMessage msg = new Config(config).createMimeMessage(session);
+        msg.saveChanges();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        msg.writeTo(out);
+
+        // VERIFY
+        assertThat(config.isStreamed()).isTrue();
+        assertThat(MappedFileDataSource.mappedSize(msg)).isEqualTo(data.length);
+        final MimeMessage parsed = new MimeMessage(session, new ByteArrayInputStream(out.toByteArray()));
+        final MimeMultipart multipart = (MimeMultipart) parsed.getContent();
+        assertThat(multipart.getCount()).isEqualTo(2);
+        assertThat(multipart.getBodyPart(0).getContent()).isEqualTo("Message");
+        final MimeBodyPart attachment = (MimeBodyPart) multipart.getBodyPart(1);
+        assertThat(attachment.getFileName()).isEqualTo("export.bin");
+        assertThat(attachment.getDisposition()).isEqualTo(Part.ATTACHMENT);
+        assertThat(attachment.getEncoding()).isEqualTo("base64");
+        try (final InputStream in = attachment.getInputStream()) {
+            assertThat(in.readAllBytes()).isEqualTo(data);
+        }
+
+    }
+
 }
@@ -0,0 +1,182 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Test for the {@link EncodedMessage} and {@link MessageCache} classes.
+ */
+class EncodedMessageTest {
+
+    private static Config createConfig(final int port) {
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(port);
+        config.setUser("myaccount");
+        config.setPw("mypw");
+        config.setFrom("test@fuin.org");
+        config.setReceiver("a@fuin.org;b@fuin.org");
+        config.setSubject("Subject äöü");
+        config.setMessage("Message äöü");
+        config.setSmtp(true);
+        config.setTimeout(1000);
+        config.setNoauth(true);
+        return config;
+    }
+
+    private static byte[] bytes(final MimeMessage msg) throws IOException, MessagingException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        msg.writeTo(out, new String[] { "Bcc", "Content-Length" });
+        return out.toByteArray();
+    }
+
+    @Test
+    void testSameBytes() throws Exception {
+
+        // PREPARE
+        final Config config = createConfig(25);
+        final Session session = Session.getInstance(config.createSessionProperties());
+        final MimeMessage msg = config.createMimeMessage(session);
+        msg.saveChanges();
+
+        // TEST
+        final EncodedMessage testee = EncodedMessage.encode(msg);
+
+        // VERIFY
+        assertThat(testee.isOffHeap()).isFalse();
+        final byte[] expected = bytes(msg);
+        assertThat(testee.getSize()).isEqualTo(expected.length);
+        assertThat(bytes(testee.newMessage(session))).isEqualTo(expected);
+        assertThat(bytes(testee.newMessage(null))).isEqualTo(expected);
+        final MimeMessage copy = testee.newMessage(session);
+        assertThat(copy.getSubject()).isEqualTo("Subject äöü");
+        assertThat(copy.getContent()).isEqualTo("Message äöü");
+        assertThat(copy.getAllRecipients()).hasSize(2);
+
+    }
+
+    @Test
+    void testOffHeap() throws Exception {
+
+        // PREPARE
+        final Config config = createConfig(25);
+        config.setMessage("Line äöü\r\n".repeat(10000));
+        final Session session = Session.getInstance(config.createSessionProperties());
+        final MimeMessage msg = config.createMimeMessage(session);
+        msg.saveChanges();
+
+        // TEST
+        final EncodedMessage testee = EncodedMessage.encode(msg, 1024);
+
+        // VERIFY
+        assertThat(testee.isOffHeap()).isTrue();
+        assertThat(testee.getBodySize()).isGreaterThan(100000);
+        assertThat(bytes(testee.newMessage(session))).isEqualTo(bytes(msg));
+
+    }
+
+    @Test
+    void testReplaceHeader() throws Exception {
+
+        // PREPARE
+        final Config config = createConfig(25);
+        final Session session = Session.getInstance(config.createSessionProperties());
+        final MimeMessage msg = config.createMimeMessage(session);
+        msg.saveChanges();
+        final EncodedMessage testee = EncodedMessage.encode(msg);
+
+        // TEST
+        final MimeMessage replaced = testee.newMessage(session, Map.of("To", "c@fuin.org"));
+
+        // VERIFY
+        assertThat(replaced.getAllRecipients()).containsExactly(new InternetAddress("c@fuin.org"));
+        final MimeMessage parsed = new MimeMessage(session, new ByteArrayInputStream(bytes(replaced)));
+        assertThat(parsed.getRecipients(Message.RecipientType.TO)).containsExactly(new InternetAddress("c@fuin.org"));
+        assertThat(parsed.getSubject()).isEqualTo("Subject äöü");
+        assertThat(parsed.getMessageID()).isEqualTo(msg.getMessageID());
+        assertThat(parsed.getContent()).isEqualTo("Message äöü");
+
+    }
+
+    @Test
+    void testBatchEncodeOnce() throws Exception {
+
+        final GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+        try {
+            // PREPARE
+            final Config config = createConfig(greenMail.getSmtp().getPort());
+            config.setEncodeOnce(true);
+            final String batch = "{ \"to\": \"a@fuin.org\" }\n" + "{ \"to\": \"b@fuin.org\" }\n"
+                    + "{ \"to\": \"c@fuin.org\", \"subject\": \"Other\" }\n";
+
+            // TEST
+            try (final BatchSender testee = new BatchSender(config)) {
+                testee.sendAll(new BufferedReader(new StringReader(batch)));
+                assertThat(testee.getSent()).isEqualTo(3);
+            }
+
+            // VERIFY
+            final MimeMessage[] messages = greenMail.getReceivedMessages();
+            assertThat(messages).hasSize(3);
+            assertThat(messages[0].getHeader("To", null)).isEqualTo("a@fuin.org");
+            assertThat(messages[1].getHeader("To", null)).isEqualTo("b@fuin.org");
+            assertThat(messages[1].getMessageID()).isNotEqualTo(messages[0].getMessageID())
+                    .endsWith(messages[0].getMessageID().substring(messages[0].getMessageID().lastIndexOf('@')));
+            assertThat(messages[1].getHeader("Date", null)).isNotNull();
+            assertThat(messages[1].getContent()).isEqualTo("Message äöü");
+            assertThat(messages[2].getSubject()).isEqualTo("Other");
+            assertThat(messages[2].getMessageID()).isNotEqualTo(messages[0].getMessageID());
+        } finally {
+            greenMail.stop();
+        }
+
+    }
+
+    @Test
+    void testMessageId() {
+
+        final String first = MessageCache.messageId("<123.456@fuin.org>");
+        final String second = MessageCache.messageId("<123.456@fuin.org>");
+
+        assertThat(first).startsWith("<").endsWith("@fuin.org>").isNotEqualTo(second);
+        assertThat(second).endsWith("@fuin.org>");
+        assertThat(MessageCache.messageId(null)).endsWith("@localhost>");
+
+    }
+
+}
@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the {@link LatencyHistogram} class.
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void testBuckets() {
+
+        // Exact below 128, then contiguous buckets with less than 1.6% error
+        long previousUpper = -1;
+        for (int index = 0; index < 1000; index++) {
+            final long upper = LatencyHistogram.upperBound(index);
+            assertThat(upper).isGreaterThan(previousUpper);
+            assertThat(LatencyHistogram.index(previousUpper + 1)).isEqualTo(index);
+            assertThat(LatencyHistogram.index(upper)).isEqualTo(index);
+            assertThat((double) (upper - previousUpper - 1)).isLessThanOrEqualTo(Math.max(0, upper * 0.016));
+            previousUpper = upper;
+        }
+        assertThat(LatencyHistogram.index(127)).isEqualTo(127);
+        assertThat(LatencyHistogram.index(Long.MAX_VALUE)).isEqualTo(LatencyHistogram.index(1L << 40));
+
+    }
+
+    @Test
+    void testQuantiles() {
+
+        // PREPARE
+        final LatencyHistogram testee = new LatencyHistogram();
+
+        // TEST
+        for (int i = 1; i <= 1000; i++) {
+            testee.record(TimeUnit.MILLISECONDS.toNanos(i));
+        }
+
+        // VERIFY
+        assertThat(testee.getCount()).isEqualTo(1000);
+        assertThat(testee.getMaxMicros()).isEqualTo(1_000_000);
+        assertThat(testee.getSumMicros()).isEqualTo(500_500_000L);
+        assertThat(testee.getQuantileMicros(0.5)).isBetween(500_000L, 508_000L);
+        assertThat(testee.getQuantileMicros(0.99)).isBetween(990_000L, 1_000_000L);
+        assertThat(testee.getQuantileMicros(1.0)).isEqualTo(1_000_000);
+        assertThat(testee.getQuantileMicros(0.0)).isBetween(1000L, 1016L);
+
+    }
+
+    @Test
+    void testEmpty() {
+
+        final LatencyHistogram testee = new LatencyHistogram();
+
+        assertThat(testee.getQuantileMicros(0.99)).isZero();
+        assertThatThrownBy(() -> testee.getQuantileMicros(1.5)).isInstanceOf(IllegalArgumentException.class);
+
+    }
+
+}
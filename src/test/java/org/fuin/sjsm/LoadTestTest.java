@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+/**
+ * Test for the {@link LoadTest} class.
+ */
+class LoadTestTest {
+
+    @Test
+    void testRun() throws Exception {
+
+        final GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+        try {
+            // PREPARE
+            final Config config = new Config();
+            config.setHost("localhost");
+            config.setPort(greenMail.getSmtp().getPort());
+            config.setFrom("test@fuin.org");
+            config.setSmtp(true);
+            config.setTimeout(1000);
+            config.setNoauth(true);
+            config.setLoadTest(20);
+            config.setLoadBodySize(2000);
+            config.setLoadRcpt(2);
+            config.setInFlight(4);
+            final LoadTest testee = new LoadTest(config);
+
+            // TEST
+            final LoadTest.Result result = testee.run();
+
+            // VERIFY
+            assertThat(result.getSent()).isEqualTo(20);
+            assertThat(result.getFailed()).isZero();
+            assertThat(result.getBytes()).isGreaterThan(20 * 2000);
+            assertThat(result.getMessagesPerSecond()).isPositive();
+            assertThat(result.getTotal().getCount()).isEqualTo(20);
+            assertThat(result.report()).contains("20 sent, 0 failed", "connect", "send", "total");
+            assertThat(testee.toString()).contains("20 messages with 2 receivers and 2000 bytes body, 4 sessions");
+            assertThat(greenMail.getReceivedMessages()).hasSize(40);
+            assertThat(greenMail.getReceivedMessages()[0].getAllRecipients()[0].toString())
+                    .matches("loadtest[12]@fuin.org");
+        } finally {
+            greenMail.stop();
+        }
+
+    }
+
+    @Test
+    void testCreateBody() {
+        assertThat(LoadTest.createBody(1000, false)).hasSize(1000).startsWith("The quick");
+        assertThat(LoadTest.createBody(1000, true)).hasSize(1000).startsWith("<html>").endsWith("</html>");
+        assertThat(LoadTest.createBody(0, false)).isEmpty();
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+
+import jakarta.mail.Session;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+import jakarta.mail.internet.MimeMultipart;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test for the {@link MailMessage} and {@link ConnectionSettings} classes.
+ */
+class MailMessageTest {
+
+    @Test
+    void testBuild(@TempDir final Path dir) throws Exception {
+
+        // PREPARE
+        final Path file = dir.resolve("report.html");
+        Files.writeString(file, "<h1>Report</h1>");
+        final Path attachment = dir.resolve("export.csv");
+        Files.writeString(attachment, "a;b");
+
+        // TEST
+        final MailMessage testee = MailMessage.builder().from("test@fuin.org").to("a@fuin.org").subject("Report")
+                .textFile(file).html(true).important(true).attach(attachment).build();
+
+        // VERIFY
+        assertThat(testee.getTo()).containsExactly(new InternetAddress("a@fuin.org"));
+        assertThat(testee.getContentType()).isEqualTo("text/html; charset=UTF-8");
+        assertThat(testee.isStreamed()).isTrue();
+        assertThat(testee.getContentSize()).isEqualTo(18);
+        final MimeMessage msg = testee.createMimeMessage(Session.getInstance(new Properties()));
+        msg.saveChanges();
+        assertThat(msg.getHeader("X-Priority", null)).isEqualTo("1");
+        final MimeMultipart multipart = (MimeMultipart) msg.getContent();
+        assertThat(multipart.getCount()).isEqualTo(2);
+        assertThat(multipart.getBodyPart(0).getContentType()).startsWith("text/html");
+        assertThat(multipart.getBodyPart(0).getContent()).isEqualTo("<h1>Report</h1>");
+        assertThat(multipart.getBodyPart(1).getFileName()).isEqualTo("export.csv");
+
+    }
+
+    @Test
+    void testBuildInvalid() {
+
+        assertThatThrownBy(() -> MailMessage.builder().from("not valid"))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("not valid");
+        assertThatThrownBy(() -> MailMessage.builder().from("test@fuin.org").build())
+                .isInstanceOf(IllegalStateException.class).hasMessageContaining("receiver");
+        assertThatThrownBy(() -> MailMessage.builder().to("a@fuin.org").build())
+                .isInstanceOf(IllegalStateException.class).hasMessageContaining("sender");
+
+    }
+
+    @Test
+    void testConnectionSettings() {
+
+        // TEST
+        final ConnectionSettings smtps = ConnectionSettings.builder().host("localhost")
+                .credentials("myaccount", "secret").build();
+        final ConnectionSettings smtp = ConnectionSettings.builder().host("localhost").smtp(true).build();
+
+        // VERIFY
+        assertThat(smtps.getPort()).isEqualTo(ConnectionSettings.DEFAULT_SMTPS_PORT);
+        assertThat(smtps.isAuth()).isTrue();
+        assertThat(smtps.createSessionProperties()).containsEntry("mail.smtps.auth", "true")
+                .containsEntry("mail.smtps.port", "465");
+        assertThat(smtps.toString()).isEqualTo("smtps://myaccount@localhost:465").doesNotContain("secret");
+        assertThat(smtp.getPort()).isEqualTo(ConnectionSettings.DEFAULT_SMTP_PORT);
+        assertThat(smtp.isAuth()).isFalse();
+        assertThat(smtp).isEqualTo(ConnectionSettings.builder().host("localhost").port(25).smtp(true).build());
+        assertThat(smtp).isNotEqualTo(smtps);
+        assertThatThrownBy(() -> ConnectionSettings.builder().build()).isInstanceOf(IllegalStateException.class);
+
+    }
+
+}
@@ -0,0 +1,154 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+/**
+ * Test for the {@link MailProcessor} class.
+ */
+class MailProcessorTest {
+
+    private static final int CONCURRENCY = 2;
+
+    @Test
+    void testSendStream() throws Exception {
+
+        final GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+        try {
+            // PREPARE
+            final Mailer mailer = new Mailer(ConnectionSettings.builder().host("localhost")
+                    .port(greenMail.getSmtp().getPort()).smtp(true).timeout(1000).build());
+            final List<Delivery> deliveries = new CopyOnWriteArrayList<>();
+            final CompletableFuture<Void> done;
+            final CountingPublisher publisher;
+            try (final MailProcessor testee = new MailProcessor(mailer, CONCURRENCY)) {
+                done = testee.consume(deliveries::add);
+                publisher = new CountingPublisher(10, testee);
+
+                // TEST
+                publisher.subscribe(testee);
+                done.get(30, TimeUnit.SECONDS);
+            }
+
+            // VERIFY
+            assertThat(deliveries).hasSize(10).allMatch(Delivery::isSuccess);
+            assertThat(deliveries).extracting(delivery -> delivery.getMessage().getSubject())
+                    .containsExactlyInAnyOrder("0", "1", "2", "3", "4", "5", "6", "7", "8", "9");
+            assertThat(publisher.maxInFlight.get()).isBetween(1, CONCURRENCY);
+            assertThat(greenMail.getReceivedMessages()).hasSize(10);
+        } finally {
+            greenMail.stop();
+        }
+
+    }
+
+    @Test
+    void testConnectionFailed() throws Exception {
+
+        // PREPARE
+        final Mailer mailer = new Mailer(
+                ConnectionSettings.builder().host("localhost").port(1).smtp(true).timeout(1000).build());
+        final List<Delivery> deliveries = new CopyOnWriteArrayList<>();
+        final MailProcessor testee = new MailProcessor(mailer, CONCURRENCY);
+        final CompletableFuture<Void> done = testee.consume(deliveries::add);
+
+        // TEST
+        new CountingPublisher(3, testee).subscribe(testee);
+        done.get(30, TimeUnit.SECONDS);
+
+        // VERIFY
+        assertThat(deliveries).hasSize(3).noneMatch(Delivery::isSuccess);
+        assertThat(deliveries.get(0).getReport()).isNull();
+        assertThat(deliveries.get(0).getError()).isNotNull();
+
+    }
+
+    /**
+     * Emits a number of messages strictly on demand and records how many
+     * messages the processor had in flight.
+     */
+    private static final class CountingPublisher implements Flow.Publisher<MailMessage> {
+
+        private final int count;
+
+        private final MailProcessor processor;
+
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+
+        private long demand;
+
+        private int emitted;
+
+        private boolean emitting;
+
+        private boolean completed;
+
+        CountingPublisher(final int count, final MailProcessor processor) {
+            this.count = count;
+            this.processor = processor;
+        }
+
+        @Override
+        public void subscribe(final Flow.Subscriber<? super MailMessage> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(final long n) {
+                    synchronized (CountingPublisher.this) {
+                        demand += n;
+                        if (emitting) {
+                            return;
+                        }
+                        emitting = true;
+                        while (demand > 0 && emitted < count) {
+                            demand--;
+                            subscriber.onNext(MailMessage.builder().from("test@fuin.org").to("a@fuin.org")
+                                    .subject("" + emitted++).text("Message").build());
+                            maxInFlight.accumulateAndGet(processor.getInFlight(), Math::max);
+                        }
+                        emitting = false;
+                        if (emitted == count && !completed) {
+                            completed = true;
+                            subscriber.onComplete();
+                        }
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    // Not used
+                }
+            });
+        }
+
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.net.ServerSocket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetAddress;
+import jakarta.mail.internet.MimeMessage;
+
+import org.junit.jupiter.api.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+/**
+ * Test for the {@link Mailer} class.
+ */
+class MailerTest {
+
+    @Test
+    void testSendConcurrently() throws Exception {
+
+        final GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // PREPARE
+            final Mailer testee = new Mailer(ConnectionSettings.builder().host("localhost")
+                    .port(greenMail.getSmtp().getPort()).smtp(true).timeout(1000).build());
+            final MailMessage message = MailMessage.builder().from("test@fuin.org").to("a@fuin.org", "b@fuin.org")
+                    .subject("Shared").text("Message äöü").build();
+            final List<Future<SendResult>> futures = new ArrayList<>();
+
+            // TEST
+            for (int i = 0; i < 8; i++) {
+                futures.add(executor.submit(() -> testee.send(message)));
+            }
+
+            // VERIFY
+            for (final Future<SendResult> future : futures) {
+                final SendResult result = future.get();
+                assertThat(result.isSuccess()).isTrue();
+                assertThat(result.getSent()).hasSize(2);
+            }
+            final MimeMessage[] received = greenMail.getReceivedMessages();
+            assertThat(received).hasSize(16);
+            assertThat(received[0].getSubject()).isEqualTo("Shared");
+            assertThat(received[0].getContent()).isEqualTo("Message äöü");
+        } finally {
+            executor.shutdownNow();
+            greenMail.stop();
+        }
+
+    }
+
+    @Test
+    void testSendAsync() throws Exception {
+
+        final GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // PREPARE
+            final Mailer testee = new Mailer(ConnectionSettings.builder().host("localhost")
+                    .port(greenMail.getSmtp().getPort()).smtp(true).timeout(1000).build(), executor);
+            final MailMessage message = MailMessage.builder().from("test@fuin.org").to("a@fuin.org")
+                    .subject("Async").text("Message").build();
+
+            // TEST
+            final DeliveryReport report = testee.sendAsync(message).get(10, TimeUnit.SECONDS);
+
+            // VERIFY
+            assertThat(report.isSuccess()).isTrue();
+            assertThat(report.getAccepted()).containsExactly(new InternetAddress("a@fuin.org"));
+            assertThat(report.getRejected()).isEmpty();
+            assertThat(report.getConnectTime()).isPositive();
+            assertThat(report.getSendTime()).isPositive();
+            assertThat(report.getTotalTime()).isGreaterThanOrEqualTo(report.getSendTime());
+            final MimeMessage[] received = greenMail.getReceivedMessages();
+            assertThat(received).hasSize(1);
+            assertThat(report.getMessageId()).isNotNull().isEqualTo(received[0].getMessageID());
+        } finally {
+            executor.shutdownNow();
+            greenMail.stop();
+        }
+
+    }
+
+    @Test
+    void testSendAsyncConnectionFailed() throws Exception {
+
+        // PREPARE
+        final int port;
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        final Mailer testee = new Mailer(
+                ConnectionSettings.builder().host("localhost").port(port).smtp(true).timeout(1000).build());
+        final MailMessage message = MailMessage.builder().from("test@fuin.org").to("a@fuin.org")
+                .subject("Async").text("Message").build();
+
+        // TEST
+        final CompletableFuture<DeliveryReport> future = testee.sendAsync(message);
+
+        // VERIFY
+        assertThatThrownBy(() -> future.get(10, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(MessagingException.class);
+
+    }
+
+}
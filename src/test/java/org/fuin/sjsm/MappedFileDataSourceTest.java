@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Test for the {@link MappedFileDataSource} class.
+ */
+class MappedFileDataSourceTest {
+
+    @Test
+    void testMap(@TempDir final Path dir) throws IOException {
+
+        // PREPARE
+        final Path file = dir.resolve("report.html");
+        Files.writeString(file, "<h1>Report</h1>");
+
+        // TEST
+        final MappedFileDataSource testee = MappedFileDataSource.map(file, "text/html; charset=utf-8");
+
+        // VERIFY
+        assertThat(testee.getName()).isEqualTo("report.html");
+        assertThat(testee.getContentType()).isEqualTo("text/html; charset=utf-8");
+        assertThat(testee.getSize()).isEqualTo(15);
+        assertThatThrownBy(testee::getOutputStream).isInstanceOf(IOException.class);
+
+    }
+
+    @Test
+    void testStreamsAreIndependent(@TempDir final Path dir) throws IOException {
+
+        // PREPARE
+        final Path file = dir.resolve("report.txt");
+        Files.writeString(file, "abc");
+        final MappedFileDataSource testee = MappedFileDataSource.map(file, "text/plain");
+
+        // TEST
+        final MappedFileDataSource other = testee.withContentType("text/html");
+        try (final InputStream first = testee.getInputStream(); final InputStream second = other.getInputStream()) {
+            assertThat(first.read()).isEqualTo('a');
+
+            // VERIFY
+            assertThat(new String(second.readAllBytes(), StandardCharsets.US_ASCII)).isEqualTo("abc");
+            assertThat(new String(first.readAllBytes(), StandardCharsets.US_ASCII)).isEqualTo("bc");
+            assertThat(other.getContentType()).isEqualTo("text/html");
+        }
+
+    }
+
+}
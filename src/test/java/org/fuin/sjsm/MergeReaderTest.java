@@ -0,0 +1,153 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.dumbster.smtp.SimpleSmtpServer;
+import com.dumbster.smtp.SmtpMessage;
+
+/**
+ * Test for the {@link MergeReader} and {@link CsvReader} classes.
+ */
+class MergeReaderTest {
+
+    private static Config createConfig() {
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setUser("myaccount");
+        config.setPw("mypw");
+        config.setFrom("test@fuin.org");
+        config.setReceiver("${email}");
+        config.setSubject("Invoice ${invoice}");
+        config.setMessage("Dear ${name},\nyou owe ${amount} EUR.");
+        config.setSmtp(true);
+        config.setTimeout(1000);
+        config.setNoauth(true);
+        return config;
+    }
+
+    private static MergeReader reader(final String data, final boolean csv) throws IOException {
+        return new MergeReader(createConfig(), new BufferedReader(new StringReader(data)), csv);
+    }
+
+    @Test
+    void testCsv() throws IOException {
+
+        // PREPARE
+        final String data = "email,name,invoice,amount\n" + "a@fuin.org,Jane,1,12.50\n" + "\n"
+                + "b@fuin.org,\"Doe, \"\"John\"\"\",2,\"1,000\"\n" + "c@fuin.org,\"Multi\nLine\",3,0\n";
+
+        // TEST
+        try (final MergeReader testee = reader(data, true)) {
+
+            // VERIFY
+            assertThat(testee.getNames()).containsExactly("email", "invoice", "name", "amount");
+            final BatchRecord first = testee.read();
+            assertThat(first.getReceiver()).isEqualTo("a@fuin.org");
+            assertThat(first.getSubject()).isEqualTo("Invoice 1");
+            assertThat(first.getMessage()).isEqualTo("Dear Jane,\nyou owe 12.50 EUR.");
+            assertThat(first.getHtml()).isNull();
+            final BatchRecord second = testee.read();
+            assertThat(second.getMessage()).isEqualTo("Dear Doe, \"John\",\nyou owe 1,000 EUR.");
+            final BatchRecord third = testee.read();
+            assertThat(third.getMessage()).isEqualTo("Dear Multi\nLine,\nyou owe 0 EUR.");
+            assertThat(testee.read()).isNull();
+        }
+
+    }
+
+    @Test
+    void testCsvMissingColumn() {
+
+        assertThatThrownBy(() -> reader("email,name,amount\n", true)).isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("no column 'invoice'");
+
+    }
+
+    @Test
+    void testCsvShortRow() throws IOException {
+
+        try (final MergeReader testee = reader("email,name,invoice,amount\na@fuin.org,Jane\nb@fuin.org,John,2,3\n",
+                true)) {
+            assertThatThrownBy(testee::read).hasMessageContaining("Row 1").hasMessageContaining("'invoice'");
+            assertThat(testee.read().getReceiver()).isEqualTo("b@fuin.org");
+        }
+
+    }
+
+    @Test
+    void testJsonLines() throws IOException {
+
+        // PREPARE
+        final String data = "{\"email\":\"a@fuin.org\",\"name\":\"Jane\",\"invoice\":1,\"amount\":12.5}\n"
+                + "{\"email\":\"b@fuin.org\",\"name\":\"John\"}\n" + "\n"
+                + "{\"email\":\"c@fuin.org\",\"name\":\"Joe\",\"invoice\":\"3\",\"amount\":\"7\",\"unused\":true}\n";
+
+        // TEST
+        try (final MergeReader testee = reader(data, false)) {
+
+            // VERIFY
+            final BatchRecord first = testee.read();
+            assertThat(first.getSubject()).isEqualTo("Invoice 1");
+            assertThat(first.getMessage()).isEqualTo("Dear Jane,\nyou owe 12.5 EUR.");
+            assertThatThrownBy(testee::read).hasMessageContaining("Row 2 has no value for 'invoice'");
+            final BatchRecord third = testee.read();
+            assertThat(third.getReceiver()).isEqualTo("c@fuin.org");
+            assertThat(third.getSubject()).isEqualTo("Invoice 3");
+            assertThat(testee.read()).isNull();
+        }
+
+    }
+
+    @Test
+    void testSendAll() throws IOException {
+
+        // PREPARE
+        final String data = "email,name,invoice,amount\na@fuin.org,Jane,1,10\nb@fuin.org,John,2,20\n";
+        try (final SimpleSmtpServer dumbster = SimpleSmtpServer.start(SimpleSmtpServer.AUTO_SMTP_PORT)) {
+            final Config config = createConfig();
+            config.setPort(dumbster.getPort());
+
+            // TEST
+            try (final BatchSender testee = new BatchSender(config);
+                    final MergeReader reader = new MergeReader(config, new BufferedReader(new StringReader(data)),
+                            true)) {
+                testee.sendAll(reader);
+                assertThat(testee.getSent()).isEqualTo(2);
+            }
+
+            // VERIFY
+            final List<SmtpMessage> emails = dumbster.getReceivedEmails();
+            assertThat(emails).hasSize(2);
+            assertThat(emails.get(1).getHeaderValue("To")).isEqualTo("b@fuin.org");
+            assertThat(emails.get(1).getHeaderValue("Subject")).isEqualTo("Invoice 2");
+            assertThat(emails.get(1).getBody()).contains("Dear John");
+        }
+
+    }
+
+}
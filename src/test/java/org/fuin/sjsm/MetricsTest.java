@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.fuin.sjsm.Metrics.Phase;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+
+/**
+ * Test for the {@link Metrics} class.
+ */
+class MetricsTest {
+
+    @TempDir
+    Path dir;
+
+    private static Metrics createMetrics() {
+        final Metrics metrics = new Metrics();
+        metrics.record(Phase.CONNECT, TimeUnit.MILLISECONDS.toNanos(40));
+        metrics.record(Phase.CONNECT, TimeUnit.MILLISECONDS.toNanos(60));
+        metrics.record(Phase.SEND, TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.sent(1000);
+        metrics.sent(-1);
+        final Address[] none = new Address[0];
+        metrics.failed(new RuntimeException("Failed",
+                new SMTPSendFailedException("DATA", 451, "451 Try again later", null, none, none, none)));
+        metrics.failed(new MessagingException("Connection refused"));
+        return metrics;
+    }
+
+    @Test
+    void testCounters() {
+
+        final Metrics testee = createMetrics();
+
+        assertThat(testee.getMessages()).isEqualTo(2);
+        assertThat(testee.getBytes()).isEqualTo(1000);
+        assertThat(testee.getFailures()).containsEntry("451", 1L).containsEntry("none", 1L);
+        assertThat(testee.getHistogram(Phase.CONNECT).getCount()).isEqualTo(2);
+
+    }
+
+    @Test
+    void testWritePrometheus() throws Exception {
+
+        // PREPARE
+        final Metrics testee = createMetrics();
+        final StringWriter writer = new StringWriter();
+
+        // TEST
+        testee.writePrometheus(writer);
+
+        // VERIFY
+        final String text = writer.toString();
+        assertThat(text).contains("# TYPE sjsm_phase_seconds summary\n");
+        assertThat(text).contains("sjsm_phase_seconds{phase=\"connect\",quantile=\"0.99\"} 0.06");
+        assertThat(text).contains("sjsm_phase_seconds_count{phase=\"connect\"} 2\n");
+        assertThat(text).contains("sjsm_phase_seconds_sum{phase=\"connect\"} 0.100000\n");
+        assertThat(text).contains("sjsm_phase_seconds_count{phase=\"session\"} 0\n");
+        assertThat(text).contains("sjsm_messages_total 2\n");
+        assertThat(text).contains("sjsm_bytes_total 1000\n");
+        assertThat(text).contains("sjsm_failures_total{code=\"451\"} 1\n");
+
+    }
+
+    @Test
+    void testWritePrometheusFile() throws Exception {
+
+        final Path file = dir.resolve("sjsm.prom");
+
+        createMetrics().writePrometheus(file);
+
+        assertThat(new String(Files.readAllBytes(file), StandardCharsets.UTF_8)).contains("sjsm_messages_total 2");
+        assertThat(dir.resolve("sjsm.prom.tmp")).doesNotExist();
+
+    }
+
+    @Test
+    void testSummary() {
+
+        // Quantiles are the upper bound of the bucket: 40 ms is in the bucket up to 40.447 ms
+
+        assertThat(createMetrics().summary()).isEqualTo(
+                "Latency p50/p99/max: connect 40.4/60.0/60.0 ms, send 5.0/5.0/5.0 ms (2 messages, 1000 bytes, 2 failures)");
+
+    }
+
+}
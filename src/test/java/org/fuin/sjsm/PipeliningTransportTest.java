@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+import jakarta.mail.Transport;
+
+/**
+ * Test for the {@link PipeliningTransport} class.
+ */
+class PipeliningTransportTest {
+
+    private static final int RECEIVERS = 50;
+
+    @Test
+    void testPipeliningAndChunking() throws Exception {
+
+        try (final SmtpSink sink = new SmtpSink(0, 0, 0.0, 0.0)) {
+            sink.start();
+
+            // PREPARE
+            final Mailer testee = new Mailer(createSettings(sink.getPort(), true), 0, 0, 0);
+
+            // TEST
+            final DeliveryReport report = testee.deliver(createMessage());
+
+            // VERIFY
+            assertThat(report.isSuccess()).isTrue();
+            assertThat(report.getAccepted()).hasSize(RECEIVERS);
+            assertThat(sink.getMessages()).isEqualTo(1);
+            assertThat(sink.getReceivers()).isEqualTo(RECEIVERS);
+            // EHLO, MAIL FROM with all RCPT TO, BDAT LAST, QUIT
+            assertThat(sink.getRoundTrips()).isEqualTo(4);
+        }
+
+    }
+
+    @Test
+    void testWithoutPipelining() throws Exception {
+
+        try (final SmtpSink sink = new SmtpSink(0, 0, 0.0, 0.0)) {
+            sink.start();
+
+            // PREPARE
+            final Mailer testee = new Mailer(createSettings(sink.getPort(), false), 0, 0, 0);
+
+            // TEST
+            final DeliveryReport report = testee.deliver(createMessage());
+
+            // VERIFY
+            assertThat(report.getAccepted()).hasSize(RECEIVERS);
+            assertThat(sink.getMessages()).isEqualTo(1);
+            // EHLO, MAIL FROM, one RCPT TO per receiver, DATA, end of data, QUIT
+            assertThat(sink.getRoundTrips()).isEqualTo(RECEIVERS + 5);
+        }
+
+    }
+
+    @Test
+    void testRejectedReceiversKeepConnectionInSync() throws Exception {
+
+        try (final SmtpSink sink = new SmtpSink(0, 0, 0.0, 1.0)) {
+            sink.start();
+
+            // PREPARE
+            final ConnectionSettings settings = createSettings(sink.getPort(), true);
+            final MailMessage message = createMessage();
+            final Transport transport = settings.getSession().getTransport(settings.getTransportType());
+            assertThat(transport).isInstanceOf(PipeliningTransport.class);
+            final ChunkedSender sender = new ChunkedSender(0, 0, 0);
+            transport.connect();
+            try {
+
+                // TEST
+                final SendResult first = sender.send(transport, message.createMimeMessage(settings.getSession()));
+                final SendResult second = sender.send(transport, message.createMimeMessage(settings.getSession()));
+
+                // VERIFY
+                assertThat(first.getSent()).isEmpty();
+                assertThat(first.getInvalid()).hasSize(RECEIVERS);
+                assertThat(second.getSent()).isEmpty();
+                assertThat(second.getInvalid()).hasSize(RECEIVERS);
+                assertThat(second.getInvalid().values()).allMatch(reply -> reply.startsWith("550"));
+            } finally {
+                transport.close();
+            }
+            assertThat(sink.getMessages()).isZero();
+            assertThat(sink.getRejected()).isEqualTo(2 * RECEIVERS);
+        }
+
+    }
+
+    @Test
+    void testFallbackWithoutExtensions() throws Exception {
+
+        final GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+        try {
+
+            // PREPARE
+            final Mailer testee = new Mailer(createSettings(greenMail.getSmtp().getPort(), true), 0, 0, 0);
+
+            // TEST
+            final DeliveryReport report = testee.deliver(createMessage());
+
+            // VERIFY
+            assertThat(report.getAccepted()).hasSize(RECEIVERS);
+            assertThat(greenMail.getReceivedMessages()).hasSize(RECEIVERS);
+            assertThat(greenMail.getReceivedMessages()[0].getSubject()).isEqualTo("Pipelined");
+
+        } finally {
+            greenMail.stop();
+        }
+
+    }
+
+    private static ConnectionSettings createSettings(final int port, final boolean pipelining) {
+        return ConnectionSettings.builder().host("localhost").port(port).smtp(true).timeout(1000)
+                .pipelining(pipelining).build();
+    }
+
+    private static MailMessage createMessage() {
+        final String[] to = new String[RECEIVERS];
+        for (int i = 0; i < to.length; i++) {
+            to[i] = "receiver" + i + "@fuin.org";
+        }
+        return MailMessage.builder().from("sender@fuin.org").to(to).subject("Pipelined").text("Hello").build();
+    }
+
+}
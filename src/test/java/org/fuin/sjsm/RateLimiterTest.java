@@ -0,0 +1,184 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the {@link RateLimiter} class.
+ */
+class RateLimiterTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void testReservePerSecond() {
+
+        // PREPARE
+        final RateLimiter testee = new RateLimiter(4, 0, 0);
+        final long now = System.nanoTime();
+
+        // TEST & VERIFY (4 at once, the next 4 one second later)
+        final List<Long> slots = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            assertThat(testee.reserve(now)).isZero();
+            slots.add(now);
+        }
+        for (int i = 0; i < 4; i++) {
+            assertThat(testee.reserve(now)).isEqualTo(SECOND);
+            slots.add(now + SECOND);
+        }
+        assertThat(testee.reserve(now)).isEqualTo(2 * SECOND);
+        slots.add(now + 2 * SECOND);
+
+        // TEST & VERIFY (evenly spread requests after one second of silence)
+        final long later = now + 4 * SECOND;
+        for (int i = 0; i < 20; i++) {
+            final long at = later + i * SECOND / 10;
+            slots.add(at + testee.reserve(at));
+        }
+        assertMaxPerPeriod(slots, 4, SECOND);
+        assertThat(slots.get(slots.size() - 1)).isGreaterThanOrEqualTo(later + 4 * SECOND);
+
+    }
+
+    @Test
+    void testReservePerWindow() {
+
+        // PREPARE
+        final RateLimiter testee = new RateLimiter(100, 2, 60);
+        final long now = System.nanoTime();
+
+        // TEST & VERIFY (window limit is stricter than the per second limit)
+        assertThat(testee.reserve(now)).isZero();
+        assertThat(testee.reserve(now + 10 * SECOND)).isZero();
+        assertThat(testee.reserve(now + 30 * SECOND)).isEqualTo(30 * SECOND);
+        assertThat(testee.reserve(now + 30 * SECOND)).isEqualTo(40 * SECOND);
+
+    }
+
+    @Test
+    void testAcquireConcurrent() throws InterruptedException {
+
+        // PREPARE
+        final RateLimiter testee = new RateLimiter(40, 0, 0);
+        final int threads = 4;
+        final int perThread = 25;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final AtomicLong maxWait = new AtomicLong();
+        final AtomicInteger firstSecond = new AtomicInteger();
+        final long start = System.nanoTime();
+
+        // TEST
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    final long waited = testee.acquire();
+                    if (System.nanoTime() - start < SECOND) {
+                        firstSecond.incrementAndGet();
+                    }
+                    maxWait.accumulateAndGet(waited, Math::max);
+                }
+                done.countDown();
+            });
+        }
+        assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+        executor.shutdown();
+
+        // VERIFY (40 in the first second, 40 in the second and 20 in the third)
+        final long elapsed = System.nanoTime() - start;
+        assertThat(testee.getAcquired()).isEqualTo(threads * perThread);
+        assertThat(testee.getDelayed()).isPositive();
+        assertThat(firstSecond.get()).isLessThanOrEqualTo(40);
+        assertThat(elapsed).isGreaterThanOrEqualTo(2 * SECOND);
+        assertThat(maxWait.get()).isLessThanOrEqualTo(elapsed);
+        assertThat(testee.summary()).endsWith("ms for the rate limit");
+
+    }
+
+    @Test
+    void testReserveBothLimits() {
+
+        // PREPARE
+        final RateLimiter testee = new RateLimiter(2, 3, 10);
+        final long now = System.nanoTime();
+        final List<Long> slots = new ArrayList<>();
+
+        // TEST
+        for (int i = 0; i < 10; i++) {
+            slots.add(now + testee.reserve(now));
+        }
+
+        // VERIFY
+        assertMaxPerPeriod(slots, 2, SECOND);
+        assertMaxPerPeriod(slots, 3, 10 * SECOND);
+
+    }
+
+    @Test
+    void testOf() {
+
+        // PREPARE
+        final Config config = new Config();
+        config.setHost("rate.limiter.test");
+
+        // TEST & VERIFY
+        assertThat(RateLimiter.of(config)).isSameAs(RateLimiter.UNLIMITED);
+        config.setMaxPerSecond(10);
+        final RateLimiter limiter = RateLimiter.of(config);
+        assertThat(limiter).isNotSameAs(RateLimiter.UNLIMITED);
+        assertThat(RateLimiter.of(new Config(config))).isSameAs(limiter);
+        config.setHost("other.rate.limiter.test");
+        assertThat(RateLimiter.of(config)).isNotSameAs(limiter);
+        assertThat(RateLimiter.UNLIMITED.acquire()).isZero();
+
+    }
+
+    @Test
+    void testInvalidWindow() {
+        assertThatThrownBy(() -> new RateLimiter(0, 10, 0)).isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("windowSeconds");
+    }
+
+    /**
+     * Verifies that no period holds more than the limit of send times.
+     */
+    private static void assertMaxPerPeriod(final List<Long> slots, final int limit, final long period) {
+        final List<Long> sorted = new ArrayList<>(slots);
+        Collections.sort(sorted);
+        for (int i = limit; i < sorted.size(); i++) {
+            assertThat(sorted.get(i) - sorted.get(i - limit)).as("Messages %d to %d", i - limit, i)
+                    .isGreaterThanOrEqualTo(period);
+        }
+    }
+
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * Test for the {@link RecipientParser} class.
+ */
+class RecipientParserTest {
+
+    @Test
+    void testIsPlainAddress() {
+
+        assertThat(RecipientParser.isPlainAddress("a@b.com")).isTrue();
+        assertThat(RecipientParser.isPlainAddress("jane.doe+tag@mail.no-where.com")).isTrue();
+        assertThat(RecipientParser.isPlainAddress("o'hara@localhost")).isTrue();
+        assertThat(RecipientParser.isPlainAddress("müller@bücher.de")).isTrue();
+
+        assertThat(RecipientParser.isPlainAddress("")).isFalse();
+        assertThat(RecipientParser.isPlainAddress("a")).isFalse();
+        assertThat(RecipientParser.isPlainAddress("@b.com")).isFalse();
+        assertThat(RecipientParser.isPlainAddress("a@")).isFalse();
+        assertThat(RecipientParser.isPlainAddress("a@@b.com")).isFalse();
+        assertThat(RecipientParser.isPlainAddress(".a@b.com")).isFalse();
+        assertThat(RecipientParser.isPlainAddress("a.@b.com")).isFalse();
+        assertThat(RecipientParser.isPlainAddress("a..b@b.com")).isFalse();
+        assertThat(RecipientParser.isPlainAddress("a@b..com")).isFalse();
+        assertThat(RecipientParser.isPlainAddress("a@-b.com")).isFalse();
+        assertThat(RecipientParser.isPlainAddress("a@b.com.")).isFalse();
+        assertThat(RecipientParser.isPlainAddress("a b@b.com")).isFalse();
+        assertThat(RecipientParser.isPlainAddress("Jane <a@b.com>")).isFalse();
+        assertThat(RecipientParser.isPlainAddress("x".repeat(65) + "@b.com")).isFalse();
+
+    }
+
+    @Test
+    void testParse() throws Exception {
+
+        // TEST
+        final Recipients recipients = new RecipientParser()
+                .parse(" a@b.com ;;Jane Doe <jane@b.com>; A@B.COM; invalid@@b.com;no-at;jane@B.com;\"x y\"@b.com")
+                .toRecipients();
+
+        // VERIFY
+        assertThat(recipients.getAddresses()).containsExactly(new InternetAddress("a@b.com"),
+                new InternetAddress("jane@b.com"), new InternetAddress("\"x y\"@b.com"));
+        assertThat(recipients.get(1).getPersonal()).isEqualTo("Jane Doe");
+        assertThat(recipients.getInvalid()).containsExactly("invalid@@b.com", "no-at");
+        assertThat(recipients.getDuplicates()).isEqualTo(2);
+
+    }
+
+    @Test
+    void testParseReader() throws IOException {
+
+        // PREPARE
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            sb.append("receiver").append(i % 5000).append("@fuin.org").append(i % 2 == 0 ? "\r\n" : ";");
+        }
+        sb.append("last@fuin.org");
+
+        // TEST
+        final Recipients recipients = new RecipientParser().parse(new StringReader(sb.toString()))
+                .parse("LAST@fuin.org;first@fuin.org").toRecipients();
+
+        // VERIFY
+        assertThat(recipients.size()).isEqualTo(5002);
+        assertThat(recipients.getDuplicates()).isEqualTo(5001);
+        assertThat(recipients.getInvalid()).isEmpty();
+        assertThat(recipients.get(5000).getAddress()).isEqualTo("last@fuin.org");
+        assertThat(recipients.get(5001).getAddress()).isEqualTo("first@fuin.org");
+
+    }
+
+    @Test
+    void testAdd() {
+
+        final Recipients first = new RecipientParser().parse("a@b.com;bad").toRecipients();
+
+        final Recipients all = new RecipientParser().add(first).parse("A@b.com;c@b.com").toRecipients();
+
+        assertThat(all.getAddresses()).extracting(InternetAddress::getAddress).containsExactly("a@b.com", "c@b.com");
+        assertThat(all.getInvalid()).containsExactly("bad");
+        assertThat(all.getDuplicates()).isEqualTo(1);
+
+    }
+
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import jakarta.mail.Address;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * Test for the {@link RelayGroup} class.
+ */
+class RelayGroupTest {
+
+    @Test
+    void testDistribute() throws Exception {
+
+        try (final SmtpSink first = new SmtpSink(0, 0, 0.0, 0.0); final SmtpSink second = new SmtpSink(0, 0, 0.0, 0.0)) {
+            first.start();
+            second.start();
+
+            // PREPARE
+            final RelayGroup testee = new RelayGroup(List.of(settings(first.getPort()), settings(second.getPort())));
+            final Mailer mailer = new Mailer(testee);
+
+            // TEST
+            for (int i = 0; i < 10; i++) {
+                assertThat(mailer.deliver(createMessage()).isSuccess()).isTrue();
+            }
+
+            // VERIFY
+            assertThat(first.getMessages() + second.getMessages()).isEqualTo(10);
+            assertThat(first.getMessages()).isPositive();
+            assertThat(second.getMessages()).isPositive();
+            assertThat(testee.relay(0).getSent() + testee.relay(1).getSent()).isEqualTo(10);
+        }
+
+    }
+
+    @Test
+    void testFailoverAndEject() throws Exception {
+
+        try (final SmtpSink sink = new SmtpSink(0, 0, 0.0, 0.0)) {
+            sink.start();
+
+            // PREPARE
+            final RelayGroup testee = new RelayGroup(List.of(settings(freePort()), settings(sink.getPort())), 2,
+                    60_000);
+            final Mailer mailer = new Mailer(testee);
+
+            // TEST
+            for (int i = 0; i < 10; i++) {
+                assertThat(mailer.deliver(createMessage()).isSuccess()).isTrue();
+            }
+
+            // VERIFY
+            assertThat(sink.getMessages()).isEqualTo(10);
+            assertThat(testee.relay(0).getFailed()).isEqualTo(2);
+            assertThat(testee.relay(0).getEjections()).isEqualTo(1);
+            assertThat(testee.relay(1).getSent()).isEqualTo(10);
+            assertThat(testee.toString()).contains("2 failed", "ejected");
+        }
+
+    }
+
+    @Test
+    void testFailoverOnServiceNotAvailable() throws Exception {
+
+        try (final SmtpSink down = new SmtpSink(0, 0, 0.0, 0.0); final SmtpSink sink = new SmtpSink(0, 0, 0.0, 0.0)) {
+            down.setUnavailable(true);
+            down.start();
+            sink.start();
+
+            // PREPARE
+            final RelayGroup testee = new RelayGroup(List.of(settings(down.getPort()), settings(sink.getPort())), 1,
+                    60_000);
+            final Mailer mailer = new Mailer(testee, 0, 0, 0);
+
+            // TEST
+            for (int i = 0; i < 10; i++) {
+                assertThat(mailer.deliver(createMessage()).isSuccess()).isTrue();
+            }
+
+            // VERIFY
+            assertThat(down.getMessages()).isZero();
+            assertThat(sink.getMessages()).isEqualTo(10);
+            assertThat(testee.relay(0).getSent()).isZero();
+            assertThat(testee.relay(0).getFailed()).isEqualTo(1);
+            assertThat(testee.relay(0).getEjections()).isEqualTo(1);
+            assertThat(testee.relay(1).getSent()).isEqualTo(10);
+        }
+
+    }
+
+    @Test
+    void testIsRelayFailure() throws Exception {
+
+        // PREPARE
+        final Address a = new InternetAddress("a@fuin.org");
+        final Address b = new InternetAddress("b@fuin.org");
+
+        // TEST & VERIFY
+        assertThat(RelayGroup.isRelayFailure(new SendResult(List.of(a, b), Map.of(), Map.of()))).isFalse();
+        assertThat(RelayGroup.isRelayFailure(new SendResult(List.of(), Map.of(a, "busy", b, "busy"), Map.of(),
+                Set.of(450)))).isTrue();
+        assertThat(RelayGroup.isRelayFailure(new SendResult(List.of(a), Map.of(b, "busy"), Map.of(), Set.of(450))))
+                .isFalse();
+        assertThat(RelayGroup.isRelayFailure(new SendResult(List.of(a), Map.of(b, "down"), Map.of(), Set.of(421))))
+                .isTrue();
+        assertThat(RelayGroup.isRelayFailure(new SendResult(List.of(), Map.of(a, "busy"), Map.of(b, "unknown"),
+                Set.of(450, 550)))).isFalse();
+
+    }
+
+    @Test
+    void testAllRelaysFailed() throws Exception {
+
+        // PREPARE
+        final RelayGroup testee = new RelayGroup(List.of(settings(freePort()), settings(freePort())));
+        final Mailer mailer = new Mailer(testee);
+
+        // TEST & VERIFY
+        assertThatThrownBy(() -> mailer.deliver(createMessage())).isInstanceOf(MessagingException.class);
+        assertThat(testee.relay(0).getFailed()).isEqualTo(1);
+        assertThat(testee.relay(1).getFailed()).isEqualTo(1);
+
+    }
+
+    @Test
+    void testOfConfig() {
+
+        // PREPARE
+        final Config config = new Config();
+        config.setHost("relay1");
+        config.setPort(2525);
+        config.setSmtp(true);
+        config.setNoauth(true);
+        config.setRelays(List.of("relay2", "relay3:25"));
+
+        // TEST
+        final RelayGroup testee = RelayGroup.of(config);
+
+        // VERIFY
+        assertThat(testee.getRelays()).extracting(s -> s.getHost() + ":" + s.getPort())
+                .containsExactly("relay1:2525", "relay2:2525", "relay3:25");
+        assertThat(RelayGroup.of(config)).isNotSameAs(testee);
+
+    }
+
+    private static int freePort() throws Exception {
+        try (final ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static ConnectionSettings settings(final int port) {
+        return ConnectionSettings.builder().host("localhost").port(port).smtp(true).timeout(1000).build();
+    }
+
+    private static MailMessage createMessage() {
+        return MailMessage.builder().from("sender@fuin.org").to("receiver@fuin.org").subject("Relayed").text("Hello")
+                .build();
+    }
+
+}
@@ -21,13 +21,20 @@ import static com.github.stefanbirkner.systemlambda.SystemLambda.*;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import com.dumbster.smtp.SimpleSmtpServer;
 import com.dumbster.smtp.SmtpMessage;
@@ -125,6 +132,115 @@ class SendMailAppTest {
 
     }
 
+    @Test
+    void testSendMessageFile(@TempDir final Path dir) throws IOException {
+
+        // PREPARE
+        final String msg = "<html><body><h1>file</h1></body></html>";
+        final Path file = dir.resolve("message.html");
+        Files.writeString(file, msg);
+        final Config config = createConfig();
+        config.setMessageFile(file.toString());
+
+        // TEST
+        new SendMailApp().send(config);
+
+        // VERIFY
+        final List<SmtpMessage> emails = dumbster.getReceivedEmails();
+        assertThat(emails).hasSize(1);
+        final SmtpMessage email = emails.get(0);
+        assertThat(email.getBody()).isEqualTo(msg);
+        assertThat(email.getHeaderValue("Content-Type")).startsWith("text/html");
+
+    }
+
+    @Test
+    void testSendMessageStdin() throws Exception {
+
+        // PREPARE
+        final String msg = "<html><body><h1>stdin</h1></body></html>";
+        final Config config = createConfig();
+        config.setMessageFile("-");
+
+        // TEST
+        withTextFromSystemIn(msg).execute(() -> new SendMailApp().send(config));
+
+        // VERIFY
+        final List<SmtpMessage> emails = dumbster.getReceivedEmails();
+        assertThat(emails).hasSize(1);
+        assertThat(emails.get(0).getBody()).isEqualTo(msg);
+
+    }
+
+    @Test
+    void testSendAttachments(@TempDir final Path dir) throws IOException {
+
+        // PREPARE
+        final Path csv = dir.resolve("export.csv");
+        Files.writeString(csv, "id;name\n1;Peter\n");
+        final Path pdf = dir.resolve("report.pdf");
+        Files.write(pdf, new byte[] { '%', 'P', 'D', 'F' });
+        final Config config = createConfig();
+        config.setMessage("See attachments");
+        config.setAttachments(List.of(csv.toString(), pdf.toString()));
+
+        // TEST
+        new SendMailApp().send(config);
+
+        // VERIFY
+        final List<SmtpMessage> emails = dumbster.getReceivedEmails();
+        assertThat(emails).hasSize(1);
+        final SmtpMessage email = emails.get(0);
+        assertThat(email.getHeaderValue("Content-Type")).startsWith("multipart/mixed");
+        assertThat(email.getBody()).contains("See attachments", "filename=export.csv", "filename=report.pdf",
+                "aWQ7bmFtZQoxO1BldGVyCg==", "JVBERg==");
+
+    }
+
+    @Test
+    void testSendAsync() throws Exception {
+
+        // PREPARE
+        final Config config = createConfig();
+        config.setMessage("Async");
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+
+            // TEST
+            final SendMailApp testee = new SendMailApp();
+            final CompletableFuture<DeliveryReport> future = testee.sendAsync(config, executor);
+            config.setSubject("Changed after the call");
+            final DeliveryReport report = future.get(10, TimeUnit.SECONDS);
+
+            // VERIFY
+            assertThat(report.isSuccess()).isTrue();
+            assertThat(report.getAccepted()).hasSize(1);
+            final List<SmtpMessage> emails = dumbster.getReceivedEmails();
+            assertThat(emails).hasSize(1);
+            assertThat(emails.get(0).getHeaderValue("Subject")).isEqualTo("Test message");
+            assertThat(emails.get(0).getHeaderValue("Message-ID")).isEqualTo(report.getMessageId());
+            assertThat(testee.relays(new Config(config)).relay(0).getSent()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+
+    }
+
+    private static Config createConfig() {
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(dumbster.getPort());
+        config.setFrom("test@fuin.org");
+        config.setReceiver("other@fuin.org");
+        config.setSubject("Test message");
+        config.setHtml(true);
+        config.setCharset("utf-8");
+        config.setSmtp(true);
+        config.setTimeout(1000);
+        config.setNoauth(true);
+        return config;
+    }
+
     @Test
     void testMissingPasswordOption() throws Exception {
 
@@ -229,4 +345,58 @@ class SendMailAppTest {
 
     }
 
+    @Test
+    void testMissingMessageOption() throws Exception {
+
+        final String[] args = new String[]{
+                "-host", "localhost",
+                "-port", "" + dumbster.getPort(),
+                "-user", "myaccount",
+                "-pw", "abc",
+                "-from", "does-not@matter.com",
+                "-subject", "Whatever",
+                "-message", "None"
+        };
+
+        final AtomicLong exitCode = new AtomicLong();
+        final String systemErr = tapSystemErr(() -> {
+            exitCode.set(catchSystemExit(() -> {
+                SendMailApp.main(args);
+            }));
+        });
+        assertThat(systemErr).contains("Option \"-to\" is required");
+        assertThat(exitCode.get()).isEqualTo(1);
+
+    }
+
+    @Test
+    void testReceiverFileNotSpooled(@TempDir final Path dir) throws Exception {
+
+        final Path receivers = dir.resolve("receivers.txt");
+        Files.writeString(receivers, "a@fuin.org\nb@fuin.org\n");
+        final Path spool = dir.resolve("spool");
+        final String[] args = new String[]{
+                "-host", "localhost",
+                "-port", "" + dumbster.getPort(),
+                "-user", "myaccount",
+                "-pw", "abc",
+                "-from", "does-not@matter.com",
+                "-toFile", receivers.toString(),
+                "-subject", "Whatever",
+                "-message", "None",
+                "-spool", spool.toString()
+        };
+
+        final AtomicLong exitCode = new AtomicLong();
+        final String systemErr = tapSystemErr(() -> {
+            exitCode.set(catchSystemExit(() -> {
+                SendMailApp.main(args);
+            }));
+        });
+        assertThat(systemErr).contains("\"-toFile\" cannot be used with the option(s) [-spool, -client]");
+        assertThat(exitCode.get()).isEqualTo(1);
+        assertThat(spool).doesNotExist();
+
+    }
+
 }
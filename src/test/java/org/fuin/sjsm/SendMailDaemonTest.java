@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * Test for the {@link SendMailDaemon} and {@link DaemonClient} classes.
+ */
+class SendMailDaemonTest {
+
+    private GreenMail greenMail;
+
+    @TempDir
+    Path dir;
+
+    @BeforeEach
+    void setUp() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        greenMail.stop();
+    }
+
+    private Config createConfig() {
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(greenMail.getSmtp().getPort());
+        config.setUser("myaccount");
+        config.setPw("mypw");
+        config.setFrom("test@fuin.org");
+        config.setSubject("Default subject");
+        config.setMessage("Default message");
+        config.setSmtp(true);
+        config.setTimeout(1000);
+        config.setNoauth(true);
+        config.setPoolMax(2);
+        config.setDaemon(0);
+        config.setDaemonToken(tokenFile().toString());
+        return config;
+    }
+
+    private Path tokenFile() {
+        return dir.resolve("daemon.token");
+    }
+
+    @Test
+    void testSend() throws Exception {
+
+        try (final SendMailDaemon testee = new SendMailDaemon(createConfig())) {
+            testee.start();
+            final DaemonClient client = new DaemonClient(testee.getPort(), 1000, tokenFile());
+
+            // TEST
+            final String first = client.send(new BatchRecord("Hello", "a@fuin.org", "Text", null, null));
+            final String second = client.send(new BatchRecord(null, "b@fuin.org", null, null, Boolean.TRUE));
+
+            // VERIFY
+            assertThat(first).isEqualTo("sent");
+            assertThat(second).isEqualTo("sent");
+            final MimeMessage[] messages = greenMail.getReceivedMessages();
+            assertThat(messages).hasSize(2);
+            assertThat(messages[0].getSubject()).isEqualTo("Hello");
+            assertThat(messages[1].getSubject()).isEqualTo("Default subject");
+            assertThat(messages[1].getHeader("X-Priority", null)).isEqualTo("1");
+        }
+
+    }
+
+    @Test
+    void testMetrics() throws Exception {
+
+        try (final SendMailDaemon testee = new SendMailDaemon(createConfig())) {
+            testee.start();
+            new DaemonClient(testee.getPort(), 1000, tokenFile()).send(new BatchRecord("Hello", "a@fuin.org", "Text", null, null));
+
+            // TEST
+            final HttpURLConnection con = (HttpURLConnection) new URL(
+                    "http://127.0.0.1:" + testee.getPort() + SendMailDaemon.METRICS_PATH).openConnection();
+            final String text;
+            try (final InputStream in = con.getInputStream()) {
+                text = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            } finally {
+                con.disconnect();
+            }
+
+            // VERIFY
+            assertThat(con.getResponseCode()).isEqualTo(200);
+            assertThat(con.getContentType()).startsWith("text/plain");
+            assertThat(text).contains("sjsm_phase_seconds_count{phase=\"connect\"}");
+            assertThat(text).containsPattern("sjsm_messages_total [1-9]");
+        }
+
+    }
+
+    @Test
+    void testSendInvalidAddress() {
+
+        try (final SendMailDaemon testee = new SendMailDaemon(createConfig())) {
+            testee.start();
+            final DaemonClient client = new DaemonClient(testee.getPort(), 1000, tokenFile());
+
+            // TEST & VERIFY
+            assertThatThrownBy(() -> client.send(new BatchRecord(null, "invalid@@address", null, null, null)))
+                    .hasMessageContaining("failed to send").hasMessageContaining("invalid@@address");
+        }
+
+    }
+
+    @Test
+    void testSlowRelay() throws Exception {
+
+        try (final SmtpSink sink = new SmtpSink(0, 2500, 0.0, 0.0)) {
+            sink.start();
+            final Config config = createConfig();
+            config.setPort(sink.getPort());
+            config.setTimeout(5000);
+            try (final SendMailDaemon testee = new SendMailDaemon(config)) {
+                testee.start();
+                final DaemonClient client = new DaemonClient(testee.getPort(), 500, tokenFile());
+
+                // TEST
+                final String status = client.send(new BatchRecord("Slow", "a@fuin.org", null, null, null));
+
+                // VERIFY
+                assertThat(status).isEqualTo("sent");
+                assertThat(sink.getMessages()).isEqualTo(1);
+            }
+        }
+
+    }
+
+    @Test
+    void testTokenRequired() throws Exception {
+
+        try (final SendMailDaemon testee = new SendMailDaemon(createConfig())) {
+            testee.start();
+
+            // VERIFY
+            assertThat(Files.getPosixFilePermissions(tokenFile()))
+                    .containsExactlyInAnyOrder(PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE);
+            assertThat(post(testee.getPort(), null, "{}")).isEqualTo(401);
+            assertThat(post(testee.getPort(), "wrong", "{}")).isEqualTo(401);
+            final String token = SendMailDaemon.readToken(tokenFile());
+            assertThat(post(testee.getPort(), token, "x".repeat(SendMailDaemon.MAX_REQUEST_BYTES + 1)))
+                    .isEqualTo(413);
+            assertThat(post(testee.getPort(), token, "{ \"to\": \"a@fuin.org\" }")).isEqualTo(200);
+            assertThat(greenMail.getReceivedMessages()).hasSize(1);
+        }
+        assertThat(tokenFile()).doesNotExist();
+
+    }
+
+    @Test
+    void testSpool() {
+
+        final Config config = createConfig();
+        config.setSpool(dir.toString());
+        try (final SendMailDaemon testee = new SendMailDaemon(config)) {
+            testee.start();
+            final DaemonClient client = new DaemonClient(testee.getPort(), 1000, tokenFile());
+
+            // TEST
+            final String status = client.send(new BatchRecord("Spooled", "a@fuin.org", null, null, null));
+
+            // VERIFY
+            assertThat(status).isEqualTo("spooled");
+            assertThat(greenMail.waitForIncomingEmail(5000, 1)).isTrue();
+        }
+
+    }
+
+    private static int post(final int port, final String token, final String body) throws IOException {
+        final HttpURLConnection con = (HttpURLConnection) new URL(
+                "http://127.0.0.1:" + port + SendMailDaemon.SEND_PATH).openConnection();
+        try {
+            con.setRequestMethod("POST");
+            con.setDoOutput(true);
+            if (token != null) {
+                con.setRequestProperty("Authorization", "Bearer " + token);
+            }
+            try (final OutputStream out = con.getOutputStream()) {
+                out.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+            final int code = con.getResponseCode();
+            // Wait until the daemon finished
+            try (final InputStream in = code < 400 ? con.getInputStream() : con.getErrorStream()) {
+                if (in != null) {
+                    in.readAllBytes();
+                }
+            }
+            return code;
+        } finally {
+            con.disconnect();
+        }
+    }
+
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import jakarta.mail.PasswordAuthentication;
+import jakarta.mail.Session;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the {@link SessionCache} class.
+ */
+class SessionCacheTest {
+
+    @Test
+    void testSameSettingsShareSession() {
+
+        // PREPARE
+        final SessionCache testee = new SessionCache();
+        final Config config = createConfig("localhost", "secret");
+        final Config copy = new Config(config);
+        copy.setSubject("Other message");
+        copy.setReceiver("other@fuin.org");
+
+        // TEST
+        final Session session = testee.get(config.toConnectionSettings());
+
+        // VERIFY
+        assertThat(testee.get(copy.toConnectionSettings())).isSameAs(session);
+        assertThat(testee.size()).isEqualTo(1);
+        final PasswordAuthentication auth = session.requestPasswordAuthentication(null, 25, "smtp", null, "a");
+        assertThat(auth.getUserName()).isEqualTo("myaccount");
+        assertThat(auth.getPassword()).isEqualTo("secret");
+
+    }
+
+    @Test
+    void testDifferentSettings() {
+
+        // PREPARE
+        final SessionCache testee = new SessionCache();
+        final Session session = testee.get(createConfig("localhost", "secret").toConnectionSettings());
+
+        // TEST & VERIFY
+        assertThat(testee.get(createConfig("localhost", "other").toConnectionSettings())).isNotSameAs(session);
+        assertThat(testee.get(createConfig("127.0.0.1", "secret").toConnectionSettings())).isNotSameAs(session);
+        final Config timeout = createConfig("localhost", "secret");
+        timeout.setTimeout(1);
+        assertThat(testee.get(timeout.toConnectionSettings())).isNotSameAs(session);
+        assertThat(testee.size()).isEqualTo(4);
+
+    }
+
+    @Test
+    void testMaxEntries() {
+
+        // PREPARE
+        final SessionCache testee = new SessionCache();
+
+        // TEST
+        for (int i = 0; i < SessionCache.MAX_ENTRIES + 5; i++) {
+            testee.get(createConfig("host" + i, "secret").toConnectionSettings());
+        }
+
+        // VERIFY
+        assertThat(testee.size()).isEqualTo(SessionCache.MAX_ENTRIES);
+
+    }
+
+    private static Config createConfig(final String host, final String pw) {
+        final Config config = new Config();
+        config.setHost(host);
+        config.setPort(25);
+        config.setUser("myaccount");
+        config.setPw(pw);
+        config.setFrom("test@fuin.org");
+        config.setReceiver("a@fuin.org");
+        config.setSubject("Subject");
+        config.setMessage("Message");
+        config.setSmtp(true);
+        return config;
+    }
+
+}
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * Test for the {@link SmtpEvent} class.
+ */
+class SmtpEventTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testEvents() throws Exception {
+
+        final GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+        try {
+            // PREPARE
+            final Config config = new Config();
+            config.setHost("localhost");
+            config.setPort(greenMail.getSmtp().getPort());
+            config.setUser("myaccount");
+            config.setPw("mypw");
+            config.setFrom("test@fuin.org");
+            config.setReceiver("a@fuin.org;b@fuin.org");
+            config.setSubject("Recorded");
+            config.setMessage("Message");
+            config.setSmtp(true);
+            config.setTimeout(1000);
+            config.setNoauth(true);
+            final Path file = dir.resolve("sjsm.jfr");
+
+            // TEST
+            try (final Recording recording = new Recording()) {
+                for (final Class<?> type : SmtpEvent.class.getDeclaredClasses()) {
+                    recording.enable(type.asSubclass(SmtpEvent.class)).withoutThreshold();
+                }
+                recording.start();
+                new SendMailApp().send(config);
+                recording.stop();
+                recording.dump(file);
+            }
+
+            // VERIFY
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(file).stream()
+                    .filter(event -> event.getEventType().getName().startsWith("org.fuin.sjsm."))
+                    .collect(Collectors.toList());
+            assertThat(events).extracting(event -> event.getEventType().getName()).containsExactly(
+                    "org.fuin.sjsm.Build", "org.fuin.sjsm.SaveChanges", "org.fuin.sjsm.Connect",
+                    "org.fuin.sjsm.Send", "org.fuin.sjsm.Close");
+            final RecordedEvent connect = events.get(2);
+            assertThat(connect.getString("host")).isEqualTo("localhost");
+            assertThat(connect.getInt("port")).isEqualTo(greenMail.getSmtp().getPort());
+            assertThat(connect.getString("transportType")).isEqualTo("smtp");
+            assertThat(connect.getBoolean("authenticated")).isFalse();
+            assertThat(connect.getBoolean("success")).isTrue();
+            final RecordedEvent send = events.get(3);
+            assertThat(send.getString("host")).isEqualTo("localhost");
+            assertThat(send.getInt("recipients")).isEqualTo(2);
+            assertThat(send.getLong("messageSize")).isPositive();
+            assertThat(send.getBoolean("success")).isTrue();
+            assertThat(send.getInt("replyCode")).isZero();
+            assertThat(events.get(0).getInt("recipients")).isEqualTo(2);
+        } finally {
+            greenMail.stop();
+        }
+
+    }
+
+}
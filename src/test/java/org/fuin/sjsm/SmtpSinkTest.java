@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the {@link SmtpSink} class.
+ */
+class SmtpSinkTest {
+
+    @Test
+    void testLoadTest() throws Exception {
+
+        try (final SmtpSink testee = new SmtpSink(0, 0, 0.0, 0.0)) {
+            testee.start();
+
+            // PREPARE
+            final Config config = createConfig(testee.getPort());
+            config.setLoadTest(50);
+            config.setLoadBodySize(5000);
+            config.setLoadRcpt(3);
+            config.setInFlight(4);
+
+            // TEST
+            final LoadTest.Result result = new LoadTest(config).run();
+
+            // VERIFY
+            assertThat(result.getSent()).isEqualTo(50);
+            assertThat(result.getFailed()).isZero();
+            assertThat(testee.getMessages()).isEqualTo(50);
+            assertThat(testee.getBytes()).isGreaterThan(50 * 5000);
+            assertThat(testee.getRejected()).isZero();
+            assertThat(testee.summary()).startsWith("Received 50 messages");
+        }
+
+    }
+
+    @Test
+    void testInjectedFailures() throws Exception {
+
+        try (final SmtpSink testee = new SmtpSink(0, 0, 0.0, 1.0)) {
+            testee.start();
+
+            // PREPARE
+            final Config config = createConfig(testee.getPort());
+            config.setLoadTest(5);
+            config.setLoadRcpt(2);
+
+            // TEST
+            final LoadTest.Result result = new LoadTest(config).run();
+
+            // VERIFY
+            assertThat(result.getSent()).isZero();
+            assertThat(result.getFailed()).isEqualTo(5);
+            assertThat(testee.getMessages()).isZero();
+            assertThat(testee.getRejected()).isEqualTo(10);
+        }
+
+    }
+
+    @Test
+    void testPipeliningWithLatency() throws Exception {
+
+        try (final SmtpSink testee = new SmtpSink(0, 50, 0.0, 0.0)) {
+            testee.start();
+
+            try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), testee.getPort())) {
+                final BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                final OutputStream out = socket.getOutputStream();
+                assertThat(in.readLine()).startsWith("220 ");
+
+                // PREPARE
+                final String commands = "EHLO test\r\n" + "MAIL FROM:<a@fuin.org>\r\n" + "RCPT TO:<b@fuin.org>\r\n"
+                        + "DATA\r\n" + "Subject: Test\r\n\r\n..dot\r\n.\r\n" + "MAIL FROM:<a@fuin.org>\r\n"
+                        + "RCPT TO:<c@fuin.org>\r\n" + "QUIT\r\n";
+                final long start = System.nanoTime();
+
+                // TEST
+                out.write(commands.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                // VERIFY
+                assertThat(in.readLine()).isEqualTo("250-localhost");
+                assertThat(in.readLine()).isEqualTo("250-PIPELINING");
+                assertThat(in.readLine()).isEqualTo("250-8BITMIME");
+                assertThat(in.readLine()).isEqualTo("250-CHUNKING");
+                assertThat(in.readLine()).isEqualTo("250 ENHANCEDSTATUSCODES");
+                assertThat(in.readLine()).startsWith("250 2.1.0");
+                assertThat(in.readLine()).startsWith("250 2.1.5");
+                assertThat(in.readLine()).startsWith("354 ");
+                assertThat(in.readLine()).startsWith("250 2.0.0");
+                assertThat(System.nanoTime() - start).isGreaterThanOrEqualTo(50_000_000L);
+                assertThat(in.readLine()).startsWith("250 2.1.0");
+                assertThat(in.readLine()).startsWith("250 2.1.5");
+                assertThat(in.readLine()).startsWith("221 ");
+                assertThat(in.readLine()).isNull();
+                assertThat(testee.getMessages()).isEqualTo(1);
+                assertThat(testee.getBytes()).isEqualTo("Subject: Test\r\n\r\n..dot\r\n".length());
+            }
+        }
+
+    }
+
+    @Test
+    void testChunking() throws Exception {
+
+        try (final SmtpSink testee = new SmtpSink(0, 0, 0.0, 0.0)) {
+            testee.start();
+
+            try (final Socket socket = new Socket(InetAddress.getLoopbackAddress(), testee.getPort())) {
+                final BufferedReader in = new BufferedReader(
+                        new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                final OutputStream out = socket.getOutputStream();
+                assertThat(in.readLine()).startsWith("220 ");
+
+                // PREPARE
+                final String commands = "HELO test\r\n" + "MAIL FROM:<a@fuin.org>\r\n" + "RCPT TO:<b@fuin.org>\r\n"
+                        + "BDAT 11\r\n" + "Subject: \r\n" + "BDAT 6 LAST\r\n" + "\r\nTest" + "BDAT 3 LAST\r\n" + "abc"
+                        + "QUIT\r\n";
+
+                // TEST
+                out.write(commands.getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+
+                // VERIFY
+                assertThat(in.readLine()).isEqualTo("250 localhost");
+                assertThat(in.readLine()).startsWith("250 2.1.0");
+                assertThat(in.readLine()).startsWith("250 2.1.5");
+                assertThat(in.readLine()).isEqualTo("250 2.0.0 Ok: chunk received");
+                assertThat(in.readLine()).isEqualTo("250 2.0.0 Ok: queued");
+                assertThat(in.readLine()).startsWith("503 ");
+                assertThat(in.readLine()).startsWith("221 ");
+                assertThat(in.readLine()).isNull();
+                assertThat(testee.getMessages()).isEqualTo(1);
+                assertThat(testee.getBytes()).isEqualTo(17);
+            }
+        }
+
+    }
+
+    private static Config createConfig(final int port) {
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(port);
+        config.setFrom("test@fuin.org");
+        config.setSmtp(true);
+        config.setTimeout(1000);
+        config.setNoauth(true);
+        return config;
+    }
+
+}
@@ -0,0 +1,348 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+
+import jakarta.mail.Address;
+import jakarta.mail.Message;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Provider;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Session;
+import jakarta.mail.Transport;
+import jakarta.mail.URLName;
+import jakarta.mail.internet.InternetAddress;
+
+/**
+ * Test for the {@link Spool} and {@link SpoolDrainer} classes.
+ */
+class SpoolTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void testEncodeDecode() {
+
+        final BatchRecord record = new BatchRecord("Subject äöü", "a@b.com;c@d.com", null, Boolean.TRUE, null);
+
+        final BatchRecord copy = Spool.decode(Spool.encode(record));
+
+        assertThat(copy.getSubject()).isEqualTo("Subject äöü");
+        assertThat(copy.getReceiver()).isEqualTo("a@b.com;c@d.com");
+        assertThat(copy.getMessage()).isNull();
+        assertThat(copy.getHtml()).isTrue();
+        assertThat(copy.getImportant()).isNull();
+
+    }
+
+    @Test
+    void testEnqueueSurvivesReopen() {
+
+        // PREPARE
+        try (final Spool spool = new Spool(dir, 1024, false)) {
+            spool.enqueue(new BatchRecord("One", "a@b.com", "1", null, null));
+            spool.enqueue(new BatchRecord("Two", "a@b.com", "2", null, null));
+        }
+
+        // TEST
+        try (final Spool testee = new Spool(dir, 1024, false)) {
+            final List<SpoolEntry> pending = testee.pending();
+
+            // VERIFY
+            assertThat(pending).extracting(entry -> entry.getRecord().getSubject()).containsExactly("One", "Two");
+            testee.enqueue(new BatchRecord("Three", "a@b.com", "3", null, null));
+            assertThat(testee.pending()).hasSize(3);
+        }
+
+    }
+
+    @Test
+    void testRollAndCompact() throws IOException {
+
+        // PREPARE
+        final String message = "x".repeat(200);
+        try (final Spool testee = new Spool(dir, 512, false)) {
+            for (int i = 0; i < 6; i++) {
+                testee.enqueue(new BatchRecord("Subject " + i, "a@b.com", message, null, null));
+            }
+            assertThat(segmentCount()).isEqualTo(3);
+            final List<SpoolEntry> pending = testee.pending();
+            assertThat(pending).hasSize(6);
+
+            // TEST
+            testee.markDone(pending.get(0));
+            testee.markFailed(pending.get(1));
+            testee.markDone(pending.get(2));
+            testee.markRetry(pending.get(3), 4711L);
+            testee.markDone(pending.get(4));
+            testee.markDone(pending.get(5));
+            final int deleted = testee.compact();
+
+            // VERIFY
+            assertThat(deleted).isEqualTo(1);
+            assertThat(segmentCount()).isEqualTo(2);
+            final List<SpoolEntry> remaining = testee.pending();
+            assertThat(remaining).hasSize(1);
+            assertThat(remaining.get(0).getRecord().getSubject()).isEqualTo("Subject 3");
+            assertThat(remaining.get(0).getAttempts()).isEqualTo(1);
+            assertThat(remaining.get(0).getNextAttempt()).isEqualTo(4711L);
+        }
+
+    }
+
+    @Test
+    void testTwoWriters() {
+
+        // PREPARE
+        final String message = "x".repeat(200);
+        try (final Spool first = new Spool(dir, 512, false); final Spool second = new Spool(dir, 512, false)) {
+
+            // TEST
+            for (int i = 0; i < 8; i++) {
+                (i % 3 == 0 ? first : second).enqueue(new BatchRecord("Subject " + i, "a@b.com", message, null, null));
+            }
+
+            // VERIFY
+            assertThat(first.pending()).extracting(entry -> entry.getRecord().getSubject()).containsExactlyInAnyOrder(
+                    "Subject 0", "Subject 1", "Subject 2", "Subject 3", "Subject 4", "Subject 5", "Subject 6",
+                    "Subject 7");
+        }
+
+    }
+
+    @Test
+    void testDelay() {
+        assertThat(SpoolDrainer.delay(1)).isEqualTo(SpoolDrainer.BASE_DELAY_MILLIS);
+        assertThat(SpoolDrainer.delay(2)).isEqualTo(2 * SpoolDrainer.BASE_DELAY_MILLIS);
+        assertThat(SpoolDrainer.delay(3)).isEqualTo(4 * SpoolDrainer.BASE_DELAY_MILLIS);
+        assertThat(SpoolDrainer.delay(100)).isEqualTo(SpoolDrainer.MAX_DELAY_MILLIS);
+    }
+
+    @Test
+    void testDrainUntilEmpty() {
+
+        // PREPARE
+        final GreenMail greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+        try {
+            final Config config = createConfig(greenMail.getSmtp().getPort());
+            try (final Spool spool = new Spool(dir, 1024, false)) {
+                for (int i = 0; i < 10; i++) {
+                    spool.enqueue(new BatchRecord("Subject " + i, "receiver" + i + "@fuin.org", null, null, null));
+                }
+
+                // TEST
+                try (final SpoolDrainer testee = new SpoolDrainer(config, spool)) {
+                    testee.drainUntilEmpty();
+
+                    // VERIFY
+                    assertThat(testee.getDelivered()).isEqualTo(10);
+                    assertThat(testee.getFailed()).isZero();
+                }
+                assertThat(spool.pending()).isEmpty();
+                assertThat(greenMail.getReceivedMessages()).hasSize(10);
+            }
+        } finally {
+            greenMail.stop();
+        }
+
+    }
+
+    @Test
+    void testDrainServerDown() throws IOException {
+
+        // PREPARE
+        final int port;
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        final Config config = createConfig(port);
+        try (final Spool spool = new Spool(dir, 1024, false)) {
+            spool.enqueue(new BatchRecord("Subject", "receiver@fuin.org", null, null, null));
+
+            try (final SpoolDrainer testee = new SpoolDrainer(config, spool)) {
+
+                // TEST
+                final int remaining = testee.drainOnce();
+
+                // VERIFY
+                assertThat(remaining).isEqualTo(1);
+                final List<SpoolEntry> pending = spool.pending();
+                assertThat(pending).hasSize(1);
+                assertThat(pending.get(0).getAttempts()).isEqualTo(1);
+                assertThat(pending.get(0).getNextAttempt()).isGreaterThan(System.currentTimeMillis());
+
+                // Not due yet
+                assertThat(testee.drainOnce()).isEqualTo(1);
+                assertThat(spool.pending().get(0).getAttempts()).isEqualTo(1);
+            }
+        }
+
+    }
+
+    @Test
+    void testDrainRetriesOnlyUnsentReceivers() throws Exception {
+
+        // PREPARE
+        final Config config = createConfig(freePort());
+        config.setRetries(2);
+        config.getSession().setProvider(new Provider(Provider.Type.TRANSPORT, "smtp", BusyTransport.class.getName(),
+                "fuin.org", null));
+        BusyTransport.CHUNKS.clear();
+        try (final Spool spool = new Spool(dir, 1024, false)) {
+            spool.enqueue(new BatchRecord("Subject", "a@fuin.org;busy@fuin.org;bad@fuin.org", null, null, null));
+
+            try (final SpoolDrainer testee = new SpoolDrainer(config, spool)) {
+
+                // TEST
+                final int remaining = testee.drainOnce();
+
+                // VERIFY
+                assertThat(remaining).isEqualTo(1);
+                final List<SpoolEntry> pending = spool.pending();
+                assertThat(pending).hasSize(1);
+                assertThat(pending.get(0).getRecord().getReceiver()).isEqualTo("busy@fuin.org");
+                assertThat(pending.get(0).getRecord().getSubject()).isEqualTo("Subject");
+                assertThat(pending.get(0).getAttempts()).isEqualTo(1);
+
+                testee.drainUntilEmpty();
+                assertThat(BusyTransport.CHUNKS).containsExactly("a@fuin.org,busy@fuin.org,bad@fuin.org",
+                        "busy@fuin.org");
+                assertThat(testee.getDelivered()).isEqualTo(1);
+                assertThat(spool.pending()).isEmpty();
+            }
+        }
+
+    }
+
+    @Test
+    void testOnlyOneDrainer() {
+
+        final Config config = createConfig(25);
+        try (final Spool spool = new Spool(dir, 1024, false)) {
+            final SpoolDrainer drainer = new SpoolDrainer(config, spool);
+            try {
+                assertThatThrownBy(() -> new SpoolDrainer(config, spool)).isInstanceOf(IllegalStateException.class)
+                        .hasMessageContaining("Another drainer");
+            } finally {
+                drainer.close();
+            }
+        }
+
+    }
+
+    private static int freePort() throws IOException {
+        try (final ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private long segmentCount() throws IOException {
+        try (final Stream<Path> stream = Files.list(dir)) {
+            return stream.filter(path -> path.getFileName().toString().endsWith(".spool")).count();
+        }
+    }
+
+    private static Config createConfig(final int port) {
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(port);
+        config.setUser("myaccount");
+        config.setPw("mypw");
+        config.setFrom("test@fuin.org");
+        config.setMessage("Message");
+        config.setSmtp(true);
+        config.setTimeout(1000);
+        config.setNoauth(true);
+        config.setSpoolRetries(3);
+        return config;
+    }
+
+    /**
+     * Transport that rejects receivers starting with "bad" permanently and
+     * receivers starting with "busy" temporarily on the first attempt.
+     */
+    public static final class BusyTransport extends Transport {
+
+        static final List<String> CHUNKS = new CopyOnWriteArrayList<>();
+
+        public BusyTransport(final Session session, final URLName urlname) {
+            super(session, urlname);
+        }
+
+        @Override
+        protected boolean protocolConnect(final String host, final int port, final String user,
+                final String password) {
+            return true;
+        }
+
+        @Override
+        public void sendMessage(final Message msg, final Address[] addresses) throws MessagingException {
+            final boolean busy = CHUNKS.isEmpty();
+            CHUNKS.add(InternetAddress.toString(addresses).replace(", ", ","));
+            final List<Address> sent = new ArrayList<>();
+            final List<Address> unsent = new ArrayList<>();
+            final List<Address> invalid = new ArrayList<>();
+            MessagingException chain = null;
+            for (final Address address : addresses) {
+                final InternetAddress ia = (InternetAddress) address;
+                final MessagingException failure;
+                if (ia.getAddress().startsWith("bad")) {
+                    invalid.add(ia);
+                    failure = new SMTPAddressFailedException(ia, "RCPT TO", 550, "550 No such user");
+                } else if (busy && ia.getAddress().startsWith("busy")) {
+                    unsent.add(ia);
+                    failure = new SMTPAddressFailedException(ia, "RCPT TO", 450, "450 Mailbox busy");
+                } else {
+                    sent.add(ia);
+                    continue;
+                }
+                if (chain == null) {
+                    chain = failure;
+                } else {
+                    chain.setNextException(failure);
+                }
+            }
+            if (chain != null) {
+                throw new SendFailedException("Invalid Addresses", chain, sent.toArray(new Address[0]),
+                        unsent.toArray(new Address[0]), invalid.toArray(new Address[0]));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test for the {@link Template} class.
+ */
+class TemplateTest {
+
+    @Test
+    void testRender() {
+
+        // PREPARE
+        final List<String> names = new ArrayList<>();
+        final Template subject = Template.compile("Hello ${name}", names);
+        final Template message = Template.compile("${ greeting } ${name}, you owe ${amount} EUR.", names);
+
+        // TEST
+        final StringBuilder buf = new StringBuilder();
+        subject.render(buf, new String[] { "Jane", "Dear", "12.50" });
+        buf.append('|');
+        message.render(buf, new String[] { "Jane", "Dear", "12.50" });
+
+        // VERIFY
+        assertThat(names).containsExactly("name", "greeting", "amount");
+        assertThat(buf).hasToString("Hello Jane|Dear Jane, you owe 12.50 EUR.");
+
+    }
+
+    @Test
+    void testNoPlaceholders() {
+
+        final Template testee = Template.compile("Only text", new ArrayList<>());
+
+        final StringBuilder buf = new StringBuilder();
+        testee.render(buf, new String[0]);
+
+        assertThat(testee.hasPlaceholders()).isFalse();
+        assertThat(buf).hasToString("Only text");
+
+    }
+
+    @Test
+    void testEscaped() {
+
+        final List<String> names = new ArrayList<>();
+        final Template testee = Template.compile("Costs $5 $${notAPlaceholder} ${x}", names);
+
+        final StringBuilder buf = new StringBuilder();
+        testee.render(buf, new String[] { "X" });
+
+        assertThat(names).containsExactly("x");
+        assertThat(buf).hasToString("Costs $5 ${notAPlaceholder} X");
+
+    }
+
+    @Test
+    void testInvalid() {
+
+        assertThatThrownBy(() -> Template.compile("Hello ${name", new ArrayList<>()))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Unterminated");
+        assertThatThrownBy(() -> Template.compile("Hello ${ }", new ArrayList<>()))
+                .isInstanceOf(IllegalArgumentException.class).hasMessageContaining("Empty");
+
+    }
+
+}
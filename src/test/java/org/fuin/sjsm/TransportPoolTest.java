@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2015 Michael Schnell. All rights reserved.
+ * http://www.fuin.org/
+ * <p>
+ * This library is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Lesser General Public License as published by the Free
+ * Software Foundation; either version 3 of the License, or (at your option) any
+ * later version.
+ * <p>
+ * This library is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public License for more
+ * details.
+ * <p>
+ * You should have received a copy of the GNU Lesser General Public License
+ * along with this library. If not, see http://www.gnu.org/licenses/.
+ */
+package org.fuin.sjsm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.icegreen.greenmail.util.GreenMail;
+import com.icegreen.greenmail.util.ServerSetupTest;
+
+import jakarta.mail.MessagingException;
+
+/**
+ * Test for the {@link TransportPool} and {@link ParallelSender} classes.
+ */
+class TransportPoolTest {
+
+    private GreenMail greenMail;
+
+    @BeforeEach
+    void setUp() {
+        greenMail = new GreenMail(ServerSetupTest.SMTP.dynamicPort());
+        greenMail.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        greenMail.stop();
+    }
+
+    private Config createConfig() {
+        final Config config = new Config();
+        config.setHost("localhost");
+        config.setPort(greenMail.getSmtp().getPort());
+        config.setUser("myaccount");
+        config.setPw("mypw");
+        config.setFrom("test@fuin.org");
+        config.setSubject("Subject");
+        config.setMessage("Message");
+        config.setSmtp(true);
+        config.setTimeout(1000);
+        config.setNoauth(true);
+        return config;
+    }
+
+    @Test
+    void testBorrowReusesConnection() throws MessagingException {
+
+        // PREPARE
+        final Config config = createConfig();
+        final TransportKey key = TransportKey.of(config);
+
+        try (final TransportPool testee = new TransportPool(0, 2, 60000, 1000)) {
+
+            // TEST
+            final PooledTransport first = testee.borrow(config);
+            assertThat(first.getTransport().isConnected()).isTrue();
+            assertThat(testee.getIdleCount(key)).isZero();
+            first.close();
+            final PooledTransport second = testee.borrow(config);
+
+            // VERIFY
+            assertThat(second).isSameAs(first);
+            assertThat(testee.getOpenCount(key)).isEqualTo(1);
+            second.close();
+            assertThat(testee.getIdleCount(key)).isEqualTo(1);
+
+        }
+
+    }
+
+    @Test
+    void testBorrowTimeoutIfExhausted() throws MessagingException {
+
+        // PREPARE
+        final Config config = createConfig();
+
+        try (final TransportPool testee = new TransportPool(0, 1, 60000, 100)) {
+            try (final PooledTransport pooled = testee.borrow(config)) {
+                assertThat(pooled.getTransport().isConnected()).isTrue();
+
+                // TEST & VERIFY
+                assertThatThrownBy(() -> testee.borrow(config)).isInstanceOf(MessagingException.class)
+                        .hasMessageContaining("No pooled connection");
+
+            }
+        }
+
+    }
+
+    @Test
+    void testInvalidatedConnectionIsClosed() throws MessagingException {
+
+        // PREPARE
+        final Config config = createConfig();
+        final TransportKey key = TransportKey.of(config);
+
+        try (final TransportPool testee = new TransportPool(0, 2, 60000, 1000)) {
+            final PooledTransport pooled = testee.borrow(config);
+
+            // TEST
+            pooled.invalidate();
+            pooled.close();
+
+            // VERIFY
+            assertThat(pooled.getTransport().isConnected()).isFalse();
+            assertThat(testee.getOpenCount(key)).isZero();
+            assertThat(testee.getIdleCount(key)).isZero();
+
+        }
+
+    }
+
+    @Test
+    void testEvictKeepsMinimum() throws MessagingException {
+
+        // PREPARE
+        final Config config = createConfig();
+        final TransportKey key = TransportKey.of(config);
+
+        try (final TransportPool testee = new TransportPool(1, 3, 1, 1000)) {
+            final PooledTransport a = testee.borrow(config);
+            final PooledTransport b = testee.borrow(config);
+            final PooledTransport c = testee.borrow(config);
+            a.close();
+            b.close();
+            c.close();
+            assertThat(testee.getIdleCount(key)).isEqualTo(3);
+
+            // TEST
+            sleep(10);
+            testee.evict();
+
+            // VERIFY
+            assertThat(testee.getOpenCount(key)).isEqualTo(1);
+            assertThat(testee.getIdleCount(key)).isEqualTo(1);
+
+        }
+
+    }
+
+    @Test
+    void testParallelSender() throws IOException {
+
+        // PREPARE
+        final Config config = createConfig();
+        config.setPoolMax(4);
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            sb.append("{ \"to\": \"receiver" + i + "@fuin.org\" }\n");
+        }
+
+        try (final TransportPool pool = new TransportPool(config)) {
+            final ParallelSender testee = new ParallelSender(config, pool);
+
+            // TEST
+            testee.sendAll(new BufferedReader(new StringReader(sb.toString())));
+
+            // VERIFY
+            assertThat(testee.getSent()).isEqualTo(20);
+            assertThat(testee.getFailed()).isZero();
+            assertThat(pool.getOpenCount(TransportKey.of(config))).isBetween(1, 4);
+        }
+        assertThat(greenMail.getReceivedMessages()).hasSize(20);
+
+    }
+
+    private static void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (final InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}